@@ -75,6 +75,18 @@ public interface ChronicleQueue extends Closeable {
     @NotNull
     ExcerptAppender acquireAppender();
 
+    /**
+     * Lease an appender from a pool shared by all threads, for callers with many short lived
+     * threads which would each hold an appender of their own with {@link #acquireAppender()}.
+     * Waits for one to be returned if they are all leased.
+     *
+     * @return an Appender to close when done with.
+     */
+    @NotNull
+    default LeasedAppender leaseAppender() {
+        throw new UnsupportedOperationException();
+    }
+
     /**
      * @deprecated to be remove in version 4.6 or later use {@link ChronicleQueue#acquireAppender()}
      */
@@ -106,7 +118,8 @@ public interface ChronicleQueue extends Closeable {
     File file();
 
     /**
-     * Dump a Queue in YAML format.
+     * Dump a Queue in YAML format. This holds the whole queue in memory, so large queues should be
+     * dumped with {@link DumpQueueMain} instead.
      *
      * @return the contents of the Queue as YAML.
      */
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openhft.chronicle.queue;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.core.Jvm;
+import net.openhft.chronicle.core.util.StringUtils;
+import net.openhft.chronicle.queue.impl.RollingChronicleQueue;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder;
+import net.openhft.chronicle.threads.NamedThreadFactory;
+import net.openhft.chronicle.wire.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import static java.lang.System.err;
+import static java.lang.System.out;
+
+/**
+ * Searches the excerpts of a queue on a number of threads, unlike {@link ChronicleReader} which
+ * reads them one at a time.
+ * <p>
+ * The queue is split into ranges of indices, one per block of the secondary index in each cycle,
+ * so each range can be found without reading the ones before it. An excerpt is only turned into
+ * text if its raw bytes contain the literal given, and its fields match the predicates given, so
+ * most excerpts are never decoded. The literal is found in field names and text values, as these
+ * are written as UTF-8, but not numbers or other binary values.
+ * <p>
+ * Matches are passed on in the order of their indices.
+ */
+public class ChronicleSearch {
+    @NotNull
+    private final SingleChronicleQueueBuilder builder;
+    private final List<String> fieldNames = new ArrayList<>();
+    private final List<Predicate<ValueIn>> fieldPredicates = new ArrayList<>();
+    private int threads = Runtime.getRuntime().availableProcessors();
+    @Nullable
+    private byte[] literal;
+    @Nullable
+    private Pattern pattern;
+    private long fromIndex = Long.MIN_VALUE;
+    private long toIndex = Long.MAX_VALUE;
+    private long fromTime = Long.MIN_VALUE;
+    private long toTime = Long.MAX_VALUE;
+
+    public ChronicleSearch(@NotNull File basePath) {
+        this(SingleChronicleQueueBuilder.binary(basePath));
+    }
+
+    /**
+     * @param builder of the queue to search, with its roll cycle.
+     */
+    public ChronicleSearch(@NotNull SingleChronicleQueueBuilder builder) {
+        this.builder = builder;
+    }
+
+    public static void main(String... args) {
+        if (args.length < 1) {
+            err.println("Usage: java " + ChronicleSearch.class.getName() + " {chronicle-base-path}" +
+                    " [-rollCycle name] [-contains text] [-regex regex] [-field name=value]* [-from index] [-to index] [-threads n]");
+            System.exit(-1);
+        }
+
+        SingleChronicleQueueBuilder builder = SingleChronicleQueueBuilder.binary(new File(args[0]));
+        ChronicleSearch search = new ChronicleSearch(builder);
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "-rollCycle":
+                    builder.rollCycle(RollCycles.valueOf(value));
+                    break;
+                case "-contains":
+                    search.contains(value);
+                    break;
+                case "-regex":
+                    search.regex(value);
+                    break;
+                case "-field": {
+                    int eq = value.indexOf('=');
+                    String expected = value.substring(eq + 1);
+                    search.field(value.substring(0, eq), v -> expected.equals(v.text()));
+                    break;
+                }
+                case "-from":
+                    search.indexRange(Long.decode(value), search.toIndex);
+                    break;
+                case "-to":
+                    search.indexRange(search.fromIndex, Long.decode(value));
+                    break;
+                case "-threads":
+                    search.threads(Integer.parseInt(value));
+                    break;
+                default:
+                    err.println("Unknown option " + args[i]);
+                    System.exit(-1);
+            }
+        }
+        long matches = search.search((text, index) -> {
+            out.print("0x" + Long.toHexString(index) + ": ");
+            out.println(text);
+        });
+        err.println(matches + " matches");
+    }
+
+    /**
+     * Look for a byte sequence in the bytes remaining.
+     *
+     * @return the position it was found at, or -1 if not found.
+     */
+    static long indexOf(@NotNull Bytes<?> bytes, @NotNull byte[] literal) {
+        if (literal.length == 0)
+            return bytes.readPosition();
+        byte first = literal[0];
+        long last = bytes.readLimit() - literal.length;
+        outer:
+        for (long i = bytes.readPosition(); i <= last; i++) {
+            if (bytes.readByte(i) != first)
+                continue;
+            for (int j = 1; j < literal.length; j++)
+                if (bytes.readByte(i + j) != literal[j])
+                    continue outer;
+            return i;
+        }
+        return -1;
+    }
+
+    public ChronicleSearch threads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be at least 1");
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Only excerpts whose raw bytes contain this text are decoded.
+     */
+    public ChronicleSearch contains(@NotNull String text) {
+        this.literal = text.getBytes(StandardCharsets.UTF_8);
+        return this;
+    }
+
+    /**
+     * Only excerpts whose text form contains a match of this regex are matched.
+     */
+    public ChronicleSearch regex(@NotNull String regex) {
+        this.pattern = Pattern.compile(regex);
+        return this;
+    }
+
+    /**
+     * Only excerpts with a top level field of this name whose value matches are matched.
+     */
+    public ChronicleSearch field(@NotNull String name, @NotNull Predicate<ValueIn> predicate) {
+        if (fieldNames.size() >= Long.SIZE)
+            throw new IllegalArgumentException("At most " + Long.SIZE + " fields can be matched");
+        fieldNames.add(name);
+        fieldPredicates.add(predicate);
+        return this;
+    }
+
+    /**
+     * @param fromIndex the first index to search, inclusive
+     * @param toIndex   the last index to search, exclusive
+     */
+    public ChronicleSearch indexRange(long fromIndex, long toIndex) {
+        this.fromIndex = fromIndex;
+        this.toIndex = toIndex;
+        return this;
+    }
+
+    /**
+     * Only search the cycles which overlap a time range, as the time of each excerpt isn't
+     * recorded.
+     *
+     * @param fromTime in epoch milli-seconds, inclusive
+     * @param toTime   in epoch milli-seconds, exclusive
+     */
+    public ChronicleSearch timeRange(long fromTime, long toTime) {
+        this.fromTime = fromTime;
+        this.toTime = toTime;
+        return this;
+    }
+
+    /**
+     * @param matches is passed the text and index of each excerpt matched, in order.
+     * @return the number of excerpts matched.
+     */
+    public long search(@NotNull ObjLongConsumer<String> matches) {
+        try (RollingChronicleQueue queue = builder.build()) {
+            ExecutorService service = Executors.newFixedThreadPool(threads,
+                    new NamedThreadFactory(queue.file().getName() + "-search", true));
+            try {
+                List<Future<List<Match>>> futures = new ArrayList<>();
+                for (long[] range : ranges(queue))
+                    futures.add(service.submit(() -> searchRange(queue, range[0], range[1])));
+
+                long count = 0;
+                for (Future<List<Match>> future : futures) {
+                    for (Match match : future.get()) {
+                        matches.accept(match.text, match.index);
+                        count++;
+                    }
+                }
+                return count;
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+
+            } catch (ExecutionException e) {
+                throw Jvm.rethrow(e.getCause());
+
+            } finally {
+                service.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * @return the ranges of indices to search, from inclusive to exclusive, in order.
+     */
+    @NotNull
+    List<long[]> ranges(@NotNull RollingChronicleQueue queue) {
+        List<long[]> ranges = new ArrayList<>();
+        RollCycle rollCycle = queue.rollCycle();
+        long block = (long) queue.indexCount() * queue.indexSpacing();
+        long length = rollCycle.length();
+        int cycle = queue.firstCycle();
+        if (cycle > queue.lastCycle())
+            return ranges;
+        try {
+            for (; cycle >= 0; cycle = queue.nextCycle(cycle, TailerDirection.FORWARD)) {
+                long cycleStart = queue.epoch() + cycle * length;
+                if (cycleStart + length <= fromTime || cycleStart >= toTime)
+                    continue;
+                long lastSequence = queue.lastSequence(cycle);
+                for (long sequence = 0; sequence <= lastSequence; sequence += block) {
+                    long start = Math.max(fromIndex, rollCycle.toIndex(cycle, sequence));
+                    long end = Math.min(toIndex, rollCycle.toIndex(cycle, Math.min(sequence + block, lastSequence + 1)));
+                    if (start < end)
+                        ranges.add(new long[]{start, end});
+                }
+            }
+        } catch (ParseException e) {
+            throw new IllegalStateException(e);
+        }
+        return ranges;
+    }
+
+    @NotNull
+    private List<Match> searchRange(@NotNull ChronicleQueue queue, long start, long end) {
+        List<Match> matches = new ArrayList<>();
+        ExcerptTailer tailer = queue.createTailer();
+        if (!tailer.moveToIndex(start))
+            return matches;
+        Bytes<?> text = Bytes.allocateElasticDirect();
+        StringBuilder name = new StringBuilder();
+        try {
+            for (; ; ) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    if (!dc.isPresent() || dc.index() >= end)
+                        return matches;
+                    if (!dc.isData())
+                        continue;
+                    Bytes<?> bytes = dc.wire().bytes();
+                    if (literal != null && indexOf(bytes, literal) < 0)
+                        continue;
+                    if (!fieldPredicates.isEmpty() && !fieldsMatch(dc.wire(), name))
+                        continue;
+                    String str = toText(bytes, text);
+                    if (pattern != null && !pattern.matcher(str).find())
+                        continue;
+                    matches.add(new Match(dc.index(), str));
+                }
+            }
+        } finally {
+            text.release();
+        }
+    }
+
+    private boolean fieldsMatch(@NotNull Wire wire, @NotNull StringBuilder name) {
+        Bytes<?> bytes = wire.bytes();
+        long position = bytes.readPosition();
+        long matched = 0;
+        try {
+            while (bytes.readRemaining() > 0) {
+                ValueIn in = wire.readEventName(name);
+                long valuePosition = bytes.readPosition();
+                for (int i = 0; i < fieldNames.size(); i++) {
+                    if (!StringUtils.isEqual(name, fieldNames.get(i)))
+                        continue;
+                    if (!fieldPredicates.get(i).test(in))
+                        return false;
+                    matched |= 1L << i;
+                    // the predicate may have read any part of the value.
+                    bytes.readPosition(valuePosition);
+                }
+                in.skipValue();
+            }
+            return Long.bitCount(matched) == fieldNames.size();
+
+        } catch (RuntimeException e) {
+            // not a message of fields.
+            return false;
+
+        } finally {
+            bytes.readPosition(position);
+        }
+    }
+
+    @NotNull
+    private static String toText(@NotNull Bytes<?> bytes, @NotNull Bytes<?> text) {
+        byte b0 = bytes.readByte(bytes.readPosition());
+        if (b0 >= 0)
+            return bytes.toString();
+        text.clear();
+        new BinaryWire(bytes).copyTo(new TextWire(text));
+        return text.toString();
+    }
+
+    static class Match {
+        final long index;
+        final String text;
+
+        Match(long index, String text) {
+            this.index = index;
+            this.text = text;
+        }
+    }
+}
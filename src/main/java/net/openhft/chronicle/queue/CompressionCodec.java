@@ -0,0 +1,303 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.bytes.BytesStore;
+import net.openhft.chronicle.core.Maths;
+import net.openhft.chronicle.core.io.IORuntimeException;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.BufferUnderflowException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * How the data excerpts of a cycle are compressed. The ordinal of the codec is written before
+ * each excerpt, so new codecs are only ever added at the end.
+ */
+public enum CompressionCodec {
+    /**
+     * Not compressed.
+     */
+    NONE {
+        @Override
+        void compress(byte[] in, int length, @NotNull Bytes<?> to, @NotNull Scratch scratch) {
+            to.write(in, 0, length);
+        }
+
+        @Override
+        void uncompress(byte[] in, int length, byte[] out, int outLength, @NotNull Scratch scratch) {
+            if (length != outLength)
+                throw new IORuntimeException("Expected " + outLength + " bytes but was " + length);
+            System.arraycopy(in, 0, out, 0, length);
+        }
+    },
+    /**
+     * Deflate at its fastest level, which compresses more than LZF.
+     */
+    DEFLATE {
+        @Override
+        void compress(byte[] in, int length, @NotNull Bytes<?> to, @NotNull Scratch scratch) {
+            Deflater deflater = scratch.deflater();
+            deflater.reset();
+            deflater.setInput(in, 0, length);
+            deflater.finish();
+            byte[] out = scratch.out(Math.min(length, 64 << 10));
+            while (!deflater.finished()) {
+                int written = deflater.deflate(out);
+                to.write(out, 0, written);
+            }
+        }
+
+        @Override
+        void uncompress(byte[] in, int length, byte[] out, int outLength, @NotNull Scratch scratch) {
+            Inflater inflater = scratch.inflater();
+            inflater.reset();
+            inflater.setInput(in, 0, length);
+            int read = 0;
+            try {
+                while (read < outLength && !inflater.finished()) {
+                    int n = inflater.inflate(out, read, outLength - read);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                        break;
+                    read += n;
+                }
+            } catch (DataFormatException e) {
+                throw new IORuntimeException(e);
+            }
+            if (read != outLength)
+                throw new IORuntimeException("Expected " + outLength + " bytes but inflated " + read);
+        }
+    },
+    /**
+     * LZF, an LZ77 codec in pure Java, which is several times faster than deflate but compresses
+     * less.
+     */
+    LZF {
+        private static final int HASH_BITS = 14;
+        private static final int MAX_LITERAL = 1 << 5;
+        private static final int MAX_OFFSET = 1 << 13;
+        private static final int MAX_REFERENCE = (1 << 8) + (1 << 3);
+
+        private int hash(int h) {
+            return ((h * 2777) >> 9) & ((1 << HASH_BITS) - 1);
+        }
+
+        private int first(byte[] in, int pos) {
+            return (in[pos] << 8) | (in[pos + 1] & 255);
+        }
+
+        @Override
+        void compress(byte[] in, int length, @NotNull Bytes<?> to, @NotNull Scratch scratch) {
+            // a literal run of 32 costs one byte more.
+            byte[] out = scratch.out(length + (length >> 5) + 16);
+            int[] hashTable = scratch.hashTable(1 << HASH_BITS);
+            int inPos = 0, outPos = 1, literals = 0;
+            int future = length < 2 ? 0 : first(in, 0);
+            while (inPos < length - 4) {
+                byte p2 = in[inPos + 2];
+                future = (future << 8) | (p2 & 255);
+                int index = hash(future);
+                int ref = hashTable[index];
+                hashTable[index] = inPos;
+                int offset;
+                if (ref < inPos
+                        && ref > 0
+                        && (offset = inPos - ref - 1) < MAX_OFFSET
+                        && in[ref + 2] == p2
+                        && in[ref + 1] == (byte) (future >> 8)
+                        && in[ref] == (byte) (future >> 16)) {
+                    int maxLength = Math.min(length - inPos - 2, MAX_REFERENCE);
+                    // end the literal run, or drop the byte kept for it.
+                    if (literals == 0) {
+                        outPos--;
+                    } else {
+                        out[outPos - literals - 1] = (byte) (literals - 1);
+                        literals = 0;
+                    }
+                    int matched = 3;
+                    while (matched < maxLength && in[ref + matched] == in[inPos + matched])
+                        matched++;
+                    matched -= 2;
+                    if (matched < 7) {
+                        out[outPos++] = (byte) ((offset >> 8) + (matched << 5));
+                    } else {
+                        out[outPos++] = (byte) ((offset >> 8) + (7 << 5));
+                        out[outPos++] = (byte) (matched - 7);
+                    }
+                    out[outPos++] = (byte) offset;
+                    // the length of the next literal run.
+                    outPos++;
+                    inPos += matched;
+                    future = first(in, inPos);
+                    future = (future << 8) | (in[inPos + 2] & 255);
+                    hashTable[hash(future)] = inPos++;
+                    future = (future << 8) | (in[inPos + 2] & 255);
+                    hashTable[hash(future)] = inPos++;
+                } else {
+                    out[outPos++] = in[inPos++];
+                    literals++;
+                    if (literals == MAX_LITERAL) {
+                        out[outPos - literals - 1] = (byte) (literals - 1);
+                        literals = 0;
+                        outPos++;
+                    }
+                }
+            }
+            while (inPos < length) {
+                out[outPos++] = in[inPos++];
+                literals++;
+                if (literals == MAX_LITERAL) {
+                    out[outPos - literals - 1] = (byte) (literals - 1);
+                    literals = 0;
+                    outPos++;
+                }
+            }
+            out[outPos - literals - 1] = (byte) (literals - 1);
+            if (literals == 0)
+                outPos--;
+            to.write(out, 0, outPos);
+        }
+
+        @Override
+        void uncompress(byte[] in, int length, byte[] out, int outLength, @NotNull Scratch scratch) {
+            int inPos = 0, outPos = 0;
+            try {
+                while (outPos < outLength) {
+                    int control = in[inPos++] & 255;
+                    if (control < MAX_LITERAL) {
+                        control++;
+                        System.arraycopy(in, inPos, out, outPos, control);
+                        outPos += control;
+                        inPos += control;
+                    } else {
+                        int matched = control >> 5;
+                        if (matched == 7)
+                            matched += in[inPos++] & 255;
+                        matched += 2;
+                        int ref = outPos - ((control & 0x1f) << 8) - 1 - (in[inPos++] & 255);
+                        // may overlap the bytes being written, so one at a time.
+                        for (int i = 0; i < matched; i++)
+                            out[outPos++] = out[ref++];
+                    }
+                }
+            } catch (ArrayIndexOutOfBoundsException e) {
+                throw new IORuntimeException(e);
+            }
+            if (inPos != length)
+                throw new IORuntimeException("Expected " + length + " compressed bytes but read " + inPos);
+        }
+    };
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    /**
+     * Compress the bytes remaining to be read, prefixed with their length.
+     */
+    public void compress(@NotNull Bytes<?> from, @NotNull Bytes<?> to) {
+        long length = from.readRemaining();
+        compress(from, from.readPosition(), length, to);
+        from.readSkip(length);
+    }
+
+    /**
+     * Compress {@code length} bytes of {@code from} at {@code offset}, prefixed with their length,
+     * without a view or a read position to move.
+     */
+    public void compress(@NotNull BytesStore from, long offset, long length, @NotNull Bytes<?> to) {
+        Scratch scratch = SCRATCH.get();
+        int len = Maths.toUInt31(length);
+        byte[] in = scratch.in(len);
+        // a native store copies a word at a time where Bytes over it reads a byte at a time.
+        BytesStore store = from.bytesStore();
+        if (store == null || store.start() > offset || store.readLimit() < offset + len)
+            store = from;
+        for (int read = 0; read < len; ) {
+            int n = (int) store.read(offset + read, in, read, len - read);
+            if (n <= 0)
+                throw new BufferUnderflowException();
+            read += n;
+        }
+        to.writeInt(len);
+        compress(in, len, to, scratch);
+    }
+
+    /**
+     * Uncompress the bytes remaining to be read, written by {@link #compress(Bytes, Bytes)}.
+     *
+     * @throws IORuntimeException if they aren't a whole excerpt compressed with this codec.
+     */
+    public void uncompress(@NotNull Bytes<?> from, @NotNull Bytes<?> to) throws IORuntimeException {
+        Scratch scratch = SCRATCH.get();
+        int outLength = from.readInt();
+        if (outLength < 0)
+            throw new IORuntimeException("Invalid length " + outLength);
+        int length = Maths.toUInt31(from.readRemaining());
+        byte[] in = scratch.in(length);
+        from.read(in, 0, length);
+        byte[] out = scratch.out(outLength);
+        uncompress(in, length, out, outLength, scratch);
+        to.write(out, 0, outLength);
+    }
+
+    abstract void compress(byte[] in, int length, @NotNull Bytes<?> to, @NotNull Scratch scratch);
+
+    abstract void uncompress(byte[] in, int length, byte[] out, int outLength, @NotNull Scratch scratch)
+            throws IORuntimeException;
+
+    /**
+     * Buffers reused by the codecs on a thread, as the excerpts are often hundreds of KB.
+     */
+    static final class Scratch {
+        private byte[] in = {}, out = {};
+        private int[] hashTable;
+        private Deflater deflater;
+        private Inflater inflater;
+
+        byte[] in(int length) {
+            if (in.length < length)
+                in = new byte[Maths.nextPower2(length, 1 << 10)];
+            return in;
+        }
+
+        byte[] out(int length) {
+            if (out.length < length)
+                out = new byte[Maths.nextPower2(length, 1 << 10)];
+            return out;
+        }
+
+        int[] hashTable(int size) {
+            // entries left from other excerpts are only used if their bytes match.
+            if (hashTable == null)
+                hashTable = new int[size];
+            return hashTable;
+        }
+
+        Deflater deflater() {
+            if (deflater == null)
+                deflater = new Deflater(Deflater.BEST_SPEED);
+            return deflater;
+        }
+
+        Inflater inflater() {
+            if (inflater == null)
+                inflater = new Inflater();
+            return inflater;
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package net.openhft.chronicle.queue;
+
+import net.openhft.chronicle.wire.MessageHistory;
+import net.openhft.chronicle.wire.VanillaMessageHistory;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+
+/**
+ * Keeps the history of messages whose results are written later, so each result is written with
+ * the history of the message it is for. Otherwise a result would be written with the history of
+ * the last message read, and a restart after the last message written would skip the messages
+ * still waiting for their results.
+ * <p>
+ * Only used by the thread which reads the messages and writes the results.
+ */
+class DeferredHistories {
+    private final ArrayDeque<MessageHistory> spare = new ArrayDeque<>();
+
+    /**
+     * @return the history of the message being read, which is replaced with a spare for the next
+     * message.
+     */
+    @NotNull
+    MessageHistory detach() {
+        MessageHistory history = MessageHistory.get();
+        MessageHistory next = spare.poll();
+        if (next == null) {
+            VanillaMessageHistory vmh = new VanillaMessageHistory();
+            vmh.addSourceDetails(true);
+            next = vmh;
+        }
+        MessageHistory.set(next);
+        return history;
+    }
+
+    /**
+     * Write a result with the history of the message it is for, after which the history is reused.
+     */
+    void writeWith(@NotNull MessageHistory history, @NotNull Runnable write) {
+        MessageHistory current = MessageHistory.get();
+        MessageHistory.set(history);
+        try {
+            write.run();
+        } finally {
+            MessageHistory.set(current);
+            spare.add(history);
+        }
+    }
+}
@@ -17,68 +17,362 @@
 package net.openhft.chronicle.queue;
 
 import net.openhft.chronicle.bytes.MappedBytes;
+import net.openhft.chronicle.core.Jvm;
+import net.openhft.chronicle.queue.impl.RollingResourcesCache;
 import net.openhft.chronicle.queue.impl.single.SingleChronicleQueue;
+import net.openhft.chronicle.threads.NamedThreadFactory;
 import net.openhft.chronicle.wire.WireDumper;
+import net.openhft.chronicle.wire.Wires;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.PrintStream;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
 
 import static java.lang.System.err;
 
 /**
  * Created by Peter on 07/03/2016.
+ * <p>
+ * Dumps the files of a queue one excerpt at a time through a buffered writer, so memory use
+ * doesn't depend on the size of a cycle. The excerpts can be filtered by index range, which needs
+ * the roll cycle of the queue, and by whether they are data or meta-data.
+ * <p>
+ * The cycles can be dumped on a number of threads. The output of each is passed on in chunks, in
+ * the order of the cycles, and a thread stops once it has a few chunks waiting.
  */
 public class DumpQueueMain {
     static final String FILE = System.getProperty("file");
+    static final int BUFFER_SIZE = 1 << 20;
+    static final int CHUNK_SIZE = 64 << 10;
+    // the chunks a cycle can have waiting to be written, before its thread waits.
+    static final int MAX_PENDING_CHUNKS = 16;
+    private static final String NEW_LINE = System.lineSeparator();
+    private static final String END_OF_FILE = new String("# end of file");
 
-    public static void main(String[] args) throws FileNotFoundException {
-        dump(args[0]);
+    @Nullable
+    private RollCycle rollCycle;
+    private long epoch = 0;
+    private long fromIndex = Long.MIN_VALUE;
+    private long toIndex = Long.MAX_VALUE;
+    private boolean data = true;
+    private boolean metaData = true;
+    private int threads = 1;
+    private long upperLimit = Long.MAX_VALUE;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            err.println("Usage: java " + DumpQueueMain.class.getName() + " {path}" +
+                    " [-rollCycle name] [-epoch millis] [-from index] [-to index] [-type data|meta] [-threads n]");
+            System.exit(-1);
+        }
+        DumpQueueMain dumper = new DumpQueueMain();
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "-rollCycle":
+                    dumper.rollCycle(RollCycles.valueOf(value));
+                    break;
+                case "-epoch":
+                    dumper.epoch(Long.parseLong(value));
+                    break;
+                case "-from":
+                    dumper.indexRange(Long.decode(value), dumper.toIndex);
+                    break;
+                case "-to":
+                    dumper.indexRange(dumper.fromIndex, Long.decode(value));
+                    break;
+                case "-type":
+                    dumper.types(value.equals("data"), value.startsWith("meta"));
+                    break;
+                case "-threads":
+                    dumper.threads(Integer.parseInt(value));
+                    break;
+                default:
+                    err.println("Unknown option " + args[i]);
+                    System.exit(-1);
+            }
+        }
+        try (Writer out = writer()) {
+            dumper.dump(new File(args[0]), out);
+        }
     }
 
     public static void dump(String path) throws FileNotFoundException {
-        File path2 = new File(path);
-        PrintStream out = FILE == null ? System.out : new PrintStream(new File(FILE));
-        long upperLimit = Long.MAX_VALUE;
-        dump(path2, out, upperLimit);
+        try (Writer out = writer()) {
+            new DumpQueueMain().dump(new File(path), out);
+        } catch (FileNotFoundException e) {
+            throw e;
+        } catch (IOException e) {
+            err.println("Failed to dump " + path + " " + e);
+        }
     }
 
     public static void dump(File path, PrintStream out, long upperLimit) {
-        if (path.isDirectory()) {
-            File[] files = path.listFiles();
-            if (files == null)
-                err.println("Directory not found " + path);
+        dump(path, out, upperLimit, false);
+    }
 
-            for (File file : files)
-                dumpFile(file, out, upperLimit);
+    public static void dumpFile(File file, PrintStream out, long upperLimit) {
+        dump(file, out, upperLimit, true);
+    }
 
+    private static void dump(File path, PrintStream out, long upperLimit, boolean file) {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        try {
+            DumpQueueMain dumper = new DumpQueueMain().upperLimit(upperLimit);
+            if (file)
+                dumper.dumpFile(path, writer);
+            else
+                dumper.dump(path, writer);
+            writer.flush();
+        } catch (IOException ioe) {
+            err.println("Failed to dump " + path + " " + ioe);
+        }
+    }
+
+    @NotNull
+    private static Writer writer() throws FileNotFoundException {
+        OutputStream out = FILE == null ? new FileOutputStream(FileDescriptor.out) : new FileOutputStream(FILE);
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * The roll cycle of the queue, needed to filter by index.
+     */
+    public DumpQueueMain rollCycle(@NotNull RollCycle rollCycle) {
+        this.rollCycle = rollCycle;
+        return this;
+    }
+
+    public DumpQueueMain epoch(long epoch) {
+        this.epoch = epoch;
+        return this;
+    }
+
+    /**
+     * @param fromIndex the first index to include
+     * @param toIndex   the last index to include
+     */
+    public DumpQueueMain indexRange(long fromIndex, long toIndex) {
+        this.fromIndex = fromIndex;
+        this.toIndex = toIndex;
+        return this;
+    }
+
+    /**
+     * @param data     include data excerpts
+     * @param metaData include meta-data, such as headers and indices
+     */
+    public DumpQueueMain types(boolean data, boolean metaData) {
+        this.data = data;
+        this.metaData = metaData;
+        return this;
+    }
+
+    public DumpQueueMain threads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be at least 1");
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Stop dumping a file past this position.
+     */
+    public DumpQueueMain upperLimit(long upperLimit) {
+        this.upperLimit = upperLimit;
+        return this;
+    }
+
+    private boolean filtersByIndex() {
+        return fromIndex != Long.MIN_VALUE || toIndex != Long.MAX_VALUE;
+    }
+
+    /**
+     * Dump a queue file, or all the queue files in a directory in the order of their cycles.
+     */
+    public void dump(@NotNull File path, @NotNull Writer out) throws IOException {
+        if (!path.isDirectory()) {
+            dumpFile(path, out);
+            return;
+        }
+        File[] files = path.listFiles((dir, name) -> name.endsWith(SingleChronicleQueue.SUFFIX));
+        if (files == null) {
+            err.println("Directory not found " + path);
+            return;
+        }
+        // the names of the cycles sort in time order.
+        Arrays.sort(files);
+        if (threads <= 1 || files.length <= 1) {
+            for (File file : files)
+                dumpFile(file, out);
         } else {
-            dumpFile(path, out, upperLimit);
+            dumpInParallel(files, out);
         }
     }
 
-    public static void dumpFile(File file, PrintStream out, long upperLimit) {
-        if (file.getName().endsWith(SingleChronicleQueue.SUFFIX)) {
-            try (MappedBytes bytes = MappedBytes.mappedBytes(file, 4 << 20)) {
-                bytes.readLimit(bytes.realCapacity());
-                StringBuilder sb = new StringBuilder();
-                WireDumper dumper = WireDumper.of(bytes);
-                while (bytes.readRemaining() >= 4) {
-                    sb.setLength(0);
+    private void dumpInParallel(@NotNull File[] files, @NotNull Writer out) throws IOException {
+        ExecutorService service = Executors.newFixedThreadPool(threads,
+                new NamedThreadFactory("dump-queue", true));
+        try {
+            List<BlockingQueue<String>> outputs = new ArrayList<>();
+            List<Future<?>> futures = new ArrayList<>();
+            // submitted in order, so the next cycle to write is always being dumped.
+            for (File file : files) {
+                BlockingQueue<String> chunks = new ArrayBlockingQueue<>(MAX_PENDING_CHUNKS);
+                outputs.add(chunks);
+                futures.add(service.submit(() -> {
+                    try (ChunkWriter writer = new ChunkWriter(chunks)) {
+                        dumpFile(file, writer);
+                    }
+                    return null;
+                }));
+            }
+
+            for (int i = 0; i < files.length; i++) {
+                BlockingQueue<String> chunks = outputs.get(i);
+                for (String chunk; (chunk = chunks.take()) != END_OF_FILE; )
+                    out.write(chunk);
+                futures.get(i).get();
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            throw Jvm.rethrow(cause);
+
+        } finally {
+            service.shutdownNow();
+        }
+    }
+
+    /**
+     * Dump a queue file one excerpt at a time, skipping those filtered out without decoding
+     * them.
+     */
+    public void dumpFile(@NotNull File file, @NotNull Writer out) throws IOException {
+        if (!file.getName().endsWith(SingleChronicleQueue.SUFFIX))
+            return;
 
+        long firstIndex = Long.MIN_VALUE;
+        if (filtersByIndex()) {
+            if (rollCycle == null)
+                throw new IllegalStateException("The rollCycle is needed to filter by index");
+            int cycle = cycleOf(file);
+            firstIndex = rollCycle.toIndex(cycle, 0);
+            if (cycle < rollCycle.toCycle(fromIndex) || cycle > rollCycle.toCycle(toIndex))
+                return;
+        }
+
+        try (MappedBytes bytes = MappedBytes.mappedBytes(file, 4 << 20)) {
+            bytes.readLimit(bytes.realCapacity());
+            StringBuilder sb = new StringBuilder();
+            WireDumper dumper = WireDumper.of(bytes);
+            long sequence = 0;
+            while (bytes.readRemaining() >= 4) {
+                int header = bytes.readInt(bytes.readPosition());
+                boolean complete = Wires.isReady(header) && !Wires.isNotInitialized(header);
+                boolean isData = Wires.isData(header);
+                long index = firstIndex == Long.MIN_VALUE ? Long.MIN_VALUE : firstIndex + sequence;
+                if (complete && isData)
+                    sequence++;
+                if (complete && isData && index > toIndex)
+                    return;
+
+                if (complete && !included(isData, index)) {
+                    bytes.readSkip(4 + Wires.lengthOf(header));
+                } else {
+                    sb.setLength(0);
                     boolean last = dumper.dumpOne(sb);
-                    out.println(sb);
+                    out.append(sb).append(NEW_LINE);
                     if (last)
                         break;
-                    if (bytes.readPosition() > upperLimit) {
-                        out.println("# limit reached.");
-                        return;
-                    }
                 }
-            } catch (IOException ioe) {
-                err.println("Failed to read " + file + " " + ioe);
+                if (bytes.readPosition() > upperLimit) {
+                    out.append("# limit reached.").append(NEW_LINE);
+                    return;
+                }
             }
         }
     }
+
+    private boolean included(boolean isData, long index) {
+        if (!isData)
+            return metaData;
+        return data && (index == Long.MIN_VALUE || index >= fromIndex);
+    }
+
+    private int cycleOf(@NotNull File file) throws IOException {
+        assert rollCycle != null;
+        String name = file.getName();
+        String text = name.substring(0, name.length() - SingleChronicleQueue.SUFFIX.length());
+        RollingResourcesCache cache = new RollingResourcesCache(rollCycle, epoch,
+                n -> new File(file.getParentFile(), n + SingleChronicleQueue.SUFFIX),
+                f -> text);
+        try {
+            return cache.parseCount(text);
+        } catch (ParseException | RuntimeException e) {
+            throw new IOException("Unable to find the cycle of " + file + " for " + rollCycle, e);
+        }
+    }
+
+    /**
+     * Passes on what is written in chunks, waiting while there are too many not yet taken.
+     */
+    static class ChunkWriter extends Writer {
+        private final BlockingQueue<String> chunks;
+        private final StringBuilder chunk = new StringBuilder(CHUNK_SIZE);
+
+        ChunkWriter(BlockingQueue<String> chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public void write(@NotNull char[] cbuf, int off, int len) throws IOException {
+            chunk.append(cbuf, off, len);
+            if (chunk.length() >= CHUNK_SIZE)
+                flush();
+        }
+
+        @Override
+        public Writer append(CharSequence csq) throws IOException {
+            chunk.append(csq);
+            if (chunk.length() >= CHUNK_SIZE)
+                flush();
+            return this;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (chunk.length() == 0)
+                return;
+            put(chunk.toString());
+            chunk.setLength(0);
+        }
+
+        private void put(String s) throws InterruptedIOException {
+            try {
+                chunks.put(s);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            put(END_OF_FILE);
+        }
+    }
 }
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openhft.chronicle.queue;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Describes when the latest cycle file of a queue is forced to disk. Without one, writes reach
+ * the disk whenever the OS flushes the mapped pages.
+ * <p>
+ * Apart from {@link #none()}, a cycle is always forced once it has rolled, and may be forced more
+ * often by time or by the number of bytes written since the last sync.
+ */
+public class DurabilityPolicy {
+    private final boolean sync;
+    private long syncIntervalMS = Long.MAX_VALUE;
+    private long syncBytes = Long.MAX_VALUE;
+
+    private DurabilityPolicy(boolean sync) {
+        this.sync = sync;
+    }
+
+    /**
+     * @return a policy which leaves flushing to the OS.
+     */
+    @NotNull
+    public static DurabilityPolicy none() {
+        return new DurabilityPolicy(false);
+    }
+
+    /**
+     * @return a policy which forces each cycle when it rolls.
+     */
+    @NotNull
+    public static DurabilityPolicy onRoll() {
+        return new DurabilityPolicy(true);
+    }
+
+    @NotNull
+    public static DurabilityPolicy every(long duration, @NotNull TimeUnit unit) {
+        return onRoll().syncInterval(duration, unit);
+    }
+
+    @NotNull
+    public static DurabilityPolicy everyBytes(long syncBytes) {
+        return onRoll().syncBytes(syncBytes);
+    }
+
+    public boolean isNone() {
+        return !sync;
+    }
+
+    /**
+     * @param duration the longest time written data is left unsynced.
+     * @param unit     of the duration
+     * @return this
+     */
+    @NotNull
+    public DurabilityPolicy syncInterval(long duration, @NotNull TimeUnit unit) {
+        if (!sync)
+            throw new IllegalStateException("Nothing is synced with " + this);
+        if (duration <= 0)
+            throw new IllegalArgumentException("Invalid duration, must be positive");
+        this.syncIntervalMS = unit.toMillis(duration);
+        return this;
+    }
+
+    public long syncIntervalMS() {
+        return syncIntervalMS;
+    }
+
+    /**
+     * @param syncBytes the most bytes written to a cycle before it is synced.
+     * @return this
+     */
+    @NotNull
+    public DurabilityPolicy syncBytes(long syncBytes) {
+        if (!sync)
+            throw new IllegalStateException("Nothing is synced with " + this);
+        if (syncBytes <= 0)
+            throw new IllegalArgumentException("Invalid syncBytes, must be positive");
+        this.syncBytes = syncBytes;
+        return this;
+    }
+
+    public long syncBytes() {
+        return syncBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "DurabilityPolicy{" +
+                "sync=" + sync +
+                ", syncIntervalMS=" + syncIntervalMS +
+                ", syncBytes=" + syncBytes +
+                '}';
+    }
+}
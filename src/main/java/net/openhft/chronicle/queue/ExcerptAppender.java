@@ -66,6 +66,15 @@ public interface ExcerptAppender extends ExcerptCommon<ExcerptAppender>, Marshal
      */
     long lastIndexAppended();
 
+    /**
+     * @return the highest index known to be on disk, any index up to and including it will
+     * survive a crash of the machine. Long.MIN_VALUE if none is known to be.
+     * @see net.openhft.chronicle.queue.DurabilityPolicy
+     */
+    default long durableIndex() {
+        throw new UnsupportedOperationException();
+    }
+
     /**
      * @return the cycle this tailer is on, usually with chronicle-queue each cycle will have its
      * own unique data file to store the excerpt
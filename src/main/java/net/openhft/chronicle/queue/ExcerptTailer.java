@@ -112,4 +112,12 @@ public interface ExcerptTailer extends ExcerptCommon<ExcerptTailer>, Marshallabl
     default boolean readAfterReplicaAcknowledged() {
         return false;
     }
+
+    /**
+     * Release the cycle this tailer is on, so its file can be closed once nothing else is using
+     * it. The tailer can't be used afterwards.
+     */
+    default void close() {
+
+    }
 }
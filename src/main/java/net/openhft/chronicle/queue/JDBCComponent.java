@@ -1,60 +1,242 @@
 package net.openhft.chronicle.queue;
 
+import net.openhft.chronicle.core.io.Closeable;
 import net.openhft.chronicle.core.util.ThrowingSupplier;
+import net.openhft.chronicle.wire.MessageHistory;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by peter on 12/04/16.
+ * <p>
+ * Consecutive updates with the same SQL are batched, and executed together when a different
+ * statement is received, the batch is full, or {@link #flush()} is called, e.g. when there are no
+ * more messages for now. The result of each update is still reported separately, in order.
+ * Prepared statements are cached by their SQL.
+ * <p>
+ * A streamed query is written as batches of rows if the result is a {@link JDBCStreamingResult},
+ * reusing the same buffer for each batch.
  */
-public class JDBCComponent implements JDBCStatement {
+public class JDBCComponent implements JDBCStatement, Closeable {
+    static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+    static final int STATEMENT_CACHE_SIZE = 128;
+
     private final Connection connection;
     private final JDBCResult result;
+    private final int maxBatchSize;
+    private final Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+            if (size() <= STATEMENT_CACHE_SIZE)
+                return false;
+            closeQuietly(eldest.getValue());
+            return true;
+        }
+    };
+    private final List<Object[]> batchArgs = new ArrayList<>();
+    private final List<MessageHistory> batchHistories = new ArrayList<>();
+    private final DeferredHistories histories = new DeferredHistories();
+    private final List<Object> rowBuffer = new ArrayList<>();
+    @Nullable
+    private String batchUpdate;
 
     public JDBCComponent(ThrowingSupplier<Connection, SQLException> connectionSupplier, JDBCResult result) throws SQLException {
+        this(connectionSupplier, result, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    public JDBCComponent(ThrowingSupplier<Connection, SQLException> connectionSupplier, JDBCResult result, int maxBatchSize) throws SQLException {
         connection = connectionSupplier.get();
         this.result = result;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    private static void closeQuietly(@NotNull Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    private static void setArgs(@NotNull PreparedStatement ps, @NotNull Object[] args) throws SQLException {
+        for (int i = 0; i < args.length; i++)
+            ps.setObject(i + 1, args[i]);
     }
 
     @Override
     public void executeUpdate(String query, Object... args) {
-        try (PreparedStatement ps = connection.prepareStatement(query)) {
-            for (int i = 0; i < args.length; i++)
-                ps.setObject(i + 1, args[i]);
-            int count = ps.executeUpdate();
-            // record the count.
-            result.updateResult(count, query, args);
-        } catch (Throwable t) {
-            result.updateThrown(t, query, args);
-        }
+        if (batchUpdate != null && (!batchUpdate.equals(query) || batchArgs.size() >= maxBatchSize))
+            flush();
+        batchUpdate = query;
+        // the arguments can be reused by the caller before the batch is executed.
+        batchArgs.add(args.clone());
+        batchHistories.add(histories.detach());
+        if (maxBatchSize <= 1)
+            flush();
     }
 
     @Override
     public void executeQuery(String query, Object... args) {
-        try (PreparedStatement ps = connection.prepareStatement(query)) {
-            for (int i = 0; i < args.length; i++)
-                ps.setObject(i + 1, args[i]);
-            ResultSet resultSet = ps.executeQuery();
-            ResultSetMetaData metaData = resultSet.getMetaData();
-            int columnCount = metaData.getColumnCount();
-            List<String> headings = new ArrayList<>(columnCount);
-            for (int i = 1; i <= columnCount; i++)
-                headings.add(metaData.getColumnName(i));
-
-            List<List<Object>> rows = new ArrayList<>();
-            while (resultSet.next()) {
-                List<Object> row = new ArrayList<>(columnCount);
-                for (int i = 1; i <= columnCount; i++) {
-                    row.add(resultSet.getObject(i));
+        // the query can depend on the updates before it.
+        flush();
+        try {
+            PreparedStatement ps = statement(query);
+            setArgs(ps, args);
+            ps.setFetchSize(0);
+            try (ResultSet resultSet = ps.executeQuery()) {
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                int columnCount = metaData.getColumnCount();
+                List<String> headings = new ArrayList<>(columnCount);
+                for (int i = 1; i <= columnCount; i++)
+                    headings.add(metaData.getColumnName(i));
+
+                List<List<Object>> rows = new ArrayList<>();
+                while (resultSet.next()) {
+                    List<Object> row = new ArrayList<>(columnCount);
+                    for (int i = 1; i <= columnCount; i++) {
+                        row.add(resultSet.getObject(i));
+                    }
+                    rows.add(row);
                 }
-                rows.add(row);
+                result.queryResult(headings, rows, query, args);
             }
-            result.queryResult(headings, rows, query, args);
+        } catch (Throwable t) {
+            evict(query);
+            result.queryThrown(t, query, args);
+        }
+    }
 
+    @Override
+    public void streamQuery(int fetchSize, String query, Object... args) {
+        if (!(result instanceof JDBCStreamingResult)) {
+            executeQuery(query, args);
+            return;
+        }
+        JDBCStreamingResult streamingResult = (JDBCStreamingResult) result;
+        flush();
+        try {
+            PreparedStatement ps = statement(query);
+            setArgs(ps, args);
+            ps.setFetchSize(fetchSize);
+            try (ResultSet resultSet = ps.executeQuery()) {
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                int columnCount = metaData.getColumnCount();
+                List<String> headings = new ArrayList<>(columnCount);
+                for (int i = 1; i <= columnCount; i++)
+                    headings.add(metaData.getColumnName(i));
+                streamingResult.queryHeader(headings, query, args);
+
+                long rows = 0;
+                int batchSize = Math.max(1, fetchSize) * columnCount;
+                while (resultSet.next()) {
+                    for (int i = 1; i <= columnCount; i++)
+                        rowBuffer.add(resultSet.getObject(i));
+                    rows++;
+                    if (rowBuffer.size() >= batchSize) {
+                        streamingResult.queryRows(columnCount, rowBuffer);
+                        rowBuffer.clear();
+                    }
+                }
+                if (!rowBuffer.isEmpty())
+                    streamingResult.queryRows(columnCount, rowBuffer);
+                streamingResult.queryEnd(rows, query, args);
+            }
         } catch (Throwable t) {
+            evict(query);
             result.queryThrown(t, query, args);
+        } finally {
+            rowBuffer.clear();
+        }
+    }
+
+    /**
+     * Execute the updates batched so far, and report their results.
+     */
+    public void flush() {
+        String update = batchUpdate;
+        if (update == null)
+            return;
+        batchUpdate = null;
+        int reported = 0;
+        try {
+            PreparedStatement ps = statement(update);
+            if (batchArgs.size() == 1) {
+                setArgs(ps, batchArgs.get(0));
+                int count = ps.executeUpdate();
+                // record the count.
+                updateResult(reported++, count, update);
+                return;
+            }
+
+            for (Object[] args : batchArgs) {
+                setArgs(ps, args);
+                ps.addBatch();
+            }
+            int[] counts;
+            BatchUpdateException failed = null;
+            try {
+                counts = ps.executeBatch();
+            } catch (BatchUpdateException e) {
+                counts = e.getUpdateCounts();
+                failed = e;
+            }
+            for (; reported < batchArgs.size(); reported++) {
+                if (reported < counts.length && counts[reported] != Statement.EXECUTE_FAILED)
+                    updateResult(reported, counts[reported], update);
+                else
+                    updateThrown(reported, failed, update);
+            }
+        } catch (Throwable t) {
+            evict(update);
+            for (; reported < batchArgs.size(); reported++)
+                updateThrown(reported, t, update);
+        } finally {
+            batchArgs.clear();
+            batchHistories.clear();
+        }
+    }
+
+    private void updateResult(int n, long count, String update) {
+        Object[] args = batchArgs.get(n);
+        histories.writeWith(batchHistories.get(n), () -> result.updateResult(count, update, args));
+    }
+
+    private void updateThrown(int n, Throwable t, String update) {
+        Object[] args = batchArgs.get(n);
+        histories.writeWith(batchHistories.get(n), () -> result.updateThrown(t, update, args));
+    }
+
+    @NotNull
+    private PreparedStatement statement(String sql) throws SQLException {
+        PreparedStatement ps = statements.get(sql);
+        if (ps == null) {
+            ps = connection.prepareStatement(sql);
+            statements.put(sql, ps);
+        }
+        return ps;
+    }
+
+    // a statement which failed may no longer be valid.
+    private void evict(String sql) {
+        PreparedStatement ps = statements.remove(sql);
+        if (ps != null)
+            closeQuietly(ps);
+    }
+
+    @Override
+    public void close() {
+        flush();
+        for (PreparedStatement ps : statements.values())
+            closeQuietly(ps);
+        statements.clear();
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
         }
     }
 }
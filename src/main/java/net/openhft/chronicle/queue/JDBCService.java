@@ -5,31 +5,64 @@ import net.openhft.chronicle.core.util.ThrowingSupplier;
 import net.openhft.chronicle.threads.LongPauser;
 import net.openhft.chronicle.threads.NamedThreadFactory;
 import net.openhft.chronicle.threads.Pauser;
+import net.openhft.chronicle.wire.MessageHistory;
 import net.openhft.chronicle.wire.MethodReader;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.ToLongBiFunction;
 
 /**
  * Created by peter on 06/04/16.
+ * <p>
+ * The statements can be executed on a number of connections, each with its own thread, by giving
+ * a key for each statement. Statements with the same key are executed in order on the same
+ * connection, so statements which depend on each other must have the same key. The results are
+ * still written in the order of the statements, so the results of a streamed query are held
+ * until it ends.
  */
 public class JDBCService implements Closeable {
     private static final Logger LOGGER = LoggerFactory.getLogger(JDBCService.class);
     private final ChronicleQueue in;
     private final ChronicleQueue out;
     private final ExecutorService service;
+    // the most statements waiting for their results before no more are read.
+    private static final int MAX_OUTSTANDING = 10_000;
     private final ThrowingSupplier<Connection, SQLException> connectionSupplier;
+    private final int connections;
+    @Nullable
+    private final ToLongBiFunction<String, Object[]> partitionKey;
     private volatile boolean closed = false;
 
     public JDBCService(ChronicleQueue in, ChronicleQueue out, ThrowingSupplier<Connection, SQLException> connectionSupplier) throws SQLException {
+        this(in, out, connectionSupplier, 1, null);
+    }
+
+    /**
+     * @param connections  to execute statements on in parallel.
+     * @param partitionKey of each statement given its SQL and arguments, which chooses the
+     *                     connection it is executed on.
+     */
+    public JDBCService(ChronicleQueue in, ChronicleQueue out, ThrowingSupplier<Connection, SQLException> connectionSupplier,
+                       int connections, @Nullable ToLongBiFunction<String, Object[]> partitionKey) throws SQLException {
+        if (connections < 1)
+            throw new IllegalArgumentException("connections must be at least 1");
+        if (connections > 1 && partitionKey == null)
+            throw new IllegalArgumentException("A partitionKey is required for more than one connection");
         this.in = in;
         this.out = out;
         this.connectionSupplier = connectionSupplier;
+        this.connections = connections;
+        this.partitionKey = partitionKey;
 
         service = Executors.newSingleThreadExecutor(
                 new NamedThreadFactory(in.file().getName() + "-JDBCService", true));
@@ -39,21 +72,54 @@ public class JDBCService implements Closeable {
 
     void runLoop() {
         try {
-            JDBCResult result = out.acquireAppender()
-                    .methodWriterBuilder(JDBCResult.class)
+            JDBCStreamingResult result = out.acquireAppender()
+                    .methodWriterBuilder(JDBCStreamingResult.class)
                     .recordHistory(true)
                     .get();
-            JDBCComponent js = new JDBCComponent(connectionSupplier, result);
+            if (connections > 1)
+                runPartitioned(result);
+            else
+                runSingle(result);
+        } catch (Throwable t) {
+            LOGGER.warn("Run loop exited", t);
+        }
+    }
+
+    private void runSingle(JDBCStreamingResult result) throws SQLException {
+        JDBCComponent js = new JDBCComponent(connectionSupplier, result);
+        try {
             MethodReader reader = in.createTailer().afterLastWritten(out).methodReader(js);
             Pauser pauser = new LongPauser(50, 200, 1, 10, TimeUnit.MILLISECONDS);
             while (!closed) {
-                if (reader.readOne())
+                if (reader.readOne()) {
+                    pauser.reset();
+                } else {
+                    // nothing more to batch for now.
+                    js.flush();
+                    pauser.pause();
+                }
+            }
+        } finally {
+            js.close();
+        }
+    }
+
+    private void runPartitioned(JDBCStreamingResult result) throws SQLException, InterruptedException {
+        Partitions partitions = new Partitions(result);
+        try {
+            MethodReader reader = in.createTailer().afterLastWritten(out).methodReader(partitions);
+            Pauser pauser = new LongPauser(50, 200, 1, 10, TimeUnit.MILLISECONDS);
+            while (!closed) {
+                boolean busy = partitions.writeCompleted();
+                if (partitions.outstanding() < MAX_OUTSTANDING && reader.readOne())
+                    busy = true;
+                if (busy)
                     pauser.reset();
                 else
                     pauser.pause();
             }
-        } catch (Throwable t) {
-            LOGGER.warn("Run loop exited", t);
+        } finally {
+            partitions.close();
         }
     }
 
@@ -72,4 +138,191 @@ public class JDBCService implements Closeable {
     public MethodReader createReader(JDBCResult result) {
         return out.createTailer().methodReader(result);
     }
+
+    /**
+     * The outcome of a statement, completed by the worker which executes it.
+     */
+    static class Outcome {
+        final Consumer<JDBCStatement> statement;
+        final MessageHistory history;
+        @Nullable
+        volatile Consumer<JDBCStreamingResult> result;
+
+        Outcome(Consumer<JDBCStatement> statement, MessageHistory history) {
+            this.statement = statement;
+            this.history = history;
+        }
+    }
+
+    /**
+     * Executes the statements on the connection for their key, and writes the results in the
+     * order of the statements.
+     */
+    class Partitions implements JDBCStatement {
+        @NotNull
+        private final JDBCStreamingResult result;
+        private final List<Worker> workers = new ArrayList<>();
+        private final ExecutorService workerService;
+        private final ArrayDeque<Outcome> outcomes = new ArrayDeque<>();
+        private final DeferredHistories histories = new DeferredHistories();
+
+        Partitions(@NotNull JDBCStreamingResult result) throws SQLException {
+            this.result = result;
+            try {
+                for (int i = 0; i < connections; i++)
+                    workers.add(new Worker());
+            } catch (SQLException e) {
+                workers.forEach(w -> w.component.close());
+                throw e;
+            }
+            workerService = Executors.newFixedThreadPool(connections,
+                    new NamedThreadFactory(in.file().getName() + "-JDBCWorker", true));
+            workers.forEach(workerService::execute);
+            workerService.shutdown(); // stop when the workers exit.
+        }
+
+        @Override
+        public void executeQuery(String query, Object... args) {
+            Object[] args2 = args.clone();
+            submit(query, args2, s -> s.executeQuery(query, args2));
+        }
+
+        @Override
+        public void executeUpdate(String query, Object... args) {
+            Object[] args2 = args.clone();
+            submit(query, args2, s -> s.executeUpdate(query, args2));
+        }
+
+        @Override
+        public void streamQuery(int fetchSize, String query, Object... args) {
+            Object[] args2 = args.clone();
+            submit(query, args2, s -> s.streamQuery(fetchSize, query, args2));
+        }
+
+        private void submit(String query, Object[] args, Consumer<JDBCStatement> statement) {
+            assert partitionKey != null;
+            long key = partitionKey.applyAsLong(query, args);
+            Worker worker = workers.get((int) Math.floorMod(key, (long) workers.size()));
+            Outcome outcome = new Outcome(statement, histories.detach());
+            outcomes.add(outcome);
+            worker.statements.add(outcome);
+        }
+
+        int outstanding() {
+            return outcomes.size();
+        }
+
+        /**
+         * @return true if any results were written.
+         */
+        boolean writeCompleted() {
+            boolean busy = false;
+            for (Outcome outcome; (outcome = outcomes.peek()) != null; ) {
+                Consumer<JDBCStreamingResult> completed = outcome.result;
+                if (completed == null)
+                    break;
+                outcomes.poll();
+                histories.writeWith(outcome.history, () -> completed.accept(result));
+                busy = true;
+            }
+            return busy;
+        }
+
+        /**
+         * Wait for the statements read to be executed, and write their results.
+         */
+        void close() throws InterruptedException {
+            workers.forEach(w -> w.stopped = true);
+            if (!workerService.awaitTermination(10, TimeUnit.SECONDS))
+                LOGGER.warn("Workers still executing after 10 seconds");
+            writeCompleted();
+        }
+
+        class Worker implements Runnable, JDBCStreamingResult {
+            final BlockingQueue<Outcome> statements = new LinkedBlockingQueue<>();
+            // statements executed, waiting for their results, in order.
+            final ArrayDeque<Outcome> executing = new ArrayDeque<>();
+            final JDBCComponent component;
+            // the results of a streamed query so far, written when it ends.
+            final List<Consumer<JDBCStreamingResult>> streamed = new ArrayList<>();
+            volatile boolean stopped = false;
+
+            Worker() throws SQLException {
+                component = new JDBCComponent(connectionSupplier, this);
+            }
+
+            @Override
+            public void run() {
+                try {
+                    while (!stopped || !statements.isEmpty()) {
+                        Outcome outcome = statements.poll(1, TimeUnit.MILLISECONDS);
+                        if (outcome == null) {
+                            component.flush();
+                            continue;
+                        }
+                        executing.add(outcome);
+                        outcome.statement.accept(component);
+                        // nothing more to batch for now.
+                        if (statements.isEmpty())
+                            component.flush();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Throwable t) {
+                    LOGGER.warn("Worker exited", t);
+                } finally {
+                    component.close();
+                }
+            }
+
+            private void complete(Consumer<JDBCStreamingResult> result) {
+                executing.remove().result = result;
+            }
+
+            @Override
+            public void queryResult(List<String> columns, List<List<Object>> rows, String query, Object... args) {
+                complete(r -> r.queryResult(columns, rows, query, args));
+            }
+
+            @Override
+            public void queryThrown(Throwable t, String query, Object... args) {
+                streamed.add(r -> r.queryThrown(t, query, args));
+                completeStreamed();
+            }
+
+            @Override
+            public void queryHeader(List<String> columns, String query, Object... args) {
+                streamed.add(r -> r.queryHeader(columns, query, args));
+            }
+
+            @Override
+            public void queryRows(int columns, List<Object> values) {
+                // the values are reused for the next batch.
+                List<Object> copy = new ArrayList<>(values);
+                streamed.add(r -> r.queryRows(columns, copy));
+            }
+
+            @Override
+            public void queryEnd(long rows, String query, Object... args) {
+                streamed.add(r -> r.queryEnd(rows, query, args));
+                completeStreamed();
+            }
+
+            private void completeStreamed() {
+                List<Consumer<JDBCStreamingResult>> results = new ArrayList<>(streamed);
+                streamed.clear();
+                complete(r -> results.forEach(c -> c.accept(r)));
+            }
+
+            @Override
+            public void updateResult(long count, String update, Object... args) {
+                complete(r -> r.updateResult(count, update, args));
+            }
+
+            @Override
+            public void updateThrown(Throwable t, String update, Object... args) {
+                complete(r -> r.updateThrown(t, update, args));
+            }
+        }
+    }
 }
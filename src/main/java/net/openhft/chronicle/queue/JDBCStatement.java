@@ -6,5 +6,11 @@ package net.openhft.chronicle.queue;
 public interface JDBCStatement {
     void executeQuery(String query, Object... args);
 
+    /**
+     * Execute a query whose results are written as a {@link JDBCStreamingResult}, in batches of
+     * up to fetchSize rows.
+     */
+    void streamQuery(int fetchSize, String query, Object... args);
+
     void executeUpdate(String query, Object... args);
 }
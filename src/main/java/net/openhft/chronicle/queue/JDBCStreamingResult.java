@@ -0,0 +1,21 @@
+package net.openhft.chronicle.queue;
+
+import java.util.List;
+
+/**
+ * The results of {@link JDBCStatement#streamQuery(int, String, Object...)}, written as a header,
+ * any number of batches of rows and an end, so a large result is never held in memory or written
+ * as one excerpt. A query which fails after its header is followed by queryThrown instead of
+ * queryEnd.
+ */
+public interface JDBCStreamingResult extends JDBCResult {
+    void queryHeader(List<String> columns, String query, Object... args);
+
+    /**
+     * @param columns in each row
+     * @param values  of the rows in the batch, one row after another.
+     */
+    void queryRows(int columns, List<Object> values);
+
+    void queryEnd(long rows, String query, Object... args);
+}
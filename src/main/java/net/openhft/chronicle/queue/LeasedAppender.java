@@ -0,0 +1,31 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue;
+
+import net.openhft.chronicle.core.io.Closeable;
+
+/**
+ * An appender leased from a bounded pool by {@link ChronicleQueue#leaseAppender()}, rather than
+ * one held by each thread. It can be passed between threads, but only used by one at a time, and
+ * is returned to the pool on {@link #close()}, after which it can't be used.
+ */
+public interface LeasedAppender extends ExcerptAppender, Closeable {
+    /**
+     * Return the appender to the pool.
+     */
+    @Override
+    void close();
+}
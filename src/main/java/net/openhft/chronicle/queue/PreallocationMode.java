@@ -0,0 +1,27 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openhft.chronicle.queue;
+
+/**
+ * How far a queue prepares the current cycle file ahead of the appenders. The expected size of a
+ * cycle is taken from the final sizes of the previous cycles.
+ */
+public enum PreallocationMode {
+    NONE, // the file grows a chunk at a time as the appender reaches it.
+    SPARSE, // grow the file and map its chunks up to the expected size in the background.
+    TOUCH // as SPARSE, and write to every page so the filesystem allocates the blocks.
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Describes which cycles of a queue to keep. The latest cycles are kept up to the first which
+ * falls outside one of the limits, and that cycle and all older ones are deleted. The latest
+ * cycle is always kept, and a cycle which is in use in this process holds back the deletion of
+ * it and the cycles after it.
+ */
+public class RetentionPolicy {
+    private int maxCycles = Integer.MAX_VALUE;
+    private long maxBytes = Long.MAX_VALUE;
+    private long maxAgeMS = Long.MAX_VALUE;
+    private int uncompressedCycles = Integer.MAX_VALUE;
+    private long checkIntervalMS = 1000;
+
+    @NotNull
+    public static RetentionPolicy keepCycles(int maxCycles) {
+        return new RetentionPolicy().maxCycles(maxCycles);
+    }
+
+    @NotNull
+    public static RetentionPolicy keepBytes(long maxBytes) {
+        return new RetentionPolicy().maxBytes(maxBytes);
+    }
+
+    @NotNull
+    public static RetentionPolicy keepFor(long duration, @NotNull TimeUnit unit) {
+        return new RetentionPolicy().maxAge(duration, unit);
+    }
+
+    /**
+     * @param maxCycles the number of the most recent cycles to keep.
+     * @return this
+     */
+    @NotNull
+    public RetentionPolicy maxCycles(int maxCycles) {
+        if (maxCycles < 1)
+            throw new IllegalArgumentException("Invalid maxCycles, must keep at least one cycle");
+        this.maxCycles = maxCycles;
+        return this;
+    }
+
+    public int maxCycles() {
+        return maxCycles;
+    }
+
+    /**
+     * @param maxBytes the total size of the most recent cycle files to keep.
+     * @return this
+     */
+    @NotNull
+    public RetentionPolicy maxBytes(long maxBytes) {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("Invalid maxBytes, must be positive");
+        this.maxBytes = maxBytes;
+        return this;
+    }
+
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @param duration how long to keep a cycle after it has ended.
+     * @param unit     of the duration
+     * @return this
+     */
+    @NotNull
+    public RetentionPolicy maxAge(long duration, @NotNull TimeUnit unit) {
+        if (duration <= 0)
+            throw new IllegalArgumentException("Invalid duration, must be positive");
+        this.maxAgeMS = unit.toMillis(duration);
+        return this;
+    }
+
+    public long maxAgeMS() {
+        return maxAgeMS;
+    }
+
+    /**
+     * @param uncompressedCycles the number of the most recent cycles to leave uncompressed, older
+     *                           cycles which are kept are compressed.
+     * @return this
+     */
+    @NotNull
+    public RetentionPolicy compressAfterCycles(int uncompressedCycles) {
+        if (uncompressedCycles < 1)
+            throw new IllegalArgumentException("Invalid uncompressedCycles, the latest cycle can't be compressed");
+        this.uncompressedCycles = uncompressedCycles;
+        return this;
+    }
+
+    public int uncompressedCycles() {
+        return uncompressedCycles;
+    }
+
+    /**
+     * @param checkIntervalMS how often the cycles are checked.
+     * @return this
+     */
+    @NotNull
+    public RetentionPolicy checkIntervalMS(long checkIntervalMS) {
+        this.checkIntervalMS = checkIntervalMS;
+        return this;
+    }
+
+    public long checkIntervalMS() {
+        return checkIntervalMS;
+    }
+
+    @Override
+    public String toString() {
+        return "RetentionPolicy{" +
+                "maxCycles=" + maxCycles +
+                ", maxBytes=" + maxBytes +
+                ", maxAgeMS=" + maxAgeMS +
+                ", uncompressedCycles=" + uncompressedCycles +
+                ", checkIntervalMS=" + checkIntervalMS +
+                '}';
+    }
+}
@@ -20,8 +20,15 @@ import net.openhft.chronicle.core.Maths;
 public enum RollCycles implements RollCycle {
     TEST_SECONDLY("yyyyMMdd-HHmmss", 1000, 1 << 15, 4), // only good for testing
     MINUTELY("yyyyMMdd-HHmm", 60 * 1000, 2 << 10, 16), // 64 million entries per minute
+    FIVE_MINUTELY("yyyyMMdd-HHmm", 5 * 60 * 1000, 2 << 10, 16), // 64 million entries per five minutes
+    TEN_MINUTELY("yyyyMMdd-HHmm", 10 * 60 * 1000, 2 << 10, 16), // 64 million entries per ten minutes
+    FIFTEEN_MINUTELY("yyyyMMdd-HHmm", 15 * 60 * 1000, 4 << 10, 16), // 256 million entries per fifteen minutes
+    HALF_HOURLY("yyyyMMdd-HHmm", 30 * 60 * 1000, 4 << 10, 16), // 256 million entries per half hour
     TEST_HOURLY("yyyyMMdd-HH", 60 * 60 * 1000, 16, 4), // 512 entries per hour.
     HOURLY("yyyyMMdd-HH", 60 * 60 * 1000, 4 << 10, 16), // 256 million entries per hour.
+    TWO_HOURLY("yyyyMMdd-HH", 2 * 60 * 60 * 1000, 4 << 10, 16), // 256 million entries per two hours.
+    FOUR_HOURLY("yyyyMMdd-HH", 4 * 60 * 60 * 1000, 8 << 10, 16), // 1 billion entries per four hours.
+    SIX_HOURLY("yyyyMMdd-HH", 6 * 60 * 60 * 1000, 8 << 10, 16), // 1 billion entries per six hours.
     TEST_DAILY("yyyyMMdd", 24 * 60 * 60 * 1000, 8, 1), // Only good for testing
     TEST2_DAILY("yyyyMMdd", 24 * 60 * 60 * 1000, 16, 2), // Only good for testing
     TEST4_DAILY("yyyyMMdd", 24 * 60 * 60 * 1000, 32, 4), // Only good for testing
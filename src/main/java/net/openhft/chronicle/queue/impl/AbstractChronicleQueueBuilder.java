@@ -24,6 +24,10 @@ import net.openhft.chronicle.core.time.SystemTimeProvider;
 import net.openhft.chronicle.core.time.TimeProvider;
 import net.openhft.chronicle.queue.ChronicleQueue;
 import net.openhft.chronicle.queue.ChronicleQueueBuilder;
+import net.openhft.chronicle.queue.CompressionCodec;
+import net.openhft.chronicle.queue.DurabilityPolicy;
+import net.openhft.chronicle.queue.PreallocationMode;
+import net.openhft.chronicle.queue.RetentionPolicy;
 import net.openhft.chronicle.queue.RollCycle;
 import net.openhft.chronicle.queue.RollCycles;
 import net.openhft.chronicle.queue.impl.single.StoreRecoveryFactory;
@@ -71,6 +75,24 @@ public abstract class AbstractChronicleQueueBuilder<B extends ChronicleQueueBuil
     private WireStoreFactory storeFactory;
     private int sourceId = 0;
     private StoreRecoveryFactory recoverySupplier = TimedStoreRecovery.FACTORY;
+    private long maxCycleBytes = Long.MAX_VALUE;
+    private long maxCycleExcerpts = Long.MAX_VALUE;
+    @Nullable
+    private RetentionPolicy retentionPolicy;
+    @NotNull
+    private PreallocationMode preallocationMode = PreallocationMode.NONE;
+    private boolean unmapConsumedChunks = false;
+    @NotNull
+    private DurabilityPolicy durabilityPolicy = DurabilityPolicy.none();
+    private boolean recoverOnOpen = false;
+    private int fixedLength = 0;
+    private int excerptAlignment = 0;
+    private int slabSize = 0;
+    private int appenderPoolSize = Runtime.getRuntime().availableProcessors();
+    private long leaseTimeoutMS = 10_000; // 10 seconds.
+    @NotNull
+    private CompressionCodec compression = CompressionCodec.NONE;
+    private int compressionThreshold = 1 << 10;
     private StoreFileListener storeFileListener = (cycle, file) -> {
         Jvm.debug().on(getClass(), "File released " + file);
     };
@@ -335,6 +357,259 @@ public abstract class AbstractChronicleQueueBuilder<B extends ChronicleQueueBuil
         return (B) this;
     }
 
+    /**
+     * Roll to the next cycle early once the current cycle file holds at least this many bytes.
+     * <p>
+     * An early roll uses the next cycle number, so pick a roll cycle fine grained enough to leave
+     * spare cycles, e.g. MINUTELY or FIVE_MINUTELY rather than DAILY.
+     *
+     * @param maxCycleBytes the size of a cycle in bytes which triggers a roll.
+     * @return this
+     */
+    public B maxCycleBytes(long maxCycleBytes) {
+        if (maxCycleBytes <= 0)
+            throw new IllegalArgumentException("Invalid maxCycleBytes, must be positive");
+        this.maxCycleBytes = maxCycleBytes;
+        return (B) this;
+    }
+
+    public long maxCycleBytes() {
+        return maxCycleBytes;
+    }
+
+    /**
+     * Roll to the next cycle early once the current cycle holds this many excerpts.
+     *
+     * @param maxCycleExcerpts the number of excerpts in a cycle which triggers a roll.
+     * @return this
+     * @see #maxCycleBytes(long)
+     */
+    public B maxCycleExcerpts(long maxCycleExcerpts) {
+        if (maxCycleExcerpts <= 0)
+            throw new IllegalArgumentException("Invalid maxCycleExcerpts, must be positive");
+        this.maxCycleExcerpts = maxCycleExcerpts;
+        return (B) this;
+    }
+
+    public long maxCycleExcerpts() {
+        return maxCycleExcerpts;
+    }
+
+    /**
+     * Delete old cycles according to a policy. This runs on the {@link #eventLoop()} if one is
+     * set, otherwise the queue starts its own.
+     *
+     * @param retentionPolicy which cycles to keep, or null to keep all of them.
+     * @return this
+     */
+    public B retentionPolicy(@Nullable RetentionPolicy retentionPolicy) {
+        this.retentionPolicy = retentionPolicy;
+        return (B) this;
+    }
+
+    @Nullable
+    public RetentionPolicy retentionPolicy() {
+        return retentionPolicy;
+    }
+
+    /**
+     * Grow the latest cycle file ahead of the appenders, sized from the previous cycles. This
+     * runs on the {@link #eventLoop()} if one is set, otherwise the queue starts its own.
+     *
+     * @param preallocationMode how much to prepare ahead of the appenders.
+     * @return this
+     */
+    public B preallocationMode(@NotNull PreallocationMode preallocationMode) {
+        this.preallocationMode = preallocationMode;
+        return (B) this;
+    }
+
+    @NotNull
+    public PreallocationMode preallocationMode() {
+        return preallocationMode;
+    }
+
+    /**
+     * Unmap the chunks of a cycle file as soon as every reader and appender has moved past them,
+     * rather than when the cycle is released. Chunks mapped this way also count towards the
+     * process wide {@link net.openhft.chronicle.queue.impl.single.MappedMemoryBudget}.
+     *
+     * @param unmapConsumedChunks whether to unmap chunks which are no longer in use.
+     * @return this
+     */
+    public B unmapConsumedChunks(boolean unmapConsumedChunks) {
+        this.unmapConsumedChunks = unmapConsumedChunks;
+        return (B) this;
+    }
+
+    public boolean unmapConsumedChunks() {
+        return unmapConsumedChunks;
+    }
+
+    /**
+     * Force the latest cycle file to disk in the background, rather than leaving it to the OS.
+     * This runs on the {@link #eventLoop()} if one is set, otherwise the queue starts its own.
+     *
+     * @param durabilityPolicy when to sync the cycle being written to.
+     * @return this
+     */
+    public B durabilityPolicy(@NotNull DurabilityPolicy durabilityPolicy) {
+        this.durabilityPolicy = durabilityPolicy;
+        return (B) this;
+    }
+
+    @NotNull
+    public DurabilityPolicy durabilityPolicy() {
+        return durabilityPolicy;
+    }
+
+    /**
+     * Scan the end of the latest cycle when the queue is opened, clearing any message left not
+     * complete by a writer which died, so the first append doesn't wait for it to time out. Only
+     * use this when no other process is writing to the queue as it is opened.
+     *
+     * @param recoverOnOpen whether to recover the latest cycle on open.
+     * @return this
+     */
+    public B recoverOnOpen(boolean recoverOnOpen) {
+        this.recoverOnOpen = recoverOnOpen;
+        return (B) this;
+    }
+
+    public boolean recoverOnOpen() {
+        return recoverOnOpen;
+    }
+
+    /**
+     * Pad every excerpt in the cycles created to the same length, so an excerpt is found from
+     * its index alone and no index is written. Excerpts longer than this are rejected, and meta
+     * data can't be written. Cycles which already exist keep the layout they were created with.
+     *
+     * @param fixedLength of every excerpt, not including its header, or 0 for any length.
+     * @return this
+     */
+    public B fixedLength(int fixedLength) {
+        if (fixedLength < 0)
+            throw new IllegalArgumentException("fixedLength: " + fixedLength);
+        this.fixedLength = fixedLength;
+        return (B) this;
+    }
+
+    public int fixedLength() {
+        return fixedLength;
+    }
+
+    /**
+     * Start every excerpt on a boundary of this many bytes, e.g. 64 so a reader never shares a
+     * cache line with the next excerpt being written, or 128 where adjacent lines are prefetched
+     * together. Each excerpt is padded to the next boundary, and a meta data record of padding is
+     * added after anything else which ends off one, e.g. the header or an index. Ignored for
+     * cycles with a fixed length.
+     *
+     * @param excerptAlignment a power of two of at least 8, or 0 for no alignment.
+     * @return this
+     */
+    public B excerptAlignment(int excerptAlignment) {
+        if (excerptAlignment != 0 && (excerptAlignment < 8 || Integer.bitCount(excerptAlignment) != 1))
+            throw new IllegalArgumentException("excerptAlignment: " + excerptAlignment);
+        this.excerptAlignment = excerptAlignment;
+        return (B) this;
+    }
+
+    public int excerptAlignment() {
+        return excerptAlignment;
+    }
+
+    /**
+     * Have each appender write its excerpts to a private slab of about this many bytes, and
+     * publish the slab to the queue in one go when it is full, the appender has been idle for a
+     * millisecond, its lastIndexAppended() is called or the queue is closed. Appenders then
+     * contend on the end of the queue once per slab rather than once per excerpt, but an excerpt
+     * is only seen by tailers, and given an index and cycle, once its slab is published.
+     * <p>
+     * Can't be combined with a fixed length, excerpt alignment or compression, and can't be
+     * larger than a quarter of the block size.
+     *
+     * @param slabSize in bytes, or 0 to write every excerpt to the queue directly.
+     * @return this
+     */
+    public B slabSize(int slabSize) {
+        if (slabSize < 0 || slabSize > 1 << 30)
+            throw new IllegalArgumentException("slabSize: " + slabSize);
+        this.slabSize = slabSize;
+        return (B) this;
+    }
+
+    public int slabSize() {
+        return slabSize;
+    }
+
+    /**
+     * @param appenderPoolSize the most appenders leased with leaseAppender() at once.
+     * @return this
+     */
+    public B appenderPoolSize(int appenderPoolSize) {
+        if (appenderPoolSize <= 0)
+            throw new IllegalArgumentException("appenderPoolSize: " + appenderPoolSize);
+        this.appenderPoolSize = appenderPoolSize;
+        return (B) this;
+    }
+
+    public int appenderPoolSize() {
+        return appenderPoolSize;
+    }
+
+    /**
+     * @param leaseTimeoutMS how long leaseAppender() waits for an appender to be returned when
+     *                       they are all leased, or 0 to fail straight away.
+     * @return this
+     */
+    public B leaseTimeoutMS(long leaseTimeoutMS) {
+        if (leaseTimeoutMS < 0)
+            throw new IllegalArgumentException("leaseTimeoutMS: " + leaseTimeoutMS);
+        this.leaseTimeoutMS = leaseTimeoutMS;
+        return (B) this;
+    }
+
+    public long leaseTimeoutMS() {
+        return leaseTimeoutMS;
+    }
+
+    /**
+     * Compress the data excerpts of at least the compression threshold in the cycles created, e.g.
+     * with LZW for deflate, and decompress them again as they are read. Every data excerpt in
+     * such a cycle starts with a byte for how it was compressed, which tailers skip. Cycles which
+     * already exist keep the codec they were created with. Can't be combined with a fixed length
+     * or slab size.
+     *
+     * @param compression the codec, or NONE.
+     * @return this
+     */
+    public B compression(@NotNull CompressionCodec compression) {
+        this.compression = compression;
+        return (B) this;
+    }
+
+    @NotNull
+    public CompressionCodec compression() {
+        return compression;
+    }
+
+    /**
+     * @param compressionThreshold the length in bytes below which an excerpt isn't compressed.
+     * @return this
+     */
+    public B compressionThreshold(int compressionThreshold) {
+        if (compressionThreshold < 0)
+            throw new IllegalArgumentException("compressionThreshold: " + compressionThreshold);
+        this.compressionThreshold = compressionThreshold;
+        return (B) this;
+    }
+
+    public int compressionThreshold() {
+        return compressionThreshold;
+    }
+
     enum NoBytesRingBufferStats implements Consumer<BytesRingBufferStats> {
         NONE;
 
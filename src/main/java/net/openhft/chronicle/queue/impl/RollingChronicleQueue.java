@@ -17,6 +17,7 @@ package net.openhft.chronicle.queue.impl;
 
 import net.openhft.chronicle.core.annotation.Nullable;
 import net.openhft.chronicle.queue.ChronicleQueue;
+import net.openhft.chronicle.queue.CompressionCodec;
 import net.openhft.chronicle.queue.RollCycle;
 import net.openhft.chronicle.queue.TailerDirection;
 import net.openhft.chronicle.queue.impl.single.StoreRecovery;
@@ -67,6 +68,14 @@ public interface RollingChronicleQueue extends ChronicleQueue {
     int nextCycle(int currentCycle, @NotNull TailerDirection direction) throws ParseException;
 
 
+    /**
+     * @param cycle the cycle
+     * @return the sequence number of the last excerpt in the cycle, or -1 if it has none or
+     * there is no such cycle
+     * @throws java.lang.IllegalStateException if the cycle can not be read
+     */
+    long lastSequence(int cycle) throws java.lang.IllegalStateException;
+
     /**
      * The number of excerpts between the indexes, {@code index1} inclusive, {@code index2}
      * exclusive.
@@ -102,6 +111,18 @@ public interface RollingChronicleQueue extends ChronicleQueue {
      */
     int indexSpacing();
 
+    /**
+     * @return the length every excerpt is padded to in the cycles created, or 0 if they vary.
+     */
+    int fixedLength();
+
+    /**
+     * @return the codec of the data excerpts in the cycles created, NONE if they aren't
+     * compressed.
+     */
+    @NotNull
+    CompressionCodec compression();
+
     RollCycle rollCycle();
 
     Function<WireType, StoreRecovery> recoverySupplier();
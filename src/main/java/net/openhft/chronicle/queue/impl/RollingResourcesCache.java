@@ -91,7 +91,11 @@ public class RollingResourcesCache {
     }
 
     public Long toLong(File file) {
-        return Instant.from(formatter.parse(fileToName.apply(file))).toEpochMilli() / length;
+        TemporalAccessor parse = formatter.parse(fileToName.apply(file));
+        // a daily name has no time, so isn't an instant.
+        if (!parse.isSupported(ChronoField.INSTANT_SECONDS))
+            return parse.getLong(ChronoField.EPOCH_DAY) * 86400000 / length;
+        return Instant.from(parse).toEpochMilli() / length;
     }
 
     public static class Resource {
@@ -15,8 +15,10 @@
  */
 package net.openhft.chronicle.queue.impl;
 
+import net.openhft.chronicle.bytes.Bytes;
 import net.openhft.chronicle.bytes.MappedBytes;
 import net.openhft.chronicle.core.ReferenceCounted;
+import net.openhft.chronicle.queue.CompressionCodec;
 import net.openhft.chronicle.queue.impl.single.ScanResult;
 import net.openhft.chronicle.wire.Demarshallable;
 import net.openhft.chronicle.wire.UnrecoverableTimeoutException;
@@ -51,11 +53,39 @@ public interface WireStore extends ReferenceCounted, Demarshallable, WriteMarsha
      */
     long writePosition();
 
+    /**
+     * @return the length every excerpt in this store is padded to, or 0 if they vary.
+     */
+    int fixedLength();
+
+    /**
+     * @return the codec of the data excerpts in this store, or NONE if they don't start with a
+     * byte for how they were compressed.
+     */
+    @NotNull
+    CompressionCodec compression();
+
     ScanResult moveToIndexForRead(@NotNull ExcerptContext ec, long index);
 
     @NotNull
     MappedBytes bytes();
 
+    /**
+     * Bytes from {@link #bytes()} each hold a chunk of the file, which keeps the file open, until
+     * they are released. Releasing them closes the file for everyone using it though, so they are
+     * given back here instead, to be released along with the store.
+     */
+    void releaseWithStore(@NotNull Bytes<?> bytes);
+
+    /**
+     * @return wires over the whole store for looking up its indices, to give back with {@link
+     * #releaseContext(ExcerptContext)} so they can be used again.
+     */
+    @NotNull
+    ExcerptContext acquireContext(long timeoutMS);
+
+    void releaseContext(@NotNull ExcerptContext context);
+
     /**
      * Reverse look up an index for a position.
      *
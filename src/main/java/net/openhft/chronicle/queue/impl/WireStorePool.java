@@ -20,6 +20,7 @@ import net.openhft.chronicle.queue.RollDetails;
 import net.openhft.chronicle.queue.TailerDirection;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.File;
 import java.text.ParseException;
 import java.util.Map;
 import java.util.NavigableSet;
@@ -80,6 +81,27 @@ public class WireStorePool {
         }
     }
 
+    /**
+     * Delete the file for a cycle, provided no store for it is reserved in this process. The file
+     * is only renamed while holding the lock so a concurrent {@link #acquire} can't recreate it,
+     * the slower delete happens after.
+     *
+     * @param cycle to delete
+     * @param epoch of the cycle
+     * @param file  of the cycle
+     * @return true if the file was deleted.
+     */
+    public boolean deleteIfUnused(final int cycle, final long epoch, @NotNull File file) {
+        File toDelete = new File(file.getPath() + ".deleted");
+        synchronized (this) {
+            WireStore store = stores.get(new RollDetails(cycle, epoch));
+            if (store != null && store.refCount() > 0)
+                return false;
+            if (!file.renameTo(toDelete))
+                return false;
+        }
+        return toDelete.delete();
+    }
 
     /**
      * list cycles between ( inclusive )
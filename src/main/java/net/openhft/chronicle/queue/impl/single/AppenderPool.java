@@ -0,0 +1,236 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.bytes.BytesStore;
+import net.openhft.chronicle.core.Jvm;
+import net.openhft.chronicle.queue.ChronicleQueue;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.LeasedAppender;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueExcerpts.StoreAppender;
+import net.openhft.chronicle.wire.DocumentContext;
+import net.openhft.chronicle.wire.UnrecoverableTimeoutException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.StreamCorruptedException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A bounded pool of appenders which aren't tied to a thread, leased by {@link
+ * SingleChronicleQueue#leaseAppender()}. Appenders are created as they are needed, up to the
+ * size of the pool, after which a lease waits up to the lease timeout for one to be returned.
+ * <p>
+ * Handing an appender over through the pool makes everything its last holder wrote visible to
+ * the next, so they can be on different threads. An excerpt left open by a lease is discarded
+ * when it is returned, and its settings are reset.
+ */
+public class AppenderPool {
+    @NotNull
+    private final SingleChronicleQueue queue;
+    private final int size;
+    private final long leaseTimeoutMS;
+    private final BlockingQueue<StoreAppender> free;
+    private final AtomicInteger created = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    public AppenderPool(@NotNull SingleChronicleQueue queue, int size, long leaseTimeoutMS) {
+        this.queue = queue;
+        this.size = size;
+        this.leaseTimeoutMS = leaseTimeoutMS;
+        free = new ArrayBlockingQueue<>(size);
+    }
+
+    @NotNull
+    public LeasedAppender lease() throws UnrecoverableTimeoutException {
+        if (closed)
+            throw new IllegalStateException("The queue has been closed");
+        StoreAppender appender = free.poll();
+        if (appender == null)
+            appender = create();
+        if (appender == null && leaseTimeoutMS > 0) {
+            try {
+                appender = free.poll(leaseTimeoutMS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted waiting for an appender", e);
+            }
+        }
+        if (appender == null)
+            throw new UnrecoverableTimeoutException(new TimeoutException(
+                    "All " + size + " appenders are leased, none was returned in " + leaseTimeoutMS + " ms"));
+        return new Lease(appender);
+    }
+
+    @Nullable
+    private StoreAppender create() {
+        for (int count; (count = created.get()) < size; ) {
+            if (created.compareAndSet(count, count + 1))
+                return new StoreAppender(queue, null);
+        }
+        return null;
+    }
+
+    private void release(@NotNull StoreAppender appender) {
+        free.add(appender);
+        // closed while it was being returned, and it wasn't taken by close().
+        if (closed && free.remove(appender))
+            appender.releaseCycle();
+    }
+
+    /**
+     * Release the cycles of the appenders in the pool. Those still leased are dropped as they are
+     * returned, as their cycles are closed with the queue.
+     */
+    public void close() {
+        closed = true;
+        for (StoreAppender appender; (appender = free.poll()) != null; )
+            appender.releaseCycle();
+    }
+
+    /**
+     * @return the number of appenders not leased now.
+     */
+    public int available() {
+        return free.size() + size - created.get();
+    }
+
+    class Lease implements LeasedAppender {
+        @Nullable
+        private StoreAppender appender;
+
+        Lease(@NotNull StoreAppender appender) {
+            this.appender = appender;
+        }
+
+        @NotNull
+        private StoreAppender appender() {
+            StoreAppender appender = this.appender;
+            if (appender == null)
+                throw new IllegalStateException("The appender has been returned to the pool");
+            return appender;
+        }
+
+        @Override
+        public void close() {
+            StoreAppender appender = this.appender;
+            if (appender == null)
+                return;
+            this.appender = null;
+            // its cycle was closed with the queue.
+            if (closed)
+                return;
+            if (appender.rollbackDocument())
+                Jvm.warn().on(getClass(), "An excerpt was still being written when its appender was returned, it has been discarded");
+            // the settings of a lease only last as long as it does.
+            appender.padToCacheAlign(false);
+            if (appender.lazyIndexing())
+                appender.lazyIndexing(false);
+            release(appender);
+        }
+
+        @Override
+        public boolean isClosed() {
+            return appender == null;
+        }
+
+        @Override
+        public DocumentContext writingDocument() throws UnrecoverableTimeoutException {
+            return appender().writingDocument();
+        }
+
+        @Override
+        public DocumentContext writingDocument(long index) {
+            return appender().writingDocument(index);
+        }
+
+        @Override
+        public void writeBytes(@NotNull Bytes<?> bytes) throws UnrecoverableTimeoutException {
+            appender().writeBytes(bytes);
+        }
+
+        @Override
+        public void writeBytes(long index, BytesStore bytes) throws StreamCorruptedException {
+            appender().writeBytes(index, bytes);
+        }
+
+        @Override
+        public long lastIndexAppended() {
+            return appender().lastIndexAppended();
+        }
+
+        @Override
+        public long durableIndex() {
+            return appender().durableIndex();
+        }
+
+        @Override
+        public int cycle() {
+            return appender().cycle();
+        }
+
+        @Override
+        public void pretouch() {
+            appender().pretouch();
+        }
+
+        @Override
+        public void padToCacheAlign(boolean padToCacheAlign) {
+            appender().padToCacheAlign(padToCacheAlign);
+        }
+
+        @Override
+        public boolean padToCacheAlign() {
+            return appender().padToCacheAlign();
+        }
+
+        @Override
+        public boolean recordHistory() {
+            return appender().recordHistory();
+        }
+
+        @Override
+        public int sourceId() {
+            return appender().sourceId();
+        }
+
+        @Override
+        public ExcerptAppender lazyIndexing(boolean lazyIndexing) {
+            appender().lazyIndexing(lazyIndexing);
+            return this;
+        }
+
+        @Override
+        public boolean lazyIndexing() {
+            return appender().lazyIndexing();
+        }
+
+        @Override
+        public ChronicleQueue queue() {
+            return queue;
+        }
+
+        @Override
+        public String toString() {
+            return "Lease{" + appender + '}';
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.bytes.BytesStore;
+import net.openhft.chronicle.bytes.MappedBytesStore;
+import net.openhft.chronicle.bytes.MappedBytesStoreFactory;
+import net.openhft.chronicle.bytes.MappedFile;
+import net.openhft.chronicle.core.Jvm;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A mapped file which unmaps the chunks no reader or appender is using.
+ * <p>
+ * A {@link MappedFile} keeps one reference to every chunk it maps until the file is closed, so a
+ * chunk stays mapped after every {@link net.openhft.chronicle.bytes.MappedBytes} has moved past
+ * it. Here that reference is dropped as soon as a chunk is behind all the chunks in use, and the
+ * {@link MappedMemoryBudget} may drop it for any other idle chunk. A chunk which is needed again
+ * is simply mapped again.
+ * <p>
+ * A {@link net.openhft.chronicle.bytes.MappedBytes} holds a reference to the chunk it is on, but
+ * a value bound to a chunk, such as an index array, doesn't, so whatever caches one
+ * {@link #pin(BytesStore) pins} the chunk until it is rebound. Only a chunk with neither is
+ * unmapped. The first chunk is never unmapped as the header values are bound to it directly.
+ */
+class BudgetedMappedFile extends MappedFile {
+    // a chunk with only the reference held by the MappedFile
+    private static final int IDLE = 1;
+
+    private final TreeMap<Long, Chunk> chunks = new TreeMap<>();
+    private final long mappingSize;
+    private boolean registered = true;
+
+    private BudgetedMappedFile(@NotNull File file, @NotNull RandomAccessFile raf, long chunkSize, long overlapSize) {
+        super(file, raf, chunkSize, overlapSize, DEFAULT_CAPACITY);
+        this.mappingSize = chunkSize + overlapSize;
+        MappedMemoryBudget.register(this);
+    }
+
+    @NotNull
+    static BudgetedMappedFile open(@NotNull File file, long chunkSize, long overlapSize) throws FileNotFoundException {
+        return new BudgetedMappedFile(file, new RandomAccessFile(file, "rw"), chunkSize, overlapSize);
+    }
+
+    @Override
+    public <T extends MappedBytesStore> T acquireByteStore(long position, @NotNull MappedBytesStoreFactory<T> mappedBytesStoreFactory) throws IOException, IllegalArgumentException, IllegalStateException {
+        T mbs;
+        synchronized (this) {
+            mbs = super.acquireByteStore(position, mappedBytesStoreFactory);
+            long index = position / chunkSize();
+            Chunk chunk = chunks.get(index);
+            if (chunk == null || chunk.store != mbs) {
+                chunk = new Chunk(mbs);
+                chunks.put(index, chunk);
+                MappedMemoryBudget.mapped(mappingSize);
+            }
+            chunk.lastUsed = MappedMemoryBudget.tick();
+            releaseConsumed();
+        }
+        MappedMemoryBudget.enforce();
+        return mbs;
+    }
+
+    /**
+     * Unmap the idle chunks below the lowest chunk in use.
+     */
+    private void releaseConsumed() {
+        Long lowestInUse = null;
+        for (Map.Entry<Long, Chunk> entry : chunks.entrySet()) {
+            // a pinned chunk may be far behind the readers, so only a reference counts as in use.
+            if (entry.getValue().store.refCount() > IDLE) {
+                lowestInUse = entry.getKey();
+                break;
+            }
+        }
+        if (lowestInUse == null)
+            return;
+        for (Iterator<Map.Entry<Long, Chunk>> it = chunks.headMap(lowestInUse).entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Long, Chunk> entry = it.next();
+            if (!isIdle(entry))
+                continue;
+            // removing an entry can move the next one into it.
+            Chunk chunk = entry.getValue();
+            it.remove();
+            unmap(chunk);
+        }
+    }
+
+    /**
+     * @return when the least recently used idle chunk was last acquired, or Long.MAX_VALUE if
+     * there is nothing to unmap.
+     */
+    synchronized long oldestIdle() {
+        long oldest = Long.MAX_VALUE;
+        for (Map.Entry<Long, Chunk> entry : chunks.entrySet()) {
+            if (isIdle(entry))
+                oldest = Math.min(oldest, entry.getValue().lastUsed);
+        }
+        return oldest;
+    }
+
+    /**
+     * Unmap the least recently used idle chunk.
+     *
+     * @return true if a chunk was unmapped.
+     */
+    synchronized boolean releaseOldestIdle() {
+        Long oldest = null;
+        long oldestUsed = Long.MAX_VALUE;
+        for (Map.Entry<Long, Chunk> entry : chunks.entrySet()) {
+            if (isIdle(entry) && entry.getValue().lastUsed < oldestUsed) {
+                oldest = entry.getKey();
+                oldestUsed = entry.getValue().lastUsed;
+            }
+        }
+        if (oldest == null)
+            return false;
+        unmap(chunks.remove(oldest));
+        return true;
+    }
+
+    private static boolean isIdle(@NotNull Map.Entry<Long, Chunk> entry) {
+        Chunk chunk = entry.getValue();
+        return entry.getKey() != 0 && chunk.pins == 0 && chunk.store.refCount() == IDLE;
+    }
+
+    /**
+     * Keep a chunk mapped while a value is bound to it, without holding a reference to it.
+     *
+     * @param store the value is bound to, which a reference is held to now.
+     */
+    synchronized void pin(@NotNull BytesStore store) {
+        Chunk chunk = chunkOf(store);
+        if (chunk != null)
+            chunk.pins++;
+    }
+
+    /**
+     * @param store which was {@link #pin(BytesStore) pinned}.
+     */
+    synchronized void unpin(@NotNull BytesStore store) {
+        Chunk chunk = chunkOf(store);
+        if (chunk != null && chunk.pins > 0)
+            chunk.pins--;
+    }
+
+    @Nullable
+    private Chunk chunkOf(@NotNull BytesStore store) {
+        if (!(store instanceof MappedBytesStore))
+            return null;
+        Chunk chunk = chunks.get(((MappedBytesStore) store).start() / chunkSize());
+        return chunk != null && chunk.store == store ? chunk : null;
+    }
+
+    /**
+     * @return the number of chunks currently mapped.
+     */
+    synchronized int mappedChunks() {
+        return chunks.size();
+    }
+
+    private void unmap(@NotNull Chunk chunk) {
+        MappedMemoryBudget.unmapped(mappingSize);
+        try {
+            // drops the reference the MappedFile took when it was mapped, the last one for an idle chunk.
+            chunk.store.release();
+        } catch (IllegalStateException e) {
+            // the file was closed concurrently and has released it already.
+            Jvm.debug().on(getClass(), e);
+        }
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        deregister();
+    }
+
+    @Override
+    public void release() throws IllegalStateException {
+        super.release();
+        if (refCount() <= 0)
+            deregister();
+    }
+
+    private synchronized void deregister() {
+        if (!registered)
+            return;
+        registered = false;
+        // the MappedFile has released its references to the stores, any left are up to their users.
+        MappedMemoryBudget.unmapped(mappingSize * chunks.size());
+        chunks.clear();
+        MappedMemoryBudget.deregister(this);
+    }
+
+    static final class Chunk {
+        final MappedBytesStore store;
+        long lastUsed;
+        int pins;
+
+        Chunk(MappedBytesStore store) {
+            this.store = store;
+        }
+    }
+}
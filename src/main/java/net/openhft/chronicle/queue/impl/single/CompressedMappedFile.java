@@ -0,0 +1,310 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.bytes.MappedBytesStore;
+import net.openhft.chronicle.bytes.MappedBytesStoreFactory;
+import net.openhft.chronicle.bytes.MappedFile;
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.core.ReferenceCounted;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StreamCorruptedException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A read only view of a cycle file which has been rewritten as independently deflated blocks.
+ * <p>
+ * The file starts with a header and an index of where each block starts, so a chunk can be
+ * decompressed without reading the blocks before it. Blocks of zeros, i.e. the unused end of the
+ * cycle, are not stored at all. Each chunk is decompressed a block at a time into a buffer from
+ * the shared {@link DecompressionBuffers}, so the {@link MappedBytesStore}s handed out behave
+ * exactly like those of a plain mapped file. The buffer goes back to the pool once the store
+ * over it has been released.
+ */
+class CompressedMappedFile extends MappedFile {
+    static final int DEFAULT_BLOCK_SIZE = 64 << 10;
+
+    private static final int MAGIC = 0x7A347163; // "cq4z"
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+
+    private final FileChannel channel;
+    private final int blockSize;
+    private final long length;
+    private final long[] offsets;
+    private final DecompressionBuffers buffers;
+    private final List<WeakReference<MappedBytesStore>> stores = new ArrayList<>();
+    private final Inflater inflater = new Inflater();
+    private final byte[] compressed;
+    private final byte[] block;
+    private boolean storesReleased = false;
+
+    private CompressedMappedFile(@NotNull File file, @NotNull RandomAccessFile raf, long chunkSize, long overlapSize,
+                                 int blockSize, long length, long[] offsets) throws IOException {
+        super(file, raf, chunkSize, overlapSize, DEFAULT_CAPACITY);
+        this.channel = raf.getChannel();
+        this.blockSize = blockSize;
+        this.length = length;
+        this.offsets = offsets;
+        this.compressed = new byte[maxCompressedLength(blockSize)];
+        this.block = new byte[blockSize];
+        this.buffers = DecompressionBuffers.forSize(chunkSize() + overlapSize());
+    }
+
+    @NotNull
+    static CompressedMappedFile open(@NotNull File file, long chunkSize, long overlapSize) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(raf.getChannel(), header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC)
+                throw new StreamCorruptedException("Not a compressed cycle file " + file);
+            int blockSize = header.getInt();
+            long length = header.getLong();
+            int blocks = header.getInt();
+
+            ByteBuffer index = ByteBuffer.allocate((blocks + 1) * 8).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(raf.getChannel(), index, HEADER_SIZE);
+            index.flip();
+            long[] offsets = new long[blocks + 1];
+            for (int i = 0; i <= blocks; i++)
+                offsets[i] = index.getLong();
+
+            return new CompressedMappedFile(file, raf, chunkSize, overlapSize, blockSize, length, offsets);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Write a compressed copy of a cycle file.
+     *
+     * @param from      the cycle file to read
+     * @param to        the compressed file to write
+     * @param blockSize the size of each independently compressed block
+     */
+    static void compress(@NotNull File from, @NotNull File to, int blockSize) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(from, "r");
+             RandomAccessFile out = new RandomAccessFile(to, "rw")) {
+            long length = in.length();
+            int blocks = (int) ((length + blockSize - 1) / blockSize);
+            long[] offsets = new long[blocks + 1];
+            long offset = HEADER_SIZE + 8L * (blocks + 1);
+            out.setLength(0);
+            out.seek(offset);
+
+            byte[] block = new byte[blockSize];
+            byte[] compressed = new byte[maxCompressedLength(blockSize)];
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                for (int i = 0; i < blocks; i++) {
+                    offsets[i] = offset;
+                    int len = (int) Math.min(blockSize, length - (long) i * blockSize);
+                    in.readFully(block, 0, len);
+                    if (isZeros(block, len))
+                        continue;
+
+                    deflater.reset();
+                    deflater.setInput(block, 0, len);
+                    deflater.finish();
+                    int clen = 0;
+                    while (!deflater.finished())
+                        clen += deflater.deflate(compressed, clen, compressed.length - clen);
+                    out.write(compressed, 0, clen);
+                    offset += clen;
+                }
+                offsets[blocks] = offset;
+            } finally {
+                deflater.end();
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE + 8 * (blocks + 1)).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(blockSize).putLong(length).putInt(blocks);
+            for (long o : offsets)
+                header.putLong(o);
+            out.seek(0);
+            out.write(header.array());
+            out.getFD().sync();
+        }
+    }
+
+    private static int maxCompressedLength(int blockSize) {
+        // deflate can expand incompressible data by a few bytes per 16 KB
+        return blockSize + (blockSize >> 8) + 64;
+    }
+
+    private static boolean isZeros(byte[] block, int len) {
+        for (int i = 0; i < len; i++)
+            if (block[i] != 0)
+                return false;
+        return true;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.remaining() > 0) {
+            int read = channel.read(buffer, position);
+            if (read < 0)
+                throw new StreamCorruptedException("Truncated compressed cycle file");
+            position += read;
+        }
+    }
+
+    @Override
+    public synchronized <T extends MappedBytesStore> T acquireByteStore(long position, @NotNull MappedBytesStoreFactory<T> mappedBytesStoreFactory) throws IOException, IllegalArgumentException, IllegalStateException {
+        if (position < 0)
+            throw new IOException("Attempt to access a negative position: " + position);
+        int chunk = (int) (position / chunkSize());
+        while (stores.size() <= chunk)
+            stores.add(null);
+        WeakReference<MappedBytesStore> mbsRef = stores.get(chunk);
+        if (mbsRef != null) {
+            @SuppressWarnings("unchecked")
+            T mbs = (T) mbsRef.get();
+            if (mbs != null && mbs.tryReserve())
+                return mbs;
+        }
+
+        long start = chunk * chunkSize();
+        long size = chunkSize() + overlapSize();
+        long slot = buffers.acquire();
+        long address;
+        try {
+            address = buffers.map(slot);
+        } catch (IOException | RuntimeException e) {
+            buffers.release(slot);
+            throw e;
+        }
+        try {
+            decompress(start, address, size);
+        } catch (IOException | RuntimeException e) {
+            OS.unmap(address, size);
+            buffers.release(slot);
+            throw e;
+        }
+        T mbs = mappedBytesStoreFactory.create(new Buffer(slot), start, address, size, chunkSize() + overlapSize() / 2);
+        stores.set(chunk, new WeakReference<>(mbs));
+        mbs.reserve();
+        return mbs;
+    }
+
+    private void decompress(long start, long address, long size) throws IOException {
+        long end = Math.min(start + size, length);
+        for (int i = (int) (start / blockSize); (long) i * blockSize < end; i++) {
+            long blockStart = (long) i * blockSize;
+            long from = Math.max(blockStart, start);
+            long to = Math.min(blockStart + blockSize, end);
+            int clen = (int) (offsets[i + 1] - offsets[i]);
+            if (clen == 0) {
+                // all zeros, which aren't stored.
+                OS.memory().setMemory(address + (from - start), to - from, (byte) 0);
+                continue;
+            }
+
+            readFully(channel, ByteBuffer.wrap(compressed, 0, clen), offsets[i]);
+            inflater.reset();
+            inflater.setInput(compressed, 0, clen);
+            int len = 0;
+            try {
+                while (!inflater.finished() && len < block.length) {
+                    int n = inflater.inflate(block, len, block.length - len);
+                    if (n == 0 && inflater.needsInput())
+                        throw new DataFormatException("truncated block");
+                    len += n;
+                }
+            } catch (DataFormatException e) {
+                throw new StreamCorruptedException("Unable to decompress block " + i + " of " + file() + ", " + e);
+            }
+            if (blockStart + len < to)
+                throw new StreamCorruptedException("Block " + i + " of " + file() + " is " + len + " bytes");
+            OS.memory().copyMemory(block, (int) (from - blockStart), address + (from - start), (int) (to - from));
+        }
+        // the buffer was last used for another chunk.
+        long zerosFrom = Math.max(end, start);
+        if (zerosFrom < start + size)
+            OS.memory().setMemory(address + (zerosFrom - start), start + size - zerosFrom, (byte) 0);
+    }
+
+    /**
+     * @return the size of the cycle file before it was compressed.
+     */
+    @Override
+    public long actualSize() {
+        return length;
+    }
+
+    @Override
+    public void release() throws IllegalStateException {
+        super.release();
+        if (refCount() <= 0)
+            releaseStores();
+    }
+
+    private synchronized void releaseStores() {
+        if (storesReleased)
+            return;
+        storesReleased = true;
+        for (WeakReference<MappedBytesStore> storeRef : stores) {
+            if (storeRef == null)
+                continue;
+            MappedBytesStore mbs = storeRef.get();
+            if (mbs != null && mbs.refCount() > 0)
+                mbs.release();
+        }
+        stores.clear();
+        inflater.end();
+    }
+
+    /**
+     * Owns a buffer while a store is mapped over it, and gives it back to the pool once the store
+     * has been unmapped.
+     */
+    private final class Buffer implements ReferenceCounted {
+        private final long slot;
+
+        Buffer(long slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        public void reserve() throws IllegalStateException {
+            CompressedMappedFile.this.reserve();
+        }
+
+        @Override
+        public void release() throws IllegalStateException {
+            buffers.release(slot);
+            CompressedMappedFile.this.release();
+        }
+
+        @Override
+        public long refCount() {
+            return CompressedMappedFile.this.refCount();
+        }
+    }
+}
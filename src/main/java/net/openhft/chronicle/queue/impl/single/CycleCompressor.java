@@ -0,0 +1,101 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.core.Jvm;
+import net.openhft.chronicle.core.io.Closeable;
+import net.openhft.chronicle.core.io.IORuntimeException;
+import net.openhft.chronicle.core.threads.EventHandler;
+import net.openhft.chronicle.core.threads.HandlerPriority;
+import net.openhft.chronicle.core.threads.InvalidEventHandlerException;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Compresses the cycles the {@link RetentionEngine} has picked, oldest first.
+ * <p>
+ * Rewriting a cycle reads and writes the whole file, so this runs as a BLOCKING handler rather
+ * than holding up the TIMER handlers which share an event loop with the retention engine.
+ */
+public class CycleCompressor implements EventHandler, Closeable {
+    private static final long IDLE_PAUSE_MS = 1;
+
+    @NotNull
+    private final SingleChronicleQueue queue;
+    private final NavigableSet<Integer> pending = new ConcurrentSkipListSet<>();
+    private volatile boolean closed = false;
+
+    public CycleCompressor(@NotNull SingleChronicleQueue queue) {
+        this.queue = queue;
+    }
+
+    /**
+     * @param cycle to compress when this handler next runs, if it hasn't been already.
+     */
+    public void compressLater(int cycle) {
+        pending.add(cycle);
+    }
+
+    @Override
+    public boolean action() throws InvalidEventHandlerException {
+        if (closed)
+            throw new InvalidEventHandlerException();
+        if (compressNext())
+            return true;
+        // a blocking handler is called again straight away.
+        Jvm.pause(IDLE_PAUSE_MS);
+        return false;
+    }
+
+    /**
+     * @return true if a cycle was compressed.
+     */
+    public boolean compressNext() {
+        Integer cycle = pending.pollFirst();
+        if (cycle == null)
+            return false;
+        try {
+            if (!queue.compressCycle(cycle))
+                return false;
+            Jvm.debug().on(getClass(), "Compressed cycle " + cycle);
+            return true;
+        } catch (IORuntimeException e) {
+            Jvm.warn().on(getClass(), "Unable to compress cycle " + cycle, e);
+            return false;
+        } catch (IllegalStateException e) {
+            // the queue was closed first.
+            Jvm.debug().on(getClass(), e);
+            return false;
+        }
+    }
+
+    @Override
+    public HandlerPriority priority() {
+        return HandlerPriority.BLOCKING;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+}
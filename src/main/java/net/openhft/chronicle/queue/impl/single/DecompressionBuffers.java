@@ -0,0 +1,98 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.core.OS;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A pool of off heap buffers, one chunk in size, which compressed cycles are decompressed into.
+ * The buffers are shared by every compressed cycle in the process with the same chunk size.
+ * <p>
+ * A chunk handed to a {@link net.openhft.chronicle.bytes.MappedBytes} is unmapped when it is
+ * released, so a buffer can't simply be native memory. Instead each buffer is a slot of one
+ * scratch file, in shared memory where there is any, which is mapped while a chunk is in use. The
+ * pages of a slot stay resident after it is unmapped, so the next chunk decompressed into it
+ * reuses them rather than faulting in new ones.
+ */
+final class DecompressionBuffers {
+    private static final File SHARED_MEMORY = new File("/dev/shm");
+    private static final Map<Long, DecompressionBuffers> BUFFERS = new HashMap<>();
+
+    private final long size;
+    private final RandomAccessFile scratch;
+    private final Deque<Long> free = new ArrayDeque<>();
+    private long slots = 0;
+
+    private DecompressionBuffers(long size) throws IOException {
+        this.size = size;
+        File dir = SHARED_MEMORY.isDirectory() && SHARED_MEMORY.canWrite() ? SHARED_MEMORY : new File(OS.TMP);
+        File file = File.createTempFile("decompressed-", ".scratch", dir);
+        this.scratch = new RandomAccessFile(file, "rw");
+        // the slots are only ever reached through this process' mappings.
+        if (!file.delete())
+            file.deleteOnExit();
+    }
+
+    /**
+     * @param size of each buffer, the chunk size plus the overlap.
+     * @return the buffers of that size.
+     */
+    @NotNull
+    static synchronized DecompressionBuffers forSize(long size) throws IOException {
+        DecompressionBuffers buffers = BUFFERS.get(size);
+        if (buffers == null)
+            BUFFERS.put(size, buffers = new DecompressionBuffers(size));
+        return buffers;
+    }
+
+    /**
+     * @return the position of a free slot in the scratch file.
+     */
+    synchronized long acquire() throws IOException {
+        Long position = free.pollFirst();
+        if (position != null)
+            return position;
+        long next = slots * size;
+        scratch.setLength(next + size);
+        slots++;
+        return next;
+    }
+
+    /**
+     * @return the address of a mapping of the slot, which is unmapped by the store it is given to.
+     */
+    long map(long position) throws IOException {
+        return OS.map(scratch.getChannel(), FileChannel.MapMode.READ_WRITE, position, size);
+    }
+
+    /**
+     * @param position of a slot which is no longer mapped.
+     */
+    synchronized void release(long position) {
+        // the most recently used slot is the most likely to still be resident.
+        free.addFirst(position);
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.core.Jvm;
+import net.openhft.chronicle.core.io.Closeable;
+import net.openhft.chronicle.core.threads.EventHandler;
+import net.openhft.chronicle.core.threads.HandlerPriority;
+import net.openhft.chronicle.core.threads.InvalidEventHandlerException;
+import net.openhft.chronicle.queue.DurabilityPolicy;
+import net.openhft.chronicle.queue.impl.ExcerptContext;
+import net.openhft.chronicle.queue.impl.WireStore;
+import net.openhft.chronicle.wire.UnrecoverableTimeoutException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Forces the latest cycle file of a queue to disk as its {@link DurabilityPolicy} requires, and
+ * keeps track of the last index known to be on disk.
+ * <p>
+ * The mapped pages are flushed with a {@link FileChannel#force(boolean)} of the cycle file, which
+ * only writes the pages changed since the last sync. This runs as a BLOCKING handler so a slow
+ * disk holds up neither the appenders nor the other handlers on the event loop.
+ */
+public class DurabilityEngine implements EventHandler, Closeable {
+    private static final long CYCLE_CHECK_INTERVAL_MS = 100;
+    private static final long IDLE_PAUSE_MS = 1;
+
+    @NotNull
+    private final SingleChronicleQueue queue;
+    @NotNull
+    private final DurabilityPolicy policy;
+    private int cycle = Integer.MIN_VALUE;
+    @Nullable
+    private WireStore store;
+    @Nullable
+    private FileChannel channel;
+    @Nullable
+    private ExcerptContext context;
+    private long syncedPosition;
+    private long lastSyncMS;
+    private long nextCycleCheckMS = Long.MIN_VALUE;
+    private volatile long durableIndex = Long.MIN_VALUE;
+    private volatile boolean closed = false;
+
+    public DurabilityEngine(@NotNull SingleChronicleQueue queue, @NotNull DurabilityPolicy policy) {
+        if (policy.isNone())
+            throw new IllegalArgumentException("Nothing to sync for " + policy);
+        this.queue = queue;
+        this.policy = policy;
+    }
+
+    @Override
+    public boolean action() throws InvalidEventHandlerException {
+        if (closed) {
+            releaseStore();
+            throw new InvalidEventHandlerException();
+        }
+        if (syncIfDue())
+            return true;
+        // a blocking handler is called again straight away.
+        Jvm.pause(IDLE_PAUSE_MS);
+        return false;
+    }
+
+    /**
+     * @return true if a cycle file was synced.
+     */
+    public boolean syncIfDue() {
+        long now = System.currentTimeMillis();
+        boolean synced = false;
+        if (now >= nextCycleCheckMS) {
+            nextCycleCheckMS = now + CYCLE_CHECK_INTERVAL_MS;
+            synced = checkCycle();
+        }
+        if (store == null)
+            return synced;
+
+        long writePosition = store.writePosition();
+        if (writePosition == syncedPosition)
+            return synced;
+        if (writePosition - syncedPosition >= policy.syncBytes()
+                || now - lastSyncMS >= policy.syncIntervalMS())
+            return sync() || synced;
+        return synced;
+    }
+
+    /**
+     * Sync the cycle file being written to now, whatever the policy.
+     *
+     * @return true if it was synced.
+     */
+    public boolean sync() {
+        if (store == null || channel == null)
+            return false;
+        long writePosition = store.writePosition();
+        long index = indexAt(writePosition);
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            Jvm.warn().on(getClass(), "Unable to sync " + store.file(), e);
+            return false;
+        }
+        syncedPosition = writePosition;
+        lastSyncMS = System.currentTimeMillis();
+        if (index > durableIndex)
+            durableIndex = index;
+        return true;
+    }
+
+    /**
+     * @return the highest index written since the queue was opened which is known to be on disk,
+     * or Long.MIN_VALUE if none is.
+     */
+    public long durableIndex() {
+        return durableIndex;
+    }
+
+    private boolean checkCycle() {
+        if (!queue.file().exists())
+            return false;
+        int lastCycle = queue.lastCycle();
+        if (lastCycle == Integer.MIN_VALUE || lastCycle == cycle)
+            return false;
+
+        // the cycle has rolled, so it won't be written to again.
+        boolean synced = sync();
+        releaseStore();
+
+        WireStore wireStore = queue.storeForCycle(lastCycle, queue.epoch(), false);
+        if (wireStore == null)
+            return synced;
+        try {
+            channel = FileChannel.open(wireStore.file().toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        } catch (IOException e) {
+            Jvm.warn().on(getClass(), "Unable to open " + wireStore.file() + " to sync it", e);
+            queue.release(wireStore);
+            return synced;
+        }
+        cycle = lastCycle;
+        store = wireStore;
+        context = wireStore.acquireContext(queue.timeoutMS);
+        syncedPosition = 0;
+        return synced;
+    }
+
+    private long indexAt(long position) {
+        assert store != null && context != null;
+        if (position <= 0)
+            return Long.MIN_VALUE;
+        try {
+            long sequence = store.sequenceForPosition(context, position, true);
+            return sequence < 0 ? Long.MIN_VALUE : queue.rollCycle().toIndex(cycle, sequence);
+        } catch (EOFException | StreamCorruptedException | UnrecoverableTimeoutException e) {
+            Jvm.debug().on(getClass(), e);
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private void releaseStore() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                Jvm.debug().on(getClass(), e);
+            }
+            channel = null;
+        }
+        if (store == null)
+            return;
+        try {
+            store.releaseContext(context);
+            queue.release(store);
+        } catch (IllegalStateException e) {
+            // the queue was closed first.
+            Jvm.debug().on(getClass(), e);
+        }
+        store = null;
+        context = null;
+    }
+
+    @Override
+    public HandlerPriority priority() {
+        return HandlerPriority.BLOCKING;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+}
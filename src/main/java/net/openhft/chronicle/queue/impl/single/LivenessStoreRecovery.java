@@ -0,0 +1,306 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.bytes.Byteable;
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.bytes.MappedBytes;
+import net.openhft.chronicle.bytes.ref.BinaryLongReference;
+import net.openhft.chronicle.core.Jvm;
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.core.annotation.UsedViaReflection;
+import net.openhft.chronicle.core.values.LongArrayValues;
+import net.openhft.chronicle.core.values.LongValue;
+import net.openhft.chronicle.wire.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Recovers a header left not complete only once the writer of it is known to be dead, rather than
+ * when it has been not complete for too long.
+ * <p>
+ * Each thread writing to the store registers in a table in the store header, with its process
+ * and thread id, the position of the last header it wrote and a heartbeat counted up for every
+ * header. A writer waiting on a header not complete looks it up in the table every millisecond
+ * and, if the process or thread which wrote it has gone, takes it over straight away. A writer
+ * which is still alive is waited for however long it takes. Only a header no writer has
+ * registered, e.g. one written as the writer died, or whose writer can't be checked, is reset
+ * after the timeout.
+ * <p>
+ * A process is known to be dead when it is no longer in /proc, so on other OSes only the threads
+ * of this process are checked.
+ */
+public class LivenessStoreRecovery implements StoreRecovery, Demarshallable {
+    public static final StoreRecoveryFactory FACTORY = LivenessStoreRecovery::new;
+    static final int WRITERS = 64;
+    private static final int OWNER = 0, POSITION = 1, HEARTBEAT = 2, FIELDS = 3;
+    private static final int UNREGISTERED = -2, TABLE_FULL = -1;
+    private static final long CHECK_INTERVAL_MS = 1;
+    // the threads of this process which have registered and not been found dead, by id.
+    static final Map<Long, WeakReference<Thread>> THREADS = new ConcurrentHashMap<>();
+
+    private final LongArrayValues writers;
+    private final ThreadLocal<int[]> slot = ThreadLocal.withInitial(() -> new int[]{UNREGISTERED});
+
+    @UsedViaReflection
+    public LivenessStoreRecovery(@NotNull WireIn in) {
+        writers = in.newLongArrayReference();
+        in.read(() -> "writers").int64array(writers, this, (o, v) -> {
+        });
+    }
+
+    public LivenessStoreRecovery(@NotNull WireType wireType) {
+        writers = wireType.newLongArrayReference().get();
+    }
+
+    static long ownerOf(@NotNull Thread thread) {
+        return ((long) OS.getProcessId() << 32) | (thread.getId() & 0xFFFFFFFFL);
+    }
+
+    static boolean isDead(long owner) {
+        int pid = (int) (owner >>> 32);
+        if (pid == OS.getProcessId()) {
+            // not registered by this process, so by an earlier one with the same pid.
+            long id = owner & 0xFFFFFFFFL;
+            WeakReference<Thread> ref = THREADS.get(id);
+            if (ref != null && isAlive(ref))
+                return false;
+            if (ref != null)
+                THREADS.remove(id, ref);
+            return true;
+        }
+        return OS.isLinux() && !new File("/proc/" + pid).exists();
+    }
+
+    private static boolean isAlive(@NotNull WeakReference<Thread> ref) {
+        Thread thread = ref.get();
+        return thread != null && thread.isAlive();
+    }
+
+    @Override
+    public void writeMarshallable(@NotNull WireOut out) {
+        out.write("writers").int64array(WRITERS * FIELDS, writers);
+    }
+
+    /**
+     * @return the slot of this thread in the table, or -1 if the table is full.
+     */
+    int slot() {
+        int[] holder = slot.get();
+        if (holder[0] == UNREGISTERED)
+            holder[0] = register();
+        return holder[0];
+    }
+
+    private int register() {
+        Thread thread = Thread.currentThread();
+        // a thread pool replacing its threads would otherwise keep every one it had.
+        THREADS.values().removeIf(ref -> !isAlive(ref));
+        THREADS.put(thread.getId() & 0xFFFFFFFFL, new WeakReference<>(thread));
+        long me = ownerOf(thread);
+        for (int i = 0; i < WRITERS; i++) {
+            long owner = writers.getVolatileValueAt(i * FIELDS + OWNER);
+            if ((owner == 0 || owner != me && isDead(owner))
+                    && writers.compareAndSet(i * FIELDS + OWNER, owner, me)) {
+                writers.setOrderedValueAt(i * FIELDS + POSITION, 0L);
+                heartbeat(i);
+                return i;
+            }
+        }
+        Jvm.warn().on(getClass(), "No room to register a writer, headers it leaves not complete will be recovered after a timeout");
+        return TABLE_FULL;
+    }
+
+    private void heartbeat(int slot) {
+        int index = slot * FIELDS + HEARTBEAT;
+        long heartbeat;
+        do {
+            heartbeat = writers.getVolatileValueAt(index);
+        } while (!writers.compareAndSet(index, heartbeat, heartbeat + 1));
+    }
+
+    @Override
+    public long writeHeader(@NotNull Wire wire,
+                            int length,
+                            long timeoutMS,
+                            @Nullable LongValue lastPosition) throws EOFException, UnrecoverableTimeoutException {
+        int slot = slot();
+        long position = writeHeader0(wire, length, timeoutMS, lastPosition, System.currentTimeMillis() + timeoutMS);
+        if (slot >= 0) {
+            writers.setOrderedValueAt(slot * FIELDS + POSITION, position);
+            heartbeat(slot);
+        }
+        return position;
+    }
+
+    private long writeHeader0(@NotNull Wire wire,
+                              int length,
+                              long timeoutMS,
+                              @Nullable LongValue lastPosition,
+                              long timeoutAt) throws EOFException {
+        Bytes<?> bytes = wire.bytes();
+        for (; ; ) {
+            try {
+                return wire.writeHeader(length, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS, lastPosition);
+            } catch (TimeoutException e) {
+                wire.pauser().reset();
+            }
+            long offset = bytes.writePosition();
+            int header = bytes.readVolatileInt(offset);
+            if (!Wires.isNotComplete(header) || header == Wires.END_OF_DATA)
+                continue;
+
+            long now = System.currentTimeMillis();
+            switch (recoverIfDead(bytes, offset, header)) {
+                case RECOVERED:
+                    break;
+                case ALIVE:
+                    if (now >= timeoutAt) {
+                        Jvm.warn().on(getClass(), "Waiting for a slow writer to complete the header at position: " + offset);
+                        timeoutAt = now + timeoutMS;
+                    }
+                    break;
+                case UNKNOWN:
+                    if (now >= timeoutAt) {
+                        Jvm.warn().on(getClass(), "Unable to write a header at index: " + Long.toHexString(wire.headerNumber()) + " position: " + offset + " resetting");
+                        clearNotComplete(bytes, offset, header);
+                        timeoutAt = now + timeoutMS;
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Take over a header left not complete, if every writer which registered it has died.
+     */
+    @NotNull
+    Liveness recoverIfDead(@NotNull Bytes<?> bytes, long offset, int header) {
+        int dead = -1;
+        long deadHeartbeat = 0;
+        for (int i = 0; i < WRITERS; i++) {
+            long owner = writers.getVolatileValueAt(i * FIELDS + OWNER);
+            if (owner == 0)
+                continue;
+            long heartbeat = writers.getVolatileValueAt(i * FIELDS + HEARTBEAT);
+            if (writers.getVolatileValueAt(i * FIELDS + POSITION) != offset)
+                continue;
+            if (!isDead(owner))
+                return Liveness.ALIVE;
+            dead = i;
+            deadHeartbeat = heartbeat;
+        }
+        if (dead < 0)
+            return Liveness.UNKNOWN;
+
+        // only one writer takes it over, the others see the heartbeat change.
+        if (writers.compareAndSet(dead * FIELDS + HEARTBEAT, deadHeartbeat, deadHeartbeat + 1)) {
+            Jvm.warn().on(getClass(), "The writer of the header at position: " + offset + " has died, resetting");
+            clearNotComplete(bytes, offset, header);
+            writers.compareAndSet(dead * FIELDS + POSITION, offset, 0L);
+        }
+        return Liveness.RECOVERED;
+    }
+
+    private static void clearNotComplete(@NotNull Bytes<?> bytes, long offset, int header) {
+        long size = bytes instanceof MappedBytes
+                ? ((MappedBytes) bytes).mappedFile().actualSize()
+                : bytes.realCapacity();
+        SingleChronicleQueueStore.clearNotComplete(bytes, offset, header, size);
+    }
+
+    @Override
+    public long recoverAndWriteHeader(@NotNull Wire wire, int length, long timeoutMS, LongValue lastPosition) throws UnrecoverableTimeoutException {
+        try {
+            return writeHeader0(wire, length, timeoutMS, lastPosition, System.currentTimeMillis());
+        } catch (EOFException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public long recoverIndex2Index(@NotNull LongValue index2Index, @NotNull Callable<Long> action, long timeoutMS) throws UnrecoverableTimeoutException, EOFException {
+        if (index2Index.compareAndSwapValue(BinaryLongReference.LONG_NOT_COMPLETE, 0))
+            Jvm.warn().on(getClass(), "Rebuilding the index2index, resetting to 0");
+        try {
+            return action.call();
+        } catch (Exception e) {
+            throw Jvm.rethrow(e);
+        }
+    }
+
+    @Override
+    public long recoverSecondaryAddress(@NotNull LongArrayValues index2indexArr, int index2, @NotNull Callable<Long> action, long timeoutMS) throws UnrecoverableTimeoutException, EOFException {
+        if (index2indexArr.compareAndSet(index2, BinaryLongReference.LONG_NOT_COMPLETE, 0L))
+            Jvm.warn().on(getClass(), "Rebuilding the index2index[" + index2 + "], resetting to 0");
+        try {
+            return action.call();
+        } catch (Exception e) {
+            throw Jvm.rethrow(e);
+        }
+    }
+
+    @Override
+    public void writeEndOfWire(@NotNull Wire wire, long timeoutMS) throws UnrecoverableTimeoutException {
+        Bytes<?> bytes = wire.bytes();
+        for (; ; ) {
+            long offset = bytes.writePosition();
+            int header = bytes.readVolatileInt(offset);
+            if (Wires.isNotComplete(header) && header != Wires.END_OF_DATA
+                    && recoverIfDead(bytes, offset, header) == Liveness.UNKNOWN) {
+                Jvm.warn().on(getClass(), "Overwriting an incomplete header with an EOF header to the end store");
+                clearNotComplete(bytes, offset, header);
+            }
+            try {
+                wire.writeEndOfWire(timeoutMS, TimeUnit.MILLISECONDS);
+                return;
+            } catch (TimeoutException e) {
+                Jvm.warn().on(getClass(), e);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("LivenessStoreRecovery{writers=[");
+        if (writers instanceof Byteable && ((Byteable) writers).bytesStore() != null) {
+            String sep = "";
+            for (int i = 0; i < WRITERS; i++) {
+                long owner = writers.getVolatileValueAt(i * FIELDS + OWNER);
+                if (owner == 0)
+                    continue;
+                sb.append(sep).append(owner >>> 32).append('/').append(owner & 0xFFFFFFFFL)
+                        .append(" @").append(writers.getVolatileValueAt(i * FIELDS + POSITION))
+                        .append(" #").append(writers.getVolatileValueAt(i * FIELDS + HEARTBEAT));
+                sep = ", ";
+            }
+        }
+        return sb.append("]}").toString();
+    }
+
+    enum Liveness {
+        RECOVERED, ALIVE, UNKNOWN
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.impl.single;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The limit on how much of the cycle files all the queues in this process which
+ * {@link net.openhft.chronicle.queue.impl.AbstractChronicleQueueBuilder#unmapConsumedChunks(boolean) unmap consumed chunks} keep
+ * mapped. When a newly mapped chunk takes the total over the limit, the least recently used chunks
+ * no reader or appender is using are unmapped until it is back under the limit, or only chunks in
+ * use are left.
+ * <p>
+ * The limit defaults to the system property {@code chronicle.queue.maxMappedBytes}, or no limit.
+ */
+public enum MappedMemoryBudget {
+    ;
+
+    private static final Set<BudgetedMappedFile> FILES = ConcurrentHashMap.newKeySet();
+    private static final AtomicLong MAPPED_BYTES = new AtomicLong();
+    private static final AtomicLong TICK = new AtomicLong();
+    private static volatile long maxMappedBytes = Long.getLong("chronicle.queue.maxMappedBytes", Long.MAX_VALUE);
+
+    /**
+     * @param maxMappedBytes the number of bytes to keep mapped before unmapping idle chunks.
+     */
+    public static void maxMappedBytes(long maxMappedBytes) {
+        if (maxMappedBytes <= 0)
+            throw new IllegalArgumentException("maxMappedBytes must be positive, was " + maxMappedBytes);
+        MappedMemoryBudget.maxMappedBytes = maxMappedBytes;
+        enforce();
+    }
+
+    public static long maxMappedBytes() {
+        return maxMappedBytes;
+    }
+
+    /**
+     * @return the number of bytes currently mapped by the files in the budget.
+     */
+    public static long mappedBytes() {
+        return MAPPED_BYTES.get();
+    }
+
+    static void register(@NotNull BudgetedMappedFile file) {
+        FILES.add(file);
+    }
+
+    static void deregister(@NotNull BudgetedMappedFile file) {
+        FILES.remove(file);
+    }
+
+    static void mapped(long size) {
+        MAPPED_BYTES.addAndGet(size);
+    }
+
+    static void unmapped(long size) {
+        MAPPED_BYTES.addAndGet(-size);
+    }
+
+    static long tick() {
+        return TICK.incrementAndGet();
+    }
+
+    /**
+     * Unmap the least recently used idle chunks while over the limit.
+     */
+    static void enforce() {
+        if (MAPPED_BYTES.get() <= maxMappedBytes)
+            return;
+        // one thread at a time chooses what to unmap. Locks the files after this, never before.
+        synchronized (FILES) {
+            while (MAPPED_BYTES.get() > maxMappedBytes) {
+                BudgetedMappedFile oldestFile = null;
+                long oldest = Long.MAX_VALUE;
+                for (BudgetedMappedFile file : FILES) {
+                    long lastUsed = file.oldestIdle();
+                    if (lastUsed < oldest) {
+                        oldest = lastUsed;
+                        oldestFile = file;
+                    }
+                }
+                if (oldestFile == null || !oldestFile.releaseOldestIdle())
+                    return;
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.bytes.MappedBytes;
+import net.openhft.chronicle.core.Jvm;
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.core.io.Closeable;
+import net.openhft.chronicle.core.threads.EventHandler;
+import net.openhft.chronicle.core.threads.HandlerPriority;
+import net.openhft.chronicle.core.threads.InvalidEventHandlerException;
+import net.openhft.chronicle.queue.PreallocationMode;
+import net.openhft.chronicle.queue.TailerDirection;
+import net.openhft.chronicle.queue.impl.WireStore;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.text.ParseException;
+
+/**
+ * Grows the latest cycle file ahead of the appenders, so the file is extended and its chunks
+ * mapped on this thread rather than the writer's. In {@link PreallocationMode#TOUCH} mode every
+ * page is also written so the filesystem allocates the blocks up front.
+ * <p>
+ * The expected size of a cycle is the largest final size of the last few cycles plus an eighth,
+ * and at least up to the end of the chunk after the one being written to. Each call to {@link #action()} does a
+ * bounded amount of work so it can share an event loop.
+ */
+public class Preallocator implements EventHandler, Closeable {
+    private static final int HISTORY = 4;
+    private static final long CYCLE_CHECK_INTERVAL_MS = 100;
+    private static final long MAX_TOUCH_PER_ACTION = 1 << 20;
+    private static final int MAX_CHUNKS_PER_ACTION = 8;
+
+    @NotNull
+    private final SingleChronicleQueue queue;
+    @NotNull
+    private final PreallocationMode mode;
+    private final long[] finalSizes = new long[HISTORY];
+    private int sizeCount = 0;
+    private int cycle = Integer.MIN_VALUE;
+    @Nullable
+    private WireStore store;
+    @Nullable
+    private MappedBytes bytes;
+    private long preallocated;
+    private long nextCycleCheckMS = Long.MIN_VALUE;
+    private volatile boolean closed = false;
+
+    public Preallocator(@NotNull SingleChronicleQueue queue, @NotNull PreallocationMode mode) {
+        if (mode == PreallocationMode.NONE)
+            throw new IllegalArgumentException("No preallocation required for " + mode);
+        this.queue = queue;
+        this.mode = mode;
+    }
+
+    @Override
+    public boolean action() throws InvalidEventHandlerException {
+        if (closed) {
+            releaseStore();
+            throw new InvalidEventHandlerException();
+        }
+        long now = System.currentTimeMillis();
+        if (store == null || now >= nextCycleCheckMS) {
+            nextCycleCheckMS = now + CYCLE_CHECK_INTERVAL_MS;
+            checkCycle();
+        }
+        return store != null && preallocate();
+    }
+
+    private void checkCycle() {
+        if (!queue.file().exists())
+            return;
+        int lastCycle = queue.lastCycle();
+        if (lastCycle == Integer.MIN_VALUE || lastCycle == cycle)
+            return;
+
+        if (store != null) {
+            recordFinalSize(store.writePosition());
+            releaseStore();
+        } else if (sizeCount == 0) {
+            recordPreviousCycle(lastCycle);
+        }
+
+        WireStore wireStore = queue.storeForCycle(lastCycle, queue.epoch(), false);
+        if (wireStore == null)
+            return;
+        cycle = lastCycle;
+        store = wireStore;
+        bytes = wireStore.bytes();
+        preallocated = 0;
+    }
+
+    private void recordPreviousCycle(int lastCycle) {
+        try {
+            int previous = queue.nextCycle(lastCycle, TailerDirection.BACKWARD);
+            if (previous < 0)
+                return;
+            WireStore previousStore = queue.storeForCycle(previous, queue.epoch(), false);
+            if (previousStore == null)
+                return;
+            try {
+                recordFinalSize(previousStore.writePosition());
+            } finally {
+                queue.release(previousStore);
+            }
+        } catch (ParseException e) {
+            Jvm.debug().on(getClass(), e);
+        }
+    }
+
+    private void recordFinalSize(long size) {
+        finalSizes[sizeCount++ % HISTORY] = size;
+    }
+
+    /**
+     * @return the size the current cycle is expected to grow to.
+     */
+    public long expectedSize() {
+        long max = 0;
+        for (int i = 0; i < Math.min(sizeCount, HISTORY); i++)
+            max = Math.max(max, finalSizes[i]);
+        return max + max / 8;
+    }
+
+    private boolean preallocate() {
+        assert store != null && bytes != null;
+        long chunkSize = bytes.mappedFile().chunkSize();
+        long writePosition = store.writePosition();
+        // always have the chunk after the one being written to ready.
+        long target = Math.max(expectedSize(), (writePosition / chunkSize + 2) * chunkSize);
+        if (preallocated < writePosition)
+            preallocated = writePosition - writePosition % OS.pageSize();
+        if (preallocated >= target)
+            return false;
+
+        if (mode == PreallocationMode.TOUCH) {
+            long end = Math.min(target, preallocated + MAX_TOUCH_PER_ACTION);
+            for (; preallocated < end; preallocated += OS.pageSize())
+                bytes.compareAndSwapInt(preallocated, 0, 0);
+        } else {
+            // reading from each chunk is enough to grow the file and map it. Read from the middle
+            // as the start of a chunk is also in the overlap of the previous mapping.
+            for (int i = 0; i < MAX_CHUNKS_PER_ACTION && preallocated < target; i++) {
+                long chunkStart = preallocated - preallocated % chunkSize;
+                bytes.readVolatileInt(chunkStart + chunkSize / 2);
+                preallocated = chunkStart + chunkSize;
+            }
+        }
+        return true;
+    }
+
+    private void releaseStore() {
+        if (store == null)
+            return;
+        try {
+            if (bytes != null)
+                store.releaseWithStore(bytes);
+            queue.release(store);
+        } catch (IllegalStateException e) {
+            // the queue was closed first.
+            Jvm.debug().on(getClass(), e);
+        }
+        store = null;
+        bytes = null;
+    }
+
+    @Override
+    public HandlerPriority priority() {
+        return HandlerPriority.TIMER;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+}
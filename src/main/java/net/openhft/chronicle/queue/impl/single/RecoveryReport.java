@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.wire.AbstractMarshallable;
+
+/**
+ * What {@link SingleChronicleQueue#recover()} found at the end of the latest cycle, and what it
+ * fixed.
+ */
+public class RecoveryReport extends AbstractMarshallable {
+    int cycle;
+    long scannedFrom;
+    long scannedTo;
+    long entriesScanned;
+    long notCompletePosition = -1;
+    long bytesCleared;
+    boolean unrecoverable;
+    long writePositionBefore;
+    long writePositionAfter;
+    int indexValuesReset;
+    boolean complete;
+
+    RecoveryReport(int cycle) {
+        this.cycle = cycle;
+    }
+
+    public int cycle() {
+        return cycle;
+    }
+
+    /**
+     * @return the position the scan started from, the last excerpt indexed.
+     */
+    public long scannedFrom() {
+        return scannedFrom;
+    }
+
+    /**
+     * @return the position the scan stopped at, the end of the excerpts written.
+     */
+    public long scannedTo() {
+        return scannedTo;
+    }
+
+    public long entriesScanned() {
+        return entriesScanned;
+    }
+
+    /**
+     * @return the position of the header left not complete by a writer, which was cleared, or -1
+     * if there wasn't one.
+     */
+    public long notCompletePosition() {
+        return notCompletePosition;
+    }
+
+    /**
+     * @return how many bytes of the message left not complete were cleared.
+     */
+    public long bytesCleared() {
+        return bytesCleared;
+    }
+
+    /**
+     * @return true if the message left not complete had no length and nothing after it to end
+     * it, so everything up to the end of the file was cleared. How long it was can't be recovered.
+     */
+    public boolean unrecoverable() {
+        return unrecoverable;
+    }
+
+    public long writePositionBefore() {
+        return writePositionBefore;
+    }
+
+    public long writePositionAfter() {
+        return writePositionAfter;
+    }
+
+    /**
+     * @return how many index values left not complete were reset.
+     */
+    public int indexValuesReset() {
+        return indexValuesReset;
+    }
+
+    /**
+     * @return false if the scan ran out of time, leaving the rest to be recovered as it is found.
+     */
+    public boolean complete() {
+        return complete;
+    }
+
+    /**
+     * @return whether anything was fixed.
+     */
+    public boolean repaired() {
+        return notCompletePosition >= 0 || writePositionBefore != writePositionAfter || indexValuesReset > 0;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.core.Jvm;
+import net.openhft.chronicle.core.io.Closeable;
+import net.openhft.chronicle.core.threads.EventHandler;
+import net.openhft.chronicle.core.threads.HandlerPriority;
+import net.openhft.chronicle.core.threads.InvalidEventHandlerException;
+import net.openhft.chronicle.queue.RetentionPolicy;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.text.ParseException;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * Deletes the cycles of a queue which fall outside its {@link RetentionPolicy}, and picks the
+ * older cycles it keeps for its {@link CycleCompressor} if the policy asks for them to be
+ * compressed.
+ * <p>
+ * This runs as a TIMER handler on an event loop and only checks every {@link
+ * RetentionPolicy#checkIntervalMS()}, so the appenders never wait for it. The latest cycle is
+ * always kept. Cycles are deleted oldest first, so a cycle which is reserved by a tailer or
+ * appender in this process stops the deletion there until it has been released, and the cycles
+ * left are always contiguous.
+ */
+public class RetentionEngine implements EventHandler, Closeable {
+    @NotNull
+    private final SingleChronicleQueue queue;
+    @NotNull
+    private final RetentionPolicy policy;
+    @Nullable
+    private final CycleCompressor compressor;
+    private long nextCheckMS = Long.MIN_VALUE;
+    private volatile boolean closed = false;
+
+    public RetentionEngine(@NotNull SingleChronicleQueue queue, @NotNull RetentionPolicy policy) {
+        this.queue = queue;
+        this.policy = policy;
+        this.compressor = policy.uncompressedCycles() == Integer.MAX_VALUE ? null : new CycleCompressor(queue);
+    }
+
+    /**
+     * @return the handler which compresses the cycles this engine picks, or null if the policy
+     * doesn't compress any.
+     */
+    @Nullable
+    public CycleCompressor compressor() {
+        return compressor;
+    }
+
+    @Override
+    public boolean action() throws InvalidEventHandlerException {
+        if (closed)
+            throw new InvalidEventHandlerException();
+        long now = queue.time().currentTimeMillis();
+        if (now < nextCheckMS)
+            return false;
+        nextCheckMS = now + policy.checkIntervalMS();
+        return applyRetention() > 0;
+    }
+
+    /**
+     * @return the number of cycles deleted.
+     */
+    public int applyRetention() {
+        if (!queue.file().exists())
+            return 0;
+        NavigableMap<Long, File> cycles;
+        try {
+            cycles = queue.cycleFiles();
+        } catch (ParseException e) {
+            Jvm.warn().on(getClass(), "Unable to list the cycles of " + queue.file(), e);
+            return 0;
+        }
+        if (cycles.size() <= 1)
+            return 0;
+
+        long now = queue.time().currentTimeMillis();
+        long cycleLength = queue.rollCycle().length();
+        long epoch = queue.epoch();
+        int kept = 0;
+        long keptBytes = 0;
+        NavigableMap<Long, File> expired = null;
+        for (Map.Entry<Long, File> entry : cycles.descendingMap().entrySet()) {
+            int cycle = entry.getKey().intValue();
+            File file = entry.getValue();
+            long length = file.length();
+            if (kept > 0 && !isRetained(kept, keptBytes + length, now - ((cycle + 1) * cycleLength + epoch))) {
+                // this cycle and every older one fall outside the policy.
+                expired = cycles.headMap(entry.getKey(), true);
+                break;
+            }
+            kept++;
+            keptBytes += length;
+            if (compressor != null && kept > policy.uncompressedCycles()
+                    && file.getName().endsWith(SingleChronicleQueue.SUFFIX))
+                compressor.compressLater(cycle);
+        }
+        if (expired == null)
+            return 0;
+
+        // delete the oldest first so the cycles left are contiguous.
+        int deleted = 0;
+        for (Map.Entry<Long, File> entry : expired.entrySet()) {
+            int cycle = entry.getKey().intValue();
+            File file = entry.getValue();
+            if (!queue.deleteCycle(cycle, file)) {
+                // still in use, the cycles after it are deleted once it is not.
+                break;
+            }
+            Jvm.debug().on(getClass(), "Deleted cycle " + cycle + " " + file);
+            deleted++;
+        }
+        return deleted;
+    }
+
+    private boolean isRetained(int keptCycles, long keptBytes, long ageMS) {
+        return keptCycles < policy.maxCycles()
+                && keptBytes <= policy.maxBytes()
+                && ageMS <= policy.maxAgeMS();
+    }
+
+    @Override
+    public HandlerPriority priority() {
+        return HandlerPriority.TIMER;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        if (compressor != null)
+            compressor.close();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+}
@@ -3,6 +3,9 @@ package net.openhft.chronicle.queue.impl.single;
 
 import net.openhft.chronicle.bytes.Byteable;
 import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.bytes.BytesStore;
+import net.openhft.chronicle.bytes.MappedBytes;
+import net.openhft.chronicle.bytes.MappedBytesStore;
 import net.openhft.chronicle.bytes.ref.BinaryLongReference;
 import net.openhft.chronicle.core.Maths;
 import net.openhft.chronicle.core.annotation.UsedViaReflection;
@@ -13,9 +16,12 @@ import net.openhft.chronicle.queue.impl.ExcerptContext;
 import net.openhft.chronicle.threads.Pauser;
 import net.openhft.chronicle.wire.*;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.EOFException;
 import java.io.StreamCorruptedException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.function.Supplier;
@@ -33,6 +39,8 @@ class SCQIndexing implements Demarshallable, WriteMarshallable, Closeable {
     private final LongValue nextEntryToBeIndexed;
     private final ThreadLocal<LongArrayValuesHolder> index2indexArray;
     private final ThreadLocal<LongArrayValuesHolder> indexArray;
+    // every holder of every thread, so the chunks they pin are unpinned on close.
+    private final Queue<LongArrayValuesHolder> holders = new ConcurrentLinkedQueue<>();
     private final WriteMarshallable index2IndexTemplate;
     private final WriteMarshallable indexTemplate;
     LongValue writePosition;
@@ -62,8 +70,8 @@ class SCQIndexing implements Demarshallable, WriteMarshallable, Closeable {
         this.indexSpacingBits = Maths.intLog2(indexSpacing);
         this.index2Index = index2Index;
         this.nextEntryToBeIndexed = nextEntryToBeIndexed;
-        this.index2indexArray = withInitial(() -> new LongArrayValuesHolder(longArraySupplier.get()));
-        this.indexArray = withInitial(() -> new LongArrayValuesHolder(longArraySupplier.get()));
+        this.index2indexArray = withInitial(() -> newHolder(longArraySupplier));
+        this.indexArray = withInitial(() -> newHolder(longArraySupplier));
         this.index2IndexTemplate = w -> w.writeEventName(() -> "index2index").int64array(indexCount);
         this.indexTemplate = w -> w.writeEventName(() -> "index").int64array(indexCount);
     }
@@ -83,8 +91,17 @@ class SCQIndexing implements Demarshallable, WriteMarshallable, Closeable {
         return mask & siftedIndex;
     }
 
+    @NotNull
+    private LongArrayValuesHolder newHolder(@NotNull Supplier<LongArrayValues> longArraySupplier) {
+        LongArrayValuesHolder holder = new LongArrayValuesHolder(longArraySupplier.get());
+        holders.add(holder);
+        return holder;
+    }
+
     @Override
     public void close() {
+        for (LongArrayValuesHolder holder; (holder = holders.poll()) != null; )
+            holder.unpin();
     }
 
     @Override
@@ -157,11 +174,12 @@ class SCQIndexing implements Demarshallable, WriteMarshallable, Closeable {
         holder.address = secondaryAddress;
         wire.bytes().readPositionRemaining(secondaryAddress, 256 << 20);
         wire.readMetaDataHeader();
-        return array(wire, holder.values, false);
+        return array(wire, holder, false);
     }
 
     @NotNull
-    private LongArrayValues array(@NotNull WireIn w, @NotNull LongArrayValues using, boolean index2index) {
+    private LongArrayValues array(@NotNull WireIn w, @NotNull LongArrayValuesHolder holder, boolean index2index) {
+        LongArrayValues using = holder.values;
         final StringBuilder sb = Wires.acquireStringBuilder();
         @NotNull final ValueIn valueIn = w.readEventName(sb);
         String name = index2index ? "index2index" : "index";
@@ -170,6 +188,7 @@ class SCQIndexing implements Demarshallable, WriteMarshallable, Closeable {
 
         valueIn.int64array(using, this, (o1, o2) -> {
         });
+        holder.pin(w.bytes());
         return using;
     }
 
@@ -403,6 +422,93 @@ class SCQIndexing implements Demarshallable, WriteMarshallable, Closeable {
         return nextEntryToBeIndexed.getVolatileValue();
     }
 
+    /**
+     * Reset the index2index, or any entry in it, left not complete by a writer which died while
+     * adding an index. Only safe when no other writer is adding an index.
+     *
+     * @return the number of values reset.
+     */
+    int recoverNotComplete(@NotNull Wire wire) {
+        long index2Index = this.index2Index.getVolatileValue();
+        if (index2Index == BinaryLongReference.LONG_NOT_COMPLETE)
+            return this.index2Index.compareAndSwapValue(index2Index, NOT_INITIALIZED) ? 1 : 0;
+        if (index2Index == NOT_INITIALIZED)
+            return 0;
+
+        LongArrayValues index2indexArr = index2indexArray(wire, index2Index);
+        int reset = 0;
+        // the used count is only raised once an index is added, so check them all.
+        for (int index2 = 0; index2 < index2indexArr.getCapacity(); index2++) {
+            if (index2indexArr.getVolatileValueAt(index2) == BinaryLongReference.LONG_NOT_COMPLETE
+                    && index2indexArr.compareAndSet(index2, BinaryLongReference.LONG_NOT_COMPLETE, NOT_INITIALIZED))
+                reset++;
+        }
+        return reset;
+    }
+
+    /**
+     * @return the first position after pos at which the index has an excerpt or an index array
+     * start, or -1 if there isn't one.
+     */
+    long firstKnownPositionAfter(@NotNull Wire wire, long pos) {
+        long index2Index = this.index2Index.getVolatileValue();
+        if (index2Index <= 0)
+            return -1;
+        long first = index2Index > pos ? index2Index : Long.MAX_VALUE;
+
+        LongArrayValues index2indexArr = index2indexArray(wire, index2Index);
+        long lastSecondary = 0;
+        for (int index2 = 0; index2 < Maths.toUInt31(index2indexArr.getUsed()); index2++) {
+            long secondaryAddress = index2indexArr.getVolatileValueAt(index2);
+            if (secondaryAddress <= 0)
+                continue;
+            if (secondaryAddress > pos)
+                first = Math.min(first, secondaryAddress);
+            lastSecondary = secondaryAddress;
+        }
+        // only the last array can index excerpts after the last array was added.
+        if (lastSecondary > 0) {
+            LongArrayValues indexValues = arrayForAddress(wire, lastSecondary);
+            for (int index1 = 0; index1 < Maths.toUInt31(indexValues.getUsed()); index1++) {
+                long position = indexValues.getVolatileValueAt(index1);
+                if (position > pos)
+                    first = Math.min(first, position);
+            }
+        }
+        return first == Long.MAX_VALUE ? -1 : first;
+    }
+
+    /**
+     * @return the position of the last excerpt indexed, or 0 if none have been.
+     */
+    long lastIndexedPosition(@NotNull Wire wire) {
+        long index2Index = this.index2Index.getVolatileValue();
+        if (index2Index <= 0)
+            return 0;
+
+        LongArrayValues index2indexArr = index2indexArray(wire, index2Index);
+        for (int index2 = Maths.toUInt31(index2indexArr.getUsed()) - 1; index2 >= 0; index2--) {
+            long secondaryAddress = index2indexArr.getVolatileValueAt(index2);
+            if (secondaryAddress <= 0)
+                continue;
+            LongArrayValues indexValues = arrayForAddress(wire, secondaryAddress);
+            for (int index1 = Maths.toUInt31(indexValues.getUsed()) - 1; index1 >= 0; index1--) {
+                long pos = indexValues.getVolatileValueAt(index1);
+                if (pos > 0)
+                    return pos;
+            }
+        }
+        return 0;
+    }
+
+    @NotNull
+    private LongArrayValues index2indexArray(@NotNull Wire wire, long index2Index) {
+        LongArrayValuesHolder holder = index2indexArray.get();
+        wire.bytes().readPositionRemaining(index2Index, 256 << 20);
+        wire.readMetaDataHeader();
+        return array(wire, holder, true);
+    }
+
     long sequenceForPosition(@NotNull StoreRecovery recovery,
                              @NotNull ExcerptContext ec,
                              final long position,
@@ -479,7 +585,7 @@ class SCQIndexing implements Demarshallable, WriteMarshallable, Closeable {
                     continue;
                 }
 
-                return array(wire, values, true);
+                return array(wire, holder, true);
             }
         }
     }
@@ -588,10 +694,39 @@ class SCQIndexing implements Demarshallable, WriteMarshallable, Closeable {
     static class LongArrayValuesHolder {
         final LongArrayValues values;
         long address;
+        // the chunk the values are bound to, if it could otherwise be unmapped under them.
+        @Nullable
+        private BudgetedMappedFile file;
+        @Nullable
+        private BytesStore pinned;
 
         LongArrayValuesHolder(LongArrayValues values) {
             this.values = values;
             address = Long.MIN_VALUE;
         }
+
+        /**
+         * Pin the chunk the values have just been bound to, in place of the last one. Values bound
+         * to the MappedBytes itself need no pin as it maps the chunk again if it has been unmapped.
+         */
+        synchronized void pin(@NotNull Bytes<?> bytes) {
+            BytesStore store = ((Byteable) values).bytesStore();
+            if (store == pinned)
+                return;
+            unpin();
+            if (store instanceof MappedBytesStore && bytes instanceof MappedBytes && ((MappedBytes) bytes).mappedFile() instanceof BudgetedMappedFile) {
+                file = (BudgetedMappedFile) ((MappedBytes) bytes).mappedFile();
+                file.pin(store);
+                pinned = store;
+            }
+        }
+
+        synchronized void unpin() {
+            if (pinned != null) {
+                file.unpin(pinned);
+                pinned = null;
+                file = null;
+            }
+        }
     }
 }
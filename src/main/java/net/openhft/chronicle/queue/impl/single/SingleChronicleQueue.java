@@ -20,14 +20,21 @@ import net.openhft.chronicle.bytes.BytesRingBufferStats;
 import net.openhft.chronicle.bytes.MappedBytes;
 import net.openhft.chronicle.core.Jvm;
 import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.core.io.IORuntimeException;
 import net.openhft.chronicle.core.threads.EventLoop;
 import net.openhft.chronicle.core.time.TimeProvider;
 import net.openhft.chronicle.core.util.StringUtils;
+import net.openhft.chronicle.queue.CompressionCodec;
+import net.openhft.chronicle.queue.DurabilityPolicy;
 import net.openhft.chronicle.queue.ExcerptAppender;
 import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.LeasedAppender;
+import net.openhft.chronicle.queue.PreallocationMode;
+import net.openhft.chronicle.queue.RetentionPolicy;
 import net.openhft.chronicle.queue.RollCycle;
 import net.openhft.chronicle.queue.TailerDirection;
 import net.openhft.chronicle.queue.impl.*;
+import net.openhft.chronicle.threads.EventGroup;
 import net.openhft.chronicle.threads.Pauser;
 import net.openhft.chronicle.wire.*;
 import org.jetbrains.annotations.NotNull;
@@ -42,6 +49,7 @@ import java.util.NavigableSet;
 import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -52,6 +60,7 @@ import static net.openhft.chronicle.queue.TailerDirection.NONE;
 public class SingleChronicleQueue implements RollingChronicleQueue {
 
     public static final String SUFFIX = ".cq4";
+    public static final String COMPRESSED_SUFFIX = ".cq4z";
 
     protected final ThreadLocal<ExcerptAppender> excerptAppenderThreadLocal = ThreadLocal.withInitial(this::newAppender);
     protected final int sourceId;
@@ -64,6 +73,8 @@ public class SingleChronicleQueue implements RollingChronicleQueue {
     @NotNull
     private final RollingResourcesCache dateCache;
     @NotNull
+    private final StoreSupplier storeSupplier;
+    @NotNull
     private final WireStorePool pool;
     private final long epoch;
     private final boolean isBuffered;
@@ -76,21 +87,47 @@ public class SingleChronicleQueue implements RollingChronicleQueue {
     private final long bufferCapacity;
     private final int indexSpacing;
     private final int indexCount;
+    private final int fixedLength;
+    private final int excerptAlignment;
+    private final int slabSize;
+    @NotNull
+    private final CompressionCodec compression;
+    private final int compressionThreshold;
+    // the cost of aligning excerpts, added to by every appender.
+    private final LongAdder alignedExcerpts = new LongAdder();
+    private final LongAdder alignmentPaddingBytes = new LongAdder();
     @NotNull
     private final TimeProvider time;
     @NotNull
     private final BiFunction<RollingChronicleQueue, Wire, WireStore> storeFactory;
     private final StoreRecoveryFactory recoverySupplier;
+    private final long maxCycleBytes;
+    private final long maxCycleExcerpts;
+    private final boolean unmapConsumedChunks;
+    @Nullable
+    private final RetentionEngine retentionEngine;
+    @Nullable
+    private final Preallocator preallocator;
+    @Nullable
+    private final DurabilityEngine durabilityEngine;
+    @Nullable
+    private final SlabSealer slabSealer;
+    @Nullable
+    private final EventLoop backgroundEventLoop;
+    @Nullable
+    private final RecoveryReport recoveryReport;
     long firstAndLastCycleTime = 0;
     int firstCycle = Integer.MAX_VALUE, lastCycle = Integer.MIN_VALUE;
-    private ThreadLocal<ExcerptContext> tlTailer;
+    @NotNull
+    private final AppenderPool appenderPool;
 
     protected SingleChronicleQueue(@NotNull final SingleChronicleQueueBuilder builder) {
         rollCycle = builder.rollCycle();
         epoch = builder.epoch();
         dateCache = new RollingResourcesCache(this.rollCycle, epoch, textToFile(builder),
                 fileToText());
-        pool = WireStorePool.withSupplier(new StoreSupplier(), builder.storeFileListener());
+        storeSupplier = new StoreSupplier();
+        pool = WireStorePool.withSupplier(storeSupplier, builder.storeFileListener());
         isBuffered = builder.buffered();
         path = builder.path();
         wireType = builder.wireType();
@@ -100,13 +137,60 @@ public class SingleChronicleQueue implements RollingChronicleQueue {
         onRingBufferStats = builder.onRingBufferStats();
         indexCount = builder.indexCount();
         indexSpacing = builder.indexSpacing();
+        fixedLength = builder.fixedLength();
+        excerptAlignment = builder.excerptAlignment();
+        slabSize = builder.slabSize();
+        if (slabSize > 0 && (fixedLength > 0 || excerptAlignment > 0))
+            throw new IllegalArgumentException("A slabSize can't be combined with a fixedLength or excerptAlignment");
+        // so a published slab spans at most two chunks, as an excerpt does.
+        if (slabSize > OS.pageAlign(blockSize / 4))
+            throw new IllegalArgumentException("A slabSize can't be larger than a quarter of the blockSize of " + blockSize);
+        compression = builder.compression();
+        compressionThreshold = builder.compressionThreshold();
+        if (compression != CompressionCodec.NONE && (fixedLength > 0 || slabSize > 0))
+            throw new IllegalArgumentException("A compression can't be combined with a fixedLength or slabSize");
         time = builder.timeProvider();
         pauserSupplier = builder.pauserSupplier();
         timeoutMS = builder.timeoutMS();
         storeFactory = builder.storeFactory();
         sourceId = builder.sourceId();
         recoverySupplier = builder.recoverySupplier();
-        tlTailer = ThreadLocal.withInitial(() -> new SingleChronicleQueueExcerpts.StoreTailer(this));
+        maxCycleBytes = builder.maxCycleBytes();
+        maxCycleExcerpts = builder.maxCycleExcerpts();
+        unmapConsumedChunks = builder.unmapConsumedChunks();
+        appenderPool = new AppenderPool(this, builder.appenderPoolSize(), builder.leaseTimeoutMS());
+
+        // before anything else in this process writes to the latest cycle.
+        recoveryReport = builder.recoverOnOpen() ? recover() : null;
+
+        RetentionPolicy retentionPolicy = builder.retentionPolicy();
+        retentionEngine = retentionPolicy == null ? null : new RetentionEngine(this, retentionPolicy);
+        PreallocationMode preallocationMode = builder.preallocationMode();
+        preallocator = preallocationMode == PreallocationMode.NONE ? null : new Preallocator(this, preallocationMode);
+        DurabilityPolicy durabilityPolicy = builder.durabilityPolicy();
+        durabilityEngine = durabilityPolicy.isNone() ? null : new DurabilityEngine(this, durabilityPolicy);
+        slabSealer = slabSize > 0 ? new SlabSealer() : null;
+
+        // background handlers run on the builder's event loop, or one of our own.
+        if (eventLoop != null || (retentionEngine == null && preallocator == null && durabilityEngine == null && slabSealer == null)) {
+            backgroundEventLoop = null;
+        } else {
+            backgroundEventLoop = new EventGroup(true);
+        }
+        EventLoop loop = backgroundEventLoop == null ? eventLoop : backgroundEventLoop;
+        if (retentionEngine != null) {
+            loop.addHandler(retentionEngine);
+            if (retentionEngine.compressor() != null)
+                loop.addHandler(retentionEngine.compressor());
+        }
+        if (preallocator != null)
+            loop.addHandler(preallocator);
+        if (durabilityEngine != null)
+            loop.addHandler(durabilityEngine);
+        if (slabSealer != null)
+            loop.addHandler(slabSealer);
+        if (backgroundEventLoop != null)
+            backgroundEventLoop.start();
     }
 
     @NotNull
@@ -118,10 +202,25 @@ public class SingleChronicleQueue implements RollingChronicleQueue {
     private Function<File, String> fileToText() {
         return file -> {
             String name = file.getName();
-            return name.substring(0, name.length() - SUFFIX.length());
+            int suffix = name.endsWith(COMPRESSED_SUFFIX) ? COMPRESSED_SUFFIX.length() : SUFFIX.length();
+            return name.substring(0, name.length() - suffix);
         };
     }
 
+    static boolean isCycleFile(@NotNull String name) {
+        return name.endsWith(SUFFIX) || name.endsWith(COMPRESSED_SUFFIX);
+    }
+
+    @NotNull
+    private static File compressedFile(@NotNull File cycleFile) {
+        String path = cycleFile.getPath();
+        return new File(path.substring(0, path.length() - SUFFIX.length()) + COMPRESSED_SUFFIX);
+    }
+
+    private static boolean cycleFileExists(@NotNull File cycleFile) {
+        return cycleFile.exists() || compressedFile(cycleFile).exists();
+    }
+
     @Override
     public int sourceId() {
         return sourceId;
@@ -210,6 +309,54 @@ public class SingleChronicleQueue implements RollingChronicleQueue {
         return indexSpacing;
     }
 
+    @Override
+    public int fixedLength() {
+        return fixedLength;
+    }
+
+    public int excerptAlignment() {
+        return excerptAlignment;
+    }
+
+    public int slabSize() {
+        return slabSize;
+    }
+
+    @NotNull
+    @Override
+    public CompressionCodec compression() {
+        return compression;
+    }
+
+    public int compressionThreshold() {
+        return compressionThreshold;
+    }
+
+    @Nullable
+    SlabSealer slabSealer() {
+        return slabSealer;
+    }
+
+    /**
+     * @return the number of excerpts written aligned by appenders of this queue.
+     */
+    public long alignedExcerpts() {
+        return alignedExcerpts.sum();
+    }
+
+    /**
+     * @return the bytes of padding written to align excerpts, including records of padding.
+     */
+    public long alignmentPaddingBytes() {
+        return alignmentPaddingBytes.sum();
+    }
+
+    void alignmentPadding(int bytes, boolean excerpt) {
+        if (excerpt)
+            alignedExcerpts.increment();
+        alignmentPaddingBytes.add(bytes);
+    }
+
     @Override
     public long epoch() {
         return epoch;
@@ -225,6 +372,27 @@ public class SingleChronicleQueue implements RollingChronicleQueue {
         return recoverySupplier;
     }
 
+    /**
+     * @return the size of a cycle in bytes which triggers a roll to the next cycle.
+     */
+    public long maxCycleBytes() {
+        return maxCycleBytes;
+    }
+
+    /**
+     * @return the number of excerpts in a cycle which triggers a roll to the next cycle.
+     */
+    public long maxCycleExcerpts() {
+        return maxCycleExcerpts;
+    }
+
+    /**
+     * @return true if a cycle can be rolled before its time is up.
+     */
+    public boolean rollsOnSize() {
+        return maxCycleBytes != Long.MAX_VALUE || maxCycleExcerpts != Long.MAX_VALUE;
+    }
+
     /**
      * @return if we uses a ring buffer to buffer the appends, the Excerpts are written to the
      * Chronicle Queue using a background thread
@@ -248,6 +416,18 @@ public class SingleChronicleQueue implements RollingChronicleQueue {
         return excerptAppenderThreadLocal.get();
     }
 
+    /**
+     * Lease an appender from a pool of at most {@code appenderPoolSize}, waiting up to {@code
+     * leaseTimeoutMS} for one to be returned if they are all in use.
+     *
+     * @throws UnrecoverableTimeoutException if no appender was returned in time.
+     */
+    @NotNull
+    @Override
+    public LeasedAppender leaseAppender() throws UnrecoverableTimeoutException {
+        return appenderPool.lease();
+    }
+
     @NotNull
     @Override
     public ExcerptTailer createTailer() {
@@ -268,14 +448,31 @@ public class SingleChronicleQueue implements RollingChronicleQueue {
 
     private long exceptsPerCycle(long cycle) {
         WireStore wireStore = storeForCycle((int) cycle, epoch, false);
+        ExcerptContext context = wireStore.acquireContext(timeoutMS);
         try {
-            return wireStore.sequenceForPosition(tlTailer.get(), wireStore.writePosition(),
-                    true) + 1;
+            return wireStore.sequenceForPosition(context, wireStore.writePosition(), true) + 1;
         } catch (Exception e) {
             throw new IllegalStateException(e);
+        } finally {
+            wireStore.releaseContext(context);
+            release(wireStore);
         }
+    }
 
-
+    @Override
+    public long lastSequence(int cycle) throws IllegalStateException {
+        WireStore wireStore = storeForCycle(cycle, epoch, false);
+        if (wireStore == null)
+            return -1;
+        ExcerptContext context = wireStore.acquireContext(timeoutMS);
+        try {
+            return wireStore.sequenceForPosition(context, wireStore.writePosition(), true);
+        } catch (EOFException | StreamCorruptedException | UnrecoverableTimeoutException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            wireStore.releaseContext(context);
+            release(wireStore);
+        }
     }
 
     @Override
@@ -355,6 +552,17 @@ public class SingleChronicleQueue implements RollingChronicleQueue {
 
     @Override
     public void close() {
+        if (slabSealer != null)
+            slabSealer.close();
+        appenderPool.close();
+        if (retentionEngine != null)
+            retentionEngine.close();
+        if (preallocator != null)
+            preallocator.close();
+        if (durabilityEngine != null)
+            durabilityEngine.close();
+        if (backgroundEventLoop != null)
+            backgroundEventLoop.close();
         this.pool.close();
     }
 
@@ -363,6 +571,19 @@ public class SingleChronicleQueue implements RollingChronicleQueue {
         this.pool.release(store);
     }
 
+    /**
+     * Release a store, along with the wires over it which are no longer needed.
+     *
+     * @see WireStore#releaseWithStore(Bytes)
+     */
+    final void release(@NotNull WireStore store, @Nullable Wire... wires) {
+        for (Wire wire : wires) {
+            if (wire != null)
+                store.releaseWithStore(wire.bytes());
+        }
+        this.pool.release(store);
+    }
+
 //    long lastPathListTime = 0;
 //    String[] lastPathList = null;
 
@@ -409,11 +630,13 @@ public class SingleChronicleQueue implements RollingChronicleQueue {
 
         for (String file : files) {
             try {
-                if (!file.endsWith(SUFFIX))
+                if (file.endsWith(SUFFIX))
+                    file = file.substring(0, file.length() - SUFFIX.length());
+                else if (file.endsWith(COMPRESSED_SUFFIX))
+                    file = file.substring(0, file.length() - COMPRESSED_SUFFIX.length());
+                else
                     continue;
 
-                file = file.substring(0, file.length() - SUFFIX.length());
-
                 int fileCycle = dateCache.parseCount(file);
                 if (firstCycle > fileCycle)
                     firstCycle = fileCycle;
@@ -437,6 +660,120 @@ public class SingleChronicleQueue implements RollingChronicleQueue {
         return lastCycle;
     }
 
+    @NotNull
+    TimeProvider time() {
+        return time;
+    }
+
+    /**
+     * @return the highest index written since the queue was opened which has been synced to
+     * disk by its {@link DurabilityPolicy}, or Long.MIN_VALUE if none has been.
+     */
+    public long durableIndex() {
+        return durabilityEngine == null ? Long.MIN_VALUE : durabilityEngine.durableIndex();
+    }
+
+    /**
+     * Scan the end of the latest cycle for a message left not complete by a writer which died,
+     * and clear it, rather than waiting for the first append to time out on it. The scan starts
+     * from the last excerpt indexed and gives up after the {@code timeoutMS} of the queue.
+     * <p>
+     * Only safe when no other process is writing to the queue.
+     *
+     * @return what was found and fixed, or null if there are no cycles to recover.
+     */
+    @Nullable
+    public RecoveryReport recover() {
+        int cycle = lastCycle();
+        if (cycle == Integer.MIN_VALUE)
+            return null;
+        WireStore store = storeForCycle(cycle, epoch, false);
+        if (store == null)
+            return null;
+        try {
+            if (!(store instanceof SingleChronicleQueueStore))
+                return null;
+            Wire wire = wireType.apply(store.bytes());
+            return ((SingleChronicleQueueStore) store).recover(wire, cycle, timeoutMS);
+        } finally {
+            release(store);
+        }
+    }
+
+    /**
+     * @return what was recovered when the queue was opened, or null if it wasn't recovered.
+     * @see AbstractChronicleQueueBuilder#recoverOnOpen(boolean)
+     */
+    @Nullable
+    public RecoveryReport recoveryReport() {
+        return recoveryReport;
+    }
+
+    /**
+     * @return the cycle files currently in the queue directory, by cycle.
+     */
+    @NotNull
+    NavigableMap<Long, File> cycleFiles() throws ParseException {
+        return storeSupplier.cycleTree();
+    }
+
+    /**
+     * Delete a cycle file, provided it is not in use in this process.
+     *
+     * @return true if it was deleted.
+     */
+    boolean deleteCycle(int cycle, @NotNull File file) {
+        return pool.deleteIfUnused(cycle, epoch, file);
+    }
+
+    /**
+     * Rewrite a closed cycle as a block compressed file. Tailers read the compressed file
+     * transparently, decompressing a chunk at a time as they move through it. The latest cycle
+     * is never compressed.
+     *
+     * @param cycle to compress
+     * @return true if the cycle was compressed, false if it doesn't exist, is already compressed,
+     * is the latest cycle or is in use in this process.
+     */
+    public boolean compressCycle(int cycle) {
+        if (cycle >= lastCycle())
+            return false;
+        File file = dateCache.resourceFor(cycle).path;
+        if (!file.exists())
+            return false;
+
+        // make sure a tailer reading the compressed copy will move on to the next cycle.
+        WireStore store = storeForCycle(cycle, epoch, false);
+        if (store == null)
+            return false;
+        Wire wire = null;
+        try {
+            wire = wireType.apply(store.bytes());
+            wire.pauser(pauserSupplier.get());
+            wire.bytes().writePosition(store.writePosition());
+            store.writeEOF(wire, timeoutMS);
+        } finally {
+            release(store, wire);
+        }
+
+        File compressed = compressedFile(file);
+        File tmp = new File(compressed.getPath() + ".tmp");
+        try {
+            CompressedMappedFile.compress(file, tmp, CompressedMappedFile.DEFAULT_BLOCK_SIZE);
+        } catch (IOException e) {
+            tmp.delete();
+            throw new IORuntimeException(e);
+        }
+        if (!tmp.renameTo(compressed)) {
+            tmp.delete();
+            return false;
+        }
+        if (deleteCycle(cycle, file))
+            return true;
+        compressed.delete();
+        return false;
+    }
+
     public Consumer<BytesRingBufferStats> onRingBufferStats() {
         return this.onRingBufferStats;
     }
@@ -459,9 +796,16 @@ public class SingleChronicleQueue implements RollingChronicleQueue {
     //
     // *************************************************************************
 
-    private MappedBytes mappedBytes(File cycleFile) throws FileNotFoundException {
+    private MappedBytes mappedBytes(File cycleFile) throws IOException {
         long chunkSize = OS.pageAlign(blockSize);
         long overlapSize = OS.pageAlign(blockSize / 4);
+        if (!cycleFile.exists()) {
+            File compressed = compressedFile(cycleFile);
+            if (compressed.exists())
+                return MappedBytes.mappedBytes(CompressedMappedFile.open(compressed, chunkSize, overlapSize));
+        }
+        if (unmapConsumedChunks)
+            return MappedBytes.mappedBytes(BudgetedMappedFile.open(cycleFile, chunkSize, overlapSize));
         return MappedBytes.mappedBytes(cycleFile, chunkSize, overlapSize);
     }
 
@@ -493,7 +837,7 @@ public class SingleChronicleQueue implements RollingChronicleQueue {
                 if (parentFile != null && !parentFile.exists())
                     parentFile.mkdirs();
 
-                if (!path.exists() && !createIfAbsent)
+                if (!createIfAbsent && !cycleFileExists(path))
                     return null;
 
                 final MappedBytes mappedBytes = mappedBytes(path);
@@ -541,10 +885,14 @@ public class SingleChronicleQueue implements RollingChronicleQueue {
             final RollingResourcesCache dateCache = SingleChronicleQueue.this.dateCache;
             final NavigableMap<Long, File> tree = new TreeMap<>();
 
-            final File[] files = parentFile.listFiles((File file) -> file.getName().endsWith(SUFFIX));
+            final File[] files = parentFile.listFiles((File file) -> isCycleFile(file.getName()));
 
             for (File file : files) {
-                tree.put(dateCache.toLong(file), file);
+                // while a cycle is being compressed, prefer the original file.
+                if (file.getName().endsWith(SUFFIX))
+                    tree.put(dateCache.toLong(file), file);
+                else
+                    tree.putIfAbsent(dateCache.toLong(file), file);
             }
 
             return tree;
@@ -560,7 +908,7 @@ public class SingleChronicleQueue implements RollingChronicleQueue {
             final NavigableMap<Long, File> tree = cycleTree();
             final File currentCycleFile = dateCache.resourceFor(currentCycle).path;
 
-            if (!currentCycleFile.exists())
+            if (!cycleFileExists(currentCycleFile))
                 throw new IllegalStateException("file not exists, currentCycle, " + "file=" + currentCycleFile);
 
             Long key = dateCache.toLong(currentCycleFile);
@@ -598,7 +946,7 @@ public class SingleChronicleQueue implements RollingChronicleQueue {
 
         private Long toKey(int cyle, String m) {
             final File file = dateCache.resourceFor(cyle).path;
-            if (!file.exists())
+            if (!cycleFileExists(file))
                 throw new IllegalStateException("'file not found' for the " + m + ", file=" + file);
             return dateCache.toLong(file);
         }
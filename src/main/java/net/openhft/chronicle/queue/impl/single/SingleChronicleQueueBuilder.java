@@ -34,6 +34,7 @@ public class SingleChronicleQueueBuilder extends AbstractChronicleQueueBuilder<S
         CLASS_ALIASES.addAlias(SCQIndexing.class, "SCQSIndexing");
         CLASS_ALIASES.addAlias(SingleChronicleQueueStore.class, "SCQStore");
         CLASS_ALIASES.addAlias(TimedStoreRecovery.class);
+        CLASS_ALIASES.addAlias(LivenessStoreRecovery.class);
     }
 
     @SuppressWarnings("unchecked")
@@ -95,7 +96,9 @@ public class SingleChronicleQueueBuilder extends AbstractChronicleQueueBuilder<S
                 queue.epoch(),
                 queue.indexCount(),
                 queue.indexSpacing(),
-                queue.recoverySupplier().apply(queue.wireType()));
+                queue.recoverySupplier().apply(queue.wireType()),
+                queue.fixedLength(),
+                queue.compression());
 
         wire.writeEventName(MetaDataKeys.header).typedMarshallable(wireStore);
 
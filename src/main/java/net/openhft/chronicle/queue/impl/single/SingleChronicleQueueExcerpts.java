@@ -31,6 +31,7 @@ import net.openhft.chronicle.queue.impl.RollingChronicleQueue;
 import net.openhft.chronicle.queue.impl.WireStore;
 import net.openhft.chronicle.wire.*;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,6 +41,9 @@ import java.io.StreamCorruptedException;
 import java.nio.BufferOverflowException;
 import java.nio.BufferUnderflowException;
 import java.text.ParseException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static net.openhft.chronicle.queue.TailerDirection.BACKWARD;
 
@@ -64,9 +68,13 @@ public class SingleChronicleQueueExcerpts {
      */
     static class StoreAppender implements ExcerptAppender, ExcerptContext {
         static final int HEAD_ROOM = 1 << 20;
+        private static final int SLAB_IDLE = 0, SLAB_WRITING = 1, SLAB_SEALING = 2;
         @NotNull
         private final SingleChronicleQueue queue;
         private final StoreAppenderContext context;
+        // the thread the appender belongs to, or null if it is leased from a pool.
+        @Nullable
+        private final Thread owner;
 
         private int cycle = Integer.MIN_VALUE;
         private WireStore store;
@@ -82,12 +90,45 @@ public class SingleChronicleQueueExcerpts {
         private long lastTouchedPage = -1;
         private long lastTouchedPos = 0;
         private boolean padToCacheAlign;
+        private final int excerptAlignment;
+        private final int slabSize;
+        // excerpts written privately, and published to the store together.
+        @Nullable
+        private Wire slabWire;
+        // claims the header a slab is published under, and is reused until the cycle changes.
+        @Nullable
+        private Wire claimWire;
+        private final AtomicInteger slabState = new AtomicInteger(SLAB_IDLE);
+        private long slabPosition;
+        private long slabWrites = 0, slabWritesChecked = 0;
+        private final int compressionThreshold;
+        // documents are written here first when excerpts are compressed.
+        @Nullable
+        private Wire compressionWire;
+        @Nullable
+        private Bytes<?> encodedBytes;
 
         public StoreAppender(@NotNull SingleChronicleQueue queue) {
+            this(queue, Thread.currentThread());
+        }
+
+        StoreAppender(@NotNull SingleChronicleQueue queue, @Nullable Thread owner) {
             this.queue = queue;
+            this.owner = owner;
+            excerptAlignment = queue.excerptAlignment();
+            slabSize = queue.slabSize();
+            compressionThreshold = queue.compressionThreshold();
             context = new StoreAppenderContext();
         }
 
+        /**
+         * @return true if the thread this appender belongs to has died, so it won't write again.
+         */
+        boolean isAbandoned() {
+            Thread owner = this.owner;
+            return owner != null && !owner.isAlive();
+        }
+
         @Override
         public void padToCacheAlign(boolean padToCacheAlign) {
             this.padToCacheAlign = padToCacheAlign;
@@ -100,7 +141,16 @@ public class SingleChronicleQueueExcerpts {
 
         @Override
         public void pretouch() {
-            setCycle(queue.cycle(), true);
+            boolean held = holdSlab();
+            try {
+                pretouch0();
+            } finally {
+                releaseSlab(held);
+            }
+        }
+
+        private void pretouch0() {
+            setCycle(appendCycle(), true);
             long pos = store.writePosition();
             MappedBytes bytes = (MappedBytes) wire.bytes();
 
@@ -148,8 +198,13 @@ public class SingleChronicleQueueExcerpts {
 
         @Override
         public ExcerptAppender lazyIndexing(boolean lazyIndexing) {
-            this.lazyIndexing = lazyIndexing;
-            resetPosition();
+            boolean held = holdSlab();
+            try {
+                this.lazyIndexing = lazyIndexing;
+                resetPosition();
+            } finally {
+                releaseSlab(held);
+            }
             return this;
         }
 
@@ -176,10 +231,14 @@ public class SingleChronicleQueueExcerpts {
             SingleChronicleQueue queue = this.queue;
 
             if (this.store != null) {
-                queue.release(this.store);
+                queue.release(this.store, wire, wireForIndex);
             }
             this.store = queue.storeForCycle(cycle, queue.epoch(), createIfAbsent);
             this.cycle = cycle;
+            if (slabSize > 0 && store.fixedLength() > 0)
+                throw new IllegalStateException("A slab can't be published to cycle " + cycle + " as its excerpts have a fixed length");
+            if (slabSize > 0 && store.compression() != CompressionCodec.NONE)
+                throw new IllegalStateException("A slab can't be published to cycle " + cycle + " as its excerpts are compressed");
             resetWires(queue);
 
             // only set the cycle after the wire is set.
@@ -195,6 +254,7 @@ public class SingleChronicleQueueExcerpts {
             WireType wireType = queue.wireType();
             wire = wireType.apply(store.bytes());
             wireForIndex = wireType.apply(store.bytes());
+            claimWire = null;
         }
 
         private void resetPosition() throws UnrecoverableTimeoutException {
@@ -230,10 +290,30 @@ public class SingleChronicleQueueExcerpts {
         @Override
         public DocumentContext writingDocument() throws UnrecoverableTimeoutException {
             assert checkAppendingThread();
+            if (isSlabbed())
+                return writingSlabDocument();
+            boolean compressed = false, ok = false;
+            try {
+                compressed = mayCompress() && compression() != CompressionCodec.NONE;
+                ok = true;
+            } finally {
+                if (!ok)
+                    assert resetAppendingThread();
+            }
+            if (!compressed)
+                return writingStoreDocument();
+            // written to the queue when it is closed, as it is only compressed once complete.
+            context.metaData = false;
+            context.wire = acquireCompressionWire();
+            context.open = true;
+            return context;
+        }
+
+        private DocumentContext writingStoreDocument() throws UnrecoverableTimeoutException {
             assert checkWritePositionHeaderNumber();
             boolean ok = false;
             try {
-                int cycle = queue.cycle();
+                int cycle = appendCycle();
                 for (int i = 0; i <= 100; i++) {
                     try {
                         if (this.cycle != cycle || wire == null) {
@@ -241,11 +321,12 @@ public class SingleChronicleQueueExcerpts {
                         }
                         assert wire != null;
 
-                        long pos = store.writeHeader(wire, Wires.UNKNOWN_LENGTH, timeoutMS());
+                        long pos = writeHeader(Wires.UNKNOWN_LENGTH);
                         position(pos);
 
                         context.metaData = false;
                         context.wire = wire;
+                        context.open = true;
                         break;
 
                     } catch (EOFException theySeeMeRolling) {
@@ -308,6 +389,7 @@ public class SingleChronicleQueueExcerpts {
             assert checkAppendingThread();
             context.wire = acquireBufferWire();
             context.wire.headerNumber(index);
+            context.open = true;
             return context;
         }
 
@@ -318,8 +400,76 @@ public class SingleChronicleQueueExcerpts {
 
         @Override
         public void writeBytes(@NotNull Bytes bytes) throws UnrecoverableTimeoutException {
+            BytesStore encoded = mayCompress() ? encode(bytes, compression()) : bytes;
             // still uses append as it has a known length.
-            append(Maths.toUInt31(bytes.readRemaining()), (m, w) -> w.bytes().write(m), bytes);
+            append(Maths.toUInt31(encoded.readRemaining()), (m, w) -> w.bytes().write(m), encoded);
+        }
+
+        /**
+         * @return false if neither this queue nor the cycle being appended to compress excerpts.
+         */
+        private boolean mayCompress() {
+            if (isSlabbed())
+                return false;
+            return store == null
+                    || store.compression() != CompressionCodec.NONE
+                    || queue.compression() != CompressionCodec.NONE;
+        }
+
+        /**
+         * @return the codec of the cycle to append to, as every data excerpt in a cycle is written
+         * with the codec it was created with.
+         */
+        @NotNull
+        private CompressionCodec compression() throws UnrecoverableTimeoutException {
+            int cycle = appendCycle();
+            if (this.cycle != cycle || wire == null)
+                rollCycleTo(cycle);
+            return store.compression();
+        }
+
+        private Wire acquireCompressionWire() {
+            if (compressionWire == null) {
+                compressionWire = queue.wireType().apply(Bytes.elasticByteBuffer());
+            } else {
+                compressionWire.clear();
+            }
+            return compressionWire;
+        }
+
+        /**
+         * Prefix an excerpt with the byte for how it is compressed, compressing it if it is long
+         * enough and gets shorter.
+         *
+         * @return the excerpt to write.
+         */
+        @NotNull
+        private BytesStore encode(@NotNull BytesStore bytes, @NotNull CompressionCodec compression) {
+            if (compression == CompressionCodec.NONE)
+                return bytes;
+            if (encodedBytes == null)
+                encodedBytes = Bytes.elasticByteBuffer();
+            Bytes<?> encoded = encodedBytes;
+            encoded.clear();
+            long length = bytes.readRemaining();
+            if (length >= compressionThreshold) {
+                encoded.writeByte((byte) compression.ordinal());
+                compression.compress(bytes, bytes.readPosition(), length, encoded);
+                if (encoded.writePosition() - 1 < length)
+                    return encoded;
+                encoded.clear();
+            }
+            encoded.writeByte((byte) CompressionCodec.NONE.ordinal());
+            encoded.write(bytes);
+            return encoded;
+        }
+
+        private void writeMetaData(@NotNull Bytes<?> bytes) throws UnrecoverableTimeoutException {
+            assert checkAppendingThread();
+            writingStoreDocument();
+            context.metaData(true);
+            wire.bytes().write(bytes);
+            context.close();
         }
 
         Wire acquireBufferWire() {
@@ -338,19 +488,24 @@ public class SingleChronicleQueueExcerpts {
             if (bytes.isEmpty())
                 throw new UnsupportedOperationException("Cannot append a zero length message");
             assert checkAppendingThread();
+            boolean held = holdSlab();
             try {
+                // excerpts already written come first.
+                if (held)
+                    publishSlab();
                 moveToIndexForWrite(index);
+                bytes = encode(bytes, store.compression());
 
                 // only get the bytes after moveToIndex
                 Bytes<?> wireBytes = wire.bytes();
                 try {
 //                    wire.bytes().writePosition(store.writePosition());
-                    int length = bytes.length();
+                    int length = fixedLengthFor(bytes.length());
                     // sets the position
                     wire.headerNumber(index);
-                    position(store.writeHeader(wire, length, timeoutMS()));
+                    position(writeHeader(length));
                     wireBytes.write(bytes);
-                    wire.updateHeader(length, position, false);
+                    wire.updateHeader(padExcerpt(length), position, false);
 
                     writeIndexForPosition(index, position);
 
@@ -376,6 +531,7 @@ public class SingleChronicleQueueExcerpts {
                 throw Jvm.rethrow(e);
 
             } finally {
+                releaseSlab(held);
                 if (wire != null) {
                     Bytes<?> wireBytes = wire.bytes();
                     assert resetAppendingThread();
@@ -433,7 +589,18 @@ public class SingleChronicleQueueExcerpts {
 
         @Override
         public long lastIndexAppended() {
+            boolean held = holdSlab();
+            try {
+                // an excerpt is only given an index when its slab is published.
+                if (held)
+                    publishSlab();
+                return lastIndexAppended0();
+            } finally {
+                releaseSlab(held);
+            }
+        }
 
+        private long lastIndexAppended0() {
             if (lastIndex != Long.MIN_VALUE)
                 return lastIndex;
 
@@ -452,15 +619,25 @@ public class SingleChronicleQueueExcerpts {
             }
         }
 
+        @Override
+        public long durableIndex() {
+            return queue.durableIndex();
+        }
+
         @Override
         public int cycle() {
-            if (cycle == Integer.MIN_VALUE) {
-                int cycle = this.queue.lastCycle();
-                if (cycle < 0)
-                    cycle = queue.cycle();
-                setCycle2(cycle, true);
+            boolean held = holdSlab();
+            try {
+                if (cycle == Integer.MIN_VALUE) {
+                    int cycle = this.queue.lastCycle();
+                    if (cycle < 0)
+                        cycle = queue.cycle();
+                    setCycle2(cycle, true);
+                }
+                return cycle;
+            } finally {
+                releaseSlab(held);
             }
-            return cycle;
         }
 
         public SingleChronicleQueue queue() {
@@ -471,14 +648,19 @@ public class SingleChronicleQueueExcerpts {
 
             assert checkAppendingThread();
             try {
-                int cycle = queue.cycle();
+                if (isSlabbed()) {
+                    appendToSlab(length, wireWriter, writer);
+                    return;
+                }
+                int cycle = appendCycle();
                 if (this.cycle != cycle || wire == null)
                     rollCycleTo(cycle);
 
                 try {
-                    position(store.writeHeader(wire, length, timeoutMS()));
+                    length = fixedLengthFor(length);
+                    position(writeHeader(length));
                     wireWriter.write(writer, wire);
-                    wire.updateHeader(length, position, false);
+                    wire.updateHeader(padExcerpt(length), position, false);
                     lastIndex(wire.headerNumber());
                     lastPosition = position;
                     lastCycle = cycle;
@@ -498,6 +680,25 @@ public class SingleChronicleQueueExcerpts {
             }
         }
 
+        /**
+         * @return the cycle to append to, this can be ahead of the time based cycle if the queue
+         * rolls on size.
+         */
+        private int appendCycle() {
+            int cycle = queue.cycle();
+            if (store == null || wire == null || cycle > this.cycle || !queue.rollsOnSize())
+                return cycle;
+            return isCycleFull() ? this.cycle + 1 : this.cycle;
+        }
+
+        private boolean isCycleFull() {
+            if (store.writePosition() >= queue.maxCycleBytes())
+                return true;
+            long headerNumber = wire.headerNumber();
+            return headerNumber != Long.MIN_VALUE
+                    && queue.rollCycle().toSequenceNumber(headerNumber + 1) >= queue.maxCycleExcerpts();
+        }
+
         private void rollCycleTo(int cycle) throws UnrecoverableTimeoutException {
             if (this.cycle == cycle)
                 throw new AssertionError();
@@ -508,10 +709,368 @@ public class SingleChronicleQueueExcerpts {
 
         private <T> void append2(int length, WireWriter<T> wireWriter, T writer) throws UnrecoverableTimeoutException, EOFException, StreamCorruptedException {
             setCycle(Math.max(queue.cycle(), cycle + 1), true);
-            position(store.writeHeader(wire, length, timeoutMS()));
+            length = fixedLengthFor(length);
+            position(writeHeader(length));
 
             wireWriter.write(writer, wire);
-            wire.updateHeader(length, position, false);
+            wire.updateHeader(padExcerpt(length), position, false);
+        }
+
+        /**
+         * Abandon an excerpt still being written, so none of it is seen.
+         *
+         * @return true if there was one.
+         */
+        boolean rollbackDocument() {
+            if (!context.open)
+                return false;
+            context.open = false;
+            Wire wire = context.wire;
+            try {
+                if (wire == this.wire) {
+                    Bytes<?> bytes = wire.bytes();
+                    SingleChronicleQueueStore.clearNotComplete(bytes, position, bytes.readVolatileInt(position), bytes.writePosition());
+                    // the wire is left inside the header, so the cycle is acquired again with another.
+                    releaseCycle();
+
+                } else if (wire == slabWire) {
+                    Bytes<?> slab = wire.bytes();
+                    slab.zeroOut(slabPosition, slab.writePosition());
+                    slab.writePosition(slabPosition);
+                    slab.writeLimit(slab.capacity());
+                    slabWire = queue.wireType().apply(slab);
+                    slabState.set(SLAB_IDLE);
+
+                } else if (wire != null) {
+                    wire.clear();
+                }
+            } finally {
+                assert resetAppendingThread();
+            }
+            return true;
+        }
+
+        /**
+         * Publish the slab, and release the cycle appended to, which is acquired again by the
+         * next write.
+         */
+        void releaseCycle() {
+            boolean held = holdSlab();
+            try {
+                if (held)
+                    publishSlab();
+                if (store == null)
+                    return;
+                queue.release(store, wire, wireForIndex);
+                store = null;
+                wire = null;
+                wireForIndex = null;
+                claimWire = null;
+                cycle = Integer.MIN_VALUE;
+            } finally {
+                releaseSlab(held);
+            }
+        }
+
+        private boolean isSlabbed() {
+            // a cycle with a fixed length or compression is refused when slabbed, see setCycle2.
+            return slabSize > 0;
+        }
+
+        private DocumentContext writingSlabDocument() {
+            boolean ok = false;
+            try {
+                acquireSlabToWrite();
+                try {
+                    slabPosition = writeSlabHeader(Wires.UNKNOWN_LENGTH);
+                    context.metaData = false;
+                    context.wire = slabWire;
+                    context.open = true;
+                    ok = true;
+                } finally {
+                    if (!ok)
+                        slabState.set(SLAB_IDLE);
+                }
+            } finally {
+                if (!ok)
+                    assert resetAppendingThread();
+            }
+            return context;
+        }
+
+        private <T> void appendToSlab(int length, WireWriter<T> wireWriter, T writer) throws UnrecoverableTimeoutException {
+            acquireSlabToWrite();
+            try {
+                Wire slabWire = this.slabWire;
+                long pos = writeSlabHeader(length);
+                wireWriter.write(writer, slabWire);
+                slabWire.updateHeader(length, pos, false);
+                slabWritten();
+            } catch (StreamCorruptedException e) {
+                throw new AssertionError(e);
+            } finally {
+                slabState.set(SLAB_IDLE);
+            }
+        }
+
+        private void acquireSlabToWrite() {
+            while (!slabState.compareAndSet(SLAB_IDLE, SLAB_WRITING))
+                // only held by the sealer while publishing.
+                Thread.yield();
+            if (slabWire == null) {
+                slabWire = queue.wireType().apply(Bytes.elasticByteBuffer(slabSize + 256));
+                queue.slabSealer().register(this);
+            }
+        }
+
+        /**
+         * Keep the {@link SlabSealer} from publishing the slab while the owner uses the wire, store
+         * and cycle, which publishing moves on. The owner already holds it while an excerpt is
+         * being written to the slab.
+         *
+         * @return true if it is held, and must be released.
+         */
+        private boolean holdSlab() {
+            if (slabWire == null)
+                return false;
+            for (; ; ) {
+                int state = slabState.get();
+                if (state == SLAB_WRITING)
+                    return false;
+                if (state == SLAB_IDLE && slabState.compareAndSet(SLAB_IDLE, SLAB_WRITING))
+                    return true;
+                // only held by the sealer while publishing.
+                Thread.yield();
+            }
+        }
+
+        private void releaseSlab(boolean held) {
+            if (held)
+                slabState.set(SLAB_IDLE);
+        }
+
+        private long writeSlabHeader(int length) {
+            try {
+                return slabWire.writeHeader(length, timeoutMS(), TimeUnit.MILLISECONDS, null);
+            } catch (TimeoutException | EOFException e) {
+                // the slab is only written to by this appender.
+                throw new AssertionError(e);
+            }
+        }
+
+        private void slabWritten() throws UnrecoverableTimeoutException {
+            slabWrites++;
+            if (slabWire.bytes().writePosition() >= slabSize)
+                publishSlab();
+        }
+
+        /**
+         * Publish the excerpts in the slab if no more have been written since the last check.
+         *
+         * @return true if any were published.
+         */
+        boolean sealSlabIfIdle() throws UnrecoverableTimeoutException {
+            if (!slabState.compareAndSet(SLAB_IDLE, SLAB_SEALING))
+                return false;
+            try {
+                if (slabWrites != slabWritesChecked) {
+                    slabWritesChecked = slabWrites;
+                    return false;
+                }
+                return publishSlab();
+            } finally {
+                slabState.set(SLAB_IDLE);
+            }
+        }
+
+        /**
+         * Publish the excerpts in the slab, if there is one.
+         *
+         * @param wait for an excerpt being written to the slab, for up to the timeout.
+         * @return true if any were published.
+         */
+        boolean sealSlab(boolean wait) throws UnrecoverableTimeoutException {
+            if (slabWire == null)
+                return false;
+            long timeoutAt = System.currentTimeMillis() + timeoutMS();
+            while (!slabState.compareAndSet(SLAB_IDLE, SLAB_SEALING)) {
+                if (!wait || System.currentTimeMillis() > timeoutAt)
+                    return false;
+                Thread.yield();
+            }
+            try {
+                return publishSlab();
+            } finally {
+                slabState.set(SLAB_IDLE);
+            }
+        }
+
+        /**
+         * Copy the excerpts in the slab to the end of the cycle being appended to, with one header
+         * claimed for all of them. The header of the first is written last so a tailer sees them
+         * all at once, and another writer waits for all of them rather than writing between them.
+         *
+         * @return true if any were published.
+         */
+        private boolean publishSlab() throws UnrecoverableTimeoutException {
+            Bytes<?> slab = slabWire.bytes();
+            long size = slab.writePosition();
+            if (size == 0)
+                return false;
+            try {
+                int cycle = appendCycle();
+                for (int i = 0; i <= 100; i++) {
+                    if (this.cycle != cycle || wire == null)
+                        rollCycleTo(cycle);
+                    Wire claimWire = acquireClaimWire();
+                    claimWire.headerNumber(wire.headerNumber());
+                    try {
+                        long pos = store.writeHeader(claimWire, Wires.UNKNOWN_LENGTH, timeoutMS());
+                        publishSlabAt(claimWire, pos, size, claimWire.headerNumber());
+                        slab.zeroOut(0, size);
+                        slab.clear();
+                        return true;
+
+                    } catch (EOFException theySeeMeRolling) {
+                        // retry.
+                    }
+                    if (i == 100)
+                        throw new IllegalStateException("Unable to roll to the current cycle");
+                    cycle++;
+                }
+                throw new AssertionError();
+            } catch (StreamCorruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+
+        /**
+         * The wire headers are claimed with, which shares the bytes of the wire of the cycle.
+         */
+        @NotNull
+        private Wire acquireClaimWire() {
+            if (claimWire == null) {
+                claimWire = queue.wireType().apply(wire.bytes());
+                claimWire.pauser(wire.pauser());
+            }
+            return claimWire;
+        }
+
+        private void publishSlabAt(Wire claimWire, long pos, long size, long headerNumber) throws StreamCorruptedException, EOFException {
+            Bytes<?> slab = slabWire.bytes();
+            if (headerNumber == Long.MIN_VALUE && !lazyIndexing)
+                headerNumber = queue.rollCycle().toIndex(cycle, store.sequenceForPosition(this, pos, false)) - 1;
+
+            long lastOffset = 0;
+            for (long offset = 0; offset < size; offset += 4 + Wires.lengthOf(slab.readInt(offset)))
+                lastOffset = offset;
+            int lastHeader = slab.readInt(lastOffset);
+
+            // the header of the last excerpt is left not complete, so the claim can be closed with
+            // it, and the claim wire used again.
+            Bytes<?> bytes = wire.bytes();
+            // a write is to the chunk it starts in, unless it starts past half of the overlap
+            // after it, so only half of the overlap is sure to be mapped after the start.
+            long piece = OS.pageAlign(queue.blockSize() / 4) / 2;
+            for (long offset = 4; offset < size; offset += piece)
+                bytes.write(pos + offset, slab, offset, Math.min(piece, size - offset));
+            if (lastOffset > 0)
+                bytes.writeInt(pos + lastOffset, Wires.NOT_COMPLETE | Wires.UNKNOWN_LENGTH);
+            bytes.writePosition(pos + size);
+            claimWire.updateHeader(Wires.UNKNOWN_LENGTH, pos + lastOffset, !Wires.isData(lastHeader));
+            if (lastOffset > 0)
+                bytes.writeOrderedInt(pos, slab.readInt(0));
+
+            long lastDataPosition = -1;
+            for (long offset = 0; offset < size; ) {
+                int header = slab.readInt(offset);
+                if (Wires.isData(header)) {
+                    lastDataPosition = pos + offset;
+                    if (headerNumber != Long.MIN_VALUE)
+                        writeIndexForPosition(++headerNumber, lastDataPosition);
+                }
+                offset += 4 + Wires.lengthOf(header);
+            }
+            wire.headerNumber(headerNumber);
+            if (lastDataPosition < 0)
+                return;
+            position(lastDataPosition);
+            lastIndex(headerNumber);
+            lastPosition = lastDataPosition;
+            lastCycle = cycle;
+            store.writePosition(lastDataPosition);
+        }
+
+        /**
+         * @return the length to write an excerpt with, which is the fixed length of the store if
+         * it has one.
+         */
+        private int fixedLengthFor(int length) {
+            int fixedLength = store.fixedLength();
+            if (fixedLength == 0)
+                return length;
+            if (length > fixedLength)
+                throw new IllegalArgumentException("An excerpt of " + length + " bytes is longer than the fixed length of " + fixedLength);
+            return fixedLength;
+        }
+
+        private boolean isAligned() {
+            return excerptAlignment > 0 && store.fixedLength() == 0;
+        }
+
+        /**
+         * Write a header, which starts on a boundary if excerpts are aligned. Aligned headers are
+         * written with an unknown length, as the length changes when the excerpt is padded.
+         *
+         * @return the position of the header.
+         */
+        private long writeHeader(int length) throws EOFException, UnrecoverableTimeoutException {
+            if (!isAligned())
+                return store.writeHeader(wire, length, timeoutMS());
+            for (; ; ) {
+                long pos = store.writeHeader(wire, Wires.UNKNOWN_LENGTH, timeoutMS());
+                int gap = (int) (-pos & (excerptAlignment - 1));
+                if (gap == 0)
+                    return pos;
+                // the last record didn't end on a boundary, so pad to it with a meta data record.
+                if (gap <= 4)
+                    gap += excerptAlignment;
+                padTo(pos + gap);
+                try {
+                    wire.updateHeader(pos, true);
+                } catch (StreamCorruptedException e) {
+                    throw new AssertionError(e);
+                }
+                queue.alignmentPadding(gap, false);
+            }
+        }
+
+        /**
+         * Pad the excerpt written to its fixed length, or to the next boundary if excerpts are
+         * aligned.
+         *
+         * @return the length to update the header with.
+         */
+        private int padExcerpt(int length) {
+            int fixedLength = store.fixedLength();
+            if (fixedLength > 0) {
+                padTo(position + 4 + fixedLength);
+                return length;
+            }
+            if (excerptAlignment == 0)
+                return length;
+            long end = wire.bytes().writePosition();
+            int padding = (int) (-end & (excerptAlignment - 1));
+            padTo(end + padding);
+            queue.alignmentPadding(padding, true);
+            return Wires.UNKNOWN_LENGTH;
+        }
+
+        private void padTo(long end) {
+            Bytes<?> bytes = wire.bytes();
+            int padding = wire instanceof BinaryWire ? BinaryWireCode.PADDING : ' ';
+            while (bytes.writePosition() < end)
+                bytes.writeUnsignedByte(padding);
         }
 
         private boolean checkAppendingThread() {
@@ -576,6 +1135,8 @@ public class SingleChronicleQueueExcerpts {
 
             private boolean metaData = false;
             private Wire wire;
+            // between writingDocument() and close()
+            private boolean open = false;
 
             @Override
             public int sourceId() {
@@ -599,16 +1160,34 @@ public class SingleChronicleQueueExcerpts {
 
             @Override
             public void metaData(boolean metaData) {
+                if (metaData && store != null && store.fixedLength() > 0)
+                    throw new IllegalStateException("Meta data can't be written between excerpts of a fixed length");
                 this.metaData = metaData;
             }
 
             @Override
             public void close() {
+                open = false;
                 boolean isClosed = false;
                 try {
                     if (wire == StoreAppender.this.wire) {
-                        if (padToCacheAlign)
+                        long tooLong = 0;
+                        if (store.fixedLength() > 0) {
+                            Bytes<?> bytes = wire.bytes();
+                            if (bytes.writePosition() > position + 4 + store.fixedLength()) {
+                                // left empty rather than cut short.
+                                tooLong = bytes.writePosition() - position - 4;
+                                bytes.zeroOut(position + 4, bytes.writePosition());
+                                bytes.writePosition(position + 4);
+                            }
+                            padExcerpt(0);
+
+                        } else if (excerptAlignment > 0) {
+                            padExcerpt(0);
+
+                        } else if (padToCacheAlign) {
                             wire.padToCacheAlign();
+                        }
 
                         wire.updateHeader(position, metaData);
 
@@ -624,6 +1203,23 @@ public class SingleChronicleQueueExcerpts {
                                 assert lazyIndexing || checkIndex(lastIndex, position);
                         }
                         assert checkWritePositionHeaderNumber();
+                        if (tooLong > 0)
+                            throw new IllegalArgumentException("An excerpt of " + tooLong + " bytes is longer than the fixed length of " + store.fixedLength());
+                    } else if (wire != null && wire == compressionWire) {
+                        isClosed = true;
+                        assert resetAppendingThread();
+                        // meta data isn't compressed.
+                        if (metaData)
+                            writeMetaData(wire.bytes());
+                        else
+                            writeBytes(wire.bytes());
+                    } else if (wire != null && wire == slabWire) {
+                        try {
+                            wire.updateHeader(slabPosition, metaData);
+                            slabWritten();
+                        } finally {
+                            slabState.set(SLAB_IDLE);
+                        }
                     } else if (wire != null) {
                         isClosed = true;
                         assert resetAppendingThread();
@@ -631,7 +1227,8 @@ public class SingleChronicleQueueExcerpts {
                         wire = StoreAppender.this.wire;
                     }
                 } catch (BufferUnderflowException bue) {
-                    if (!wire.bytes().isClosed())
+                    // MappedBytes has no isClosed(), it has been released if the queue was closed.
+                    if (wire.bytes().refCount() > 0)
                         throw bue;
                 } catch (StreamCorruptedException | UnrecoverableTimeoutException e) {
                     throw new IllegalStateException(e);
@@ -642,6 +1239,10 @@ public class SingleChronicleQueueExcerpts {
 
             @Override
             public long index() throws IORuntimeException {
+                if (wire == slabWire)
+                    throw new IllegalStateException("The index of an excerpt in a slab is only known once it is published");
+                if (wire == compressionWire)
+                    throw new IllegalStateException("The index of a compressed excerpt is only known once it is written");
                 if (wire.headerNumber() == Long.MIN_VALUE) {
                     try {
                         long headerNumber0 = queue.rollCycle().toIndex(cycle, store
@@ -673,6 +1274,8 @@ public class SingleChronicleQueueExcerpts {
      * Tailer
      */
     public static class StoreTailer implements ExcerptTailer, SourceContext, ExcerptContext {
+        // indexed by the byte before a compressed excerpt.
+        private static final CompressionCodec[] COMPRESSIONS = CompressionCodec.values();
         @NotNull
         private final SingleChronicleQueue queue;
         private final StoreTailerContext context = new StoreTailerContext();
@@ -684,6 +1287,9 @@ public class SingleChronicleQueueExcerpts {
         private int indexSpacingMask;
         private Wire wireForIndex;
         private boolean readAfterReplicaAcknowledged;
+        // compressed excerpts are read from here.
+        @Nullable
+        private Wire decompressedWire;
 
         public StoreTailer(@NotNull final SingleChronicleQueue queue) {
             this.queue = queue;
@@ -695,7 +1301,7 @@ public class SingleChronicleQueueExcerpts {
 
         @Override
         public Wire wire() {
-            return context.wire();
+            return context.storeWire();
         }
 
         @Override
@@ -758,16 +1364,10 @@ public class SingleChronicleQueueExcerpts {
                 Bytes<?> bytes = wire().bytes();
                 bytes.readLimit(bytes.capacity());
                 try {
-                    if (readAfterReplicaAcknowledged) {
-                        long lastSequenceAck = store.lastAcknowledgedIndexReplicated();
-                        long seq = queue.rollCycle().toSequenceNumber(index);
-                        if (seq > lastSequenceAck)
-                            return false;
-                    }
-
                     if (direction != TailerDirection.FORWARD)
                         if (!moveToIndex(index))
                             return false;
+                    long headerPosition = bytes.readPosition();
                     switch (wire().readDataHeader(includeMetaData)) {
                         case NONE:
                             return false;
@@ -779,6 +1379,16 @@ public class SingleChronicleQueueExcerpts {
                             break;
                     }
 
+                    // checked after the header so the end of a cycle is still seen.
+                    if (readAfterReplicaAcknowledged) {
+                        long lastSequenceAck = store.lastAcknowledgedIndexReplicated();
+                        long seq = queue.rollCycle().toSequenceNumber(index);
+                        if (seq > lastSequenceAck) {
+                            bytes.readPosition(headerPosition);
+                            return false;
+                        }
+                    }
+
                     if (!lazyIndexing
                             && direction == TailerDirection.FORWARD
                             && (index & indexSpacingMask) == 0
@@ -790,6 +1400,8 @@ public class SingleChronicleQueueExcerpts {
                     wire().readAndSetLength(bytes.readPosition());
                     long end = bytes.readLimit();
                     context.closeReadPosition(end);
+                    if (!context.isMetaData() && store.compression() != CompressionCodec.NONE)
+                        decompress(bytes);
                     return true;
 
                 } catch (EOFException eof) {
@@ -818,6 +1430,30 @@ public class SingleChronicleQueueExcerpts {
             throw new IllegalStateException("Unable to progress to the next cycle");
         }
 
+        /**
+         * Looks at the headers after the last excerpt read, without reading or indexing them, so
+         * it costs a volatile read rather than a move back to an index. Only the current cycle is
+         * looked at.
+         *
+         * @return true if a data excerpt is ready to be read next.
+         */
+        public boolean peekDocument() {
+            if (store == null || direction != TailerDirection.FORWARD)
+                return false;
+            Bytes<?> bytes = wire().bytes();
+            long position = bytes.readPosition();
+            while (position + 4 <= bytes.readLimit()) {
+                int header = bytes.readVolatileInt(position);
+                // not written yet, not complete, or the end of the cycle.
+                if (header == 0 || !Wires.isReady(header))
+                    return false;
+                if (Wires.isData(header))
+                    return true;
+                position += 4 + Wires.lengthOf(header);
+            }
+            return false;
+        }
+
         /**
          * @return provides an index that includes the cycle number
          */
@@ -904,8 +1540,13 @@ public class SingleChronicleQueueExcerpts {
                 assert wireStore != null;
 
                 if (this.store != wireStore) {
+                    if (this.store != null)
+                        queue.release(this.store, context.storeWire(), wireForIndex);
                     this.store = wireStore;
                     resetWires();
+                } else {
+                    // only one reservation is held for the store the tailer is on.
+                    queue.release(wireStore);
                 }
                 // give the position of the last entry and
                 // flag we want to count it even though we don't know if it will be meta data or not.
@@ -979,7 +1620,7 @@ public class SingleChronicleQueueExcerpts {
         private StoreTailer cycle(final int cycle, boolean createIfAbsent) {
             if (this.cycle != cycle) {
                 if (this.store != null) {
-                    this.queue.release(this.store);
+                    this.queue.release(this.store, context.storeWire(), wireForIndex);
                 }
                 this.store = this.queue.storeForCycle(cycle, queue.epoch(), createIfAbsent);
                 if (store == null) {
@@ -1008,6 +1649,21 @@ public class SingleChronicleQueueExcerpts {
             this.readAfterReplicaAcknowledged = readAfterReplicaAcknowledged;
         }
 
+        @Override
+        public void close() {
+            if (store != null) {
+                queue.release(store, context.storeWire(), wireForIndex);
+                store = null;
+                context.wire(null);
+                wireForIndex = null;
+            }
+            if (decompressedWire != null) {
+                context.decompressed(null);
+                decompressedWire.bytes().release();
+                decompressedWire = null;
+            }
+        }
+
         @Override
         public boolean readAfterReplicaAcknowledged() {
             return readAfterReplicaAcknowledged;
@@ -1070,11 +1726,43 @@ public class SingleChronicleQueueExcerpts {
             store.lastAcknowledgedIndexReplicated(rollCycle.toSequenceNumber(acknowledgeIndex));
         }
 
+        /**
+         * Read the byte for how a data excerpt was compressed, and decompress it if it was.
+         */
+        private void decompress(@NotNull Bytes<?> bytes) {
+            context.decompressed(null);
+            CompressionCodec compression = COMPRESSIONS[bytes.readUnsignedByte()];
+            if (compression == CompressionCodec.NONE)
+                return;
+            if (decompressedWire == null)
+                decompressedWire = queue.wireType().apply(Bytes.elasticByteBuffer());
+            else
+                decompressedWire.clear();
+            compression.uncompress(bytes, decompressedWire.bytes());
+            context.decompressed(decompressedWire);
+        }
+
         class StoreTailerContext extends ReadDocumentContext {
+            @Nullable
+            private Wire decompressed;
+
             public StoreTailerContext() {
                 super(null);
             }
 
+            @Override
+            public Wire wire() {
+                return decompressed == null ? wire : decompressed;
+            }
+
+            Wire storeWire() {
+                return wire;
+            }
+
+            void decompressed(@Nullable Wire decompressed) {
+                this.decompressed = decompressed;
+            }
+
             @Override
             public long index() {
                 return StoreTailer.this.index();
@@ -1089,10 +1777,13 @@ public class SingleChronicleQueueExcerpts {
             public void close() {
                 if (isPresent())
                     incrementIndex();
+                decompressed = null;
                 super.close();
             }
 
             public boolean present(boolean present) {
+                if (!present)
+                    decompressed = null;
                 return this.present = present;
             }
 
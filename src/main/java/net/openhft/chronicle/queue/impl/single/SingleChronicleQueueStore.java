@@ -25,6 +25,7 @@ import net.openhft.chronicle.core.annotation.UsedViaReflection;
 import net.openhft.chronicle.core.io.IORuntimeException;
 import net.openhft.chronicle.core.pool.ClassAliasPool;
 import net.openhft.chronicle.core.values.LongValue;
+import net.openhft.chronicle.queue.CompressionCodec;
 import net.openhft.chronicle.queue.RollCycle;
 import net.openhft.chronicle.queue.impl.ExcerptContext;
 import net.openhft.chronicle.queue.impl.WireStore;
@@ -35,6 +36,10 @@ import org.jetbrains.annotations.Nullable;
 import java.io.EOFException;
 import java.io.File;
 import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -57,6 +62,14 @@ class SingleChronicleQueueStore implements WireStore {
     @NotNull
     private final ReferenceCounter refCount;
     private final StoreRecovery recovery;
+    private final int fixedLength;
+    @NotNull
+    private final CompressionCodec compression;
+    // the position of the first excerpt, when they have a fixed length.
+    private long firstPosition = -1;
+    // bytes over this store given back by those which used them, released with the store.
+    private final List<Bytes<?>> bytesToRelease = new ArrayList<>();
+    private final Queue<ExcerptContext> contexts = new ConcurrentLinkedQueue<>();
 
     @Nullable
     private LongValue lastAcknowledgedIndexReplicated;
@@ -95,6 +108,16 @@ class SingleChronicleQueueStore implements WireStore {
             } else {
                 this.recovery = new SimpleStoreRecovery(); // disabled.
             }
+            if (wire.bytes().readRemaining() > 0) {
+                this.fixedLength = wire.read(MetaDataField.fixedLength).int32();
+            } else {
+                this.fixedLength = 0; // any length.
+            }
+            if (wire.bytes().readRemaining() > 0) {
+                this.compression = wire.read(MetaDataField.compression).asEnum(CompressionCodec.class);
+            } else {
+                this.compression = CompressionCodec.NONE; // not compressed.
+            }
         } finally {
             assert wire.endUse();
         }
@@ -116,7 +139,25 @@ class SingleChronicleQueueStore implements WireStore {
                               int indexCount,
                               int indexSpacing,
                               StoreRecovery recovery) {
+        this(rollCycle, wireType, mappedBytes, epoch, indexCount, indexSpacing, recovery, 0, CompressionCodec.NONE);
+    }
+
+    /**
+     * @param fixedLength every excerpt is padded to, or 0 for any length.
+     * @param compression of the data excerpts, or NONE.
+     */
+    SingleChronicleQueueStore(@Nullable RollCycle rollCycle,
+                              @NotNull final WireType wireType,
+                              @NotNull MappedBytes mappedBytes,
+                              long epoch,
+                              int indexCount,
+                              int indexSpacing,
+                              StoreRecovery recovery,
+                              int fixedLength,
+                              @NotNull CompressionCodec compression) {
         this.recovery = recovery;
+        this.fixedLength = fixedLength;
+        this.compression = compression;
         this.roll = new SCQRoll(rollCycle, epoch);
         this.wireType = wireType;
         this.mappedBytes = mappedBytes;
@@ -132,6 +173,9 @@ class SingleChronicleQueueStore implements WireStore {
     }
 
     public static void dumpStore(Wire wire) {
+        // the whole store is turned into text, so only when it will be logged.
+        if (!Jvm.isDebugEnabled(SingleChronicleQueueStore.class))
+            return;
         Bytes<?> bytes = wire.bytes();
         bytes.readPositionUnlimited(0);
         Jvm.debug().on(SingleChronicleQueueStore.class, Wires.fromSizePrefixedBlobs(wire));
@@ -167,6 +211,67 @@ class SingleChronicleQueueStore implements WireStore {
         return this.writePosition.getVolatileValue();
     }
 
+    @Override
+    public int fixedLength() {
+        return fixedLength;
+    }
+
+    @NotNull
+    @Override
+    public CompressionCodec compression() {
+        return compression;
+    }
+
+    /**
+     * @return the position of the first excerpt, just after the header of the store.
+     */
+    private long firstPosition() {
+        long firstPosition = this.firstPosition;
+        if (firstPosition < 0) {
+            int header = mappedBytes.readVolatileInt(0);
+            assert Wires.isReady(header);
+            this.firstPosition = firstPosition = 4 + Wires.lengthOf(header);
+        }
+        return firstPosition;
+    }
+
+    /**
+     * Move to an excerpt of fixed length by its position, which is known from its sequence alone.
+     */
+    @NotNull
+    private ScanResult moveToFixedIndex(@NotNull ExcerptContext ec, long sequence) {
+        long stride = 4 + fixedLength;
+        long position = firstPosition() + sequence * stride;
+        // the excerpt after the last written can be found, but not beyond it.
+        long last = Math.max(writePosition(), firstPosition() - stride);
+        Bytes<?> bytes = ec.wire().bytes();
+        if (position > last + stride) {
+            bytes.readPositionUnlimited(last + stride);
+            return ScanResult.NOT_REACHED;
+        }
+        bytes.readPositionUnlimited(position);
+        int header = bytes.readVolatileInt(position);
+        if (Wires.isReadyData(header))
+            return ScanResult.FOUND;
+        return header == Wires.END_OF_DATA ? ScanResult.NOT_REACHED : ScanResult.NOT_FOUND;
+    }
+
+    private long fixedSequenceForPosition(long position, boolean inclusive) {
+        long stride = 4 + fixedLength;
+        long firstPosition = firstPosition();
+        if (position == Long.MAX_VALUE) {
+            // the sequence of the next excerpt, which may be a little beyond the writePosition
+            long last = Math.max(writePosition(), firstPosition - stride);
+            while (Wires.isReadyData(mappedBytes.readVolatileInt(last + stride)))
+                last += stride;
+            return (last - firstPosition) / stride + 1;
+        }
+        if (position < firstPosition)
+            return -1;
+        long sequence = (position - firstPosition) / stride;
+        return inclusive ? sequence : sequence - 1;
+    }
+
     @Override
     public WireStore writePosition(long position) {
 
@@ -197,6 +302,8 @@ class SingleChronicleQueueStore implements WireStore {
      */
     @Override
     public ScanResult moveToIndexForRead(@NotNull ExcerptContext ec, long index) {
+        if (fixedLength > 0)
+            return moveToFixedIndex(ec, index);
         try {
             return indexing.moveToIndex(recovery, ec, index);
         } catch (UnrecoverableTimeoutException | StreamCorruptedException e) {
@@ -236,9 +343,35 @@ class SingleChronicleQueueStore implements WireStore {
         return MappedBytes.mappedBytes(mappedFile);
     }
 
+    @Override
+    public void releaseWithStore(@NotNull Bytes<?> bytes) {
+        synchronized (bytesToRelease) {
+            bytesToRelease.add(bytes);
+        }
+    }
+
+    @NotNull
+    @Override
+    public ExcerptContext acquireContext(long timeoutMS) {
+        ExcerptContext context = contexts.poll();
+        if (context != null)
+            return context;
+        StoreContext newContext = new StoreContext(wireType, this, timeoutMS);
+        releaseWithStore(newContext.wire().bytes());
+        releaseWithStore(newContext.wireForIndex().bytes());
+        return newContext;
+    }
+
+    @Override
+    public void releaseContext(@NotNull ExcerptContext context) {
+        contexts.offer(context);
+    }
+
     @Override
     public long sequenceForPosition(final ExcerptContext ec, final long position, boolean inclusive) throws
             EOFException, UnrecoverableTimeoutException, StreamCorruptedException {
+        if (fixedLength > 0)
+            return fixedSequenceForPosition(position, inclusive);
         return indexing.sequenceForPosition(recovery, ec, position, inclusive);
     }
 
@@ -252,10 +385,19 @@ class SingleChronicleQueueStore implements WireStore {
                 ", mappedFile=" + mappedFile +
                 ", refCount=" + refCount +
                 ", lastAcknowledgedIndexReplicated=" + lastAcknowledgedIndexReplicated +
+                ", fixedLength=" + fixedLength +
+                ", compression=" + compression +
                 '}';
     }
 
     private void onCleanup() {
+        synchronized (bytesToRelease) {
+            for (Bytes<?> bytes : bytesToRelease)
+                bytes.release();
+            bytesToRelease.clear();
+        }
+        // unpins the chunks the index arrays are bound to.
+        indexing.close();
         mappedBytes.release();
     }
 
@@ -275,12 +417,20 @@ class SingleChronicleQueueStore implements WireStore {
                 .write(MetaDataField.lastAcknowledgedIndexReplicated)
                 .int64forBinding(-1L, lastAcknowledgedIndexReplicated);
         wire.write(MetaDataField.recovery).typedMarshallable(recovery);
+        // the optional fields are read in order, so a codec needs a fixed length before it.
+        if (fixedLength > 0 || compression != CompressionCodec.NONE)
+            wire.write(MetaDataField.fixedLength).int32(fixedLength);
+        if (compression != CompressionCodec.NONE)
+            wire.write(MetaDataField.compression).asEnum(compression);
     }
 
     @Override
     public void setPositionForSequenceNumber(final ExcerptContext ec, long sequenceNumber,
                                              long position)
             throws UnrecoverableTimeoutException, StreamCorruptedException {
+        // excerpts of a fixed length are found without an index.
+        if (fixedLength > 0)
+            return;
         long nextSequence = indexing.nextEntryToBeIndexed();
         if (nextSequence > sequenceNumber)
             return;
@@ -299,6 +449,103 @@ class SingleChronicleQueueStore implements WireStore {
         return recovery.writeHeader(wire, length, timeoutMS, writePosition);
     }
 
+    /**
+     * Scan the end of the store, from the last excerpt indexed, or written if they have a fixed
+     * length, for a message left not complete by a writer which died, and clear it so the next
+     * writer doesn't wait for it to time out. The writePosition is moved to the last excerpt found
+     * and index values left not complete are reset.
+     * <p>
+     * Only safe when no other process is writing to this store.
+     *
+     * @param wire      of the store's bytes to scan with
+     * @param timeoutMS to give up after, leaving the rest to the {@link StoreRecovery}
+     * @return what was found and fixed.
+     */
+    @NotNull
+    RecoveryReport recover(@NotNull Wire wire, int cycle, long timeoutMS) {
+        long end = System.currentTimeMillis() + timeoutMS;
+        RecoveryReport report = new RecoveryReport(cycle);
+        Bytes<?> bytes = wire.bytes();
+        long size = mappedFile.actualSize();
+
+        report.indexValuesReset = indexing.recoverNotComplete(wire);
+
+        long writePosition = this.writePosition.getVolatileValue();
+        report.writePositionBefore = writePosition;
+        long pos = fixedLength > 0 ? writePosition : indexing.lastIndexedPosition(wire);
+        if (pos + 4 > size || !Wires.isReadyData(bytes.readVolatileInt(pos)))
+            pos = 0;
+        report.scannedFrom = pos;
+
+        long lastData = -1;
+        for (; pos + 4 <= size; report.entriesScanned++) {
+            if (System.currentTimeMillis() > end) {
+                report.scannedTo = pos;
+                report.writePositionAfter = writePosition;
+                Jvm.warn().on(getClass(), "Recovery timed out " + report);
+                return report;
+            }
+            int header = bytes.readVolatileInt(pos);
+            if (header == 0 || header == Wires.END_OF_DATA)
+                break;
+            if (Wires.isNotComplete(header)) {
+                report.notCompletePosition = pos;
+                // nothing can be written after a message until it is complete, so anything the
+                // index knows of after it bounds it. Otherwise only the end of the file does.
+                long limit = indexing.firstKnownPositionAfter(wire, pos);
+                if (limit < 0) {
+                    limit = size;
+                    report.unrecoverable = Wires.lengthOf(header) == 0;
+                }
+                report.bytesCleared = clearNotComplete(bytes, pos, header, limit);
+                break;
+            }
+            if (Wires.isData(header))
+                lastData = pos;
+            pos += 4 + Wires.lengthOf(header);
+        }
+        report.scannedTo = pos;
+        report.complete = true;
+
+        // the writePosition is only ever that of a complete excerpt, or 0 before the first.
+        long expected = Math.max(0, lastData);
+        if (writePosition != expected)
+            this.writePosition.compareAndSwapValue(writePosition, expected);
+        report.writePositionAfter = this.writePosition.getVolatileValue();
+
+        if (report.repaired())
+            Jvm.warn().on(getClass(), "Recovered " + report);
+        else
+            Jvm.debug().on(getClass(), "Nothing to recover " + report);
+        return report;
+    }
+
+    /**
+     * Clear a message left not complete, header last, so the next message written there isn't
+     * followed by the remains of this one.
+     * <p>
+     * A message whose length isn't known yet is cleared up to the limit, as the writer could have
+     * written any of it. Only the words which aren't already zero are written, so pages the writer
+     * never reached aren't touched.
+     *
+     * @param limit the position the message must end by, the next thing known to be written after
+     *              it, or the end of the file.
+     * @return the number of bytes cleared
+     */
+    static long clearNotComplete(@NotNull Bytes<?> bytes, long pos, int header, long limit) {
+        int length = Wires.lengthOf(header);
+        long end = length > 0 ? Math.min(limit, pos + 4 + length) : limit;
+        long i = pos + 4;
+        for (; i + 8 <= end; i += 8)
+            if (bytes.readLong(i) != 0)
+                bytes.writeLong(i, 0L);
+        for (; i < end; i++)
+            if (bytes.readByte(i) != 0)
+                bytes.writeByte(i, (byte) 0);
+        bytes.compareAndSwapInt(pos, header, 0);
+        return end - pos;
+    }
+
     @Override
     public void writeEOF(Wire wire, long timeoutMS) throws UnrecoverableTimeoutException {
         try {
@@ -314,7 +561,9 @@ class SingleChronicleQueueStore implements WireStore {
         roll,
         indexing,
         lastAcknowledgedIndexReplicated,
-        recovery;
+        recovery,
+        fixedLength,
+        compression;
 
         @Nullable
         @Override
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.core.Jvm;
+import net.openhft.chronicle.core.io.Closeable;
+import net.openhft.chronicle.core.threads.EventHandler;
+import net.openhft.chronicle.core.threads.HandlerPriority;
+import net.openhft.chronicle.core.threads.InvalidEventHandlerException;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueExcerpts.StoreAppender;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Publishes the slabs of appenders which have stopped writing, so the excerpts in a slab which
+ * doesn't fill are still seen by tailers. An appender is idle if it hasn't written an excerpt
+ * since the last check, a millisecond earlier. The slabs of all appenders are published when the
+ * queue is closed.
+ */
+public class SlabSealer implements EventHandler, Closeable {
+    private static final long CHECK_INTERVAL_MS = 1;
+
+    // appenders with a slab.
+    private final Set<StoreAppender> appenders = ConcurrentHashMap.newKeySet();
+    private long nextCheckMS = Long.MIN_VALUE;
+    private volatile boolean closed = false;
+
+    void register(@NotNull StoreAppender appender) {
+        appenders.add(appender);
+    }
+
+    @Override
+    public boolean action() throws InvalidEventHandlerException {
+        if (closed)
+            throw new InvalidEventHandlerException();
+        long now = System.currentTimeMillis();
+        if (now < nextCheckMS)
+            return false;
+        nextCheckMS = now + CHECK_INTERVAL_MS;
+
+        boolean sealed = false;
+        for (Iterator<StoreAppender> it = appenders.iterator(); it.hasNext(); ) {
+            StoreAppender appender = it.next();
+            // a thread which has died won't write again, but a pooled appender can.
+            boolean abandoned = appender.isAbandoned();
+            try {
+                sealed |= abandoned ? appender.sealSlab(false) : appender.sealSlabIfIdle();
+            } catch (Exception e) {
+                Jvm.warn().on(getClass(), "Unable to publish a slab", e);
+            }
+            if (abandoned)
+                it.remove();
+        }
+        return sealed;
+    }
+
+    @Override
+    public HandlerPriority priority() {
+        return HandlerPriority.TIMER;
+    }
+
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        for (StoreAppender appender : appenders) {
+            try {
+                appender.sealSlab(true);
+            } catch (Exception e) {
+                Jvm.warn().on(getClass(), "Unable to publish a slab on close", e);
+            }
+        }
+        appenders.clear();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.queue.impl.ExcerptContext;
+import net.openhft.chronicle.queue.impl.WireStore;
+import net.openhft.chronicle.wire.Wire;
+import net.openhft.chronicle.wire.WireType;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Wires over the whole of one store, for looking up its indices without a tailer, which would
+ * have to be moved to the store's cycle first. These are handed out by {@link
+ * WireStore#acquireContext(long)}.
+ */
+final class StoreContext implements ExcerptContext {
+    private final Wire wire;
+    private final Wire wireForIndex;
+    private final long timeoutMS;
+
+    StoreContext(@NotNull WireType wireType, @NotNull WireStore store, long timeoutMS) {
+        this.wire = readAnywhere(wireType.apply(store.bytes()));
+        this.wireForIndex = readAnywhere(wireType.apply(store.bytes()));
+        this.timeoutMS = timeoutMS;
+    }
+
+    private static Wire readAnywhere(Wire wire) {
+        Bytes<?> bytes = wire.bytes();
+        bytes.readLimit(bytes.capacity());
+        return wire;
+    }
+
+    @Override
+    public Wire wire() {
+        return wire;
+    }
+
+    @Override
+    public Wire wireForIndex() {
+        return wireForIndex;
+    }
+
+    @Override
+    public long timeoutMS() {
+        return timeoutMS;
+    }
+}
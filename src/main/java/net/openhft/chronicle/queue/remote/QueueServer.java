@@ -0,0 +1,385 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.remote;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.core.Jvm;
+import net.openhft.chronicle.core.io.Closeable;
+import net.openhft.chronicle.core.threads.EventHandler;
+import net.openhft.chronicle.core.threads.EventLoop;
+import net.openhft.chronicle.core.threads.HandlerPriority;
+import net.openhft.chronicle.core.threads.InvalidEventHandlerException;
+import net.openhft.chronicle.queue.ChronicleQueue;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.wire.DocumentContext;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Serves a queue to {@link RemoteQueueClient}s over TCP, so processes without access to its
+ * files can tail and append to it.
+ * <p>
+ * Each client has one connection, over which any number of tailers and appenders are multiplexed
+ * as streams. Requests are pipelined; appends are acknowledged with the index written without the
+ * client waiting for each one. A tailer is sent as many excerpts as are ready, batched into one
+ * frame, up to the bytes of credit the client has given it, so a slow consumer is not sent more
+ * than it can hold.
+ * <p>
+ * Every frame is the payload length, the frame type and the stream it is for, followed by the
+ * payload. A frame which can't be handled is answered with an error for its stream, while a frame
+ * with an invalid length closes the connection, as the frames after it can't be found. Either way
+ * the other connections are unaffected.
+ */
+public class QueueServer implements Closeable {
+    // the payload length, type and stream before each frame's payload
+    static final int FRAME_HEADER = 4 + 1 + 4;
+    // the length and index before each excerpt in a batch
+    static final int EXCERPT_HEADER = 4 + 8;
+    static final int BATCH_SIZE = 256 << 10;
+    // the largest payload a client can send, as each frame is read whole.
+    static final int MAX_FRAME = 64 << 20;
+    // the index a tailer opened at the start of the queue asks for.
+    static final long FROM_START = -1;
+
+    // client to server
+    static final byte OPEN_TAILER = 1;
+    static final byte CREDIT = 2;
+    static final byte APPEND = 3;
+    static final byte CLOSE_STREAM = 4;
+    // server to client
+    static final byte EXCERPTS = 11;
+    static final byte APPENDED = 12;
+    static final byte ERROR = 13;
+
+    @NotNull
+    private final ChronicleQueue queue;
+    @NotNull
+    private final EventLoop eventLoop;
+    @NotNull
+    private final ServerSocketChannel serverChannel;
+    private volatile boolean closed = false;
+
+    public QueueServer(@NotNull ChronicleQueue queue, @NotNull InetSocketAddress address, @NotNull EventLoop eventLoop) throws IOException {
+        this.queue = queue;
+        this.eventLoop = eventLoop;
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(address);
+            serverChannel.configureBlocking(false);
+        } catch (IOException e) {
+            serverChannel.close();
+            throw e;
+        }
+        eventLoop.addHandler(new Acceptor());
+    }
+
+    /**
+     * @return the address clients connect to, including the port chosen if it was 0.
+     */
+    @NotNull
+    public SocketAddress localAddress() throws IOException {
+        return serverChannel.getLocalAddress();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Closeable.closeQuietly(serverChannel);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    static int startFrame(@NotNull Bytes<?> out, byte type, int stream) {
+        int start = (int) out.writePosition();
+        out.writeInt(0)
+                .writeByte(type)
+                .writeInt(stream);
+        return start;
+    }
+
+    static void endFrame(@NotNull Bytes<?> out, int start) {
+        out.writeInt(start, (int) (out.writePosition() - start - FRAME_HEADER));
+    }
+
+    /**
+     * Write as much of a buffer as the socket will take.
+     *
+     * @return true if anything was written.
+     */
+    static boolean write(@NotNull SocketChannel channel, @NotNull Bytes<ByteBuffer> out) throws IOException {
+        if (out.readRemaining() <= 0)
+            return false;
+        ByteBuffer buffer = out.underlyingObject();
+        buffer.limit((int) out.readLimit());
+        buffer.position((int) out.readPosition());
+        int written = channel.write(buffer);
+        out.readSkip(written);
+        if (out.readRemaining() == 0)
+            out.clear();
+        return written > 0;
+    }
+
+    @NotNull
+    static ByteBuffer grow(@NotNull ByteBuffer in, int size) {
+        ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(size, in.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+        bigger.put(in);
+        // back in read mode, like the buffer it replaces.
+        bigger.flip();
+        return bigger;
+    }
+
+    class Acceptor implements EventHandler {
+        @Override
+        public boolean action() throws InvalidEventHandlerException {
+            if (closed)
+                throw new InvalidEventHandlerException();
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                if (!closed)
+                    Jvm.warn().on(getClass(), "Unable to accept a connection", e);
+                throw new InvalidEventHandlerException();
+            }
+            if (channel == null)
+                return false;
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+            } catch (IOException e) {
+                Jvm.warn().on(getClass(), "Unable to configure " + channel, e);
+                Closeable.closeQuietly(channel);
+                return true;
+            }
+            eventLoop.addHandler(new Connection(channel));
+            return true;
+        }
+
+        @NotNull
+        @Override
+        public HandlerPriority priority() {
+            return HandlerPriority.TIMER;
+        }
+    }
+
+    static class TailerStream {
+        @NotNull
+        final ExcerptTailer tailer;
+        long credit;
+
+        TailerStream(@NotNull ExcerptTailer tailer) {
+            this.tailer = tailer;
+        }
+    }
+
+    class Connection implements EventHandler {
+        @NotNull
+        private final SocketChannel channel;
+        private final Bytes<ByteBuffer> out = Bytes.elasticByteBuffer(BATCH_SIZE + FRAME_HEADER);
+        private final Map<Integer, TailerStream> tailers = new HashMap<>();
+        private ByteBuffer in = ByteBuffer.allocateDirect(BATCH_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private Bytes<ByteBuffer> excerpt = Bytes.wrapForRead(in);
+        @Nullable
+        private ExcerptAppender appender;
+
+        Connection(@NotNull SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public boolean action() throws InvalidEventHandlerException {
+            if (closed)
+                close();
+            // appenders are per thread, so acquire it on the event loop.
+            if (appender == null)
+                appender = queue.acquireAppender();
+            try {
+                boolean busy = read();
+                // replies are queued behind a batch which hasn't been sent yet.
+                if (out.readRemaining() < BATCH_SIZE)
+                    busy |= fill();
+                busy |= write(channel, out);
+                return busy;
+            } catch (IOException | RuntimeException e) {
+                Jvm.warn().on(getClass(), "Connection to " + remote() + " closed", e);
+                close();
+                return false;
+            }
+        }
+
+        private boolean read() throws IOException, InvalidEventHandlerException {
+            int read = channel.read(in);
+            if (read < 0) {
+                Jvm.debug().on(getClass(), "Client " + remote() + " disconnected");
+                close();
+            }
+            if (read <= 0)
+                return false;
+
+            in.flip();
+            while (in.remaining() >= FRAME_HEADER) {
+                int position = in.position();
+                int length = in.getInt(position);
+                if (length < 0 || length > MAX_FRAME)
+                    throw new StreamCorruptedException("Invalid frame length " + length);
+                if (in.remaining() < FRAME_HEADER + length) {
+                    if (FRAME_HEADER + length > in.capacity()) {
+                        in = grow(in, FRAME_HEADER + length);
+                        excerpt = Bytes.wrapForRead(in);
+                    }
+                    break;
+                }
+                byte type = in.get(position + 4);
+                int stream = in.getInt(position + 5);
+                try {
+                    onFrame(type, stream, position + FRAME_HEADER, length);
+                } catch (RuntimeException e) {
+                    Jvm.debug().on(getClass(), e);
+                    error(stream, "Unable to handle a frame of type " + type + ", " + e);
+                }
+                in.position(position + FRAME_HEADER + length);
+            }
+            in.compact();
+            return true;
+        }
+
+        private void onFrame(byte type, int stream, int payload, int length) {
+            switch (type) {
+                case OPEN_TAILER:
+                    if (length < 8) {
+                        error(stream, "Invalid open tailer length " + length);
+                        break;
+                    }
+                    openTailer(stream, in.getLong(payload));
+                    break;
+
+                case CREDIT: {
+                    if (length < 4) {
+                        error(stream, "Invalid credit length " + length);
+                        break;
+                    }
+                    TailerStream tailerStream = tailers.get(stream);
+                    if (tailerStream != null)
+                        tailerStream.credit += in.getInt(payload);
+                    break;
+                }
+
+                case APPEND:
+                    assert appender != null;
+                    excerpt.readPositionRemaining(payload, length);
+                    appender.writeBytes(excerpt);
+                    int start = startFrame(out, APPENDED, stream);
+                    out.writeLong(appender.lastIndexAppended());
+                    endFrame(out, start);
+                    break;
+
+                case CLOSE_STREAM: {
+                    TailerStream tailerStream = tailers.remove(stream);
+                    if (tailerStream != null)
+                        tailerStream.tailer.close();
+                    break;
+                }
+
+                default:
+                    error(stream, "Unknown frame type " + type);
+                    break;
+            }
+        }
+
+        private void openTailer(int stream, long index) {
+            ExcerptTailer tailer = queue.createTailer();
+            if (index != FROM_START && !tailer.moveToIndex(index)) {
+                tailer.close();
+                error(stream, "Index " + Long.toHexString(index) + " is not in the queue");
+                return;
+            }
+            TailerStream previous = tailers.put(stream, new TailerStream(tailer));
+            if (previous != null)
+                previous.tailer.close();
+        }
+
+        private void error(int stream, @NotNull String message) {
+            Jvm.warn().on(getClass(), "Client " + remote() + ": " + message);
+            int start = startFrame(out, ERROR, stream);
+            out.write(message.getBytes(StandardCharsets.UTF_8));
+            endFrame(out, start);
+        }
+
+        /**
+         * Batch the excerpts ready for each tailer with credit into one frame each.
+         */
+        private boolean fill() {
+            boolean busy = false;
+            for (Map.Entry<Integer, TailerStream> entry : tailers.entrySet()) {
+                TailerStream tailerStream = entry.getValue();
+                if (tailerStream.credit <= 0)
+                    continue;
+                int start = startFrame(out, EXCERPTS, entry.getKey());
+                long batchStart = out.writePosition();
+                // the last excerpt can take it over its credit, so one larger than the credit is sent.
+                while (out.writePosition() - batchStart < Math.min(tailerStream.credit, BATCH_SIZE)) {
+                    try (DocumentContext dc = tailerStream.tailer.readingDocument()) {
+                        if (!dc.isPresent())
+                            break;
+                        Bytes<?> bytes = dc.wire().bytes();
+                        long length = bytes.readRemaining();
+                        out.writeInt((int) length)
+                                .writeLong(dc.index())
+                                .write(bytes, bytes.readPosition(), length);
+                    }
+                }
+                long batch = out.writePosition() - batchStart;
+                if (batch == 0) {
+                    out.writePosition(start);
+                    continue;
+                }
+                endFrame(out, start);
+                tailerStream.credit -= batch;
+                busy = true;
+            }
+            return busy;
+        }
+
+        private String remote() {
+            return String.valueOf(channel.socket().getRemoteSocketAddress());
+        }
+
+        private void close() throws InvalidEventHandlerException {
+            Closeable.closeQuietly(channel);
+            for (TailerStream tailerStream : tailers.values())
+                tailerStream.tailer.close();
+            tailers.clear();
+            out.release();
+            throw new InvalidEventHandlerException();
+        }
+    }
+}
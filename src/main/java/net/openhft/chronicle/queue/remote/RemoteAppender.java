@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.remote;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.bytes.BytesStore;
+import net.openhft.chronicle.core.io.Closeable;
+import net.openhft.chronicle.threads.LongPauser;
+import net.openhft.chronicle.threads.Pauser;
+import net.openhft.chronicle.wire.Wire;
+import net.openhft.chronicle.wire.WireType;
+import net.openhft.chronicle.wire.WriteMarshallable;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends excerpts to a queue served by a {@link QueueServer}.
+ * <p>
+ * Appends are sent without waiting for the previous one to be acknowledged, up to
+ * {@link #MAX_PENDING} at a time, after which the caller waits for the server to catch up. The
+ * index each one was written at is known once it has been acknowledged.
+ * <p>
+ * An appender should only be used by one thread at a time.
+ */
+public class RemoteAppender implements Closeable {
+    static final int MAX_PENDING = 1 << 10;
+
+    @NotNull
+    private final RemoteQueueClient client;
+    private final int stream;
+    private final Bytes<?> buffer = Bytes.allocateElasticDirect();
+    private final Wire wire = WireType.BINARY.apply(buffer);
+    private final Pauser pauser = new LongPauser(1000, 100, 50, 1000, TimeUnit.MICROSECONDS);
+    private long sent;
+    private volatile long acknowledged;
+    private volatile long lastIndexAppended = Long.MIN_VALUE;
+    private boolean closed = false;
+
+    RemoteAppender(@NotNull RemoteQueueClient client, int stream) {
+        this.client = client;
+        this.stream = stream;
+    }
+
+    void appended(long index) {
+        lastIndexAppended = index;
+        // only the event loop acknowledges
+        acknowledged = acknowledged + 1;
+    }
+
+    /**
+     * Append an excerpt as a binary document.
+     */
+    public void writeDocument(@NotNull WriteMarshallable writer) {
+        buffer.clear();
+        writer.writeMarshallable(wire);
+        writeBytes(buffer);
+    }
+
+    /**
+     * Append the bytes given as an excerpt.
+     */
+    public void writeBytes(@NotNull BytesStore bytes) {
+        while (pending() >= MAX_PENDING) {
+            if (client.isClosed())
+                throw new IllegalStateException("Connection closed");
+            pauser.pause();
+        }
+        pauser.reset();
+        client.append(stream, bytes);
+        sent++;
+    }
+
+    /**
+     * @return the number of excerpts sent which haven't been acknowledged yet.
+     */
+    public long pending() {
+        return sent - acknowledged;
+    }
+
+    /**
+     * @return the index of the last excerpt acknowledged, or Long.MIN_VALUE if none has been.
+     */
+    public long lastIndexAppended() {
+        return lastIndexAppended;
+    }
+
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        client.closeStream(stream);
+        buffer.release();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.remote;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.bytes.BytesStore;
+import net.openhft.chronicle.core.Jvm;
+import net.openhft.chronicle.core.io.Closeable;
+import net.openhft.chronicle.core.threads.EventHandler;
+import net.openhft.chronicle.core.threads.EventLoop;
+import net.openhft.chronicle.core.threads.InvalidEventHandlerException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.openhft.chronicle.queue.remote.QueueServer.*;
+
+/**
+ * A connection to a {@link QueueServer}, over which any number of {@link RemoteTailer}s and
+ * {@link RemoteAppender}s can be used from other threads.
+ * <p>
+ * The connection is served by a handler on the event loop given, which sends requests as soon as
+ * they are made and hands what is received to the tailer or appender it is for.
+ */
+public class RemoteQueueClient implements EventHandler, Closeable {
+    @NotNull
+    private final SocketChannel channel;
+    // guarded by this
+    private final Bytes<ByteBuffer> out = Bytes.elasticByteBuffer(BATCH_SIZE + FRAME_HEADER);
+    private final Map<Integer, RemoteTailer> tailers = new ConcurrentHashMap<>();
+    private final Map<Integer, RemoteAppender> appenders = new ConcurrentHashMap<>();
+    private final AtomicInteger nextStream = new AtomicInteger();
+    private ByteBuffer in = ByteBuffer.allocateDirect(2 * BATCH_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private volatile boolean closed = false;
+
+    public RemoteQueueClient(@NotNull SocketAddress server, @NotNull EventLoop eventLoop) throws IOException {
+        this.channel = SocketChannel.open(server);
+        try {
+            channel.socket().setTcpNoDelay(true);
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        eventLoop.addHandler(this);
+    }
+
+    /**
+     * @return a tailer which reads from the start of the queue.
+     */
+    @NotNull
+    public RemoteTailer createTailer() {
+        return createTailer(FROM_START);
+    }
+
+    /**
+     * @param index of the first excerpt to read.
+     * @return a tailer which reads from the index given.
+     */
+    @NotNull
+    public RemoteTailer createTailer(long index) {
+        int stream = nextStream.incrementAndGet();
+        RemoteTailer tailer = new RemoteTailer(this, stream);
+        tailers.put(stream, tailer);
+        synchronized (this) {
+            checkOpen();
+            int start = startFrame(out, OPEN_TAILER, stream);
+            out.writeLong(index);
+            endFrame(out, start);
+            credit(stream, RemoteTailer.WINDOW);
+        }
+        return tailer;
+    }
+
+    /**
+     * @return an appender which can be used by one thread at a time.
+     */
+    @NotNull
+    public RemoteAppender createAppender() {
+        int stream = nextStream.incrementAndGet();
+        RemoteAppender appender = new RemoteAppender(this, stream);
+        appenders.put(stream, appender);
+        return appender;
+    }
+
+    synchronized void append(int stream, @NotNull BytesStore bytes) {
+        checkOpen();
+        if (bytes.readRemaining() > MAX_FRAME)
+            throw new IllegalArgumentException("Excerpt of " + bytes.readRemaining() + " bytes is larger than " + MAX_FRAME);
+        int start = startFrame(out, APPEND, stream);
+        out.write(bytes, bytes.readPosition(), bytes.readRemaining());
+        endFrame(out, start);
+    }
+
+    synchronized void credit(int stream, int bytes) {
+        checkOpen();
+        int start = startFrame(out, CREDIT, stream);
+        out.writeInt(bytes);
+        endFrame(out, start);
+    }
+
+    void closeStream(int stream) {
+        tailers.remove(stream);
+        appenders.remove(stream);
+        synchronized (this) {
+            if (!closed)
+                endFrame(out, startFrame(out, CLOSE_STREAM, stream));
+        }
+    }
+
+    private void checkOpen() {
+        if (closed)
+            throw new IllegalStateException("Connection closed");
+    }
+
+    @Override
+    public boolean action() throws InvalidEventHandlerException {
+        if (closed)
+            close(null);
+        try {
+            boolean busy = read();
+            synchronized (this) {
+                busy |= write(channel, out);
+            }
+            return busy;
+        } catch (IOException e) {
+            close(e);
+            return false;
+        }
+    }
+
+    private boolean read() throws IOException, InvalidEventHandlerException {
+        int read = channel.read(in);
+        if (read < 0)
+            close(null);
+        if (read <= 0)
+            return false;
+
+        in.flip();
+        while (in.remaining() >= FRAME_HEADER) {
+            int position = in.position();
+            int length = in.getInt(position);
+            if (in.remaining() < FRAME_HEADER + length) {
+                if (FRAME_HEADER + length > in.capacity())
+                    in = grow(in, FRAME_HEADER + length);
+                break;
+            }
+            byte type = in.get(position + 4);
+            int stream = in.getInt(position + 5);
+            in.position(position + FRAME_HEADER);
+            onFrame(type, stream, length);
+            in.position(position + FRAME_HEADER + length);
+        }
+        in.compact();
+        return true;
+    }
+
+    private void onFrame(byte type, int stream, int length) {
+        switch (type) {
+            case EXCERPTS: {
+                RemoteTailer tailer = tailers.get(stream);
+                if (tailer == null)
+                    break;
+                // copied, as it is read by another thread.
+                byte[] batch = new byte[length];
+                in.get(batch);
+                tailer.received(Bytes.wrapForRead(batch));
+                break;
+            }
+
+            case APPENDED: {
+                RemoteAppender appender = appenders.get(stream);
+                if (appender != null)
+                    appender.appended(in.getLong());
+                break;
+            }
+
+            case ERROR: {
+                byte[] message = new byte[length];
+                in.get(message);
+                Jvm.warn().on(getClass(), "Stream " + stream + " failed: " + new String(message, StandardCharsets.UTF_8));
+                break;
+            }
+
+            default:
+                Jvm.warn().on(getClass(), "Unknown frame type " + type);
+                break;
+        }
+    }
+
+    private void close(@Nullable IOException e) throws InvalidEventHandlerException {
+        if (e != null)
+            Jvm.warn().on(getClass(), "Connection to " + channel.socket().getRemoteSocketAddress() + " closed", e);
+        closed = true;
+        Closeable.closeQuietly(channel);
+        synchronized (this) {
+            out.release();
+        }
+        throw new InvalidEventHandlerException();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.remote;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.core.io.Closeable;
+import net.openhft.chronicle.wire.ReadMarshallable;
+import net.openhft.chronicle.wire.Wire;
+import net.openhft.chronicle.wire.WireType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static net.openhft.chronicle.queue.remote.QueueServer.EXCERPT_HEADER;
+
+/**
+ * Reads the excerpts of a queue served by a {@link QueueServer}, in batches sent ahead of being
+ * read. The server sends up to {@link #WINDOW} bytes more than have been read, so a tailer which
+ * isn't read from doesn't use more memory than that.
+ * <p>
+ * A tailer should only be used by one thread at a time.
+ */
+public class RemoteTailer implements Closeable {
+    static final int WINDOW = 1 << 20;
+
+    @NotNull
+    private final RemoteQueueClient client;
+    private final int stream;
+    private final Queue<Bytes<byte[]>> batches = new ConcurrentLinkedQueue<>();
+    @Nullable
+    private Bytes<byte[]> batch;
+    @Nullable
+    private Wire wire;
+    private long index = Long.MIN_VALUE;
+    private int consumed;
+    private boolean closed = false;
+
+    RemoteTailer(@NotNull RemoteQueueClient client, int stream) {
+        this.client = client;
+        this.stream = stream;
+    }
+
+    void received(@NotNull Bytes<byte[]> batch) {
+        batches.add(batch);
+    }
+
+    /**
+     * Copy the next excerpt, if one has been received.
+     *
+     * @param using to append the excerpt to
+     * @return true if there was an excerpt.
+     */
+    public boolean readBytes(@NotNull Bytes<?> using) {
+        Bytes<byte[]> bytes = next();
+        if (bytes == null)
+            return false;
+        int length = bytes.readInt();
+        index = bytes.readLong();
+        using.write(bytes, bytes.readPosition(), length);
+        bytes.readSkip(length);
+        consumed(length);
+        return true;
+    }
+
+    /**
+     * Read the next excerpt as a binary document, if one has been received.
+     *
+     * @return true if there was an excerpt.
+     */
+    public boolean readDocument(@NotNull ReadMarshallable reader) {
+        Bytes<byte[]> bytes = next();
+        if (bytes == null)
+            return false;
+        assert wire != null;
+        int length = bytes.readInt();
+        index = bytes.readLong();
+        long limit = bytes.readLimit();
+        long end = bytes.readPosition() + length;
+        bytes.readLimit(end);
+        try {
+            reader.readMarshallable(wire);
+        } finally {
+            bytes.readLimit(limit);
+            bytes.readPosition(end);
+        }
+        consumed(length);
+        return true;
+    }
+
+    /**
+     * @return the index of the last excerpt read, or Long.MIN_VALUE if none has been.
+     */
+    public long index() {
+        return index;
+    }
+
+    @Nullable
+    private Bytes<byte[]> next() {
+        if (batch == null || batch.readRemaining() == 0) {
+            batch = batches.poll();
+            wire = batch == null ? null : WireType.BINARY.apply(batch);
+        }
+        return batch;
+    }
+
+    private void consumed(int length) {
+        consumed += EXCERPT_HEADER + length;
+        // credit is given back in large pieces to keep the frames for it down.
+        if (consumed >= WINDOW / 2) {
+            client.credit(stream, consumed);
+            consumed = 0;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        client.closeStream(stream);
+        batches.clear();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.replication;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.core.Jvm;
+import net.openhft.chronicle.core.io.Closeable;
+import net.openhft.chronicle.core.threads.EventHandler;
+import net.openhft.chronicle.core.threads.EventLoop;
+import net.openhft.chronicle.core.threads.InvalidEventHandlerException;
+import net.openhft.chronicle.queue.ChronicleQueue;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.TailerDirection;
+import net.openhft.chronicle.wire.DocumentContext;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import static net.openhft.chronicle.queue.replication.ReplicationSource.BATCH_SIZE;
+import static net.openhft.chronicle.queue.replication.ReplicationSource.EXCERPT_HEADER;
+import static net.openhft.chronicle.queue.replication.ReplicationSource.FILE_HEADER;
+import static net.openhft.chronicle.queue.replication.ReplicationSource.FILE_MARKER;
+import static net.openhft.chronicle.queue.replication.ReplicationSource.FILE_TRAILER;
+import static net.openhft.chronicle.queue.replication.ReplicationSource.FROM_START;
+
+/**
+ * Copies the excerpts of a queue served by a {@link ReplicationSource} into a follower queue, at
+ * the same indices, and acknowledges each batch once it has been written.
+ * <p>
+ * Replication resumes after the last excerpt already in the follower, so the follower should
+ * only be written to by its sink.
+ * <p>
+ * Closed cycle files sent by the source are written to a temporary file alongside the queue, and
+ * only renamed to be part of it once their length and CRC32 have been checked.
+ */
+public class ReplicationSink implements EventHandler, Closeable {
+    @NotNull
+    private final ChronicleQueue queue;
+    @NotNull
+    private final SocketChannel channel;
+    private final ByteBuffer ack = ByteBuffer.allocateDirect(8).order(ByteOrder.LITTLE_ENDIAN);
+    private ByteBuffer in = ByteBuffer.allocateDirect(2 * BATCH_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private Bytes<ByteBuffer> excerpt = Bytes.wrapForRead(in);
+    @Nullable
+    private ExcerptAppender appender;
+    private long lastWritten;
+    private long lastAcknowledged;
+    private final CRC32 crc = new CRC32();
+    @Nullable
+    private FileChannel file;
+    @Nullable
+    private File receiving;
+    @Nullable
+    private File target;
+    private long fileRemaining;
+    private long fileLastIndex;
+    private volatile boolean closed = false;
+
+    public ReplicationSink(@NotNull ChronicleQueue queue, @NotNull SocketAddress source, @NotNull EventLoop eventLoop) throws IOException {
+        this.queue = queue;
+        this.lastWritten = this.lastAcknowledged = lastIndex(queue);
+        this.channel = SocketChannel.open(source);
+        try {
+            channel.socket().setTcpNoDelay(true);
+            ack.putLong(lastWritten).flip();
+            while (ack.remaining() > 0)
+                channel.write(ack);
+            channel.configureBlocking(false);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        eventLoop.addHandler(this);
+    }
+
+    private static long lastIndex(@NotNull ChronicleQueue queue) {
+        ExcerptTailer tailer = queue.createTailer().direction(TailerDirection.BACKWARD).toEnd();
+        try (DocumentContext dc = tailer.readingDocument()) {
+            return dc.isPresent() ? dc.index() : FROM_START;
+        }
+    }
+
+    @Override
+    public boolean action() throws InvalidEventHandlerException {
+        if (closed)
+            close(null);
+        // appenders are per thread, so acquire it on the event loop.
+        if (appender == null)
+            appender = queue.acquireAppender();
+        try {
+            boolean busy = read();
+            busy |= acknowledge();
+            return busy;
+        } catch (IOException e) {
+            close(e);
+            return false;
+        }
+    }
+
+    /**
+     * @return the last index written to the follower queue.
+     */
+    public long lastIndexWritten() {
+        return lastWritten;
+    }
+
+    private boolean read() throws IOException, InvalidEventHandlerException {
+        int read = channel.read(in);
+        if (read < 0)
+            close(null);
+        if (read <= 0)
+            return false;
+
+        in.flip();
+        while (true) {
+            if (file != null) {
+                if (receive())
+                    continue;
+                break;
+            }
+            if (in.remaining() < EXCERPT_HEADER)
+                break;
+            int position = in.position();
+            int length = in.getInt(position);
+            if (length == FILE_MARKER) {
+                if (startFile())
+                    continue;
+                break;
+            }
+            if (in.remaining() < EXCERPT_HEADER + length) {
+                if (EXCERPT_HEADER + length > in.capacity())
+                    grow(EXCERPT_HEADER + length);
+                break;
+            }
+            long index = in.getLong(position + 4);
+            excerpt.readPositionRemaining(position + EXCERPT_HEADER, length);
+            appender.writeBytes(index, excerpt);
+            lastWritten = index;
+            in.position(position + EXCERPT_HEADER + length);
+        }
+        in.compact();
+        return true;
+    }
+
+    private boolean startFile() throws IOException {
+        int position = in.position();
+        if (in.remaining() < FILE_HEADER)
+            return false;
+        int nameLength = in.getInt(position + FILE_HEADER - 4);
+        if (in.remaining() < FILE_HEADER + nameLength)
+            return false;
+        long length = in.getLong(position + 4);
+        long lastIndex = in.getLong(position + 12);
+        byte[] name = new byte[nameLength];
+        in.position(position + FILE_HEADER);
+        in.get(name);
+
+        String fileName = new String(name, StandardCharsets.UTF_8);
+        if (fileName.indexOf('/') >= 0 || fileName.indexOf(File.separatorChar) >= 0)
+            throw new IOException("Unexpected cycle file name " + fileName);
+        File dir = queue.file();
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Unable to create " + dir);
+        target = new File(dir, fileName);
+        receiving = new File(dir, fileName + ".tmp");
+        file = FileChannel.open(receiving.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        fileRemaining = length;
+        fileLastIndex = lastIndex;
+        crc.reset();
+        return true;
+    }
+
+    private boolean receive() throws IOException {
+        assert file != null;
+        if (fileRemaining > 0) {
+            if (!in.hasRemaining())
+                return false;
+            int position = in.position();
+            int length = (int) Math.min(in.remaining(), fileRemaining);
+            ByteBuffer data = in.duplicate();
+            data.limit(position + length);
+            while (data.hasRemaining())
+                file.write(data);
+            data.position(position);
+            crc.update(data);
+            in.position(position + length);
+            fileRemaining -= length;
+            return true;
+        }
+        if (in.remaining() < FILE_TRAILER)
+            return false;
+        long expected = in.getLong();
+        completeFile(expected);
+        return true;
+    }
+
+    private void completeFile(long expected) throws IOException {
+        assert file != null && receiving != null && target != null;
+        try {
+            file.force(true);
+        } finally {
+            closeFile();
+        }
+        if (crc.getValue() != expected || target.exists()) {
+            Files.deleteIfExists(receiving.toPath());
+            throw new IOException(target.exists()
+                    ? "Unable to replace " + target + " which the follower has already"
+                    : "Checksum of " + target + " was " + Long.toHexString(crc.getValue()) + " not " + Long.toHexString(expected));
+        }
+        Files.move(receiving.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        lastWritten = fileLastIndex;
+    }
+
+    private void closeFile() {
+        Closeable.closeQuietly(file);
+        file = null;
+    }
+
+    private void grow(int size) {
+        ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(size, in.capacity() * 2)).order(ByteOrder.LITTLE_ENDIAN);
+        bigger.put(in);
+        // back in read mode, like the buffer it replaces.
+        bigger.flip();
+        in = bigger;
+        excerpt = Bytes.wrapForRead(in);
+    }
+
+    private boolean acknowledge() throws IOException {
+        if (ack.remaining() == 0) {
+            if (lastWritten == lastAcknowledged)
+                return false;
+            ack.clear();
+            ack.putLong(lastWritten).flip();
+            lastAcknowledged = lastWritten;
+        }
+        return channel.write(ack) > 0;
+    }
+
+    private void close(@Nullable IOException e) throws InvalidEventHandlerException {
+        if (e != null)
+            Jvm.warn().on(getClass(), "Replication from " + channel.socket().getRemoteSocketAddress() + " stopped", e);
+        Closeable.closeQuietly(channel);
+        if (file != null) {
+            // part way through a cycle file, which is sent again when it reconnects.
+            closeFile();
+            assert receiving != null;
+            receiving.delete();
+        }
+        throw new InvalidEventHandlerException();
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,482 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.replication;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.core.Jvm;
+import net.openhft.chronicle.core.io.Closeable;
+import net.openhft.chronicle.core.threads.EventHandler;
+import net.openhft.chronicle.core.threads.EventLoop;
+import net.openhft.chronicle.core.threads.HandlerPriority;
+import net.openhft.chronicle.core.threads.InvalidEventHandlerException;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.RollCycle;
+import net.openhft.chronicle.queue.TailerDirection;
+import net.openhft.chronicle.queue.impl.RollingChronicleQueue;
+import net.openhft.chronicle.queue.impl.WireStore;
+import net.openhft.chronicle.wire.DocumentContext;
+import net.openhft.chronicle.wire.Wires;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Streams the excerpts of a queue to any number of {@link ReplicationSink}s over TCP.
+ * <p>
+ * Each sink sends the last index it already has, and is sent every excerpt after it, batched so
+ * many small excerpts go in one write. As the sink acknowledges the indices it has written, they
+ * are recorded as the {@link WireStore#lastAcknowledgedIndexReplicated()} of each cycle, so
+ * tailers which {@link ExcerptTailer#readAfterReplicaAcknowledged(boolean) read after the replica
+ * acknowledged} can see them.
+ * <p>
+ * A sink which is whole cycles behind can instead be {@link #shipClosedCycles(boolean) sent the
+ * closed cycle files} it is missing. A cycle only counts as closed once it has an end of file
+ * marker. Each is sent with {@link FileChannel#transferTo}, so the
+ * bytes go from the page cache to the socket without being copied, followed by a CRC32 the sink
+ * checks before moving the file into place. Excerpts are streamed as usual from the live cycle.
+ * <p>
+ * Accepting connections and serving each sink are handlers on the event loop given.
+ */
+public class ReplicationSource implements Closeable {
+    static final int BATCH_SIZE = 256 << 10;
+    // the length and index before each excerpt
+    static final int EXCERPT_HEADER = 4 + 8;
+    // the index a sink sends when it has nothing to start from.
+    static final long FROM_START = -1;
+    // sent in place of an excerpt length before a cycle file.
+    static final int FILE_MARKER = -1;
+    // the marker, length, last index and name length before a cycle file's name.
+    static final int FILE_HEADER = 4 + 8 + 8 + 4;
+    // the CRC32 after a cycle file.
+    static final int FILE_TRAILER = 8;
+    private static final int TRANSFER_SIZE = 1 << 20;
+
+    @NotNull
+    private final RollingChronicleQueue queue;
+    @NotNull
+    private final EventLoop eventLoop;
+    @NotNull
+    private final ServerSocketChannel serverChannel;
+    private volatile boolean shipClosedCycles = false;
+    private volatile boolean closed = false;
+
+    public ReplicationSource(@NotNull RollingChronicleQueue queue, @NotNull InetSocketAddress address, @NotNull EventLoop eventLoop) throws IOException {
+        this.queue = queue;
+        this.eventLoop = eventLoop;
+        this.serverChannel = ServerSocketChannel.open();
+        try {
+            serverChannel.bind(address);
+            serverChannel.configureBlocking(false);
+        } catch (IOException e) {
+            serverChannel.close();
+            throw e;
+        }
+        eventLoop.addHandler(new Acceptor());
+    }
+
+    /**
+     * @return the address sinks connect to, including the port chosen if it was 0.
+     */
+    @NotNull
+    public SocketAddress localAddress() throws IOException {
+        return serverChannel.getLocalAddress();
+    }
+
+    /**
+     * Send sinks which connect later the closed cycle files they are missing rather than each
+     * excerpt in them. This is off by default.
+     *
+     * @param shipClosedCycles whether to send whole cycle files to catch up.
+     * @return this
+     */
+    @NotNull
+    public ReplicationSource shipClosedCycles(boolean shipClosedCycles) {
+        this.shipClosedCycles = shipClosedCycles;
+        return this;
+    }
+
+    public boolean shipClosedCycles() {
+        return shipClosedCycles;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        Closeable.closeQuietly(serverChannel);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Record that a sink has written everything up to an index.
+     */
+    void acknowledge(long index, @NotNull TreeMap<Integer, Long> lastSentByCycle) {
+        RollCycle rollCycle = queue.rollCycle();
+        int cycle = rollCycle.toCycle(index);
+        // a later cycle being acknowledged means all that was sent of the earlier ones was too.
+        for (Iterator<Map.Entry<Integer, Long>> it = lastSentByCycle.headMap(cycle).entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Integer, Long> entry = it.next();
+            acknowledge(entry.getKey(), entry.getValue());
+            it.remove();
+        }
+        acknowledge(cycle, rollCycle.toSequenceNumber(index));
+    }
+
+    private void acknowledge(int cycle, long sequence) {
+        WireStore store = queue.storeForCycle(cycle, queue.epoch(), false);
+        if (store == null)
+            return;
+        try {
+            store.lastAcknowledgedIndexReplicated(sequence);
+        } finally {
+            queue.release(store);
+        }
+    }
+
+    class Acceptor implements EventHandler {
+        @Override
+        public boolean action() throws InvalidEventHandlerException {
+            if (closed)
+                throw new InvalidEventHandlerException();
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept();
+            } catch (IOException e) {
+                if (!closed)
+                    Jvm.warn().on(getClass(), "Unable to accept a replication connection", e);
+                throw new InvalidEventHandlerException();
+            }
+            if (channel == null)
+                return false;
+            try {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+            } catch (IOException e) {
+                Jvm.warn().on(getClass(), "Unable to configure " + channel, e);
+                Closeable.closeQuietly(channel);
+                return true;
+            }
+            eventLoop.addHandler(new Session(channel));
+            return true;
+        }
+
+        @NotNull
+        @Override
+        public HandlerPriority priority() {
+            return HandlerPriority.TIMER;
+        }
+    }
+
+    class Session implements EventHandler {
+        @NotNull
+        private final SocketChannel channel;
+        private final ByteBuffer in = ByteBuffer.allocateDirect(8 << 10).order(ByteOrder.LITTLE_ENDIAN);
+        private final Bytes<ByteBuffer> out = Bytes.elasticByteBuffer(BATCH_SIZE + EXCERPT_HEADER);
+        private final TreeMap<Integer, Long> lastSentByCycle = new TreeMap<>();
+        // the closed cycles still to be sent as files.
+        private final ArrayDeque<Integer> cyclesToShip = new ArrayDeque<>();
+        private final CRC32 crc = new CRC32();
+        @Nullable
+        private ExcerptTailer tailer;
+        // while catching up, the excerpts after this cycle are sent in files instead.
+        private int streamUntilCycle = Integer.MAX_VALUE;
+        // where the tailer continues from once the files have been sent.
+        private long resumeFrom = FROM_START;
+        @Nullable
+        private FileChannel file;
+        @Nullable
+        private ByteBuffer readBack;
+        private long filePosition;
+        private long fileLength;
+
+        Session(@NotNull SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public boolean action() throws InvalidEventHandlerException {
+            if (closed)
+                close();
+            try {
+                boolean busy = read();
+                if (tailer == null)
+                    return busy;
+                busy |= write();
+                if (out.readRemaining() > 0)
+                    return busy;
+                if (file != null)
+                    busy |= transfer();
+                else if (streamUntilCycle == Integer.MIN_VALUE)
+                    busy |= shipNext();
+                else
+                    busy |= fill();
+                busy |= write();
+                return busy;
+            } catch (IOException e) {
+                Jvm.warn().on(getClass(), "Replication to " + remote() + " stopped", e);
+                close();
+                return false;
+            }
+        }
+
+        private boolean read() throws IOException, InvalidEventHandlerException {
+            int read = channel.read(in);
+            if (read < 0) {
+                Jvm.debug().on(getClass(), "Replica " + remote() + " disconnected");
+                close();
+            }
+            in.flip();
+            for (; in.remaining() >= 8; ) {
+                long index = in.getLong();
+                if (tailer == null)
+                    start(index);
+                else
+                    acknowledge(index, lastSentByCycle);
+            }
+            in.compact();
+            return read > 0;
+        }
+
+        private void start(long lastIndex) throws InvalidEventHandlerException {
+            tailer = queue.createTailer();
+            moveAfter(lastIndex);
+            if (shipClosedCycles)
+                planCatchUp(lastIndex);
+        }
+
+        private void moveAfter(long lastIndex) throws InvalidEventHandlerException {
+            assert tailer != null;
+            if (lastIndex == FROM_START) {
+                tailer.toStart();
+                return;
+            }
+            if (!tailer.moveToIndex(lastIndex)) {
+                Jvm.warn().on(getClass(), "Replica " + remote() + " has index " + Long.toHexString(lastIndex) + " which is not in the queue");
+                close();
+            }
+            // skip the excerpt it has.
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assert dc.isPresent();
+            }
+        }
+
+        /**
+         * Find the closed cycles after the one the sink has, which can be sent as files.
+         */
+        private void planCatchUp(long lastIndex) {
+            int lastCycle = queue.lastCycle();
+            try {
+                int cycle = lastIndex == FROM_START
+                        ? queue.firstCycle()
+                        : queue.nextCycle(queue.rollCycle().toCycle(lastIndex), TailerDirection.FORWARD);
+                for (; cycle != -1 && cycle < lastCycle; cycle = queue.nextCycle(cycle, TailerDirection.FORWARD))
+                    cyclesToShip.add(cycle);
+            } catch (ParseException e) {
+                Jvm.warn().on(getClass(), "Unable to find the cycles to send to " + remote() + ", streaming them instead", e);
+                cyclesToShip.clear();
+            }
+            if (cyclesToShip.isEmpty())
+                return;
+            resumeFrom = lastIndex;
+            // the rest of a cycle the sink has part of is streamed first.
+            streamUntilCycle = lastIndex == FROM_START
+                    ? Integer.MIN_VALUE
+                    : queue.rollCycle().toCycle(lastIndex);
+        }
+
+        /**
+         * Copy as many excerpts as are ready into the next batch.
+         */
+        private boolean fill() {
+            assert tailer != null;
+            out.clear();
+            while (out.writePosition() < BATCH_SIZE) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    if (!dc.isPresent())
+                        break;
+                    long index = dc.index();
+                    if (queue.rollCycle().toCycle(index) > streamUntilCycle) {
+                        // the tailer is moved back once the files have been sent.
+                        streamUntilCycle = Integer.MIN_VALUE;
+                        break;
+                    }
+                    Bytes<?> bytes = dc.wire().bytes();
+                    long length = bytes.readRemaining();
+                    out.writeInt((int) length)
+                            .writeLong(index)
+                            .write(bytes, bytes.readPosition(), length);
+                    lastSentByCycle.put(queue.rollCycle().toCycle(index), queue.rollCycle().toSequenceNumber(index));
+                }
+            }
+            return out.readRemaining() > 0;
+        }
+
+        /**
+         * Start sending the next closed cycle file, or go back to streaming excerpts if there
+         * are none left.
+         */
+        private boolean shipNext() throws IOException, InvalidEventHandlerException {
+            Integer cycle = cyclesToShip.poll();
+            if (cycle == null) {
+                streamUntilCycle = Integer.MAX_VALUE;
+                moveAfter(resumeFrom);
+                return true;
+            }
+            long lastSequence = queue.lastSequence(cycle);
+            WireStore store = queue.storeForCycle(cycle, queue.epoch(), false);
+            // nothing to send
+            if (lastSequence < 0 || store == null)
+                return true;
+            File cycleFile = store.file();
+            long length;
+            try {
+                length = usedLength(store);
+            } finally {
+                queue.release(store);
+            }
+            if (length < 0) {
+                // still being written to, so it and the cycles after it are streamed instead.
+                Jvm.debug().on(getClass(), "Cycle " + cycle + " has no end of file marker, streaming the rest to " + remote());
+                cyclesToShip.clear();
+                return true;
+            }
+
+            file = FileChannel.open(cycleFile.toPath(), StandardOpenOption.READ);
+            filePosition = 0;
+            fileLength = Math.min(length, file.size());
+            crc.reset();
+            long lastIndex = queue.rollCycle().toIndex(cycle, lastSequence);
+            byte[] name = cycleFile.getName().getBytes(StandardCharsets.UTF_8);
+            out.clear();
+            out.writeInt(FILE_MARKER)
+                    .writeLong(fileLength)
+                    .writeLong(lastIndex)
+                    .writeInt(name.length)
+                    .write(name);
+            lastSentByCycle.put(cycle, lastSequence);
+            resumeFrom = lastIndex;
+            return true;
+        }
+
+        private boolean transfer() throws IOException {
+            assert file != null;
+            long sent = file.transferTo(filePosition, Math.min(TRANSFER_SIZE, fileLength - filePosition), channel);
+            if (sent > 0) {
+                checksum(filePosition, sent);
+                filePosition += sent;
+            }
+            if (filePosition < fileLength)
+                return sent > 0;
+
+            closeFile();
+            out.clear();
+            out.writeLong(crc.getValue());
+            return true;
+        }
+
+        /**
+         * The bytes just sent are read back from the page cache for the checksum, as they were
+         * not copied to be sent.
+         */
+        private void checksum(long position, long length) throws IOException {
+            assert file != null;
+            if (readBack == null)
+                readBack = ByteBuffer.allocateDirect(64 << 10);
+            for (long end = position + length; position < end; ) {
+                readBack.clear();
+                readBack.limit((int) Math.min(readBack.capacity(), end - position));
+                int read = file.read(readBack, position);
+                if (read < 0)
+                    throw new EOFException("Unable to read back " + Long.toHexString(position));
+                readBack.flip();
+                crc.update(readBack);
+                position += read;
+            }
+        }
+
+        private boolean write() throws IOException {
+            if (out.readRemaining() <= 0)
+                return false;
+            ByteBuffer buffer = out.underlyingObject();
+            buffer.limit((int) out.readLimit());
+            buffer.position((int) out.readPosition());
+            int written = channel.write(buffer);
+            out.readSkip(written);
+            return written > 0;
+        }
+
+        private String remote() {
+            return String.valueOf(channel.socket().getRemoteSocketAddress());
+        }
+
+        private void closeFile() {
+            Closeable.closeQuietly(file);
+            file = null;
+        }
+
+        private void close() throws InvalidEventHandlerException {
+            Closeable.closeQuietly(channel);
+            closeFile();
+            if (tailer != null) {
+                tailer.close();
+                tailer = null;
+            }
+            out.release();
+            throw new InvalidEventHandlerException();
+        }
+    }
+
+    /**
+     * @return the length of a closed cycle file up to and including its end of file marker, as
+     * the rest is unused, or -1 if it has no end of file marker as it may still be written to.
+     */
+    static long usedLength(@NotNull WireStore store) {
+        Bytes<?> bytes = store.bytes();
+        try {
+            long position = store.writePosition();
+            for (int header; (header = bytes.readVolatileInt(position)) != 0; ) {
+                position += 4;
+                if (header == Wires.END_OF_DATA)
+                    return position;
+                position += Wires.lengthOf(header);
+            }
+            return -1;
+        } finally {
+            store.releaseWithStore(bytes);
+        }
+    }
+}
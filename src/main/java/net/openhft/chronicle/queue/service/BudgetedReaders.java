@@ -0,0 +1,104 @@
+package net.openhft.chronicle.queue.service;
+
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueExcerpts.StoreTailer;
+import net.openhft.chronicle.wire.MethodReader;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * Reads as many messages from a number of inputs as a budget allows, one from each input in turn
+ * so none is starved. The budget is a number of messages for each input, and a time for them
+ * all, so the event loop is neither entered for every message, nor held up by a busy input.
+ * <p>
+ * An action only counts as having used up its budget if it stopped with a message still waiting,
+ * either on an input which reached its limit, or on any input when time ran out.
+ */
+class BudgetedReaders {
+    @NotNull
+    private final MethodReader[] readers;
+    @NotNull
+    private final BooleanSupplier[] waiting;
+    private final int maxMessages;
+    private final long maxNanos;
+    private final int[] processed;
+    // where the next action starts, so a time budget doesn't always favour the first input.
+    private int first = 0;
+    private volatile long actions;
+    private volatile long exhausted;
+
+    /**
+     * @param readers     of each input.
+     * @param waiting     whether each input has another message, without reading it.
+     * @param maxMessages to read from each input in one action.
+     * @param maxNanos    to read for in one action.
+     */
+    BudgetedReaders(@NotNull MethodReader[] readers, @NotNull BooleanSupplier[] waiting, int maxMessages, long maxNanos) {
+        assert readers.length == waiting.length;
+        this.readers = readers;
+        this.waiting = waiting;
+        this.maxMessages = maxMessages;
+        this.maxNanos = maxNanos;
+        this.processed = new int[readers.length];
+    }
+
+    /**
+     * @return true if any message was read.
+     */
+    boolean readSome() {
+        int inputs = readers.length;
+        if (inputs == 0)
+            return false;
+        int start = first;
+        first = (first + 1) % inputs;
+        long deadline = maxNanos == Long.MAX_VALUE ? Long.MAX_VALUE : System.nanoTime() + maxNanos;
+        for (int i = 0; i < inputs; i++)
+            processed[i] = 0;
+
+        boolean busy = false;
+        boolean budgetUsed = false;
+        for (boolean progress = true; progress; ) {
+            progress = false;
+            for (int j = 0; j < inputs; j++) {
+                int i = (start + j) % inputs;
+                if (processed[i] >= maxMessages)
+                    continue;
+                if (readers[i].readOne()) {
+                    processed[i]++;
+                    progress = true;
+                }
+            }
+            busy |= progress;
+            if (progress && deadline != Long.MAX_VALUE && System.nanoTime() >= deadline) {
+                budgetUsed = true;
+                break;
+            }
+        }
+        for (int i = 0; i < inputs && !budgetUsed; i++)
+            budgetUsed = processed[i] >= maxMessages && waiting[i].getAsBoolean();
+        // only the event loop thread updates these
+        if (busy) {
+            actions = actions + 1;
+            if (budgetUsed)
+                exhausted = exhausted + 1;
+        }
+        return busy;
+    }
+
+    /**
+     * @return true if the tailer has another message, looking at its header rather than reading
+     * it and moving back, so the probe costs little next to reading the message.
+     */
+    static boolean waiting(@NotNull ExcerptTailer tailer) {
+        return tailer instanceof StoreTailer && ((StoreTailer) tailer).peekDocument();
+    }
+
+    long actions() {
+        return actions;
+    }
+
+    long exhausted() {
+        return exhausted;
+    }
+}
@@ -6,10 +6,12 @@ import net.openhft.chronicle.core.threads.EventLoop;
 import net.openhft.chronicle.core.threads.HandlerPriority;
 import net.openhft.chronicle.core.threads.InvalidEventHandlerException;
 import net.openhft.chronicle.queue.ChronicleQueue;
+import net.openhft.chronicle.queue.ExcerptTailer;
 import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder;
 import net.openhft.chronicle.wire.MethodReader;
 
 import java.util.List;
+import java.util.function.BooleanSupplier;
 
 /**
  * Created by peter on 01/04/16.
@@ -22,6 +24,7 @@ public class EventLoopServiceWrapper<O> implements ServiceWrapper, EventHandler
     private final O serviceOut;
     private final boolean createdEventLoop;
     private final Object[] serviceImpl;
+    private final BudgetedReaders readers;
     private volatile boolean closed = false;
     private EventLoop eventLoop;
 
@@ -33,11 +36,15 @@ public class EventLoopServiceWrapper<O> implements ServiceWrapper, EventHandler
 
         List<String> paths = builder.inputPath();
         serviceIn = new MethodReader[paths.size()];
+        BooleanSupplier[] waiting = new BooleanSupplier[paths.size()];
         inputQueues = new ChronicleQueue[paths.size()];
         for (int i = 0; i < paths.size(); i++) {
             inputQueues[i] = SingleChronicleQueueBuilder.binary(paths.get(i)).sourceId(builder.inputSourceId()).build();
-            serviceIn[i] = inputQueues[i].createTailer().afterLastWritten(outputQueue).methodReader(serviceImpl);
+            ExcerptTailer tailer = inputQueues[i].createTailer().afterLastWritten(outputQueue);
+            serviceIn[i] = tailer.methodReader(serviceImpl);
+            waiting[i] = () -> BudgetedReaders.waiting(tailer);
         }
+        readers = new BudgetedReaders(serviceIn, waiting, builder.maxMessagesPerAction(), builder.maxNanosPerAction());
         eventLoop = builder.eventLoop();
         eventLoop.addHandler(this);
         createdEventLoop = builder.createdEventLoop();
@@ -65,11 +72,22 @@ public class EventLoopServiceWrapper<O> implements ServiceWrapper, EventHandler
             throw new InvalidEventHandlerException();
         }
 
-        boolean busy = false;
-        for (MethodReader reader : serviceIn) {
-            busy |= reader.readOne();
-        }
-        return busy;
+        return readers.readSome();
+    }
+
+    /**
+     * @return the number of times messages were read.
+     */
+    public long actionCount() {
+        return readers.actions();
+    }
+
+    /**
+     * @return the number of times reading stopped because the budget per action was used up, not
+     * because there were no more messages.
+     */
+    public long budgetExhaustedCount() {
+        return readers.exhausted();
     }
 
     @Override
@@ -6,11 +6,13 @@ import net.openhft.chronicle.queue.impl.single.SingleChronicleQueue;
 import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder;
 import net.openhft.chronicle.threads.EventGroup;
 import net.openhft.chronicle.wire.MethodReader;
+import net.openhft.chronicle.wire.WireIn;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 
 /**
  * Created by peter on 23/04/16.
@@ -25,6 +27,11 @@ public class ServiceWrapperBuilder<O> implements Supplier<ServiceWrapper> {
     private boolean createdEventLoop = false;
     private int inputSourceId;
     private int outputSourceId;
+    private int shards = 1;
+    private ToLongFunction<WireIn> shardKey;
+    private boolean mergeShards = false;
+    private int maxMessagesPerAction = 1;
+    private long maxNanosPerAction = Long.MAX_VALUE;
 
     ServiceWrapperBuilder() {
     }
@@ -113,13 +120,100 @@ public class ServiceWrapperBuilder<O> implements Supplier<ServiceWrapper> {
         return this;
     }
 
+    public int maxMessagesPerAction() {
+        return maxMessagesPerAction;
+    }
+
+    /**
+     * @param maxMessagesPerAction the most messages read from each input each time the service
+     *                             is called by its event loop.
+     * @return this
+     */
+    public ServiceWrapperBuilder<O> maxMessagesPerAction(int maxMessagesPerAction) {
+        if (maxMessagesPerAction < 1)
+            throw new IllegalArgumentException("maxMessagesPerAction: " + maxMessagesPerAction);
+        this.maxMessagesPerAction = maxMessagesPerAction;
+        return this;
+    }
+
+    public long maxNanosPerAction() {
+        return maxNanosPerAction;
+    }
+
+    /**
+     * @param maxNanosPerAction the time after which no more messages are read each time the
+     *                          service is called by its event loop, Long.MAX_VALUE for no limit.
+     * @return this
+     */
+    public ServiceWrapperBuilder<O> maxNanosPerAction(long maxNanosPerAction) {
+        if (maxNanosPerAction <= 0)
+            throw new IllegalArgumentException("maxNanosPerAction: " + maxNanosPerAction);
+        this.maxNanosPerAction = maxNanosPerAction;
+        return this;
+    }
+
+    public int shards() {
+        return shards;
+    }
+
+    public ToLongFunction<WireIn> shardKey() {
+        return shardKey;
+    }
+
+    /**
+     * Process the input on a number of threads, each with its own tailer, service and output.
+     * Each message is processed by the shard its key maps to, and skipped by the others.
+     * <p>
+     * The header of an excerpt holds only its length, so the key is read from the message
+     * itself, by every shard for every message. Keep the key the first argument, and the
+     * extractor to reading just that field, to keep skipping cheap.
+     *
+     * @param shards   the number of shards
+     * @param shardKey the key of a message, read from the start of it, after any history.
+     * @return this
+     */
+    public ServiceWrapperBuilder<O> shards(int shards, ToLongFunction<WireIn> shardKey) {
+        if (shards < 1)
+            throw new IllegalArgumentException("shards: " + shards);
+        this.shards = shards;
+        this.shardKey = shardKey;
+        return this;
+    }
+
+    public boolean mergeShards() {
+        return mergeShards;
+    }
+
+    /**
+     * Merge the outputs of the shards into the output path, in the order of the input messages
+     * they came from. This needs the history of each message, so an outputSourceId, and only one
+     * input.
+     *
+     * @return this
+     */
+    public ServiceWrapperBuilder<O> mergeShards(boolean mergeShards) {
+        this.mergeShards = mergeShards;
+        return this;
+    }
+
+    /**
+     * @return the path of the queue a shard writes to.
+     */
+    public String shardOutputPath(int shard) {
+        return outputPath + "-shard" + shard;
+    }
+
     @Override
     public ServiceWrapper get() {
+        if (shards > 1 && mergeShards && (outputSourceId == 0 || inputPaths.size() != 1))
+            throw new IllegalStateException("Merging shards needs an outputSourceId and one input path");
         if (eventLoop == null) {
             eventLoop = new EventGroup(false);
             createdEventLoop = true;
         }
-        return new EventLoopServiceWrapper<>(this);
+        return shards > 1
+                ? new ShardedServiceWrapper<>(this)
+                : new EventLoopServiceWrapper<>(this);
     }
 
     public SingleChronicleQueue inputQueue() {
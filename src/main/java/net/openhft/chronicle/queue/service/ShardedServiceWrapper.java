@@ -0,0 +1,389 @@
+package net.openhft.chronicle.queue.service;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.core.io.Closeable;
+import net.openhft.chronicle.core.threads.EventHandler;
+import net.openhft.chronicle.core.threads.EventLoop;
+import net.openhft.chronicle.core.threads.HandlerPriority;
+import net.openhft.chronicle.core.threads.InvalidEventHandlerException;
+import net.openhft.chronicle.core.util.StringUtils;
+import net.openhft.chronicle.queue.ChronicleQueue;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.TailerDirection;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder;
+import net.openhft.chronicle.threads.LongPauser;
+import net.openhft.chronicle.threads.Pauser;
+import net.openhft.chronicle.wire.*;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * Runs a service on a number of shards, each a BLOCKING handler with its own thread, tailers,
+ * service and output queue. Every shard reads every message, but only processes those whose key
+ * maps to it, so the service must only need the messages for one key at a time.
+ * <p>
+ * There is no key in the header of an excerpt, so each shard reads the key from the body of
+ * every message, after any history, before skipping it. Only that field is decoded; the rest of a
+ * skipped message isn't read.
+ * <p>
+ * The outputs of the shards can be merged into one output queue, in the order of the input
+ * messages they came from, so the merged output is the same however the shards were scheduled.
+ */
+public class ShardedServiceWrapper<O> implements ServiceWrapper {
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final ChronicleQueue[] inputQueues;
+    private final ChronicleQueue[] shardOutputs;
+    @Nullable
+    private final ChronicleQueue outputQueue;
+    private final List<Shard> shards = new ArrayList<>();
+    private final boolean createdEventLoop;
+    private final AtomicInteger running = new AtomicInteger();
+    private volatile boolean closed = false;
+    private EventLoop eventLoop;
+
+    public ShardedServiceWrapper(@NotNull ServiceWrapperBuilder<O> builder) {
+        List<String> paths = builder.inputPath();
+        inputQueues = new ChronicleQueue[paths.size()];
+        for (int i = 0; i < paths.size(); i++)
+            inputQueues[i] = SingleChronicleQueueBuilder.binary(paths.get(i)).sourceId(builder.inputSourceId()).build();
+
+        int count = builder.shards();
+        shardOutputs = new ChronicleQueue[count];
+        for (int i = 0; i < count; i++) {
+            shardOutputs[i] = SingleChronicleQueueBuilder.binary(builder.shardOutputPath(i)).sourceId(builder.outputSourceId()).build();
+            shards.add(new Shard(builder, i, shardOutputs[i]));
+        }
+        outputQueue = builder.mergeShards()
+                ? SingleChronicleQueueBuilder.binary(builder.outputPath()).sourceId(builder.outputSourceId()).build()
+                : null;
+
+        eventLoop = builder.eventLoop();
+        for (Shard shard : shards) {
+            running.incrementAndGet();
+            eventLoop.addHandler(shard);
+        }
+        if (outputQueue != null) {
+            running.incrementAndGet();
+            eventLoop.addHandler(new Merger(outputQueue, builder.priority()));
+        }
+        createdEventLoop = builder.createdEventLoop();
+        if (createdEventLoop)
+            eventLoop.start();
+    }
+
+    static int shardFor(long key, int shards) {
+        return (int) Math.floorMod(key, (long) shards);
+    }
+
+    @Override
+    public ChronicleQueue[] inputQueues() {
+        return inputQueues;
+    }
+
+    /**
+     * @return the merged output, or null if the outputs of the shards aren't merged.
+     */
+    @Nullable
+    @Override
+    public ChronicleQueue outputQueue() {
+        return outputQueue;
+    }
+
+    public ChronicleQueue[] shardOutputQueues() {
+        return shardOutputs;
+    }
+
+    /**
+     * The last handler to stop closes the queues they share.
+     */
+    void stopped() {
+        if (running.decrementAndGet() > 0)
+            return;
+        Closeable.closeQuietly(shardOutputs);
+        Closeable.closeQuietly(outputQueue);
+        Closeable.closeQuietly(inputQueues);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        EventLoop eventLoop = this.eventLoop;
+        this.eventLoop = null;
+        if (createdEventLoop && eventLoop != null) {
+            eventLoop.close();
+        }
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Passes on only the messages for one shard, and remembers the index of the last message read.
+     */
+    static class ShardFilter implements MarshallableIn {
+        private final ExcerptTailer tailer;
+        private final ToLongFunction<WireIn> shardKey;
+        private final int shard;
+        private final int shards;
+        private final StringBuilder name = new StringBuilder();
+        private long lastRead;
+        // a message found by waiting(), left open to be read next.
+        @Nullable
+        private DocumentContext next;
+
+        ShardFilter(ExcerptTailer tailer, ToLongFunction<WireIn> shardKey, int shard, int shards) {
+            this.tailer = tailer;
+            this.shardKey = shardKey;
+            this.shard = shard;
+            this.shards = shards;
+            // everything before the tailer has been processed.
+            this.lastRead = tailer.index() - 1;
+        }
+
+        @Override
+        public DocumentContext readingDocument() {
+            if (next != null) {
+                DocumentContext dc = next;
+                next = null;
+                lastRead = dc.index();
+                return dc;
+            }
+            for (; ; ) {
+                DocumentContext dc = tailer.readingDocument();
+                if (!dc.isPresent())
+                    return dc;
+                lastRead = dc.index();
+                if (!dc.isData() || shardFor(key(dc.wire()), shards) == shard)
+                    return dc;
+                dc.close();
+            }
+        }
+
+        private long key(Wire wire) {
+            Bytes<?> bytes = wire.bytes();
+            long position = bytes.readPosition();
+            try {
+                ValueIn in = wire.readEventName(name);
+                if (StringUtils.isEqual(name, "history"))
+                    in.skipValue();
+                else
+                    bytes.readPosition(position);
+                return shardKey.applyAsLong(wire);
+            } finally {
+                bytes.readPosition(position);
+            }
+        }
+
+        /**
+         * @return true if there is another message for this shard. It is held open to be read
+         * next, rather than the tailer moving back to it through the index.
+         */
+        boolean waiting() {
+            if (next != null)
+                return true;
+            DocumentContext dc = readingDocument();
+            if (!dc.isPresent()) {
+                dc.close();
+                return false;
+            }
+            next = dc;
+            // it has been skipped over, not read.
+            lastRead = dc.index() - 1;
+            return true;
+        }
+
+        void close() {
+            if (next != null) {
+                next.close();
+                next = null;
+            }
+        }
+
+        long lastRead() {
+            return lastRead;
+        }
+    }
+
+    class Shard implements EventHandler {
+        private final MethodReader[] readers;
+        private final ShardFilter[] filters;
+        private final Object[] serviceImpl;
+        private final BudgetedReaders budgetedReaders;
+        private final Pauser pauser = new LongPauser(1000, 100, 50, 1000, TimeUnit.MICROSECONDS);
+        // the index of the last input message this shard has finished with.
+        private volatile long progress;
+
+        Shard(@NotNull ServiceWrapperBuilder<O> builder, int shard, @NotNull ChronicleQueue output) {
+            O serviceOut = output.acquireAppender().methodWriterBuilder(builder.outClass()).recordHistory(builder.outputSourceId() != 0).get();
+            serviceImpl = builder.getServiceFunctions().stream().map(f -> f.apply(serviceOut)).toArray();
+            readers = new MethodReader[inputQueues.length];
+            filters = new ShardFilter[inputQueues.length];
+            BooleanSupplier[] waiting = new BooleanSupplier[inputQueues.length];
+            for (int i = 0; i < inputQueues.length; i++) {
+                ExcerptTailer tailer = inputQueues[i].createTailer().afterLastWritten(output);
+                filters[i] = new ShardFilter(tailer, builder.shardKey(), shard, builder.shards());
+                readers[i] = new MethodReader(filters[i], serviceImpl);
+                waiting[i] = filters[i]::waiting;
+            }
+            progress = filters[0].lastRead();
+            budgetedReaders = new BudgetedReaders(readers, waiting, builder.maxMessagesPerAction(), builder.maxNanosPerAction());
+        }
+
+        @Override
+        public boolean action() throws InvalidEventHandlerException {
+            if (closed) {
+                for (ShardFilter filter : filters)
+                    filter.close();
+                Closeable.closeQuietly(serviceImpl);
+                Closeable.closeQuietly(readers);
+                stopped();
+                throw new InvalidEventHandlerException();
+            }
+
+            boolean busy = budgetedReaders.readSome();
+            // only used when merging, which has one input.
+            progress = filters[0].lastRead();
+
+            // a blocking handler is called again straight away.
+            if (busy)
+                pauser.reset();
+            else
+                pauser.pause();
+            return busy;
+        }
+
+        @NotNull
+        @Override
+        public HandlerPriority priority() {
+            return HandlerPriority.BLOCKING;
+        }
+    }
+
+    /**
+     * Copies the outputs of the shards to the merged output, in the order of the input indices in
+     * their history. An output is only copied once every other shard has either an output waiting
+     * from a later input, or has read past its input, so none can come before it.
+     */
+    class Merger implements EventHandler {
+        private static final int MAX_BATCH = 1000;
+
+        private final ChronicleQueue output;
+        private final HandlerPriority priority;
+        private final ExcerptTailer[] tailers = new ExcerptTailer[shards.size()];
+        private final Bytes<?>[] pending = new Bytes[shards.size()];
+        private final long[] pendingIndex = new long[shards.size()];
+        private final long[] progress = new long[shards.size()];
+        private final VanillaMessageHistory history = new VanillaMessageHistory();
+        // the last input merged before a restart
+        private final long mergedUpTo;
+        @Nullable
+        private ExcerptAppender appender;
+
+        Merger(@NotNull ChronicleQueue output, HandlerPriority priority) {
+            this.output = output;
+            this.priority = priority;
+            for (int i = 0; i < shards.size(); i++) {
+                tailers[i] = shardOutputs[i].createTailer();
+                pending[i] = Bytes.allocateElasticDirect();
+                pendingIndex[i] = NONE;
+            }
+            try (DocumentContext dc = output.createTailer().direction(TailerDirection.BACKWARD).toEnd().readingDocument()) {
+                mergedUpTo = dc.isPresent() ? inputIndex(dc.wire()) : NONE;
+            }
+        }
+
+        @Override
+        public boolean action() throws InvalidEventHandlerException {
+            if (closed) {
+                for (Bytes<?> bytes : pending)
+                    bytes.release();
+                stopped();
+                throw new InvalidEventHandlerException();
+            }
+            // appenders are per thread, so acquire it on the event loop.
+            if (appender == null)
+                appender = output.acquireAppender();
+
+            int merged = 0;
+            while (merged < MAX_BATCH && mergeOne())
+                merged++;
+            return merged > 0;
+        }
+
+        private boolean mergeOne() {
+            assert appender != null;
+            // read before looking for output, so any output of the inputs read has been written.
+            for (int i = 0; i < shards.size(); i++)
+                progress[i] = shards.get(i).progress;
+            int next = -1;
+            for (int i = 0; i < shards.size(); i++) {
+                if (pendingIndex[i] == NONE)
+                    peek(i);
+                if (pendingIndex[i] != NONE && (next < 0 || pendingIndex[i] < pendingIndex[next]))
+                    next = i;
+            }
+            if (next < 0)
+                return false;
+            long index = pendingIndex[next];
+            for (int i = 0; i < shards.size(); i++)
+                if (pendingIndex[i] == NONE && progress[i] < index)
+                    return false;
+
+            appender.writeBytes(pending[next]);
+            pendingIndex[next] = NONE;
+            return true;
+        }
+
+        private void peek(int shard) {
+            for (; ; ) {
+                try (DocumentContext dc = tailers[shard].readingDocument()) {
+                    if (!dc.isPresent())
+                        return;
+                    if (!dc.isData())
+                        continue;
+                    Bytes<?> bytes = dc.wire().bytes();
+                    long position = bytes.readPosition();
+                    long length = bytes.readRemaining();
+                    long index = inputIndex(dc.wire());
+                    if (index <= mergedUpTo)
+                        continue;
+                    bytes.readPositionRemaining(position, length);
+                    pending[shard].clear();
+                    pending[shard].write(bytes);
+                    pendingIndex[shard] = index;
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return the index of the input message an output came from, the last source in its
+         * history.
+         */
+        private long inputIndex(@NotNull WireIn wire) {
+            history.reset();
+            wire.read(() -> "history").marshallable(history);
+            int sources = history.sources();
+            if (sources == 0)
+                throw new IllegalStateException("No history to merge by in " + output.file());
+            return history.sourceIndex(sources - 1);
+        }
+
+        @NotNull
+        @Override
+        public HandlerPriority priority() {
+            return priority;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package net.openhft.chronicle.queue;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.core.io.IORuntimeException;
+import net.openhft.chronicle.core.io.IOTools;
+import net.openhft.chronicle.core.time.SetTimeProvider;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueue;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ChronicleSearchTest {
+    private final String path = OS.TARGET + "/ChronicleSearchTest-" + System.nanoTime();
+    private final SetTimeProvider stp = new SetTimeProvider();
+    private final long start = System.currentTimeMillis() / 1000 * 1000;
+
+    @After
+    public void tearDown() {
+        try {
+            IOTools.deleteDirWithFiles(path, 2);
+        } catch (IORuntimeException ignored) {
+        }
+    }
+
+    private SingleChronicleQueueBuilder builder() {
+        return SingleChronicleQueueBuilder.binary(path)
+                .rollCycle(RollCycles.TEST_SECONDLY)
+                .indexCount(16)
+                .indexSpacing(4)
+                .timeProvider(stp);
+    }
+
+    // 3 cycles of 500 excerpts each.
+    private List<Long> write() {
+        List<Long> indices = new ArrayList<>();
+        stp.currentTimeMillis(start);
+        try (SingleChronicleQueue queue = builder().build()) {
+            ExcerptAppender appender = queue.acquireAppender();
+            for (int i = 0; i < 1500; i++) {
+                if (i % 500 == 0)
+                    stp.currentTimeMillis(start + i / 500 * 1000);
+                int n = i;
+                appender.writeDocument(w -> w.write("n").int32(n)
+                        .write("side").text(n % 2 == 0 ? "buy" : "sell")
+                        .write("symbol").text("SYM" + n % 7));
+                indices.add(appender.lastIndexAppended());
+            }
+        }
+        return indices;
+    }
+
+    private List<Long> search(ChronicleSearch search) {
+        List<Long> found = new ArrayList<>();
+        long count = search.search((text, index) -> found.add(index));
+        assertEquals(found.size(), count);
+        return found;
+    }
+
+    @Test
+    public void findsMatchesInOrderAcrossCyclesAndBlocks() {
+        List<Long> indices = write();
+        try (SingleChronicleQueue queue = builder().build()) {
+            // many ranges, so they are searched in parallel.
+            assertTrue(new ChronicleSearch(builder()).ranges(queue).size() > 10);
+        }
+
+        assertEquals(indices, search(new ChronicleSearch(builder()).threads(4)));
+
+        List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < indices.size(); i++)
+            if (i % 7 == 3)
+                expected.add(indices.get(i));
+        assertEquals(expected, search(new ChronicleSearch(builder()).threads(4).contains("SYM3")));
+        assertEquals(expected, search(new ChronicleSearch(builder()).threads(4).regex("symbol: SYM3$")));
+        assertEquals(expected, search(new ChronicleSearch(builder()).threads(4)
+                .field("symbol", v -> "SYM3".equals(v.text()))));
+    }
+
+    @Test
+    public void fieldsAndRangesCombine() {
+        List<Long> indices = write();
+
+        List<Long> expected = new ArrayList<>();
+        for (int i = 600; i < 1200; i++)
+            if (i % 2 == 1 && i % 7 == 3)
+                expected.add(indices.get(i));
+        assertEquals(expected, search(new ChronicleSearch(builder()).threads(3)
+                .indexRange(indices.get(600), indices.get(1200))
+                .field("side", v -> "sell".equals(v.text()))
+                .field("symbol", v -> "SYM3".equals(v.text()))));
+
+        // only the second cycle.
+        expected.clear();
+        for (int i = 500; i < 1000; i++)
+            if (i % 7 == 3)
+                expected.add(indices.get(i));
+        assertEquals(expected, search(new ChronicleSearch(builder())
+                .timeRange(start + 1000, start + 2000)
+                .contains("SYM3")));
+    }
+
+    @Test
+    public void indexOf() {
+        Bytes<?> bytes = Bytes.from("hello world");
+        assertEquals(6, ChronicleSearch.indexOf(bytes, "world".getBytes()));
+        assertEquals(-1, ChronicleSearch.indexOf(bytes, "worlds".getBytes()));
+        bytes.readSkip(7);
+        assertEquals(-1, ChronicleSearch.indexOf(bytes, "world".getBytes()));
+        assertEquals(7, ChronicleSearch.indexOf(bytes, "orld".getBytes()));
+    }
+}
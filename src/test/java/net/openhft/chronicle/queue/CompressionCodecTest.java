@@ -0,0 +1,74 @@
+package net.openhft.chronicle.queue;
+
+import net.openhft.chronicle.bytes.Bytes;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompressionCodecTest {
+
+    private static void assertRoundTrip(CompressionCodec codec, byte[] data) {
+        Bytes<?> from = Bytes.wrapForRead(data);
+        Bytes<?> compressed = Bytes.elasticByteBuffer();
+        codec.compress(from, compressed);
+        assertEquals(0, from.readRemaining());
+
+        Bytes<?> uncompressed = Bytes.elasticByteBuffer();
+        codec.uncompress(compressed, uncompressed);
+        byte[] read = new byte[data.length];
+        uncompressed.read(read);
+        assertEquals(0, uncompressed.readRemaining());
+        assertArrayEquals(codec + " of " + data.length, data, read);
+    }
+
+    @Test
+    public void roundTrip() {
+        Random random = new Random(1);
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            for (int length : new int[]{0, 1, 2, 3, 4, 5, 31, 32, 33, 100, 1000, 8191, 8192, 8193, 100_000}) {
+                byte[] noise = new byte[length];
+                random.nextBytes(noise);
+                assertRoundTrip(codec, noise);
+
+                // runs and repeats, near and far.
+                byte[] repeats = new byte[length];
+                for (int i = 0; i < length; i++)
+                    repeats[i] = (byte) (i % 300 < 20 ? 'a' : "some text which repeats".charAt(i % 23) + random.nextInt(2));
+                assertRoundTrip(codec, repeats);
+            }
+        }
+    }
+
+    @Test
+    public void lzfCompressesRepeats() {
+        byte[] data = new byte[64 << 10];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) "level 1 bid 100 ask 101\n".charAt(i % 24);
+        Bytes<?> compressed = Bytes.elasticByteBuffer();
+        CompressionCodec.LZF.compress(Bytes.wrapForRead(data), compressed);
+        assertTrue(compressed.readRemaining() < data.length / 20);
+    }
+
+    @Test
+    public void compressesPartOfAStoreWithoutMovingIt() {
+        Bytes<?> from = Bytes.allocateElasticDirect();
+        from.append("header|");
+        for (int i = 0; i < 1000; i++)
+            from.append("level 1 bid 100 ask 101\n");
+        from.readSkip(7);
+        long position = from.readPosition(), length = from.readRemaining();
+        for (CompressionCodec codec : CompressionCodec.values()) {
+            Bytes<?> compressed = Bytes.elasticByteBuffer();
+            codec.compress(from, position, length, compressed);
+            assertEquals(position, from.readPosition());
+
+            Bytes<?> uncompressed = Bytes.elasticByteBuffer();
+            codec.uncompress(compressed, uncompressed);
+            assertEquals(codec.toString(), from.toString(), uncompressed.toString());
+        }
+    }
+}
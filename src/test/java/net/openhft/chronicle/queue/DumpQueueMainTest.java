@@ -0,0 +1,101 @@
+package net.openhft.chronicle.queue;
+
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.core.io.IORuntimeException;
+import net.openhft.chronicle.core.io.IOTools;
+import net.openhft.chronicle.core.time.SetTimeProvider;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueue;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DumpQueueMainTest {
+    private final String path = OS.TARGET + "/DumpQueueMainTest-" + System.nanoTime();
+    private final List<Long> indices = new ArrayList<>();
+
+    @Before
+    public void write() {
+        SetTimeProvider stp = new SetTimeProvider();
+        long start = System.currentTimeMillis() / 1000 * 1000;
+        try (SingleChronicleQueue queue = SingleChronicleQueueBuilder.binary(path)
+                .rollCycle(RollCycles.TEST_SECONDLY)
+                .timeProvider(stp)
+                .build()) {
+            ExcerptAppender appender = queue.acquireAppender();
+            // 3 cycles of 1000 excerpts
+            for (int i = 0; i < 3000; i++) {
+                stp.currentTimeMillis(start + i / 1000 * 1000);
+                int n = i;
+                appender.writeDocument(w -> w.write("n").int32(n).write("text").text("message " + n));
+                indices.add(appender.lastIndexAppended());
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        try {
+            IOTools.deleteDirWithFiles(path, 2);
+        } catch (IORuntimeException ignored) {
+        }
+    }
+
+    private String dump(DumpQueueMain dumper) throws IOException {
+        StringWriter out = new StringWriter();
+        dumper.dump(new File(path), out);
+        return out.toString();
+    }
+
+    private static int count(String text, String of) {
+        int count = 0;
+        for (int i = text.indexOf(of); i >= 0; i = text.indexOf(of, i + 1))
+            count++;
+        return count;
+    }
+
+    @Test
+    public void dumpsEveryCycleInOrder() throws IOException {
+        String dump = dump(new DumpQueueMain());
+        for (int i = 0; i < 3000; i++)
+            assertTrue(dump.contains("message " + i + "\n"));
+        assertTrue(dump.indexOf("message 999\n") < dump.indexOf("message 1000\n"));
+        assertTrue(dump.indexOf("message 1999\n") < dump.indexOf("message 2000\n"));
+
+        // the same output however many threads dump the cycles.
+        assertEquals(dump, dump(new DumpQueueMain().threads(3)));
+    }
+
+    @Test
+    public void filtersByIndexAndType() throws IOException {
+        String all = dump(new DumpQueueMain());
+        String dataOnly = dump(new DumpQueueMain().types(true, false));
+        assertEquals(3000, count(dataOnly, "--- !!data"));
+        assertEquals(0, count(dataOnly, "--- !!meta-data"));
+        assertEquals(count(all, "--- !!meta-data"), count(dump(new DumpQueueMain().types(false, true)), "--- !!meta-data"));
+
+        String range = dump(new DumpQueueMain()
+                .rollCycle(RollCycles.TEST_SECONDLY)
+                .indexRange(indices.get(995), indices.get(1004))
+                .types(true, false)
+                .threads(2));
+        assertEquals(10, count(range, "--- !!data"));
+        for (int i = 995; i <= 1004; i++)
+            assertTrue(range.contains("message " + i + "\n"));
+        assertFalse(range.contains("message 994\n"));
+        assertFalse(range.contains("message 1005\n"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void filteringByIndexNeedsTheRollCycle() throws IOException {
+        dump(new DumpQueueMain().indexRange(indices.get(0), indices.get(1)));
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.openhft.chronicle.queue;
+
+import net.openhft.chronicle.core.Jvm;
+import net.openhft.chronicle.core.util.Histogram;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueue;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder;
+import net.openhft.chronicle.wire.DocumentContext;
+import net.openhft.chronicle.wire.WireType;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the latency seen by tailers on other cores, while several appenders write
+ * concurrently, for excerpts packed one after another and for excerpts aligned to a cache line.
+ * <p>
+ * Run with -Dappenders=2 -Dtailers=3 -Dalignment=128 to change the defaults.
+ */
+public class ExcerptAlignmentLatency extends ChronicleQueueTestBase {
+    private static final int APPENDERS = Integer.getInteger("appenders", 2);
+    private static final int TAILERS = Integer.getInteger("tailers", 2);
+    private static final int ALIGNMENT = Integer.getInteger("alignment", 64);
+    private static final int MESSAGES = 1_000_000;
+    private static final int WARMUP = 100_000;
+
+    @Ignore("long running")
+    @Test
+    public void test() throws InterruptedException {
+        // twice, so the second runs of both are warmed up.
+        for (int i = 0; i < 2; i++) {
+            run(0);
+            run(ALIGNMENT);
+        }
+    }
+
+    private void run(int alignment) throws InterruptedException {
+        try (SingleChronicleQueue queue = SingleChronicleQueueBuilder.binary(getTmpDir())
+                .wireType(WireType.FIELDLESS_BINARY)
+                .blockSize(128 << 20)
+                .excerptAlignment(alignment)
+                .build()) {
+            List<Histogram> histograms = new ArrayList<>();
+            List<Thread> tailers = new ArrayList<>();
+            int total = APPENDERS * MESSAGES;
+            for (int t = 0; t < TAILERS; t++) {
+                Histogram histogram = new Histogram();
+                histograms.add(histogram);
+                ExcerptTailer tailer = queue.createTailer();
+                Thread thread = new Thread(() -> {
+                    for (int read = 0; read < total; ) {
+                        try (DocumentContext dc = tailer.readingDocument()) {
+                            if (!dc.isPresent())
+                                continue;
+                            long time = dc.wire().read(() -> "time").int64();
+                            if (read++ > WARMUP)
+                                histogram.sample(System.nanoTime() - time);
+                        }
+                    }
+                }, "tailer-" + t);
+                tailers.add(thread);
+                thread.start();
+            }
+
+            List<Thread> appenders = new ArrayList<>();
+            for (int a = 0; a < APPENDERS; a++) {
+                Thread thread = new Thread(() -> {
+                    ExcerptAppender appender = queue.acquireAppender();
+                    for (int i = 0; i < MESSAGES; i++) {
+                        Jvm.busyWaitMicros(10);
+                        appender.writeDocument(w -> w.write(() -> "time").int64(System.nanoTime())
+                                .write(() -> "price").float64(1.2345)
+                                .write(() -> "id").text("ABCDEF"));
+                    }
+                }, "appender-" + a);
+                appenders.add(thread);
+                thread.start();
+            }
+            for (Thread thread : appenders)
+                thread.join();
+            for (Thread thread : tailers)
+                thread.join();
+
+            System.out.println("alignment: " + alignment + ", padding per excerpt: "
+                    + (queue.alignedExcerpts() == 0 ? 0 : queue.alignmentPaddingBytes() / queue.alignedExcerpts()) + " bytes");
+            for (Histogram histogram : histograms)
+                System.out.println(histogram.toMicrosFormat());
+        }
+    }
+}
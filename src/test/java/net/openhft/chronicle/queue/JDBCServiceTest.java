@@ -10,10 +10,16 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 
+import static org.junit.Assert.assertEquals;
+
 /**
  * Created by peter on 08/04/16.
  */
@@ -84,4 +90,183 @@ public class JDBCServiceTest {
         }
     }
 
+    @Test
+    public void batchedUpdatesReportEachResultInOrder() throws SQLException {
+        String url = "jdbc:hsqldb:mem:batched-" + System.nanoTime();
+        List<String> results = new ArrayList<>();
+        JDBCResult result = new JDBCResult() {
+            @Override
+            public void queryResult(List<String> columns, List<List<Object>> rows, String query, Object... args) {
+                results.add("query " + rows);
+            }
+
+            @Override
+            public void queryThrown(Throwable t, String query, Object... args) {
+                results.add("queryThrown");
+            }
+
+            @Override
+            public void updateResult(long count, String update, Object... args) {
+                results.add("update " + count + " " + Arrays.asList(args));
+            }
+
+            @Override
+            public void updateThrown(Throwable t, String update, Object... args) {
+                results.add("updateThrown " + Arrays.asList(args));
+            }
+        };
+        try (JDBCComponent component = new JDBCComponent(() -> DriverManager.getConnection(url, "SA", ""), result)) {
+            component.executeUpdate("CREATE TABLE t (name VARCHAR(64) NOT NULL, num INT)");
+            for (String name : new String[]{"a", "b", "c"})
+                component.executeUpdate("INSERT INTO t (name, num) VALUES (?, 1)", name);
+            // the updates are executed before a query which might depend on them.
+            component.executeQuery("SELECT COUNT(*) FROM t");
+            component.executeUpdate("INSERT INTO t (name, num) VALUES (?, 1)", "d");
+            component.executeUpdate("INSERT INTO t (name, num) VALUES (?, 1)", (Object) null);
+            component.flush();
+        }
+        assertEquals("[update 0 [], update 1 [a], update 1 [b], update 1 [c], query [[3]], update 1 [d], updateThrown [null]]",
+                results.toString());
+    }
+
+    @Test
+    public void partitionedResultsAreWrittenInOrder() throws SQLException {
+        String url = "jdbc:hsqldb:mem:partitioned-" + System.nanoTime();
+        String path1 = OS.TARGET + "/partitioned-" + System.nanoTime();
+        String path2 = OS.TARGET + "/partitioned-" + System.nanoTime();
+        int noUpdates = 2000;
+        try (Connection connection = DriverManager.getConnection(url, "SA", "");
+             ChronicleQueue in = SingleChronicleQueueBuilder.binary(path1).build();
+             ChronicleQueue out = SingleChronicleQueueBuilder.binary(path2).build()) {
+            connection.createStatement().executeUpdate("CREATE TABLE t (num INT NOT NULL)");
+
+            JDBCService service = new JDBCService(in, out, () -> DriverManager.getConnection(url, "SA", ""),
+                    4, (query, args) -> ((Number) args[0]).longValue());
+            JDBCStatement writer = service.createWriter();
+            for (int i = 0; i < noUpdates; i++) {
+                writer.executeUpdate("INSERT INTO t (num) VALUES (?)", i);
+                if (i % 100 == 99)
+                    writer.executeQuery("SELECT COUNT(*) FROM t WHERE num = ?", i);
+            }
+
+            List<Object> nums = new ArrayList<>();
+            MethodReader reader = service.createReader(new JDBCResult() {
+                @Override
+                public void queryResult(List<String> columns, List<List<Object>> rows, String query, Object... args) {
+                    nums.add("query " + args[0]);
+                }
+
+                @Override
+                public void queryThrown(Throwable t, String query, Object... args) {
+                    throw new AssertionError(t);
+                }
+
+                @Override
+                public void updateResult(long count, String update, Object... args) {
+                    nums.add(args[0]);
+                }
+
+                @Override
+                public void updateThrown(Throwable t, String update, Object... args) {
+                    throw new AssertionError(t);
+                }
+            });
+            long end = System.currentTimeMillis() + 20_000;
+            while (nums.size() < noUpdates + noUpdates / 100 && System.currentTimeMillis() < end) {
+                if (!reader.readOne())
+                    Thread.yield();
+            }
+            Closeable.closeQuietly(service);
+
+            List<Object> expected = new ArrayList<>();
+            for (int i = 0; i < noUpdates; i++) {
+                expected.add(i);
+                if (i % 100 == 99)
+                    expected.add("query " + i);
+            }
+            assertEquals(expected, nums);
+        } finally {
+            try {
+                IOTools.deleteDirWithFiles(path1, 2);
+                IOTools.deleteDirWithFiles(path2, 2);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    @Test
+    public void streamedQueryResultsAreWrittenInBatches() throws SQLException {
+        String url = "jdbc:hsqldb:mem:streamed-" + System.nanoTime();
+        String path1 = OS.TARGET + "/streamed-" + System.nanoTime();
+        String path2 = OS.TARGET + "/streamed-" + System.nanoTime();
+        try (ChronicleQueue in = SingleChronicleQueueBuilder.binary(path1).build();
+             ChronicleQueue out = SingleChronicleQueueBuilder.binary(path2).build()) {
+            JDBCService service = new JDBCService(in, out, () -> DriverManager.getConnection(url, "SA", ""));
+            JDBCStatement writer = service.createWriter();
+            writer.executeUpdate("CREATE TABLE t (name VARCHAR(64) NOT NULL, num INT)");
+            for (int i = 0; i < 25; i++)
+                writer.executeUpdate("INSERT INTO t (name, num) VALUES (?, ?)", "name" + i, i);
+            writer.streamQuery(10, "SELECT name, num FROM t WHERE num >= ? ORDER BY num", 0);
+
+            List<String> events = new ArrayList<>();
+            List<Object> values = new ArrayList<>();
+            MethodReader reader = service.createReader(new JDBCStreamingResult() {
+                @Override
+                public void queryHeader(List<String> columns, String query, Object... args) {
+                    events.add("header " + columns);
+                }
+
+                @Override
+                public void queryRows(int columns, List<Object> rowValues) {
+                    events.add("rows " + rowValues.size() / columns);
+                    values.addAll(rowValues);
+                }
+
+                @Override
+                public void queryEnd(long rows, String query, Object... args) {
+                    events.add("end " + rows);
+                }
+
+                @Override
+                public void queryResult(List<String> columns, List<List<Object>> rows, String query, Object... args) {
+                    events.add("queryResult");
+                }
+
+                @Override
+                public void queryThrown(Throwable t, String query, Object... args) {
+                    events.add("queryThrown " + t);
+                }
+
+                @Override
+                public void updateResult(long count, String update, Object... args) {
+                }
+
+                @Override
+                public void updateThrown(Throwable t, String update, Object... args) {
+                    events.add("updateThrown " + t);
+                }
+            });
+            long end = System.currentTimeMillis() + 20_000;
+            while (!events.contains("end 25") && System.currentTimeMillis() < end) {
+                if (!reader.readOne())
+                    Thread.yield();
+            }
+            Closeable.closeQuietly(service);
+
+            assertEquals("[header [NAME, NUM], rows 10, rows 10, rows 5, end 25]", events.toString());
+            assertEquals(50, values.size());
+            for (int i = 0; i < 25; i++) {
+                assertEquals("name" + i, values.get(2 * i));
+                assertEquals(i, ((Number) values.get(2 * i + 1)).intValue());
+            }
+        } finally {
+            try {
+                IOTools.deleteDirWithFiles(path1, 2);
+                IOTools.deleteDirWithFiles(path2, 2);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
 }
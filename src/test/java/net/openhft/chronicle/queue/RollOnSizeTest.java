@@ -0,0 +1,131 @@
+package net.openhft.chronicle.queue;
+
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.core.io.IORuntimeException;
+import net.openhft.chronicle.core.io.IOTools;
+import net.openhft.chronicle.core.time.SetTimeProvider;
+import net.openhft.chronicle.queue.impl.RollingResourcesCache;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueue;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder;
+import net.openhft.chronicle.wire.DocumentContext;
+import org.junit.Test;
+
+import java.io.File;
+import java.text.ParseException;
+
+import static org.junit.Assert.*;
+
+public class RollOnSizeTest {
+
+    @Test
+    public void rollOnExcerpts() {
+        SetTimeProvider stp = new SetTimeProvider();
+        stp.currentTimeMillis(System.currentTimeMillis());
+
+        String basePath = OS.TARGET + "/rollOnExcerpts-" + System.nanoTime();
+        try (SingleChronicleQueue queue = SingleChronicleQueueBuilder.binary(basePath)
+                .rollCycle(RollCycles.MINUTELY)
+                .timeProvider(stp)
+                .maxCycleExcerpts(10)
+                .build()) {
+            ExcerptAppender appender = queue.acquireAppender();
+            int firstCycle = queue.cycle();
+            for (int i = 0; i < 25; i++) {
+                try (DocumentContext dc = appender.writingDocument()) {
+                    dc.wire().write("value").int32(i);
+                }
+            }
+            assertEquals(firstCycle + 2, appender.cycle());
+            assertEquals(firstCycle, queue.firstCycle());
+            assertEquals(firstCycle + 2, queue.lastCycle());
+
+            // time catching up with the early roll doesn't go back a cycle.
+            stp.currentTimeMillis(stp.currentTimeMillis() + 60_000);
+            appender.writeDocument(w -> w.write("value").int32(25));
+            assertEquals(firstCycle + 2, appender.cycle());
+
+            ExcerptTailer tailer = queue.createTailer();
+            long lastIndex = Long.MIN_VALUE;
+            for (int i = 0; i <= 25; i++) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    assertTrue(dc.isPresent());
+                    assertEquals(i, dc.wire().read("value").int32());
+                    assertTrue(dc.index() > lastIndex);
+                    lastIndex = dc.index();
+                }
+            }
+            assertEquals(firstCycle + 2, queue.rollCycle().toCycle(lastIndex));
+        } finally {
+            deleteDir(basePath);
+        }
+    }
+
+    @Test
+    public void rollOnBytes() {
+        SetTimeProvider stp = new SetTimeProvider();
+        stp.currentTimeMillis(System.currentTimeMillis());
+
+        String basePath = OS.TARGET + "/rollOnBytes-" + System.nanoTime();
+        try (SingleChronicleQueue queue = SingleChronicleQueueBuilder.binary(basePath)
+                .rollCycle(RollCycles.FIVE_MINUTELY)
+                .timeProvider(stp)
+                .maxCycleBytes(64 << 10)
+                .build()) {
+            ExcerptAppender appender = queue.acquireAppender();
+            int firstCycle = queue.cycle();
+            byte[] payload = new byte[1000];
+            for (int i = 0; i < 200; i++)
+                appender.writeDocument(w -> w.write("payload").bytes(payload));
+
+            int lastCycle = queue.lastCycle();
+            assertTrue(lastCycle > firstCycle);
+            String[] files = new File(basePath).list((dir, name) -> name.endsWith(SingleChronicleQueue.SUFFIX));
+            assertEquals(lastCycle - firstCycle + 1, files.length);
+
+            ExcerptTailer tailer = queue.createTailer();
+            for (int i = 0; i < 200; i++) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    assertTrue(dc.isPresent());
+                }
+            }
+        } finally {
+            deleteDir(basePath);
+        }
+    }
+
+    @Test
+    public void customDurationsAreParseable() throws ParseException {
+        for (RollCycles rollCycle : new RollCycles[]{RollCycles.FIVE_MINUTELY, RollCycles.FIFTEEN_MINUTELY,
+                RollCycles.HALF_HOURLY, RollCycles.TWO_HOURLY, RollCycles.FOUR_HOURLY, RollCycles.SIX_HOURLY}) {
+            RollingResourcesCache cache = new RollingResourcesCache(rollCycle, 0,
+                    name -> new File(name + SingleChronicleQueue.SUFFIX),
+                    file -> file.getName().replace(SingleChronicleQueue.SUFFIX, ""));
+            int cycle = (int) (System.currentTimeMillis() / rollCycle.length());
+            for (int i = cycle; i < cycle + 20; i++) {
+                RollingResourcesCache.Resource resource = cache.resourceFor(i);
+                assertEquals(rollCycle.name(), i, cache.parseCount(resource.text));
+                assertEquals(rollCycle.name(), i, cache.toLong(resource.path).longValue());
+                assertEquals(i, rollCycle.toCycle(rollCycle.toIndex(i, 123)));
+            }
+        }
+    }
+
+    @Test
+    public void dailyNamesAreParseable() {
+        for (RollCycles rollCycle : new RollCycles[]{RollCycles.SMALL_DAILY, RollCycles.DAILY, RollCycles.HUGE_DAILY}) {
+            RollingResourcesCache cache = new RollingResourcesCache(rollCycle, 0,
+                    name -> new File(name + SingleChronicleQueue.SUFFIX),
+                    file -> file.getName().replace(SingleChronicleQueue.SUFFIX, ""));
+            int cycle = (int) (System.currentTimeMillis() / rollCycle.length());
+            for (int i = 0; i < 5; i++)
+                assertEquals(rollCycle.name(), cycle + i, cache.toLong(cache.resourceFor(cycle + i).path).longValue());
+        }
+    }
+
+    private static void deleteDir(String basePath) {
+        try {
+            IOTools.deleteDirWithFiles(basePath, 2);
+        } catch (IORuntimeException ignored) {
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.benchmarks;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.core.io.IOTools;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueue;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder;
+import net.openhft.chronicle.wire.DocumentContext;
+import net.openhft.chronicle.wire.WireType;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of appending an excerpt, by payload size and wire type, through {@link
+ * ExcerptAppender#writingDocument()} and {@link ExcerptAppender#writeBytes(Bytes)}.
+ * <p>
+ * Each iteration writes to a new queue which is deleted after it, as the larger payloads fill
+ * GBs a second. Only the binary wire types which don't need a licence are covered,
+ * as text queues can't be indexed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AppendBenchmark {
+    @Param({"16", "256", "4096"})
+    int payloadSize;
+
+    @Param({"BINARY", "FIELDLESS_BINARY"})
+    WireType wireType;
+
+    private Bytes<?> payload;
+    private File dir;
+    private SingleChronicleQueue queue;
+    private ExcerptAppender appender;
+
+    @Setup(Level.Trial)
+    public void createPayload() {
+        payload = Bytes.allocateElasticDirect(payloadSize);
+        for (int i = 0; i < payloadSize; i++)
+            payload.writeByte((byte) ('a' + i % 26));
+    }
+
+    @Setup(Level.Iteration)
+    public void createQueue() {
+        dir = new File(OS.TARGET, "appendBenchmark-" + System.nanoTime());
+        queue = SingleChronicleQueueBuilder.binary(dir)
+                .wireType(wireType)
+                .build();
+        appender = queue.acquireAppender();
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteQueue() {
+        queue.close();
+        IOTools.shallowDeleteDirWithFiles(dir);
+    }
+
+    @TearDown(Level.Trial)
+    public void releasePayload() {
+        payload.release();
+    }
+
+    @Benchmark
+    public long writingDocument() {
+        try (DocumentContext dc = appender.writingDocument()) {
+            dc.wire().write(() -> "payload").bytes(payload);
+        }
+        return appender.lastIndexAppended();
+    }
+
+    @Benchmark
+    public long writeBytes() {
+        appender.writeBytes(payload);
+        return appender.lastIndexAppended();
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.benchmarks;
+
+import net.openhft.chronicle.core.OS;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Runs the JMH benchmarks in this package and writes the results as JSON, so a build can be
+ * compared with an earlier one.
+ * <p>
+ * From the project, after {@code mvn test-compile}
+ * <pre>
+ * mvn exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=net.openhft.chronicle.queue.benchmarks.Benchmarks \
+ *     -Dexec.args=ReadBenchmark.moveToIndex
+ * </pre>
+ * The arguments are regular expressions for the benchmarks to run, all of them if there are
+ * none. The results are written to {@code target/benchmarks.json}, or {@code -DperfReportDir}.
+ * <p>
+ * -DwarmupIterations, -DmeasureIterations and -Dforks override the defaults on each benchmark.
+ */
+public class Benchmarks {
+    public static void main(String... args) throws RunnerException {
+        ChainedOptionsBuilder options = new OptionsBuilder();
+        if (args.length == 0) {
+            options.include(Benchmarks.class.getPackage().getName() + ".*");
+        } else {
+            for (String arg : args)
+                options.include(arg);
+        }
+
+        int warmupIterations = Integer.getInteger("warmupIterations", -1);
+        if (warmupIterations >= 0)
+            options.warmupIterations(warmupIterations);
+        int measureIterations = Integer.getInteger("measureIterations", -1);
+        if (measureIterations > 0)
+            options.measurementIterations(measureIterations);
+        int forks = Integer.getInteger("forks", -1);
+        if (forks >= 0)
+            options.forks(forks);
+
+        File result = new File(System.getProperty("perfReportDir", OS.TARGET), "benchmarks.json");
+        result.getParentFile().mkdirs();
+        options.resultFormat(ResultFormatType.JSON)
+                .result(result.getPath());
+
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.benchmarks;
+
+import net.openhft.affinity.AffinityLock;
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.core.io.IOTools;
+import net.openhft.chronicle.core.util.Histogram;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueue;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder;
+import net.openhft.chronicle.wire.DocumentContext;
+import net.openhft.chronicle.wire.WireType;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The latency from an appender to a tailer on another thread, sending at a fixed rate rather
+ * than back to back.
+ * <p>
+ * Each excerpt carries the time it was meant to be sent as well as the time it was. A stall in
+ * the appender delays every excerpt meant to be sent during it, which the latency from the
+ * intended time includes but the latency from the time it was sent hides, as those excerpts
+ * are only sent once the stall is over. Both are reported, for each mode and payload size.
+ * <p>
+ * Run with -Drate=100000 -Dmessages=2000000 -Dwarmup=200000 -DpayloadSizes=16,256,4096
+ * -Daffinity=true to change the defaults.
+ */
+public class LatencyHarness {
+    static final double[] PERCENTILES = {0.5, 0.9, 0.99, 0.999, 0.9999, 0.99999};
+
+    private int rate = 100_000;
+    private int messages = 1_000_000;
+    private int warmup = 100_000;
+    private int[] payloadSizes = {16, 256, 4096};
+    private Mode[] modes = Mode.values();
+    private boolean affinity = false;
+
+    public static void main(String... args) throws InterruptedException {
+        LatencyHarness harness = new LatencyHarness()
+                .rate(Integer.getInteger("rate", 100_000))
+                .messages(Integer.getInteger("messages", 1_000_000))
+                .warmup(Integer.getInteger("warmup", 100_000))
+                .affinity(Boolean.getBoolean("affinity"));
+        String payloadSizes = System.getProperty("payloadSizes");
+        if (payloadSizes != null)
+            harness.payloadSizes(Arrays.stream(payloadSizes.split(",")).mapToInt(s -> Integer.parseInt(s.trim())).toArray());
+        // twice, so the second runs are warmed up.
+        harness.run();
+        for (Result result : harness.run())
+            System.out.println(result);
+    }
+
+    /**
+     * @param rate the number of excerpts to send a second.
+     */
+    public LatencyHarness rate(int rate) {
+        if (rate <= 0)
+            throw new IllegalArgumentException("rate must be positive, was " + rate);
+        this.rate = rate;
+        return this;
+    }
+
+    /**
+     * @param messages the number of excerpts to send for each mode and payload size, including
+     *                 the warmup.
+     */
+    public LatencyHarness messages(int messages) {
+        this.messages = messages;
+        return this;
+    }
+
+    /**
+     * @param warmup the number of excerpts read before the latencies are recorded.
+     */
+    public LatencyHarness warmup(int warmup) {
+        this.warmup = warmup;
+        return this;
+    }
+
+    public LatencyHarness payloadSizes(int... payloadSizes) {
+        this.payloadSizes = payloadSizes;
+        return this;
+    }
+
+    public LatencyHarness modes(Mode... modes) {
+        this.modes = modes;
+        return this;
+    }
+
+    /**
+     * @param affinity whether the appender and the tailer are each pinned to a CPU.
+     */
+    public LatencyHarness affinity(boolean affinity) {
+        this.affinity = affinity;
+        return this;
+    }
+
+    @NotNull
+    public List<Result> run() throws InterruptedException {
+        List<Result> results = new ArrayList<>();
+        for (Mode mode : modes) {
+            for (int payloadSize : payloadSizes)
+                results.add(run(mode, payloadSize));
+        }
+        return results;
+    }
+
+    @NotNull
+    Result run(@NotNull Mode mode, int payloadSize) throws InterruptedException {
+        Result result = new Result(mode, payloadSize);
+        File dir = new File(OS.TARGET, "latencyHarness-" + System.nanoTime());
+        try (SingleChronicleQueue queue = SingleChronicleQueueBuilder.binary(dir)
+                .wireType(mode.wireType)
+                .blockSize(128 << 20)
+                .build()) {
+            ExcerptTailer tailer = queue.createTailer();
+            Thread tailerThread = new Thread(() -> {
+                AffinityLock lock = affinity ? AffinityLock.acquireLock() : null;
+                try {
+                    Bytes<?> payload = Bytes.allocateElasticDirect(payloadSize);
+                    long[] times = new long[2];
+                    for (int read = 0; read < messages; ) {
+                        try (DocumentContext dc = tailer.readingDocument()) {
+                            if (!dc.isPresent())
+                                continue;
+                            mode.read(dc, payload, times);
+                            long now = System.nanoTime();
+                            if (read++ >= warmup) {
+                                result.corrected.sampleNanos(now - times[0]);
+                                result.uncorrected.sampleNanos(now - times[1]);
+                            }
+                        }
+                    }
+                    payload.release();
+                } finally {
+                    if (lock != null)
+                        lock.release();
+                }
+            }, "latency-tailer");
+            tailerThread.start();
+
+            ExcerptAppender appender = queue.acquireAppender();
+            AffinityLock lock = affinity ? AffinityLock.acquireLock() : null;
+            try {
+                Bytes<?> payload = Bytes.allocateElasticDirect(payloadSize);
+                for (int i = 0; i < payloadSize; i++)
+                    payload.writeByte((byte) ('a' + i % 26));
+                Bytes<?> buffer = Bytes.allocateElasticDirect(payloadSize + 16);
+                long interval = 1_000_000_000L / rate;
+                long start = System.nanoTime() + 1_000_000;
+                for (int i = 0; i < messages; i++) {
+                    // the schedule is kept, however late the last excerpt was sent.
+                    long intended = start + i * interval;
+                    while (System.nanoTime() < intended) {
+                        // busy wait.
+                    }
+                    mode.write(appender, intended, System.nanoTime(), payload, buffer);
+                }
+                payload.release();
+                buffer.release();
+            } finally {
+                if (lock != null)
+                    lock.release();
+            }
+            tailerThread.join();
+        } finally {
+            IOTools.deleteDirWithFiles(dir, 2);
+        }
+        return result;
+    }
+
+    /**
+     * How the excerpts are written and read.
+     */
+    public enum Mode {
+        BINARY(WireType.BINARY),
+        FIELDLESS_BINARY(WireType.FIELDLESS_BINARY),
+        /**
+         * The times and the payload, written with writeBytes as they are.
+         */
+        WRITE_BYTES(WireType.BINARY) {
+            @Override
+            void write(@NotNull ExcerptAppender appender, long intended, long sent,
+                       @NotNull Bytes<?> payload, @NotNull Bytes<?> buffer) {
+                buffer.clear();
+                buffer.writeLong(intended);
+                buffer.writeLong(sent);
+                buffer.write(payload);
+                appender.writeBytes(buffer);
+            }
+
+            @Override
+            void read(@NotNull DocumentContext dc, @NotNull Bytes<?> payload, @NotNull long[] times) {
+                Bytes<?> bytes = dc.wire().bytes();
+                times[0] = bytes.readLong();
+                times[1] = bytes.readLong();
+                payload.clear();
+                payload.write(bytes);
+            }
+        };
+
+        @NotNull
+        final WireType wireType;
+
+        Mode(@NotNull WireType wireType) {
+            this.wireType = wireType;
+        }
+
+        void write(@NotNull ExcerptAppender appender, long intended, long sent,
+                   @NotNull Bytes<?> payload, @NotNull Bytes<?> buffer) {
+            try (DocumentContext dc = appender.writingDocument()) {
+                dc.wire().write(() -> "intended").int64(intended)
+                        .write(() -> "sent").int64(sent)
+                        .write(() -> "payload").bytes(payload);
+            }
+        }
+
+        /**
+         * Reads the time the excerpt was meant to be sent into times[0], and the time it was into
+         * times[1].
+         */
+        void read(@NotNull DocumentContext dc, @NotNull Bytes<?> payload, @NotNull long[] times) {
+            times[0] = dc.wire().read(() -> "intended").int64();
+            times[1] = dc.wire().read(() -> "sent").int64();
+            payload.clear();
+            dc.wire().read(() -> "payload").bytes(payload);
+        }
+    }
+
+    /**
+     * The latencies for one mode and payload size, in nanoseconds.
+     */
+    public static class Result {
+        @NotNull
+        public final Mode mode;
+        public final int payloadSize;
+        /**
+         * From the time each excerpt was meant to be sent.
+         */
+        public final Histogram corrected = new Histogram();
+        /**
+         * From the time each excerpt was sent.
+         */
+        public final Histogram uncorrected = new Histogram();
+
+        Result(@NotNull Mode mode, int payloadSize) {
+            this.mode = mode;
+            this.payloadSize = payloadSize;
+        }
+
+        @NotNull
+        static String toMicros(@NotNull Histogram histogram) {
+            StringBuilder sb = new StringBuilder();
+            for (double percentile : PERCENTILES) {
+                sb.append(sb.length() == 0 ? "" : " / ");
+                sb.append(format(histogram.percentile(percentile)));
+            }
+            return sb.append(" - ").append(format(histogram.percentile(1))).toString();
+        }
+
+        @NotNull
+        private static String format(double nanos) {
+            double micros = nanos / 1e3;
+            return micros < 10 ? String.format("%.2f", micros) : String.format("%,.0f", micros);
+        }
+
+        @NotNull
+        @Override
+        public String toString() {
+            return mode + " " + payloadSize + " bytes, 50/90/99/99.9/99.99/99.999 - worst in us\n" +
+                    "    from intended " + toMicros(corrected) + "\n" +
+                    "    from sent     " + toMicros(uncorrected);
+        }
+    }
+}
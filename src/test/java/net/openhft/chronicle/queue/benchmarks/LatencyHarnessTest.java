@@ -0,0 +1,44 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.benchmarks;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHarnessTest {
+    @Test
+    public void recordsEveryExcerptAfterTheWarmup() throws InterruptedException {
+        List<LatencyHarness.Result> results = new LatencyHarness()
+                .rate(50_000)
+                .messages(10_000)
+                .warmup(1_000)
+                .payloadSizes(16, 256)
+                .run();
+        assertEquals(LatencyHarness.Mode.values().length * 2, results.size());
+        for (LatencyHarness.Result result : results) {
+            assertEquals(result.toString(), 9_000, result.corrected.totalCount());
+            assertEquals(result.toString(), 9_000, result.uncorrected.totalCount());
+            // each excerpt is sent no earlier than it was meant to be.
+            for (double percentile : LatencyHarness.PERCENTILES)
+                assertTrue(result.toString(),
+                        result.corrected.percentile(percentile) >= result.uncorrected.percentile(percentile));
+        }
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.benchmarks;
+
+import net.openhft.chronicle.core.Jvm;
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.core.io.IOTools;
+import net.openhft.chronicle.core.onoes.ExceptionKey;
+import net.openhft.chronicle.core.util.Histogram;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.RollCycle;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueue;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder;
+import net.openhft.chronicle.queue.impl.single.TimedStoreRecovery;
+import net.openhft.chronicle.wire.AbstractMarshallable;
+import net.openhft.chronicle.wire.DocumentContext;
+import net.openhft.chronicle.wire.Marshallable;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static net.openhft.chronicle.core.pool.ClassAliasPool.CLASS_ALIASES;
+
+/**
+ * Appends to one queue from several processes at once, the way a queue shared between services
+ * on one machine is, while other processes read it.
+ * <p>
+ * Each writer is a JVM of its own which appends a number of excerpts as fast as it can, timing
+ * each one. Each reader is a JVM which reads every excerpt and checks that the indices are
+ * contiguous, and that each writer's excerpts all arrive once and in order. The writers also
+ * count how often the {@link TimedStoreRecovery} had to step in, and how many of those were
+ * because writeHeader timed out. The processes wait for each other before starting, and
+ * report back as YAML on their output.
+ * <p>
+ * Run with -Dwriters=8 -Dreaders=2 -Dmessages=1000000 -DtimeoutMS=10000 to change the
+ * defaults. This relies on System.nanoTime() being the same clock in every process, as it is
+ * on Linux.
+ */
+public class MultiProcessStress {
+    static final String READY = "ready-";
+    static final String GO = "go";
+
+    static {
+        CLASS_ALIASES.addAlias(WriterReport.class, ReaderReport.class);
+    }
+
+    private int writers = 8;
+    private int readers = 2;
+    private int messages = 1_000_000;
+    private long timeoutMS = 10_000;
+
+    public static void main(String... args) throws IOException, InterruptedException {
+        Report report = new MultiProcessStress()
+                .writers(Integer.getInteger("writers", 8))
+                .readers(Integer.getInteger("readers", 2))
+                .messages(Integer.getInteger("messages", 1_000_000))
+                .timeoutMS(Long.getLong("timeoutMS", 10_000))
+                .run();
+        System.out.println(report);
+        if (!report.problems().isEmpty())
+            System.exit(1);
+    }
+
+    public MultiProcessStress writers(int writers) {
+        this.writers = writers;
+        return this;
+    }
+
+    public MultiProcessStress readers(int readers) {
+        this.readers = readers;
+        return this;
+    }
+
+    /**
+     * @param messages the number of excerpts each writer appends.
+     */
+    public MultiProcessStress messages(int messages) {
+        this.messages = messages;
+        return this;
+    }
+
+    /**
+     * @param timeoutMS the timeoutMS of the queue in every process, a lower value making
+     *                  recovery more likely.
+     */
+    public MultiProcessStress timeoutMS(long timeoutMS) {
+        this.timeoutMS = timeoutMS;
+        return this;
+    }
+
+    @NotNull
+    public Report run() throws IOException, InterruptedException {
+        long time = System.nanoTime();
+        File dir = new File(OS.TARGET, "multiProcessStress-" + time);
+        File work = new File(OS.TARGET, "multiProcessStress-" + time + "-work");
+        if (!work.mkdirs())
+            throw new IOException("Unable to create " + work);
+
+        List<Process> processes = new ArrayList<>();
+        List<File> outputs = new ArrayList<>();
+        try {
+            for (int i = 0; i < writers; i++)
+                start(Writer.class, "writer-" + i, work, processes, outputs,
+                        dir, work, i, messages, timeoutMS);
+            for (int i = 0; i < readers; i++)
+                start(Reader.class, "reader-" + i, work, processes, outputs,
+                        dir, work, writers, messages, timeoutMS);
+
+            // start them all together, once they have all opened the queue.
+            long start = System.currentTimeMillis();
+            while (ready(work) < processes.size()) {
+                for (int i = 0; i < processes.size(); i++) {
+                    if (!processes.get(i).isAlive())
+                        throw new IllegalStateException(outputs.get(i).getName() + " exited early, see " + log(outputs.get(i)));
+                }
+                if (System.currentTimeMillis() > start + 60_000)
+                    throw new IllegalStateException("Timed out waiting for the processes to start in " + work);
+                Jvm.pause(10);
+            }
+            Files.createFile(new File(work, GO).toPath());
+
+            Report report = new Report(messages);
+            for (int i = 0; i < processes.size(); i++) {
+                Process process = processes.get(i);
+                File output = outputs.get(i);
+                if (!process.waitFor(10, TimeUnit.MINUTES))
+                    throw new IllegalStateException(output.getName() + " didn't finish, see " + log(output));
+                if (process.exitValue() != 0)
+                    throw new IllegalStateException(output.getName() + " failed, see " + log(output));
+                Object result = Marshallable.fromString(new String(Files.readAllBytes(output.toPath()), "UTF-8"));
+                if (result instanceof WriterReport)
+                    report.writers.add((WriterReport) result);
+                else
+                    report.readers.add((ReaderReport) result);
+            }
+            IOTools.deleteDirWithFiles(work, 1);
+            return report;
+        } finally {
+            for (Process process : processes)
+                process.destroyForcibly();
+            IOTools.deleteDirWithFiles(dir, 2);
+        }
+    }
+
+    private static void start(@NotNull Class<?> main, @NotNull String name, @NotNull File work,
+                              @NotNull List<Process> processes, @NotNull List<File> outputs,
+                              @NotNull Object... args) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(main.getName());
+        for (Object arg : args)
+            command.add(String.valueOf(arg));
+        command.add(name);
+
+        File output = new File(work, name + ".yaml");
+        processes.add(new ProcessBuilder(command)
+                .redirectOutput(output)
+                .redirectError(log(output))
+                .start());
+        outputs.add(output);
+    }
+
+    @NotNull
+    private static File log(@NotNull File output) {
+        return new File(output.getParentFile(), output.getName().replace(".yaml", ".log"));
+    }
+
+    private static int ready(@NotNull File work) {
+        String[] ready = work.list((dir, name) -> name.startsWith(READY));
+        return ready == null ? 0 : ready.length;
+    }
+
+    @NotNull
+    static SingleChronicleQueue queue(@NotNull String dir, long timeoutMS) {
+        return SingleChronicleQueueBuilder.binary(dir)
+                .timeoutMS(timeoutMS)
+                .build();
+    }
+
+    /**
+     * Tells the parent this process is ready, and waits for it to say go.
+     */
+    static void awaitGo(@NotNull String work, @NotNull String name) throws IOException {
+        Files.createFile(new File(work, READY + name).toPath());
+        File go = new File(work, GO);
+        while (!go.exists())
+            Jvm.pause(1);
+    }
+
+    /**
+     * Appends excerpts from a process of its own.
+     * <p>
+     * Arguments: queue dir, work dir, writer id, messages, timeoutMS, name
+     */
+    public static class Writer {
+        public static void main(String... args) throws IOException {
+            int id = Integer.parseInt(args[2]);
+            int messages = Integer.parseInt(args[3]);
+            Map<ExceptionKey, Integer> exceptions = Jvm.recordExceptions();
+            WriterReport report = new WriterReport();
+            report.id = id;
+            Histogram histogram = new Histogram();
+
+            try (SingleChronicleQueue queue = queue(args[0], Long.parseLong(args[4]))) {
+                ExcerptAppender appender = queue.acquireAppender();
+                awaitGo(args[1], args[5]);
+
+                report.startNanos = System.nanoTime();
+                for (int i = 0; i < messages; i++) {
+                    long start = System.nanoTime();
+                    try (DocumentContext dc = appender.writingDocument()) {
+                        dc.wire().write(() -> "writer").int32(id)
+                                .write(() -> "seq").int64(i);
+                    }
+                    histogram.sampleNanos(System.nanoTime() - start);
+                    report.indexSum += appender.lastIndexAppended();
+                }
+                report.endNanos = System.nanoTime();
+            }
+
+            report.messages = messages;
+            report.p50 = histogram.percentile(0.5);
+            report.p99 = histogram.percentile(0.99);
+            report.p999 = histogram.percentile(0.999);
+            report.worst = histogram.percentile(1);
+            for (Map.Entry<ExceptionKey, Integer> entry : exceptions.entrySet()) {
+                ExceptionKey key = entry.getKey();
+                if (key.clazz != TimedStoreRecovery.class)
+                    continue;
+                report.recoveries += entry.getValue();
+                // only written when writeHeader timed out.
+                if (key.message != null && key.message.startsWith("Unable to write a header"))
+                    report.headerTimeouts += entry.getValue();
+            }
+            System.out.println(report);
+        }
+    }
+
+    /**
+     * Reads every excerpt from a process of its own, checking nothing is lost or repeated.
+     * <p>
+     * Arguments: queue dir, work dir, writers, messages, timeoutMS, name
+     */
+    public static class Reader {
+        public static void main(String... args) throws IOException {
+            int writers = Integer.parseInt(args[2]);
+            int messages = Integer.parseInt(args[3]);
+            long[] nextSeq = new long[writers];
+            long expected = (long) writers * messages;
+            ReaderReport report = new ReaderReport();
+
+            try (SingleChronicleQueue queue = queue(args[0], Long.parseLong(args[4]))) {
+                RollCycle rollCycle = queue.rollCycle();
+                ExcerptTailer tailer = queue.createTailer();
+                awaitGo(args[1], args[5]);
+
+                long lastIndex = -1;
+                long lastRead = System.currentTimeMillis();
+                // give up once the writers have gone quiet, rather than wait for what was lost.
+                while (report.read < expected && System.currentTimeMillis() < lastRead + 60_000) {
+                    try (DocumentContext dc = tailer.readingDocument()) {
+                        if (!dc.isPresent())
+                            continue;
+                        lastRead = System.currentTimeMillis();
+                        long index = dc.index();
+                        int id = dc.wire().read(() -> "writer").int32();
+                        long seq = dc.wire().read(() -> "seq").int64();
+                        report.read++;
+                        report.indexSum += index;
+
+                        if (lastIndex >= 0) {
+                            if (index <= lastIndex)
+                                report.indicesOutOfOrder++;
+                            else if (rollCycle.toCycle(index) == rollCycle.toCycle(lastIndex)
+                                    ? index != lastIndex + 1
+                                    : rollCycle.toSequenceNumber(index) != 0)
+                                report.indicesSkipped++;
+                        }
+                        lastIndex = index;
+
+                        if (seq < nextSeq[id]) {
+                            report.duplicated++;
+                        } else {
+                            report.lost += seq - nextSeq[id];
+                            nextSeq[id] = seq + 1;
+                        }
+                    }
+                }
+            }
+            for (long next : nextSeq)
+                report.lost += messages - next;
+            System.out.println(report);
+        }
+    }
+
+    public static class WriterReport extends AbstractMarshallable {
+        int id;
+        int messages;
+        long startNanos, endNanos;
+        double p50, p99, p999, worst;
+        long indexSum;
+        int recoveries, headerTimeouts;
+    }
+
+    public static class ReaderReport extends AbstractMarshallable {
+        long read;
+        long indexSum;
+        long duplicated, lost;
+        long indicesOutOfOrder, indicesSkipped;
+    }
+
+    /**
+     * What all the processes reported.
+     */
+    public static class Report {
+        public final List<WriterReport> writers = new ArrayList<>();
+        public final List<ReaderReport> readers = new ArrayList<>();
+        private final int messages;
+
+        Report(int messages) {
+            this.messages = messages;
+        }
+
+        /**
+         * @return the excerpts appended a second by all the writers together.
+         */
+        public double throughput() {
+            long start = Long.MAX_VALUE, end = Long.MIN_VALUE;
+            for (WriterReport writer : writers) {
+                start = Math.min(start, writer.startNanos);
+                end = Math.max(end, writer.endNanos);
+            }
+            return writers.size() * (double) messages * 1e9 / (end - start);
+        }
+
+        public int recoveries() {
+            return writers.stream().mapToInt(w -> w.recoveries).sum();
+        }
+
+        public int headerTimeouts() {
+            return writers.stream().mapToInt(w -> w.headerTimeouts).sum();
+        }
+
+        /**
+         * @return a description of each excerpt or index a reader didn't see exactly once.
+         */
+        @NotNull
+        public List<String> problems() {
+            List<String> problems = new ArrayList<>();
+            long indexSum = 0;
+            for (WriterReport writer : writers)
+                indexSum += writer.indexSum;
+            for (int i = 0; i < readers.size(); i++) {
+                ReaderReport reader = readers.get(i);
+                if (reader.read != (long) writers.size() * messages || reader.duplicated != 0 || reader.lost != 0
+                        || reader.indicesOutOfOrder != 0 || reader.indicesSkipped != 0)
+                    problems.add("reader-" + i + " " + reader);
+                // the indices the writers were given are the ones the readers saw.
+                else if (reader.indexSum != indexSum)
+                    problems.add("reader-" + i + " saw different indices to those appended " + reader);
+            }
+            return problems;
+        }
+
+        @NotNull
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%,d writers of %,d excerpts, %,d readers: %,.0f excerpts/s, %d recoveries, %d writeHeader timeouts%n",
+                    writers.size(), messages, readers.size(), throughput(), recoveries(), headerTimeouts()));
+            sb.append("append latency in us, 50/99/99.9 - worst\n");
+            for (WriterReport writer : writers)
+                sb.append("    writer-").append(writer.id).append(' ')
+                        .append(micros(writer.p50)).append(" / ")
+                        .append(micros(writer.p99)).append(" / ")
+                        .append(micros(writer.p999)).append(" - ")
+                        .append(micros(writer.worst)).append('\n');
+            List<String> problems = problems();
+            sb.append(problems.isEmpty() ? "no excerpts lost or repeated" : String.join("\n", problems));
+            return sb.toString();
+        }
+
+        @NotNull
+        private static String micros(double nanos) {
+            double micros = nanos / 1e3;
+            return micros < 10 ? String.format("%.2f", micros) : String.format("%,.0f", micros);
+        }
+    }
+}
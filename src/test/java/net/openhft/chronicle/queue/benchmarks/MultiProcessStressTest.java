@@ -0,0 +1,40 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.benchmarks;
+
+import net.openhft.chronicle.core.OS;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class MultiProcessStressTest {
+    @Test(timeout = 120_000)
+    public void noExcerptsLostOrRepeated() throws IOException, InterruptedException {
+        Assume.assumeTrue(OS.isLinux());
+        MultiProcessStress.Report report = new MultiProcessStress()
+                .writers(3)
+                .readers(1)
+                .messages(2_000)
+                .run();
+        assertEquals(report.toString(), Collections.emptyList(), report.problems());
+        assertEquals(3, report.writers.size());
+        assertEquals(1, report.readers.size());
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.benchmarks;
+
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.core.io.IOTools;
+import net.openhft.chronicle.core.time.SetTimeProvider;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.RollCycles;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueue;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder;
+import net.openhft.chronicle.wire.DocumentContext;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a queue of {@link #EXCERPTS} excerpts over {@link #CYCLES} cycles: sequentially, at
+ * random indices, counting them and finding the end. The roll cycle sets the index spacing and
+ * the size of the index, which is what random access and counting depend on.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadBenchmark {
+    static final int CYCLES = 4;
+    static final int EXCERPTS = 1 << 20;
+
+    @Param({"MINUTELY", "HOURLY", "SMALL_DAILY", "DAILY", "LARGE_DAILY", "XLARGE_DAILY", "HUGE_DAILY"})
+    RollCycles rollCycle;
+
+    private File dir;
+    private SingleChronicleQueue queue;
+    private ExcerptTailer sequential;
+    private ExcerptTailer random;
+    private long[] indices;
+    private long firstIndex, lastIndex;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void createQueue() {
+        dir = new File(OS.TARGET, "readBenchmark-" + System.nanoTime());
+        SetTimeProvider timeProvider = new SetTimeProvider();
+        queue = SingleChronicleQueueBuilder.binary(dir)
+                .rollCycle(rollCycle)
+                .timeProvider(timeProvider)
+                .build();
+        ExcerptAppender appender = queue.acquireAppender();
+        long[] written = new long[EXCERPTS];
+        for (int i = 0; i < EXCERPTS; i++) {
+            if (i % (EXCERPTS / CYCLES) == 0)
+                timeProvider.currentTimeMillis(i / (EXCERPTS / CYCLES) * (long) rollCycle.length());
+            long n = i;
+            appender.writeDocument(w -> w.write(() -> "n").int64(n));
+            written[i] = appender.lastIndexAppended();
+        }
+
+        firstIndex = written[0];
+        lastIndex = written[EXCERPTS - 1];
+
+        // a fixed order, so every roll cycle visits the same excerpts.
+        Random rand = new Random(1);
+        indices = new long[EXCERPTS];
+        for (int i = 0; i < EXCERPTS; i++)
+            indices[i] = written[rand.nextInt(EXCERPTS)];
+
+        sequential = queue.createTailer();
+        random = queue.createTailer();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteQueue() {
+        queue.close();
+        IOTools.deleteDirWithFiles(dir, 2);
+    }
+
+    @Benchmark
+    public long sequentialRead() {
+        try (DocumentContext dc = sequential.readingDocument()) {
+            if (dc.isPresent())
+                return dc.wire().read(() -> "n").int64();
+        }
+        sequential.toStart();
+        return -1;
+    }
+
+    @Benchmark
+    public long moveToIndex() {
+        long index = indices[next++ & (EXCERPTS - 1)];
+        if (!random.moveToIndex(index))
+            throw new AssertionError("No excerpt at " + Long.toHexString(index));
+        try (DocumentContext dc = random.readingDocument()) {
+            return dc.wire().read(() -> "n").int64();
+        }
+    }
+
+    @Benchmark
+    public long countExcerpts() {
+        return queue.countExcerpts(firstIndex, lastIndex);
+    }
+
+    @Benchmark
+    public long toEnd() {
+        return random.toEnd().index();
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016 higherfrequencytrading.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.openhft.chronicle.queue.benchmarks;
+
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.core.io.IOTools;
+import net.openhft.chronicle.core.time.SetTimeProvider;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.RollCycles;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueue;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The cost of the first append to a new cycle, which creates and maps its file, writes its
+ * header and index and closes the cycle before it, against an append to the current cycle.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RollBenchmark {
+    private static final RollCycles ROLL_CYCLE = RollCycles.TEST_SECONDLY;
+
+    private final SetTimeProvider timeProvider = new SetTimeProvider();
+    private File dir;
+    private SingleChronicleQueue queue;
+    private ExcerptAppender appender;
+    private long time;
+
+    @Setup(Level.Iteration)
+    public void createQueue() {
+        dir = new File(OS.TARGET, "rollBenchmark-" + System.nanoTime());
+        time = 0;
+        timeProvider.currentTimeMillis(time);
+        queue = SingleChronicleQueueBuilder.binary(dir)
+                .rollCycle(ROLL_CYCLE)
+                .timeProvider(timeProvider)
+                .build();
+        appender = queue.acquireAppender();
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteQueue() {
+        queue.close();
+        IOTools.shallowDeleteDirWithFiles(dir);
+    }
+
+    @Benchmark
+    public long append() {
+        appender.writeDocument(w -> w.write(() -> "time").int64(time));
+        return appender.lastIndexAppended();
+    }
+
+    @Benchmark
+    public long appendAndRoll() {
+        time += ROLL_CYCLE.length();
+        timeProvider.currentTimeMillis(time);
+        appender.writeDocument(w -> w.write(() -> "time").int64(time));
+        return appender.lastIndexAppended();
+    }
+}
@@ -0,0 +1,194 @@
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.core.io.IORuntimeException;
+import net.openhft.chronicle.core.io.IOTools;
+import net.openhft.chronicle.queue.ChronicleQueue;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.RollCycles;
+import net.openhft.chronicle.queue.impl.WireStore;
+import net.openhft.chronicle.wire.DocumentContext;
+import net.openhft.chronicle.wire.Wires;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ChunkReleaseTest {
+    private static final int COUNT = 100_000;
+    private static final long MAPPING = (1 << 20) + (256 << 10);
+    private static final String TEXT = new String(new char[100]).replace('\0', 'x');
+
+    private final String basePath = OS.TARGET + "/ChunkReleaseTest-" + System.nanoTime();
+    private final long maxMappedBytes = MappedMemoryBudget.maxMappedBytes();
+
+    @After
+    public void tearDown() {
+        MappedMemoryBudget.maxMappedBytes(maxMappedBytes);
+        try {
+            IOTools.deleteDirWithFiles(basePath, 2);
+        } catch (IORuntimeException ignored) {
+        }
+    }
+
+    private SingleChronicleQueue queue(String path) {
+        return SingleChronicleQueueBuilder.binary(path)
+                .rollCycle(RollCycles.DAILY)
+                .blockSize(1 << 20)
+                .unmapConsumedChunks(true)
+                .build();
+    }
+
+    private static void write(ExcerptAppender appender, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int n = i;
+            appender.writeDocument(w -> w.write("n").int32(n).write("text").text(TEXT));
+        }
+    }
+
+    private static void read(ExcerptTailer tailer, int from, int to) {
+        for (int n = from; n < to; n++) {
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertTrue(dc.isPresent());
+                assertEquals(n, dc.wire().read("n").int32());
+            }
+        }
+    }
+
+    @Test
+    public void chunksBehindTheReadersAreUnmapped() {
+        long before = MappedMemoryBudget.mappedBytes();
+        try (SingleChronicleQueue queue = queue(basePath)) {
+            ExcerptAppender appender = queue.acquireAppender();
+            write(appender, 0, COUNT);
+            // about 13 chunks were written, but only the header, the index and the last ones stay mapped.
+            long afterWriting = MappedMemoryBudget.mappedBytes() - before;
+            assertTrue(afterWriting + " bytes mapped", afterWriting <= 5 * MAPPING);
+
+            ExcerptTailer tailer = queue.createTailer();
+            read(tailer, 0, COUNT);
+            long afterReading = MappedMemoryBudget.mappedBytes() - before;
+            assertTrue(afterReading + " bytes mapped", afterReading <= 6 * MAPPING);
+
+            // chunks which were unmapped are mapped again when needed.
+            long index = tailer.index() - COUNT + 10;
+            assertTrue(tailer.moveToIndex(index));
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertEquals(10, dc.wire().read("n").int32());
+            }
+        }
+    }
+
+    @Test
+    public void budgetIsSharedByQueues() {
+        long before = MappedMemoryBudget.mappedBytes();
+        long budget = before + 10 * MAPPING;
+        try (SingleChronicleQueue queue1 = queue(basePath + "/1");
+             SingleChronicleQueue queue2 = queue(basePath + "/2")) {
+            ExcerptAppender appender1 = queue1.acquireAppender();
+            ExcerptAppender appender2 = queue2.acquireAppender();
+            write(appender1, 0, 1);
+            write(appender2, 0, 1);
+
+            // the tailers hold on to the first chunk of each queue, so nothing is behind them
+            ExcerptTailer tailer1 = queue1.createTailer();
+            ExcerptTailer tailer2 = queue2.createTailer();
+            read(tailer1, 0, 1);
+            read(tailer2, 0, 1);
+
+            MappedMemoryBudget.maxMappedBytes(budget);
+            // about 16 chunks in all, most of which are idle once written.
+            write(appender1, 1, COUNT / 2);
+            write(appender2, 1, COUNT / 2);
+            assertTrue(MappedMemoryBudget.mappedBytes() <= budget);
+
+            read(tailer1, 1, COUNT / 2);
+            read(tailer2, 1, COUNT / 2);
+            assertTrue(MappedMemoryBudget.mappedBytes() <= budget);
+        }
+    }
+
+    @Test
+    public void excerptsAndIndexesAcrossChunksStayMapped() {
+        // the smallest block size, the excerpts must be smaller than the overlap of a quarter of it.
+        int chunk = ChronicleQueue.TEST_BLOCK_SIZE, perGroup = 8;
+        long before = MappedMemoryBudget.mappedBytes();
+        // a TEST_DAILY index is written every 8 excerpts.
+        try (SingleChronicleQueue queue = SingleChronicleQueueBuilder.binary(basePath)
+                .rollCycle(RollCycles.TEST_DAILY)
+                .blockSize(chunk)
+                .unmapConsumedChunks(true)
+                .build()) {
+            SingleChronicleQueueExcerpts.StoreAppender appender = (SingleChronicleQueueExcerpts.StoreAppender) queue.acquireAppender();
+            long[] indices = new long[8 * perGroup];
+            for (int i = 0; i < indices.length; i++) {
+                // sized so the index written before each eighth excerpt starts just before the end of a chunk.
+                int size = 1000;
+                if (i > 0) {
+                    long position = appender.wire().bytes().writePosition();
+                    int remaining = perGroup - (i - 1) % perGroup;
+                    long distance = Math.floorMod(chunk - 40 - position - 4 * remaining, chunk);
+                    if (distance < 100 * remaining)
+                        distance += chunk;
+                    size = (int) (distance / remaining);
+                }
+                byte[] data = new byte[size];
+                Arrays.fill(data, (byte) i);
+                if (i % 2 == 0)
+                    appender.writeBytes(Bytes.wrapForRead(data));
+                else
+                    try (DocumentContext dc = appender.writingDocument()) {
+                        dc.wire().bytes().write(data);
+                    }
+                indices[i] = appender.lastIndexAppended();
+            }
+            assertTrue(indexAcrossChunks(queue, chunk));
+
+            // the first chunk, the appender's and the tailer's.
+            long budget = before + 3 * (chunk + chunk / 4);
+            MappedMemoryBudget.maxMappedBytes(budget);
+            ExcerptTailer tailer = queue.createTailer();
+            for (int i = 0; i < indices.length; i++)
+                assertExcerpt(tailer, i);
+            assertTrue(MappedMemoryBudget.mappedBytes() <= budget);
+            // back through the index arrays cached along the way, while the chunks are unmapped.
+            for (int i = indices.length - 1; i >= 0; i--) {
+                assertTrue(tailer.moveToIndex(indices[i]));
+                assertExcerpt(tailer, i);
+            }
+            assertTrue(MappedMemoryBudget.mappedBytes() <= budget);
+        }
+    }
+
+    private static void assertExcerpt(ExcerptTailer tailer, int n) {
+        try (DocumentContext dc = tailer.readingDocument()) {
+            assertTrue(dc.isPresent());
+            Bytes<?> bytes = dc.wire().bytes();
+            assertEquals(n, bytes.readByte(bytes.readPosition()));
+            assertEquals(n, bytes.readByte(bytes.readLimit() - 1));
+        }
+    }
+
+    private static boolean indexAcrossChunks(SingleChronicleQueue queue, int chunk) {
+        WireStore store = queue.storeForCycle(queue.cycle(), queue.epoch(), false);
+        Bytes<?> bytes = store.bytes();
+        try {
+            for (long position = 0; ; ) {
+                int header = bytes.readVolatileInt(position);
+                if (header == 0)
+                    return false;
+                long end = position + 4 + Wires.lengthOf(header);
+                if (!Wires.isData(header) && position / chunk != (end - 1) / chunk)
+                    return true;
+                position = end;
+            }
+        } finally {
+            store.releaseWithStore(bytes);
+            queue.release(store);
+        }
+    }
+}
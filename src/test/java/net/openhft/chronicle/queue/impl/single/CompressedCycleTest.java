@@ -0,0 +1,141 @@
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.core.Jvm;
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.core.io.IORuntimeException;
+import net.openhft.chronicle.core.io.IOTools;
+import net.openhft.chronicle.core.time.SetTimeProvider;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.RetentionPolicy;
+import net.openhft.chronicle.queue.RollCycles;
+import net.openhft.chronicle.queue.TailerDirection;
+import net.openhft.chronicle.wire.DocumentContext;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class CompressedCycleTest {
+    private static final int PER_CYCLE = 2000;
+
+    private final SetTimeProvider stp = new SetTimeProvider();
+    private final String basePath = OS.TARGET + "/CompressedCycleTest-" + System.nanoTime();
+    private final long start = System.currentTimeMillis() / 1000 * 1000;
+
+    @After
+    public void deleteDir() {
+        try {
+            IOTools.deleteDirWithFiles(basePath, 2);
+        } catch (IORuntimeException ignored) {
+        }
+    }
+
+    private SingleChronicleQueue writeCycles(SingleChronicleQueueBuilder builder, int cycles) {
+        stp.currentTimeMillis(start);
+        SingleChronicleQueue queue = builder
+                .rollCycle(RollCycles.TEST_SECONDLY)
+                .blockSize(64 << 10)
+                .timeProvider(stp)
+                .build();
+        ExcerptAppender appender = queue.acquireAppender();
+        for (int c = 0; c < cycles; c++) {
+            stp.currentTimeMillis(start + c * 1000);
+            for (int i = 0; i < PER_CYCLE; i++) {
+                int n = c * PER_CYCLE + i;
+                appender.writeDocument(w -> w.write("n").int32(n).write("text").text("message number " + n));
+            }
+        }
+        return queue;
+    }
+
+    private String[] files(String suffix) {
+        return new File(basePath).list((dir, name) -> name.endsWith(suffix));
+    }
+
+    @Test
+    public void compressedCyclesCanBeReadAndIndexed() {
+        try (SingleChronicleQueue queue = writeCycles(SingleChronicleQueueBuilder.binary(basePath), 3)) {
+            int firstCycle = queue.firstCycle();
+            long uncompressedSize = new File(basePath).listFiles()[0].length();
+
+            assertTrue(queue.compressCycle(firstCycle));
+            assertTrue(queue.compressCycle(firstCycle + 1));
+            // the latest cycle and missing cycles are left alone.
+            assertFalse(queue.compressCycle(firstCycle + 2));
+            assertFalse(queue.compressCycle(firstCycle));
+
+            assertEquals(2, files(SingleChronicleQueue.COMPRESSED_SUFFIX).length);
+            assertEquals(1, files(SingleChronicleQueue.SUFFIX).length);
+            for (File file : new File(basePath).listFiles((dir, name) -> name.endsWith(SingleChronicleQueue.COMPRESSED_SUFFIX)))
+                assertTrue(file.length() * 4 < uncompressedSize);
+            assertEquals(firstCycle, queue.firstCycle());
+
+            ExcerptTailer tailer = queue.createTailer();
+            for (int n = 0; n < 3 * PER_CYCLE; n++) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    assertTrue(dc.isPresent());
+                    assertEquals(n, dc.wire().read("n").int32());
+                    assertEquals("message number " + n, dc.wire().read("text").text());
+                }
+            }
+            assertFalse(tailer.readingDocument().isPresent());
+
+            long index = queue.rollCycle().toIndex(firstCycle + 1, PER_CYCLE - 7);
+            assertTrue(tailer.moveToIndex(index));
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertEquals(index, dc.index());
+                assertEquals(2 * PER_CYCLE - 7, dc.wire().read("n").int32());
+            }
+
+            ExcerptTailer backwards = queue.createTailer().direction(TailerDirection.BACKWARD);
+            assertTrue(backwards.moveToIndex(queue.rollCycle().toIndex(firstCycle + 1, 500)));
+            for (int n = PER_CYCLE + 500; n >= PER_CYCLE; n--) {
+                try (DocumentContext dc = backwards.readingDocument()) {
+                    assertTrue(dc.isPresent());
+                    assertEquals(n, dc.wire().read("n").int32());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void retentionPolicyCompressesOlderCycles() {
+        try (SingleChronicleQueue queue = writeCycles(SingleChronicleQueueBuilder.binary(basePath), 4)) {
+            RetentionEngine engine = new RetentionEngine(queue, RetentionPolicy.keepCycles(3).compressAfterCycles(1));
+            assertEquals(1, engine.applyRetention());
+            // the cycles are compressed by a separate handler.
+            assertEquals(0, files(SingleChronicleQueue.COMPRESSED_SUFFIX).length);
+            CycleCompressor compressor = engine.compressor();
+            assertNotNull(compressor);
+            assertTrue(compressor.compressNext());
+            assertTrue(compressor.compressNext());
+            assertFalse(compressor.compressNext());
+            assertEquals(2, files(SingleChronicleQueue.COMPRESSED_SUFFIX).length);
+            assertEquals(1, files(SingleChronicleQueue.SUFFIX).length);
+
+            ExcerptTailer tailer = queue.createTailer();
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertEquals(PER_CYCLE, dc.wire().read("n").int32());
+            }
+        }
+    }
+
+    @Test
+    public void compressesOnEventLoop() {
+        SingleChronicleQueueBuilder builder = SingleChronicleQueueBuilder.binary(basePath)
+                .retentionPolicy(RetentionPolicy.keepCycles(3).compressAfterCycles(1).checkIntervalMS(0));
+        try (SingleChronicleQueue queue = writeCycles(builder, 3)) {
+            for (int i = 0; i < 100 && files(SingleChronicleQueue.COMPRESSED_SUFFIX).length < 2; i++)
+                Jvm.pause(50);
+            assertEquals(2, files(SingleChronicleQueue.COMPRESSED_SUFFIX).length);
+
+            ExcerptTailer tailer = queue.createTailer();
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertEquals(0, dc.wire().read("n").int32());
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.queue.CompressionCodec;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.RollCycles;
+import net.openhft.chronicle.queue.impl.WireStore;
+import net.openhft.chronicle.wire.DocumentContext;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+
+import static net.openhft.chronicle.queue.ChronicleQueueTestBase.getTmpDir;
+import static net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder.binary;
+import static org.junit.Assert.*;
+
+public class CompressionTest {
+    private static final int COUNT = 40;
+
+    private static String snapshot(int n) {
+        StringBuilder sb = new StringBuilder();
+        // about 60 KB, which compresses well.
+        for (int i = 0; i < 2_000; i++)
+            sb.append("level ").append(i % 50).append(" bid ").append(n).append(" ask ").append(n + 1).append('\n');
+        return sb.toString();
+    }
+
+    private static long[] write(SingleChronicleQueue queue) {
+        ExcerptAppender appender = queue.acquireAppender();
+        long[] indices = new long[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            int n = i;
+            switch (i % 4) {
+                case 0:
+                    appender.writeDocument(w -> w.write("snapshot").text(snapshot(n)));
+                    break;
+                case 1:
+                    // too short to compress.
+                    appender.writeDocument(w -> w.write("n").int32(n));
+                    break;
+                case 2:
+                    appender.writeBytes(Bytes.from(snapshot(n)));
+                    break;
+                default:
+                    try (DocumentContext dc = appender.writingDocument()) {
+                        dc.metaData(true);
+                        dc.wire().write("meta").int32(n);
+                    }
+                    appender.writeDocument(w -> w.write("n").int32(n));
+                    break;
+            }
+            indices[i] = appender.lastIndexAppended();
+        }
+        return indices;
+    }
+
+    private static void assertExcerpt(DocumentContext dc, int n) {
+        assertTrue(dc.isPresent());
+        switch (n % 4) {
+            case 0:
+                assertEquals(snapshot(n), dc.wire().read(() -> "snapshot").text());
+                break;
+            case 2:
+                assertEquals(snapshot(n), dc.wire().bytes().toString());
+                break;
+            default:
+                assertEquals(n, dc.wire().read(() -> "n").int32());
+                break;
+        }
+    }
+
+    private static void assertCompressed(CompressionCodec compression) {
+        File dir = getTmpDir();
+        long[] indices;
+        try (SingleChronicleQueue queue = binary(dir)
+                .rollCycle(RollCycles.TEST_DAILY)
+                .compression(compression)
+                .build()) {
+            indices = write(queue);
+
+            WireStore store = queue.storeForCycle(queue.cycle(), queue.epoch(), false);
+            try {
+                assertEquals(compression, store.compression());
+                assertTrue(store.dump().contains("compression: " + compression));
+                // the snapshots alone would be over 1 MB uncompressed.
+                assertTrue(store.writePosition() < 200 << 10);
+            } finally {
+                queue.release(store);
+            }
+
+            ExcerptTailer tailer = queue.createTailer();
+            for (int i = 0; i < COUNT; i++) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    assertEquals(indices[i], dc.index());
+                    assertExcerpt(dc, i);
+                }
+            }
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertFalse(dc.isPresent());
+            }
+
+            // meta data is read as it was written, without indexing it as data.
+            tailer = queue.createTailer().lazyIndexing(true);
+            int metaData = 0;
+            while (true) {
+                try (DocumentContext dc = tailer.readingDocument(true)) {
+                    if (!dc.isPresent())
+                        break;
+                    if (dc.isMetaData() && dc.wire().bytes().readRemaining() > 0
+                            && "meta".contentEquals(dc.wire().readEvent(String.class)))
+                        assertEquals(metaData++ * 4 + 3, dc.wire().getValueIn().int32());
+                }
+            }
+            assertEquals(COUNT / 4, metaData);
+        }
+
+        // the codec is read from the cycle, not the builder.
+        try (SingleChronicleQueue queue = binary(dir).rollCycle(RollCycles.TEST_DAILY).build()) {
+            queue.acquireAppender().writeBytes(Bytes.from(snapshot(COUNT)));
+            ExcerptTailer tailer = queue.createTailer();
+            Random random = new Random(1);
+            for (int i = 0; i < 20; i++) {
+                int r = random.nextInt(COUNT);
+                assertTrue(tailer.moveToIndex(indices[r]));
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    assertExcerpt(dc, r);
+                }
+            }
+            assertTrue(tailer.moveToIndex(indices[COUNT - 1] + 1));
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertEquals(snapshot(COUNT), dc.wire().bytes().toString());
+            }
+        }
+    }
+
+    @Test
+    public void deflate() {
+        assertCompressed(CompressionCodec.DEFLATE);
+    }
+
+    @Test
+    public void lzf() {
+        assertCompressed(CompressionCodec.LZF);
+    }
+
+    @Test
+    public void incompressibleExcerptsAreStoredAsTheyAre() {
+        byte[] noise = new byte[8 << 10];
+        new Random(1).nextBytes(noise);
+        try (SingleChronicleQueue queue = binary(getTmpDir()).compression(CompressionCodec.DEFLATE).build()) {
+            queue.acquireAppender().writeBytes(Bytes.wrapForRead(noise));
+            try (DocumentContext dc = queue.createTailer().readingDocument()) {
+                assertEquals(noise.length, dc.wire().bytes().readRemaining());
+                byte[] read = new byte[noise.length];
+                dc.wire().bytes().read(read);
+                assertArrayEquals(noise, read);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void notWithAFixedLength() {
+        binary(getTmpDir()).rollCycle(RollCycles.TEST_DAILY).fixedLength(64).compression(CompressionCodec.DEFLATE).build();
+    }
+}
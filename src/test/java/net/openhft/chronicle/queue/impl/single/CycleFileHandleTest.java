@@ -0,0 +1,153 @@
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.core.time.SetTimeProvider;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.RollCycles;
+import net.openhft.chronicle.queue.impl.WireStore;
+import net.openhft.chronicle.wire.DocumentContext;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static net.openhft.chronicle.queue.ChronicleQueueTestBase.getTmpDir;
+import static net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder.binary;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CycleFileHandleTest {
+    private static final int CYCLES = 4;
+
+    private final SetTimeProvider timeProvider = new SetTimeProvider();
+    private final long start = System.currentTimeMillis() / 1000 * 1000;
+    private File dir;
+
+    /**
+     * @return the number of cycle files of the queue this process has open.
+     */
+    static int openCycleFiles(File dir) throws IOException {
+        String path = dir.getCanonicalPath();
+        File[] fds = new File("/proc/self/fd").listFiles();
+        int count = 0;
+        for (File fd : fds == null ? new File[0] : fds) {
+            try {
+                String target = Files.readSymbolicLink(fd.toPath()).toString();
+                if (target.startsWith(path) && target.endsWith(SingleChronicleQueue.SUFFIX))
+                    count++;
+            } catch (IOException ignored) {
+                // closed meanwhile.
+            }
+        }
+        return count;
+    }
+
+    @Before
+    public void setUp() {
+        dir = getTmpDir();
+    }
+
+    private SingleChronicleQueue queue() {
+        return binary(dir)
+                .rollCycle(RollCycles.TEST_SECONDLY)
+                .timeProvider(timeProvider)
+                .build();
+    }
+
+    @Test
+    public void filesAreClosedAsTheQueueMovesBetweenCycles() throws IOException {
+        Assume.assumeTrue(OS.isLinux());
+        try (SingleChronicleQueue queue = queue()) {
+            ExcerptAppender appender = queue.acquireAppender();
+            long[] indices = new long[CYCLES];
+            for (int i = 0; i < CYCLES; i++) {
+                timeProvider.currentTimeMillis(start + i * 1000L);
+                appender.writeDocument(w -> w.write("n").int32(1));
+                indices[i] = appender.lastIndexAppended();
+            }
+            ExcerptTailer tailer = queue.createTailer();
+            for (int i = 0; i < 100; i++) {
+                assertTrue(tailer.moveToIndex(indices[i % CYCLES]));
+                assertEquals(CYCLES - 1, queue.countExcerpts(indices[0], indices[CYCLES - 1]));
+            }
+            assertTrue(tailer.moveToIndex(indices[CYCLES - 1]));
+            // the last cycle, which both the appender and tailer are on.
+            assertEquals(1, openCycleFiles(dir));
+        }
+    }
+
+    @Test
+    public void fileIsClosedOnceEveryoneHasMovedOff() throws IOException {
+        Assume.assumeTrue(OS.isLinux());
+        try (SingleChronicleQueue queue = queue()) {
+            timeProvider.currentTimeMillis(start);
+            ExcerptAppender appender = queue.acquireAppender();
+            appender.writeDocument(w -> w.write("n").int32(1));
+            ExcerptTailer tailer = queue.createTailer();
+            for (int i = 1; i < 20; i++) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    assertTrue(dc.isPresent());
+                }
+                // the appender moves off each cycle first, while the tailer still has it.
+                timeProvider.currentTimeMillis(start + i * 1000L);
+                appender.writeDocument(w -> w.write("n").int32(1));
+            }
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertTrue(dc.isPresent());
+            }
+            assertEquals(1, openCycleFiles(dir));
+        }
+    }
+
+    @Test
+    public void closingATailerReleasesItsCycle() throws IOException {
+        Assume.assumeTrue(OS.isLinux());
+        try (SingleChronicleQueue queue = queue()) {
+            timeProvider.currentTimeMillis(start);
+            ExcerptAppender appender = queue.acquireAppender();
+            appender.writeDocument(w -> w.write("n").int32(1));
+            ExcerptTailer tailer = queue.createTailer();
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertTrue(dc.isPresent());
+            }
+            timeProvider.currentTimeMillis(start + 1000L);
+            appender.writeDocument(w -> w.write("n").int32(1));
+            assertEquals(2, openCycleFiles(dir));
+
+            tailer.close();
+            assertEquals(1, openCycleFiles(dir));
+        }
+    }
+
+    @Test
+    public void toEndHoldsOneReservationOfTheLastCycle() {
+        try (SingleChronicleQueue queue = queue()) {
+            ExcerptAppender appender = queue.acquireAppender();
+            for (int i = 0; i < CYCLES; i++) {
+                timeProvider.currentTimeMillis(start + i * 1000L);
+                appender.writeDocument(w -> w.write("n").int32(1));
+            }
+            ExcerptTailer tailer = queue.createTailer();
+            tailer.toEnd();
+            long refCount = refCount(queue, queue.lastCycle());
+
+            for (int i = 0; i < 100; i++)
+                tailer.toEnd();
+            assertEquals(refCount, refCount(queue, queue.lastCycle()));
+        }
+    }
+
+    private static long refCount(SingleChronicleQueue queue, int cycle) {
+        WireStore store = queue.storeForCycle(cycle, queue.epoch(), false);
+        try {
+            // less the one just taken.
+            return store.refCount() - 1;
+        } finally {
+            queue.release(store);
+        }
+    }
+}
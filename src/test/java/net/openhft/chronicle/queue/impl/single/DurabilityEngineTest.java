@@ -0,0 +1,133 @@
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.core.Jvm;
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.core.io.IORuntimeException;
+import net.openhft.chronicle.core.io.IOTools;
+import net.openhft.chronicle.core.time.SetTimeProvider;
+import net.openhft.chronicle.queue.DurabilityPolicy;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.RollCycles;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DurabilityEngineTest {
+    private static final String TEXT = new String(new char[100]).replace('\0', 'x');
+
+    private final SetTimeProvider stp = new SetTimeProvider();
+    private final String basePath = OS.TARGET + "/DurabilityEngineTest-" + System.nanoTime();
+    private final long start = System.currentTimeMillis() / 1000 * 1000;
+
+    @After
+    public void deleteDir() {
+        try {
+            IOTools.deleteDirWithFiles(basePath, 2);
+        } catch (IORuntimeException ignored) {
+        }
+    }
+
+    private SingleChronicleQueue queue(DurabilityPolicy policy) {
+        stp.currentTimeMillis(start);
+        return SingleChronicleQueueBuilder.binary(basePath)
+                .rollCycle(RollCycles.TEST_SECONDLY)
+                .timeProvider(stp)
+                .durabilityPolicy(policy)
+                .build();
+    }
+
+    private static void write(ExcerptAppender appender, int count) {
+        for (int i = 0; i < count; i++)
+            appender.writeDocument(w -> w.write("text").text(TEXT));
+    }
+
+    @Test
+    public void syncsEveryBytes() {
+        try (SingleChronicleQueue queue = queue(DurabilityPolicy.none())) {
+            ExcerptAppender appender = queue.acquireAppender();
+            assertEquals(Long.MIN_VALUE, appender.durableIndex());
+            write(appender, 5);
+
+            DurabilityEngine engine = new DurabilityEngine(queue, DurabilityPolicy.everyBytes(8 << 10));
+            // the header and indexes count towards the first sync.
+            engine.syncIfDue();
+
+            write(appender, 5);
+            assertFalse(engine.syncIfDue());
+            assertTrue(engine.durableIndex() < appender.lastIndexAppended());
+
+            write(appender, 100);
+            assertTrue(engine.syncIfDue());
+            assertEquals(appender.lastIndexAppended(), engine.durableIndex());
+            // nothing more to sync
+            assertFalse(engine.syncIfDue());
+
+            write(appender, 1);
+            assertTrue(engine.sync());
+            assertEquals(appender.lastIndexAppended(), engine.durableIndex());
+            engine.close();
+        }
+    }
+
+    @Test
+    public void syncsTheCycleWhichRolled() {
+        try (SingleChronicleQueue queue = queue(DurabilityPolicy.none())) {
+            ExcerptAppender appender = queue.acquireAppender();
+            write(appender, 10);
+            long lastOfFirstCycle = appender.lastIndexAppended();
+
+            DurabilityEngine engine = new DurabilityEngine(queue, DurabilityPolicy.onRoll());
+            assertFalse(engine.syncIfDue());
+
+            stp.currentTimeMillis(start + 1000);
+            write(appender, 10);
+            Jvm.pause(150);
+            assertTrue(engine.syncIfDue());
+            assertEquals(lastOfFirstCycle, engine.durableIndex());
+            engine.close();
+        }
+    }
+
+    @Test
+    public void syncsInTheBackground() {
+        try (SingleChronicleQueue queue = queue(DurabilityPolicy.every(10, TimeUnit.MILLISECONDS))) {
+            ExcerptAppender appender = queue.acquireAppender();
+            write(appender, 10);
+            long lastIndex = appender.lastIndexAppended();
+            for (int i = 0; i < 100 && appender.durableIndex() < lastIndex; i++)
+                Jvm.pause(20);
+            assertEquals(lastIndex, appender.durableIndex());
+        }
+    }
+
+    @Test
+    public void closesTheCyclesItMovesOff() throws IOException {
+        Assume.assumeTrue(OS.isLinux());
+        try (SingleChronicleQueue queue = queue(DurabilityPolicy.none())) {
+            ExcerptAppender appender = queue.acquireAppender();
+            DurabilityEngine engine = new DurabilityEngine(queue, DurabilityPolicy.onRoll());
+            write(appender, 1);
+            engine.syncIfDue();
+            for (int i = 1; i <= 10; i++) {
+                stp.currentTimeMillis(start + i * 1000);
+                write(appender, 1);
+                Jvm.pause(150);
+                assertTrue(engine.syncIfDue());
+            }
+            // only the last cycle, mapped once for the queue and opened once more for the engine to sync.
+            assertEquals(2, CycleFileHandleTest.openCycleFiles(new File(basePath)));
+            engine.close();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void noneSyncsNothing() {
+        DurabilityPolicy.none().syncBytes(1 << 20);
+    }
+}
@@ -0,0 +1,92 @@
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.RollCycles;
+import net.openhft.chronicle.wire.DocumentContext;
+import org.junit.Test;
+
+import static net.openhft.chronicle.queue.ChronicleQueueTestBase.getTmpDir;
+import static net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder.binary;
+import static org.junit.Assert.*;
+
+public class ExcerptAlignmentTest {
+
+    private static void assertAligned(int alignment) {
+        // enough to write a few index arrays between excerpts.
+        int count = 60;
+        try (SingleChronicleQueue queue = binary(getTmpDir())
+                .rollCycle(RollCycles.TEST_DAILY)
+                .excerptAlignment(alignment)
+                .build()) {
+            ExcerptAppender appender = queue.acquireAppender();
+            for (int i = 0; i < count; i++) {
+                int n = i;
+                switch (i % 3) {
+                    case 0:
+                        appender.writeDocument(w -> w.write("n").int32(n));
+                        break;
+                    case 1:
+                        appender.writeDocument(w -> w.write("n").int32(n)
+                                .write("text").text("abcdefghijklmnopqrstuvwxyz0123456789abcdefghijklmnopqrstuvwxyz".substring(n)));
+                        break;
+                    default:
+                        Bytes<?> bytes = Bytes.elasticByteBuffer();
+                        bytes.writeStopBit(0x6e).writeInt(n);
+                        appender.writeBytes(bytes);
+                        break;
+                }
+            }
+
+            ExcerptTailer tailer = queue.createTailer();
+            for (int i = 0; i < count; i++) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    assertTrue(dc.isPresent());
+                    long header = dc.wire().bytes().readPosition() - 4;
+                    assertEquals("excerpt " + i + " at " + header, 0, header % alignment);
+                    if (i % 3 == 2) {
+                        assertEquals(0x6e, dc.wire().bytes().readStopBit());
+                        assertEquals(i, dc.wire().bytes().readInt());
+                    } else {
+                        assertEquals(i, dc.wire().read(() -> "n").int32());
+                    }
+                }
+            }
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertFalse(dc.isPresent());
+            }
+
+            assertEquals(count, queue.alignedExcerpts());
+            assertTrue(queue.alignmentPaddingBytes() > 0);
+            assertTrue(tailer.moveToIndex(appender.lastIndexAppended() - 10));
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertEquals(0, (dc.wire().bytes().readPosition() - 4) % alignment);
+            }
+        }
+    }
+
+    @Test
+    public void excerptsStartOnACacheLine() {
+        assertAligned(64);
+    }
+
+    @Test
+    public void excerptsStartOnAPairOfCacheLines() {
+        assertAligned(128);
+    }
+
+    @Test
+    public void notAlignedByDefault() {
+        try (SingleChronicleQueue queue = binary(getTmpDir()).rollCycle(RollCycles.TEST_DAILY).build()) {
+            queue.acquireAppender().writeDocument(w -> w.write("n").int32(1));
+            assertEquals(0, queue.alignedExcerpts());
+            assertEquals(0, queue.alignmentPaddingBytes());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void alignmentMustBeAPowerOfTwo() {
+        binary(getTmpDir()).excerptAlignment(48);
+    }
+}
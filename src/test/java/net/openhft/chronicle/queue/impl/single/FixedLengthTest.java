@@ -0,0 +1,161 @@
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.RollCycles;
+import net.openhft.chronicle.queue.impl.WireStore;
+import net.openhft.chronicle.wire.DocumentContext;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+
+import static net.openhft.chronicle.queue.ChronicleQueueTestBase.getTmpDir;
+import static net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder.binary;
+import static org.junit.Assert.*;
+
+public class FixedLengthTest {
+    private static final int COUNT = 1000;
+
+    private static long[] write(SingleChronicleQueue queue) {
+        long[] indices = new long[COUNT];
+        ExcerptAppender appender = queue.acquireAppender();
+        for (int i = 0; i < COUNT; i++) {
+            int n = i;
+            if (i % 10 == 9)
+                appender.writeBytes(Bytes.from("raw " + n));
+            else
+                appender.writeDocument(w -> w.write("n").int32(n)
+                        .write("text").text("abcdefghijklmnopqrstuvwxyz".substring(n % 20)));
+            indices[i] = appender.lastIndexAppended();
+        }
+        return indices;
+    }
+
+    private static void assertExcerpt(DocumentContext dc, int n) {
+        assertTrue(dc.isPresent());
+        if (n % 10 == 9) {
+            // raw bytes are read with their padding.
+            String text = "raw " + n;
+            assertEquals(60, dc.wire().bytes().readRemaining());
+            assertEquals(text, dc.wire().bytes().subBytes(dc.wire().bytes().readPosition(), text.length()).toString());
+        } else {
+            assertEquals(n, dc.wire().read(() -> "n").int32());
+        }
+    }
+
+    @Test
+    public void excerptsAreFoundFromTheirIndex() {
+        File dir = getTmpDir();
+        long[] indices;
+        try (SingleChronicleQueue queue = binary(dir).rollCycle(RollCycles.TEST_DAILY).fixedLength(60).build()) {
+            // more than can be indexed in a TEST_DAILY cycle.
+            indices = write(queue);
+            for (int i = 1; i < COUNT; i++)
+                assertEquals(indices[i - 1] + 1, indices[i]);
+
+            WireStore store = queue.storeForCycle(queue.cycle(), queue.epoch(), false);
+            try {
+                assertEquals(60, store.fixedLength());
+                String dump = store.dump();
+                assertTrue(dump.contains("fixedLength: 60"));
+                assertFalse(dump.contains("index2index"));
+            } finally {
+                queue.release(store);
+            }
+            assertEquals(COUNT - 1, queue.lastSequence(queue.cycle()));
+            assertEquals(COUNT, queue.countExcerpts(indices[0], indices[COUNT - 1] + 1));
+        }
+
+        // the layout is read from the cycle, not the builder.
+        try (SingleChronicleQueue queue = binary(dir).rollCycle(RollCycles.TEST_DAILY).build()) {
+            ExcerptTailer tailer = queue.createTailer();
+            for (int i = 0; i < COUNT; i++) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    assertEquals(indices[i], dc.index());
+                    assertExcerpt(dc, i);
+                }
+            }
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertFalse(dc.isPresent());
+            }
+
+            Random random = new Random(1);
+            for (int j = 0; j < 200; j++) {
+                int i = random.nextInt(COUNT);
+                assertTrue(tailer.moveToIndex(indices[i]));
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    assertEquals(indices[i], dc.index());
+                    assertExcerpt(dc, i);
+                }
+            }
+            assertFalse(tailer.moveToIndex(indices[COUNT - 1] + 2));
+
+            tailer.toEnd();
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertFalse(dc.isPresent());
+            }
+            queue.acquireAppender().writeDocument(w -> w.write("n").int32(COUNT));
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertEquals(indices[COUNT - 1] + 1, dc.index());
+                assertEquals(COUNT, dc.wire().read(() -> "n").int32());
+            }
+        }
+    }
+
+    @Test
+    public void excerptsLongerThanTheFixedLengthAreRejected() {
+        try (SingleChronicleQueue queue = binary(getTmpDir()).rollCycle(RollCycles.TEST_DAILY).fixedLength(16).build()) {
+            ExcerptAppender appender = queue.acquireAppender();
+            appender.writeDocument(w -> w.write("n").int32(1));
+            try {
+                appender.writeBytes(Bytes.from("more than sixteen bytes"));
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+            try {
+                appender.writeDocument(w -> w.write("text").text("more than sixteen bytes"));
+                fail();
+            } catch (IllegalArgumentException expected) {
+            }
+            appender.writeDocument(w -> w.write("n").int32(3));
+
+            // the excerpt too long was left empty.
+            ExcerptTailer tailer = queue.createTailer();
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertEquals(1, dc.wire().read(() -> "n").int32());
+            }
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertTrue(dc.isPresent());
+            }
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertEquals(3, dc.wire().read(() -> "n").int32());
+            }
+        }
+    }
+
+    @Test
+    public void metaDataIsRefused() {
+        try (SingleChronicleQueue queue = binary(getTmpDir()).rollCycle(RollCycles.TEST_DAILY).fixedLength(16).build()) {
+            ExcerptAppender appender = queue.acquireAppender();
+            appender.writeDocument(w -> w.write("n").int32(1));
+            try (DocumentContext dc = appender.writingDocument()) {
+                try {
+                    dc.metaData(true);
+                    fail();
+                } catch (IllegalStateException expected) {
+                }
+                dc.wire().write("n").int32(2);
+            }
+
+            ExcerptTailer tailer = queue.createTailer();
+            for (int n = 1; n <= 2; n++) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    assertFalse(dc.isMetaData());
+                    assertEquals(n, dc.wire().read(() -> "n").int32());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.LeasedAppender;
+import net.openhft.chronicle.queue.RollCycles;
+import net.openhft.chronicle.wire.DocumentContext;
+import net.openhft.chronicle.wire.UnrecoverableTimeoutException;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static net.openhft.chronicle.queue.ChronicleQueueTestBase.getTmpDir;
+import static net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder.binary;
+import static org.junit.Assert.*;
+
+public class LeasedAppenderTest {
+
+    @Test
+    public void leasesCanBeUsedByManyShortLivedTasks() throws Exception {
+        int tasks = 2_000;
+        try (SingleChronicleQueue queue = binary(getTmpDir())
+                .appenderPoolSize(2)
+                .build()) {
+            ExecutorService service = Executors.newFixedThreadPool(8);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < tasks; i++) {
+                int n = i;
+                futures.add(service.submit(() -> {
+                    try (LeasedAppender appender = queue.leaseAppender()) {
+                        appender.writeDocument(w -> w.write("n").int32(n));
+                    }
+                }));
+            }
+            for (Future<?> future : futures)
+                future.get();
+            service.shutdown();
+            assertTrue(service.awaitTermination(10, TimeUnit.SECONDS));
+
+            boolean[] seen = new boolean[tasks];
+            ExcerptTailer tailer = queue.createTailer();
+            for (int i = 0; i < tasks; i++) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    assertTrue(dc.isPresent());
+                    int n = dc.wire().read(() -> "n").int32();
+                    assertFalse(seen[n]);
+                    seen[n] = true;
+                }
+            }
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertFalse(dc.isPresent());
+            }
+        }
+    }
+
+    @Test
+    public void aLeaseCanBeHandedToAnotherThread() throws Exception {
+        try (SingleChronicleQueue queue = binary(getTmpDir()).rollCycle(RollCycles.TEST_DAILY).build()) {
+            LeasedAppender appender = queue.leaseAppender();
+            appender.writeDocument(w -> w.write("n").int32(1));
+            Thread thread = new Thread(() -> {
+                appender.writeDocument(w -> w.write("n").int32(2));
+                appender.close();
+            });
+            thread.start();
+            thread.join();
+            assertTrue(appender.isClosed());
+
+            ExcerptTailer tailer = queue.createTailer();
+            for (int i = 1; i <= 2; i++) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    assertEquals(i, dc.wire().read(() -> "n").int32());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void aFullPoolTimesOut() {
+        try (SingleChronicleQueue queue = binary(getTmpDir())
+                .appenderPoolSize(1)
+                .leaseTimeoutMS(0)
+                .build()) {
+            LeasedAppender appender = queue.leaseAppender();
+            try {
+                queue.leaseAppender();
+                fail();
+            } catch (UnrecoverableTimeoutException expected) {
+            }
+            appender.close();
+            // returned, so it can be leased again.
+            queue.leaseAppender().close();
+        }
+    }
+
+    @Test
+    public void aWaitingLeaseGetsAReturnedAppender() throws Exception {
+        try (SingleChronicleQueue queue = binary(getTmpDir())
+                .appenderPoolSize(1)
+                .leaseTimeoutMS(5_000)
+                .build()) {
+            LeasedAppender appender = queue.leaseAppender();
+            Thread thread = new Thread(() -> {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                appender.close();
+            });
+            thread.start();
+            queue.leaseAppender().close();
+            thread.join();
+        }
+    }
+
+    @Test
+    public void anExcerptLeftOpenIsDiscarded() {
+        for (int slabSize : new int[]{0, 1 << 10}) {
+            try (SingleChronicleQueue queue = binary(getTmpDir())
+                    .appenderPoolSize(1)
+                    .slabSize(slabSize)
+                    .build()) {
+                LeasedAppender appender = queue.leaseAppender();
+                appender.padToCacheAlign(true);
+                appender.lazyIndexing(true);
+                appender.writeDocument(w -> w.write("n").int32(1));
+                long first = appender.lastIndexAppended();
+                DocumentContext dc = appender.writingDocument();
+                dc.wire().write("n").int32(2);
+                appender.close();
+
+                try (LeasedAppender next = queue.leaseAppender()) {
+                    assertFalse(next.padToCacheAlign());
+                    assertFalse(next.lazyIndexing());
+                    next.writeDocument(w -> w.write("n").int32(3));
+                    assertEquals(first + 1, next.lastIndexAppended());
+                }
+
+                ExcerptTailer tailer = queue.createTailer();
+                for (int n : new int[]{1, 3}) {
+                    try (DocumentContext read = tailer.readingDocument()) {
+                        assertEquals(n, read.wire().read(() -> "n").int32());
+                    }
+                }
+                try (DocumentContext read = tailer.readingDocument()) {
+                    assertFalse(read.isPresent());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void closingTheQueueReleasesPooledAppenders() throws IOException {
+        Assume.assumeTrue(OS.isLinux());
+        File dir = getTmpDir();
+        SingleChronicleQueue queue = binary(dir).appenderPoolSize(2).build();
+        try (LeasedAppender appender = queue.leaseAppender()) {
+            appender.writeDocument(w -> w.write("n").int32(1));
+        }
+        queue.close();
+        assertEquals(0, CycleFileHandleTest.openCycleFiles(dir));
+        try {
+            queue.leaseAppender();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void aClosedLeaseCantBeUsed() {
+        try (SingleChronicleQueue queue = binary(getTmpDir()).build()) {
+            LeasedAppender appender = queue.leaseAppender();
+            appender.close();
+            appender.writeDocument(w -> w.write("n").int32(1));
+        }
+    }
+}
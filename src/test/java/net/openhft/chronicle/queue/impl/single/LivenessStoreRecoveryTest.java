@@ -0,0 +1,124 @@
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.RollCycles;
+import net.openhft.chronicle.wire.DocumentContext;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+
+import static net.openhft.chronicle.queue.ChronicleQueueTestBase.getTmpDir;
+import static net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder.binary;
+import static org.junit.Assert.*;
+
+public class LivenessStoreRecoveryTest {
+
+    private static SingleChronicleQueue queue(File dir, long timeoutMS) {
+        return binary(dir)
+                .rollCycle(RollCycles.TEST_DAILY)
+                .recoverySupplier(LivenessStoreRecovery.FACTORY)
+                .timeoutMS(timeoutMS)
+                .build();
+    }
+
+    private static void assertTexts(SingleChronicleQueue queue, String... texts) {
+        ExcerptTailer tailer = queue.createTailer();
+        for (String text : texts) {
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertTrue(dc.isPresent());
+                assertEquals(text, dc.wire().read(() -> "text").text());
+            }
+        }
+        try (DocumentContext dc = tailer.readingDocument()) {
+            assertFalse(dc.isPresent());
+        }
+    }
+
+    @Test
+    public void headerOfDeadWriterIsTakenOverWithoutTimeout() throws InterruptedException {
+        try (SingleChronicleQueue queue = queue(getTmpDir(), 10_000)) {
+            ExcerptAppender appender = queue.acquireAppender();
+            appender.writeDocument(w -> w.write("text").text("first"));
+
+            Thread writer = new Thread(() -> {
+                // dies part way through a message.
+                DocumentContext dc = queue.acquireAppender().writingDocument();
+                dc.wire().write("text").text("never completed");
+            });
+            writer.start();
+            writer.join();
+
+            long start = System.currentTimeMillis();
+            appender.writeDocument(w -> w.write("text").text("second"));
+            assertTrue(System.currentTimeMillis() - start < 1_000);
+
+            assertTexts(queue, "first", "second");
+        }
+    }
+
+    @Test
+    public void slowWriterIsWaitedFor() throws InterruptedException {
+        try (SingleChronicleQueue queue = queue(getTmpDir(), 100)) {
+            ExcerptAppender appender = queue.acquireAppender();
+            appender.writeDocument(w -> w.write("text").text("first"));
+
+            CountDownLatch started = new CountDownLatch(1);
+            Thread writer = new Thread(() -> {
+                try (DocumentContext dc = queue.acquireAppender().writingDocument()) {
+                    dc.wire().write("text").text("slow");
+                    started.countDown();
+                    // longer than the timeout.
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            writer.start();
+            started.await();
+
+            appender.writeDocument(w -> w.write("text").text("second"));
+            writer.join();
+
+            assertTexts(queue, "first", "slow", "second");
+        }
+    }
+
+    @Test
+    public void liveness() {
+        try (SingleChronicleQueue queue = queue(getTmpDir(), 100)) {
+            queue.acquireAppender().writeDocument(w -> w.write("text").text("first"));
+            assertFalse(LivenessStoreRecovery.isDead(LivenessStoreRecovery.ownerOf(Thread.currentThread())));
+        }
+        if (OS.isLinux())
+            assertTrue(LivenessStoreRecovery.isDead((long) Integer.MAX_VALUE << 32 | 1));
+    }
+
+    @Test
+    public void deadThreadsAreForgotten() throws InterruptedException {
+        Thread[] writers = new Thread[4];
+        try (SingleChronicleQueue queue = queue(getTmpDir(), 100)) {
+            for (int i = 0; i < writers.length; i++) {
+                String text = "writer " + i;
+                writers[i] = new Thread(() -> queue.acquireAppender().writeDocument(w -> w.write("text").text(text)));
+                writers[i].start();
+                writers[i].join();
+                assertTrue(LivenessStoreRecovery.THREADS.containsKey(writers[i].getId()));
+            }
+        }
+
+        // found dead when its header is checked.
+        assertTrue(LivenessStoreRecovery.isDead(LivenessStoreRecovery.ownerOf(writers[0])));
+        assertFalse(LivenessStoreRecovery.THREADS.containsKey(writers[0].getId()));
+
+        // or when another thread registers.
+        try (SingleChronicleQueue queue = queue(getTmpDir(), 100)) {
+            queue.acquireAppender().writeDocument(w -> w.write("text").text("first"));
+        }
+        for (Thread writer : writers)
+            assertFalse(LivenessStoreRecovery.THREADS.containsKey(writer.getId()));
+        assertTrue(LivenessStoreRecovery.THREADS.containsKey(Thread.currentThread().getId()));
+    }
+}
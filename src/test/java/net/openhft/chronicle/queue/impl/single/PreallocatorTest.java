@@ -0,0 +1,164 @@
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.core.Jvm;
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.core.io.IORuntimeException;
+import net.openhft.chronicle.core.io.IOTools;
+import net.openhft.chronicle.core.threads.InvalidEventHandlerException;
+import net.openhft.chronicle.core.time.SetTimeProvider;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.PreallocationMode;
+import net.openhft.chronicle.queue.RollCycles;
+import net.openhft.chronicle.queue.impl.WireStore;
+import net.openhft.chronicle.wire.DocumentContext;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class PreallocatorTest {
+    private static final int PER_CYCLE = 20_000;
+    private static final String TEXT = new String(new char[100]).replace('\0', 'x');
+
+    private final SetTimeProvider stp = new SetTimeProvider();
+    private final String basePath = OS.TARGET + "/PreallocatorTest-" + System.nanoTime();
+    private final long start = System.currentTimeMillis() / 1000 * 1000;
+
+    @After
+    public void deleteDir() {
+        try {
+            IOTools.deleteDirWithFiles(basePath, 2);
+        } catch (IORuntimeException ignored) {
+        }
+    }
+
+    private SingleChronicleQueue queue(PreallocationMode mode) {
+        stp.currentTimeMillis(start);
+        return SingleChronicleQueueBuilder.binary(basePath)
+                .rollCycle(RollCycles.TEST_SECONDLY)
+                .blockSize(1 << 20)
+                .timeProvider(stp)
+                .preallocationMode(mode)
+                .build();
+    }
+
+    private static void write(ExcerptAppender appender, int from, int count) {
+        for (int i = from; i < from + count; i++) {
+            int n = i;
+            appender.writeDocument(w -> w.write("n").int32(n).write("text").text(TEXT));
+        }
+    }
+
+    private long lastFileLength(SingleChronicleQueue queue) {
+        WireStore store = queue.storeForCycle(queue.lastCycle(), queue.epoch(), false);
+        try {
+            return store.file().length();
+        } finally {
+            queue.release(store);
+        }
+    }
+
+    private static void runUntilIdle(Preallocator preallocator) throws InvalidEventHandlerException {
+        for (int i = 0; i < 10_000 && preallocator.action(); i++) {
+            // more to do
+        }
+    }
+
+    @Test
+    public void touchSizesFromThePreviousCycle() throws InvalidEventHandlerException {
+        try (SingleChronicleQueue queue = queue(PreallocationMode.NONE)) {
+            ExcerptAppender appender = queue.acquireAppender();
+            write(appender, 0, PER_CYCLE);
+            long firstCycleSize = lastFileLength(queue);
+            assertTrue(firstCycleSize > 2 << 20);
+
+            stp.currentTimeMillis(start + 1000);
+            write(appender, PER_CYCLE, 1);
+            long before = lastFileLength(queue);
+            assertTrue(before < firstCycleSize);
+
+            Preallocator preallocator = new Preallocator(queue, PreallocationMode.TOUCH);
+            runUntilIdle(preallocator);
+            assertTrue(preallocator.expectedSize() > firstCycleSize / 2);
+            assertTrue(lastFileLength(queue) >= preallocator.expectedSize());
+
+            // appending after the preallocated region is unaffected.
+            write(appender, PER_CYCLE + 1, PER_CYCLE);
+            preallocator.close();
+            try {
+                preallocator.action();
+                fail();
+            } catch (InvalidEventHandlerException expected) {
+            }
+
+            ExcerptTailer tailer = queue.createTailer();
+            for (int n = 0; n <= 2 * PER_CYCLE; n++) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    assertTrue(dc.isPresent());
+                    assertEquals(n, dc.wire().read("n").int32());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void sparseFollowsTheRoll() throws InvalidEventHandlerException {
+        try (SingleChronicleQueue queue = queue(PreallocationMode.NONE)) {
+            ExcerptAppender appender = queue.acquireAppender();
+            write(appender, 0, 1);
+            Preallocator preallocator = new Preallocator(queue, PreallocationMode.SPARSE);
+            runUntilIdle(preallocator);
+            assertEquals(0, preallocator.expectedSize());
+
+            write(appender, 1, PER_CYCLE);
+            stp.currentTimeMillis(start + 1000);
+            write(appender, 0, 1);
+            Jvm.pause(150);
+            runUntilIdle(preallocator);
+
+            // the final size of the last cycle is remembered.
+            assertTrue(preallocator.expectedSize() > 2 << 20);
+            assertTrue(lastFileLength(queue) >= preallocator.expectedSize());
+            preallocator.close();
+        }
+    }
+
+    @Test
+    public void closesThePreviousCycle() throws InvalidEventHandlerException, IOException {
+        Assume.assumeTrue(OS.isLinux());
+        try (SingleChronicleQueue queue = queue(PreallocationMode.NONE)) {
+            ExcerptAppender appender = queue.acquireAppender();
+            write(appender, 0, 1);
+            Preallocator preallocator = new Preallocator(queue, PreallocationMode.SPARSE);
+            runUntilIdle(preallocator);
+
+            stp.currentTimeMillis(start + 1000);
+            write(appender, 1, 1);
+            Jvm.pause(150);
+            runUntilIdle(preallocator);
+
+            // only the cycle the appender and preallocator are both on.
+            assertEquals(1, CycleFileHandleTest.openCycleFiles(new File(basePath)));
+            preallocator.close();
+        }
+    }
+
+    @Test
+    public void runsOnEventLoop() {
+        try (SingleChronicleQueue queue = queue(PreallocationMode.SPARSE)) {
+            ExcerptAppender appender = queue.acquireAppender();
+            write(appender, 0, 1);
+            File file = new File(basePath).listFiles()[0];
+            // at least a chunk beyond the writer is mapped, not just the first chunk and its overlap.
+            long firstChunk = (1 << 20) + (256 << 10);
+            for (int i = 0; i < 100 && file.length() <= firstChunk; i++)
+                Jvm.pause(20);
+            assertTrue(file.length() > firstChunk);
+        }
+    }
+}
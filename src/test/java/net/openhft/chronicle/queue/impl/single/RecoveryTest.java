@@ -0,0 +1,127 @@
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.RollCycles;
+import net.openhft.chronicle.queue.impl.WireStore;
+import net.openhft.chronicle.wire.DocumentContext;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static net.openhft.chronicle.queue.ChronicleQueueTestBase.getTmpDir;
+import static net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder.binary;
+import static org.junit.Assert.*;
+
+public class RecoveryTest {
+
+    @Test
+    public void clearsMessageLeftNotCompleteOnOpen() {
+        File tmpDir = getTmpDir();
+        long lastPosition;
+        try (SingleChronicleQueue queue = binary(tmpDir).rollCycle(RollCycles.TEST_DAILY).build()) {
+            ExcerptAppender appender = queue.acquireAppender();
+            for (int i = 0; i < 50; i++)
+                appender.writeDocument(w -> w.write("some").text("data"));
+            WireStore store = queue.storeForCycle(queue.cycle(), queue.epoch(), false);
+            lastPosition = store.writePosition();
+            queue.release(store);
+
+            // start a message which was not completed, as though the writer died.
+            DocumentContext dc = appender.writingDocument();
+            dc.wire().write("some").text("not complete, and longer than the message which replaces it");
+        }
+
+        try (SingleChronicleQueue queue = binary(tmpDir)
+                .rollCycle(RollCycles.TEST_DAILY)
+                .timeoutMS(5_000)
+                .recoverOnOpen(true)
+                .build()) {
+            RecoveryReport report = queue.recoveryReport();
+            assertNotNull(report);
+            assertTrue(report.complete());
+            assertTrue(report.repaired());
+            assertTrue(report.notCompletePosition() > lastPosition);
+            assertTrue(report.bytesCleared() > 60);
+            // nothing after it says where it ended.
+            assertTrue(report.unrecoverable());
+            assertEquals(lastPosition, report.writePositionAfter());
+            // from the last excerpt indexed, not the start of the file.
+            assertTrue(report.scannedFrom() > 0);
+            assertTrue(report.entriesScanned() < 50);
+
+            long start = System.currentTimeMillis();
+            queue.acquireAppender().writeDocument(w -> w.write("some").text("more"));
+            assertTrue(System.currentTimeMillis() - start < 2_000);
+
+            ExcerptTailer tailer = queue.createTailer();
+            for (int i = 0; i < 50; i++) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    assertEquals("data", dc.wire().read(() -> "some").text());
+                }
+            }
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertEquals("more", dc.wire().read(() -> "some").text());
+            }
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertFalse(dc.isPresent());
+            }
+        }
+    }
+
+    @Test
+    public void clearsAllOfAMessageWithAPageOfZeros() throws IOException {
+        File tmpDir = getTmpDir();
+        try (SingleChronicleQueue queue = binary(tmpDir).rollCycle(RollCycles.TEST_DAILY).build()) {
+            ExcerptAppender appender = queue.acquireAppender();
+            appender.writeDocument(w -> w.write("some").text("data"));
+
+            DocumentContext dc = appender.writingDocument();
+            Bytes<?> bytes = dc.wire().bytes();
+            bytes.writeSkip(3 * OS.pageSize());
+            bytes.append8bit("after the zeros");
+        }
+
+        try (SingleChronicleQueue queue = binary(tmpDir)
+                .rollCycle(RollCycles.TEST_DAILY)
+                .recoverOnOpen(true)
+                .build()) {
+            RecoveryReport report = queue.recoveryReport();
+            assertNotNull(report);
+            assertTrue(report.unrecoverable());
+            assertTrue(report.bytesCleared() > 3 * OS.pageSize());
+        }
+
+        File[] files = tmpDir.listFiles((dir, name) -> name.endsWith(SingleChronicleQueue.SUFFIX));
+        assertNotNull(files);
+        assertEquals(1, files.length);
+        String contents = new String(Files.readAllBytes(files[0].toPath()), StandardCharsets.ISO_8859_1);
+        assertFalse(contents.contains("after the zeros"));
+    }
+
+    @Test
+    public void nothingToRecover() {
+        File tmpDir = getTmpDir();
+        try (SingleChronicleQueue queue = binary(tmpDir).rollCycle(RollCycles.TEST_DAILY).build()) {
+            assertNull(queue.recover());
+            ExcerptAppender appender = queue.acquireAppender();
+            for (int i = 0; i < 10; i++)
+                appender.writeDocument(w -> w.write("some").text("data"));
+        }
+
+        try (SingleChronicleQueue queue = binary(tmpDir).rollCycle(RollCycles.TEST_DAILY).build()) {
+            assertNull(queue.recoveryReport());
+            RecoveryReport report = queue.recover();
+            assertNotNull(report);
+            assertTrue(report.complete());
+            assertFalse(report.repaired());
+            assertEquals(-1, report.notCompletePosition());
+            assertEquals(report.writePositionBefore(), report.writePositionAfter());
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.core.Jvm;
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.core.io.IORuntimeException;
+import net.openhft.chronicle.core.io.IOTools;
+import net.openhft.chronicle.core.time.SetTimeProvider;
+import net.openhft.chronicle.queue.ChronicleQueue;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.RetentionPolicy;
+import net.openhft.chronicle.queue.RollCycles;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RetentionEngineTest {
+    private final SetTimeProvider stp = new SetTimeProvider();
+    private final String basePath = OS.TARGET + "/RetentionEngineTest-" + System.nanoTime();
+    private final long start = System.currentTimeMillis() / 1000 * 1000;
+
+    @After
+    public void deleteDir() {
+        try {
+            IOTools.deleteDirWithFiles(basePath, 2);
+        } catch (IORuntimeException ignored) {
+        }
+    }
+
+    private SingleChronicleQueue writeCycles(SingleChronicleQueueBuilder builder, int cycles) {
+        stp.currentTimeMillis(start);
+        SingleChronicleQueue queue = builder
+                .rollCycle(RollCycles.TEST_SECONDLY)
+                .timeProvider(stp)
+                .build();
+        ExcerptAppender appender = queue.acquireAppender();
+        for (int i = 0; i < cycles; i++) {
+            stp.currentTimeMillis(start + i * 1000);
+            appender.writeText("cycle " + i);
+        }
+        return queue;
+    }
+
+    private int fileCount() {
+        return new File(basePath).list((dir, name) -> name.endsWith(SingleChronicleQueue.SUFFIX)).length;
+    }
+
+    @Test
+    public void keepCycles() {
+        try (SingleChronicleQueue queue = writeCycles(SingleChronicleQueueBuilder.binary(basePath), 5)) {
+            int lastCycle = queue.lastCycle();
+            assertEquals(5, fileCount());
+
+            RetentionEngine engine = new RetentionEngine(queue, RetentionPolicy.keepCycles(2));
+            assertEquals(3, engine.applyRetention());
+            assertEquals(2, fileCount());
+            assertEquals(lastCycle - 1, queue.firstCycle());
+            assertEquals(lastCycle, queue.lastCycle());
+
+            ExcerptTailer tailer = queue.createTailer();
+            assertEquals("cycle 3", tailer.readText());
+        }
+    }
+
+    @Test
+    public void keepForAge() {
+        try (SingleChronicleQueue queue = writeCycles(SingleChronicleQueueBuilder.binary(basePath), 5)) {
+            RetentionEngine engine = new RetentionEngine(queue, RetentionPolicy.keepFor(2, TimeUnit.SECONDS));
+            // the last cycle written ends at start + 5 s
+            stp.currentTimeMillis(start + 6000);
+            assertEquals(3, engine.applyRetention());
+            assertEquals(2, fileCount());
+
+            // the latest cycle is always kept.
+            stp.currentTimeMillis(start + 60_000);
+            assertEquals(1, engine.applyRetention());
+            assertEquals(1, fileCount());
+        }
+    }
+
+    @Test
+    public void keepBytes() {
+        try (SingleChronicleQueue queue = writeCycles(SingleChronicleQueueBuilder.binary(basePath), 4)) {
+            long fileSize = new File(basePath).listFiles()[0].length();
+            RetentionEngine engine = new RetentionEngine(queue, RetentionPolicy.keepBytes(fileSize * 3 - 1));
+            assertEquals(2, engine.applyRetention());
+            assertEquals(2, fileCount());
+        }
+    }
+
+    @Test
+    public void keepsContiguousCyclesOfUnevenSizes() {
+        SingleChronicleQueueBuilder builder = SingleChronicleQueueBuilder.binary(basePath)
+                .blockSize(ChronicleQueue.TEST_BLOCK_SIZE);
+        try (SingleChronicleQueue queue = writeCycles(builder, 2)) {
+            // a large cycle between two small ones.
+            ExcerptAppender appender = queue.acquireAppender();
+            stp.currentTimeMillis(start + 2000);
+            appender.writeBytes(Bytes.wrapForRead(new byte[1 << 20]));
+            stp.currentTimeMillis(start + 3000);
+            appender.writeText("cycle 3");
+            int lastCycle = queue.lastCycle();
+
+            File[] files = new File(basePath).listFiles((dir, name) -> name.endsWith(SingleChronicleQueue.SUFFIX));
+            Arrays.sort(files);
+            long small = files[3].length();
+            assertEquals(small, files[1].length());
+            assertTrue(files[2].length() > small);
+
+            // the large cycle doesn't fit, so neither it nor the small one before it is kept.
+            RetentionEngine engine = new RetentionEngine(queue, RetentionPolicy.keepBytes(small * 2));
+            assertEquals(3, engine.applyRetention());
+            assertEquals(1, fileCount());
+            assertEquals(lastCycle, queue.firstCycle());
+        }
+    }
+
+    @Test
+    public void stopsAtACycleInUse() {
+        try (SingleChronicleQueue queue = writeCycles(SingleChronicleQueueBuilder.binary(basePath), 5)) {
+            // a tailer at the start holds the first cycle
+            ExcerptTailer tailer = queue.createTailer();
+            int firstCycle = queue.firstCycle();
+
+            RetentionEngine engine = new RetentionEngine(queue, RetentionPolicy.keepCycles(1));
+            assertEquals(0, engine.applyRetention());
+            assertEquals(5, fileCount());
+
+            assertEquals("cycle 0", tailer.readText());
+            assertEquals("cycle 1", tailer.readText());
+            // the tailer has moved on to the second cycle.
+            assertEquals(1, engine.applyRetention());
+            assertEquals(4, fileCount());
+            assertEquals(firstCycle + 1, queue.firstCycle());
+        }
+    }
+
+    @Test
+    public void runsOnEventLoop() {
+        SingleChronicleQueueBuilder builder = SingleChronicleQueueBuilder.binary(basePath)
+                .retentionPolicy(RetentionPolicy.keepCycles(2).checkIntervalMS(0));
+        try (SingleChronicleQueue queue = writeCycles(builder, 5)) {
+            for (int i = 0; i < 100 && fileCount() > 2; i++)
+                Jvm.pause(50);
+            assertEquals(2, fileCount());
+            assertNotNull(queue);
+        }
+    }
+}
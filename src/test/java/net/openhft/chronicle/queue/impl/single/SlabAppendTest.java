@@ -0,0 +1,250 @@
+package net.openhft.chronicle.queue.impl.single;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.core.Jvm;
+import net.openhft.chronicle.queue.CompressionCodec;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.RollCycles;
+import net.openhft.chronicle.wire.DocumentContext;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static net.openhft.chronicle.queue.ChronicleQueueTestBase.getTmpDir;
+import static net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder.binary;
+import static org.junit.Assert.*;
+
+public class SlabAppendTest {
+    private static final int RAW = -1;
+
+    @Test
+    public void excerptsAreSeenWhenTheSlabIsPublished() {
+        try (SingleChronicleQueue queue = binary(getTmpDir()).slabSize(1 << 10).build()) {
+            ExcerptAppender appender = queue.acquireAppender();
+            appender.writeDocument(w -> w.write("n").int32(0));
+            appender.writeBytes(Bytes.from("one"));
+            try (DocumentContext dc = appender.writingDocument()) {
+                dc.metaData(true);
+                dc.wire().write("meta").text("data");
+            }
+            appender.writeDocument(w -> w.write("n").int32(2));
+
+            ExcerptTailer tailer = queue.createTailer();
+            long last = appender.lastIndexAppended();
+            long first = queue.firstIndex();
+            assertEquals(first + 2, last);
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertEquals(first, dc.index());
+                assertEquals(0, dc.wire().read(() -> "n").int32());
+            }
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertEquals(first + 1, dc.index());
+                assertEquals("one", dc.wire().bytes().toString());
+            }
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertEquals(last, dc.index());
+                assertEquals(2, dc.wire().read(() -> "n").int32());
+            }
+
+            // several slabs.
+            for (int i = 3; i < 200; i++) {
+                int n = i;
+                appender.writeDocument(w -> w.write("n").int32(n));
+            }
+            assertEquals(first + 199, appender.lastIndexAppended());
+            for (int i = 3; i < 200; i++) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    assertEquals(first + i, dc.index());
+                    assertEquals(i, dc.wire().read(() -> "n").int32());
+                }
+            }
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertFalse(dc.isPresent());
+            }
+        }
+    }
+
+    @Test
+    public void idleSlabIsPublished() {
+        try (SingleChronicleQueue queue = binary(getTmpDir()).slabSize(64 << 10).build()) {
+            queue.acquireAppender().writeDocument(w -> w.write("n").int32(1));
+            ExcerptTailer tailer = queue.createTailer();
+            long timeout = System.currentTimeMillis() + 2_000;
+            while (true) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    if (dc.isPresent()) {
+                        assertEquals(1, dc.wire().read(() -> "n").int32());
+                        break;
+                    }
+                }
+                assertTrue(System.currentTimeMillis() < timeout);
+                Thread.yield();
+            }
+        }
+    }
+
+    @Test
+    public void theOwnerAndTheSealerTakeTurns() {
+        int count = 1_500;
+        try (SingleChronicleQueue queue = binary(getTmpDir()).slabSize(64 << 10).build()) {
+            ExcerptAppender appender = queue.acquireAppender();
+            long lastIndex = Long.MIN_VALUE;
+            for (int i = 0; i < count; i++) {
+                int n = i;
+                appender.writeDocument(w -> w.write("n").int32(n));
+                // these use the wire and store the sealer publishes with.
+                appender.pretouch();
+                assertTrue(appender.cycle() >= 0);
+                if (i % 10 == 0) {
+                    long index = appender.lastIndexAppended();
+                    assertTrue(index > lastIndex);
+                    lastIndex = index;
+                }
+                // give the sealer a chance to publish an idle slab.
+                if (i % 4 == 0)
+                    Jvm.pause(1);
+            }
+            appender.lastIndexAppended();
+
+            ExcerptTailer tailer = queue.createTailer();
+            for (int i = 0; i < count; i++) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    assertTrue(dc.isPresent());
+                    assertEquals(i, dc.wire().read(() -> "n").int32());
+                }
+            }
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertFalse(dc.isPresent());
+            }
+        }
+    }
+
+    @Test
+    public void concurrentWritersKeepTheirOrderAndIndices() throws InterruptedException {
+        int threads = 8, count = 20_000;
+        File dir = getTmpDir();
+        try (SingleChronicleQueue queue = binary(dir).slabSize(16 << 10).build()) {
+            List<Thread> writers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                Thread thread = new Thread(() -> {
+                    ExcerptAppender appender = queue.acquireAppender();
+                    for (int i = 0; i < count; i++) {
+                        int n = i;
+                        if (i % 2 == 0)
+                            appender.writeDocument(w -> w.write("id").int32(id).write("n").int32(n));
+                        else
+                            appender.writeBytes(Bytes.allocateElasticDirect(12).writeInt(RAW).writeInt(id).writeInt(n));
+                    }
+                });
+                writers.add(thread);
+                thread.start();
+            }
+            for (Thread thread : writers)
+                thread.join();
+        }
+
+        try (SingleChronicleQueue queue = binary(dir).build()) {
+            ExcerptTailer tailer = queue.createTailer();
+            int[] next = new int[threads];
+            List<Long> indices = new ArrayList<>();
+            List<Integer> values = new ArrayList<>();
+            for (int read = 0; read < threads * count; read++) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    assertTrue(dc.isPresent());
+                    if (!indices.isEmpty())
+                        assertEquals(indices.get(read - 1) + 1, dc.index());
+                    int value = readValue(dc);
+                    int id = value >>> 20;
+                    assertEquals(next[id]++, value & 0xFFFFF);
+                    indices.add(dc.index());
+                    values.add(value);
+                }
+            }
+            try (DocumentContext dc = tailer.readingDocument()) {
+                assertFalse(dc.isPresent());
+            }
+
+            // the index written at publication finds every excerpt.
+            Random random = new Random(1);
+            for (int i = 0; i < 1000; i++) {
+                int r = random.nextInt(indices.size());
+                assertTrue(tailer.moveToIndex(indices.get(r)));
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    assertEquals((int) values.get(r), readValue(dc));
+                }
+            }
+        }
+    }
+
+    private static int readValue(DocumentContext dc) {
+        Bytes<?> bytes = dc.wire().bytes();
+        // written with writeBytes, or as a document.
+        if (bytes.readRemaining() == 12 && bytes.readInt(bytes.readPosition()) == RAW) {
+            bytes.readSkip(4);
+            return bytes.readInt() << 20 | bytes.readInt();
+        }
+        return dc.wire().read(() -> "id").int32() << 20 | dc.wire().read(() -> "n").int32();
+    }
+
+    @Test
+    public void slabsArePublishedAcrossChunks() {
+        // the smallest block size, with slabs as large as the overlap between chunks, which they
+        // overrun by up to an excerpt.
+        File dir = getTmpDir();
+        int count = 500;
+        try (SingleChronicleQueue queue = binary(dir).blockSize(64 << 10).slabSize(64 << 10).build()) {
+            ExcerptAppender appender = queue.acquireAppender();
+            for (int i = 0; i < count; i++) {
+                byte[] data = new byte[size(i)];
+                Arrays.fill(data, (byte) i);
+                appender.writeBytes(Bytes.wrapForRead(data));
+            }
+        }
+        try (SingleChronicleQueue queue = binary(dir).build()) {
+            ExcerptTailer tailer = queue.createTailer();
+            for (int i = 0; i < count; i++) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    assertTrue(dc.isPresent());
+                    Bytes<?> bytes = dc.wire().bytes();
+                    assertEquals(size(i), bytes.readRemaining());
+                    assertEquals((byte) i, bytes.readByte(bytes.readPosition()));
+                    assertEquals((byte) i, bytes.readByte(bytes.readLimit() - 1));
+                }
+            }
+        }
+    }
+
+    private static int size(int i) {
+        return 1000 + i * 7919 % 40000;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void notLargerThanTheOverlapOfChunks() {
+        binary(getTmpDir()).rollCycle(RollCycles.TEST_DAILY).blockSize(256 << 10).slabSize((64 << 10) + 1).build();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void notToACompressedCycle() {
+        File dir = getTmpDir();
+        try (SingleChronicleQueue queue = binary(dir).rollCycle(RollCycles.TEST_DAILY).compression(CompressionCodec.DEFLATE).build()) {
+            queue.acquireAppender().writeText("compressed");
+        }
+        try (SingleChronicleQueue queue = binary(dir).rollCycle(RollCycles.TEST_DAILY).slabSize(1 << 10).build()) {
+            ExcerptAppender appender = queue.acquireAppender();
+            appender.writeText("slabbed");
+            // publishes the slab.
+            appender.lastIndexAppended();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void notWithAFixedLength() {
+        binary(getTmpDir()).rollCycle(RollCycles.TEST_DAILY).slabSize(1 << 10).fixedLength(64).build();
+    }
+}
@@ -0,0 +1,160 @@
+package net.openhft.chronicle.queue.remote;
+
+import net.openhft.chronicle.bytes.Bytes;
+import net.openhft.chronicle.core.Jvm;
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.core.io.IORuntimeException;
+import net.openhft.chronicle.core.io.IOTools;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueue;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder;
+import net.openhft.chronicle.threads.EventGroup;
+import net.openhft.chronicle.wire.DocumentContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SocketChannel;
+
+import static org.junit.Assert.*;
+
+public class RemoteQueueTest {
+    private final String basePath = OS.TARGET + "/RemoteQueueTest-" + System.nanoTime();
+    private EventGroup eventGroup;
+
+    @Before
+    public void startEventLoop() {
+        eventGroup = new EventGroup(true);
+        eventGroup.start();
+    }
+
+    @After
+    public void tearDown() {
+        eventGroup.close();
+        try {
+            IOTools.deleteDirWithFiles(basePath, 2);
+        } catch (IORuntimeException ignored) {
+        }
+    }
+
+    @Test
+    public void appendsAndTailsOverOneConnection() throws IOException {
+        try (SingleChronicleQueue queue = SingleChronicleQueueBuilder.binary(basePath).build();
+             QueueServer server = new QueueServer(queue, new InetSocketAddress("localhost", 0), eventGroup);
+             RemoteQueueClient client = new RemoteQueueClient(server.localAddress(), eventGroup)) {
+            RemoteTailer tailer = client.createTailer();
+            RemoteAppender appender = client.createAppender();
+            for (int i = 0; i < 10_000; i++) {
+                int n = i;
+                appender.writeDocument(w -> w.write("n").int32(n).write("text").text("message " + n));
+            }
+            for (int i = 0; i < 500 && appender.pending() > 0; i++)
+                Jvm.pause(10);
+            assertEquals(0, appender.pending());
+
+            ExcerptTailer local = queue.createTailer();
+            for (int n = 0; n < 10_000; n++) {
+                long index;
+                try (DocumentContext dc = local.readingDocument()) {
+                    assertTrue(dc.isPresent());
+                    assertEquals(n, dc.wire().read("n").int32());
+                    index = dc.index();
+                }
+                int expected = n;
+                for (int i = 0; i < 500 && !tailer.readDocument(w -> {
+                    assertEquals(expected, w.read("n").int32());
+                    assertEquals("message " + expected, w.read("text").text());
+                }); i++)
+                    Jvm.pause(10);
+                assertEquals(index, tailer.index());
+            }
+            assertEquals(tailer.index(), appender.lastIndexAppended());
+            assertFalse(tailer.readDocument(w -> fail()));
+        }
+    }
+
+    @Test
+    public void tailsFromAnIndex() throws IOException {
+        try (SingleChronicleQueue queue = SingleChronicleQueueBuilder.binary(basePath).build();
+             QueueServer server = new QueueServer(queue, new InetSocketAddress("localhost", 0), eventGroup);
+             RemoteQueueClient client = new RemoteQueueClient(server.localAddress(), eventGroup)) {
+            ExcerptAppender appender = queue.acquireAppender();
+            String large = new String(new char[100_000]).replace('\0', 'x');
+            long from = 0;
+            for (int i = 0; i < 100; i++) {
+                appender.writeText(i + " " + large);
+                if (i == 50)
+                    from = appender.lastIndexAppended();
+            }
+
+            // more than the window, so it is sent as it is read.
+            RemoteTailer tailer = client.createTailer(from);
+            Bytes<?> bytes = Bytes.allocateElasticDirect();
+            for (int n = 50; n < 100; n++) {
+                bytes.clear();
+                for (int i = 0; i < 500 && !tailer.readBytes(bytes); i++)
+                    Jvm.pause(10);
+                assertTrue(bytes.toString(), bytes.toString().endsWith(n + " " + large));
+            }
+            bytes.release();
+            tailer.close();
+        }
+    }
+
+    private static ByteBuffer frame(byte type, int stream, int length, byte... payload) {
+        ByteBuffer frame = ByteBuffer.allocate(QueueServer.FRAME_HEADER + payload.length).order(ByteOrder.LITTLE_ENDIAN);
+        frame.putInt(length).put(type).putInt(stream).put(payload);
+        frame.flip();
+        return frame;
+    }
+
+    private static ByteBuffer readFrame(SocketChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(QueueServer.FRAME_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining())
+            assertTrue(channel.read(header) >= 0);
+        header.flip();
+        ByteBuffer frame = ByteBuffer.allocate(QueueServer.FRAME_HEADER + header.getInt(0)).order(ByteOrder.LITTLE_ENDIAN);
+        frame.put(header);
+        while (frame.hasRemaining())
+            assertTrue(channel.read(frame) >= 0);
+        frame.flip();
+        return frame;
+    }
+
+    @Test
+    public void badFramesOnlyAffectTheirConnection() throws IOException {
+        try (SingleChronicleQueue queue = SingleChronicleQueueBuilder.binary(basePath).build();
+             QueueServer server = new QueueServer(queue, new InetSocketAddress("localhost", 0), eventGroup);
+             RemoteQueueClient client = new RemoteQueueClient(server.localAddress(), eventGroup);
+             SocketChannel bad = SocketChannel.open(server.localAddress())) {
+            // a frame too short for what it asks is answered with an error, and the connection stays usable.
+            bad.write(frame(QueueServer.OPEN_TAILER, 7, 0));
+            ByteBuffer error = readFrame(bad);
+            assertEquals(QueueServer.ERROR, error.get(4));
+            assertEquals(7, error.getInt(5));
+            bad.write(frame(QueueServer.APPEND, 8, 3, (byte) 1, (byte) 2, (byte) 3));
+            ByteBuffer appended = readFrame(bad);
+            assertEquals(QueueServer.APPENDED, appended.get(4));
+            assertEquals(8, appended.getInt(5));
+
+            // a frame length which can't be trusted closes the connection.
+            bad.write(frame(QueueServer.APPEND, 8, -1));
+            ByteBuffer rest = ByteBuffer.allocate(64);
+            for (int i = 0; i < 500 && bad.read(rest) >= 0; i++)
+                rest.clear();
+            assertEquals(-1, bad.read(rest));
+
+            // the other connections carry on.
+            RemoteAppender appender = client.createAppender();
+            appender.writeDocument(w -> w.write("n").int32(1));
+            for (int i = 0; i < 500 && appender.pending() > 0; i++)
+                Jvm.pause(10);
+            assertEquals(0, appender.pending());
+        }
+    }
+}
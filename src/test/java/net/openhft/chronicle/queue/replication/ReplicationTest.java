@@ -0,0 +1,233 @@
+package net.openhft.chronicle.queue.replication;
+
+import net.openhft.chronicle.core.Jvm;
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.core.io.IORuntimeException;
+import net.openhft.chronicle.core.io.IOTools;
+import net.openhft.chronicle.core.time.SetTimeProvider;
+import net.openhft.chronicle.queue.ExcerptAppender;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.RollCycles;
+import net.openhft.chronicle.queue.impl.WireStore;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueue;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder;
+import net.openhft.chronicle.threads.EventGroup;
+import net.openhft.chronicle.wire.DocumentContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.*;
+
+public class ReplicationTest {
+    private final SetTimeProvider stp = new SetTimeProvider();
+    private final String basePath = OS.TARGET + "/ReplicationTest-" + System.nanoTime();
+    private final long start = System.currentTimeMillis() / 1000 * 1000;
+    private EventGroup eventGroup;
+
+    @Before
+    public void startEventLoop() {
+        stp.currentTimeMillis(start);
+        eventGroup = new EventGroup(true);
+        eventGroup.start();
+    }
+
+    @After
+    public void tearDown() {
+        eventGroup.close();
+        try {
+            IOTools.deleteDirWithFiles(basePath, 2);
+        } catch (IORuntimeException ignored) {
+        }
+    }
+
+    private SingleChronicleQueue queue(String name) {
+        return SingleChronicleQueueBuilder.binary(basePath + "/" + name)
+                .rollCycle(RollCycles.TEST_SECONDLY)
+                .timeProvider(stp)
+                .build();
+    }
+
+    private static void write(ExcerptAppender appender, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int n = i;
+            appender.writeDocument(w -> w.write("n").int32(n).write("text").text("message " + n));
+        }
+    }
+
+    private static void awaitIndex(ReplicationSink sink, long index) {
+        for (int i = 0; i < 500 && sink.lastIndexWritten() != index; i++)
+            Jvm.pause(10);
+        assertEquals(Long.toHexString(index), Long.toHexString(sink.lastIndexWritten()));
+    }
+
+    private static void assertSame(SingleChronicleQueue source, SingleChronicleQueue follower, int count) {
+        ExcerptTailer sourceTailer = source.createTailer();
+        ExcerptTailer followerTailer = follower.createTailer();
+        for (int n = 0; n < count; n++) {
+            try (DocumentContext expected = sourceTailer.readingDocument();
+                 DocumentContext actual = followerTailer.readingDocument()) {
+                assertTrue(actual.isPresent());
+                assertEquals(expected.index(), actual.index());
+                assertEquals(n, actual.wire().read("n").int32());
+                assertEquals("message " + n, actual.wire().read("text").text());
+            }
+        }
+        assertFalse(followerTailer.readingDocument().isPresent());
+    }
+
+    @Test
+    public void replicatesAtTheSameIndicesAndAcknowledges() throws IOException {
+        try (SingleChronicleQueue source = queue("source");
+             SingleChronicleQueue follower = queue("follower");
+             ReplicationSource replicationSource = new ReplicationSource(source, new InetSocketAddress("localhost", 0), eventGroup)) {
+            ExcerptAppender appender = source.acquireAppender();
+            write(appender, 0, 20_000);
+
+            ExcerptTailer acknowledged = source.createTailer();
+            acknowledged.readAfterReplicaAcknowledged(true);
+            assertFalse(acknowledged.readingDocument().isPresent());
+
+            // a second cycle, written while replicating.
+            try (ReplicationSink sink = new ReplicationSink(follower, replicationSource.localAddress(), eventGroup)) {
+                awaitIndex(sink, appender.lastIndexAppended());
+                stp.currentTimeMillis(start + 1000);
+                write(appender, 20_000, 30_000);
+                awaitIndex(sink, appender.lastIndexAppended());
+            }
+            assertSame(source, follower, 30_000);
+
+            // everything sent has been acknowledged, including the end of the first cycle.
+            for (int n = 0; n < 30_000; n++) {
+                try (DocumentContext dc = acknowledged.readingDocument()) {
+                    assertTrue(dc.isPresent());
+                    assertEquals(n, dc.wire().read("n").int32());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void resumesAfterTheLastExcerptReplicated() throws IOException {
+        try (SingleChronicleQueue source = queue("source");
+             SingleChronicleQueue follower = queue("follower");
+             ReplicationSource replicationSource = new ReplicationSource(source, new InetSocketAddress("localhost", 0), eventGroup)) {
+            ExcerptAppender appender = source.acquireAppender();
+            write(appender, 0, 1000);
+            try (ReplicationSink sink = new ReplicationSink(follower, replicationSource.localAddress(), eventGroup)) {
+                awaitIndex(sink, appender.lastIndexAppended());
+            }
+
+            write(appender, 1000, 2000);
+            try (ReplicationSink sink = new ReplicationSink(follower, replicationSource.localAddress(), eventGroup)) {
+                awaitIndex(sink, appender.lastIndexAppended());
+            }
+            assertSame(source, follower, 2000);
+        }
+    }
+
+    @Test
+    public void catchesUpWithClosedCycleFiles() throws IOException {
+        try (SingleChronicleQueue source = queue("source");
+             SingleChronicleQueue partial = queue("partial");
+             SingleChronicleQueue empty = queue("empty");
+             ReplicationSource replicationSource = new ReplicationSource(source, new InetSocketAddress("localhost", 0), eventGroup)
+                     .shipClosedCycles(true)) {
+            ExcerptAppender appender = source.acquireAppender();
+            write(appender, 0, 1000);
+            try (ReplicationSink sink = new ReplicationSink(partial, replicationSource.localAddress(), eventGroup)) {
+                awaitIndex(sink, appender.lastIndexAppended());
+            }
+
+            // the rest of the first cycle, a closed cycle and the live cycle.
+            write(appender, 1000, 1500);
+            stp.currentTimeMillis(start + 1000);
+            write(appender, 1500, 3000);
+            WireStore store = source.storeForCycle(source.cycle(), source.epoch(), false);
+            File closedCycle = store.file();
+            source.release(store);
+            stp.currentTimeMillis(start + 2000);
+            write(appender, 3000, 3500);
+
+            for (SingleChronicleQueue follower : new SingleChronicleQueue[]{partial, empty}) {
+                try (ReplicationSink sink = new ReplicationSink(follower, replicationSource.localAddress(), eventGroup)) {
+                    awaitIndex(sink, appender.lastIndexAppended());
+                }
+                // only the used part of a file is sent, until it is mapped by the follower.
+                File shipped = new File(follower.file(), closedCycle.getName());
+                assertTrue(shipped.length() < closedCycle.length());
+                assertSame(source, follower, 3500);
+            }
+
+            ExcerptTailer acknowledged = source.createTailer();
+            acknowledged.readAfterReplicaAcknowledged(true);
+            for (int n = 0; n < 3500; n++) {
+                try (DocumentContext dc = acknowledged.readingDocument()) {
+                    assertTrue(dc.isPresent());
+                    assertEquals(n, dc.wire().read("n").int32());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void streamsACycleWithoutAnEndOfFileMarker() throws IOException {
+        try (SingleChronicleQueue source = queue("source");
+             SingleChronicleQueue other = queue("source");
+             SingleChronicleQueue follower = queue("follower");
+             ReplicationSource replicationSource = new ReplicationSource(source, new InetSocketAddress("localhost", 0), eventGroup)
+                     .shipClosedCycles(true)) {
+            ExcerptAppender appender = source.acquireAppender();
+            write(appender, 0, 1000);
+            WireStore store = source.storeForCycle(source.cycle(), source.epoch(), false);
+            File openCycle = store.file();
+            source.release(store);
+
+            // a later cycle is started by another appender, which doesn't close the first.
+            stp.currentTimeMillis(start + 1000);
+            ExcerptAppender otherAppender = other.acquireAppender();
+            write(otherAppender, 1000, 1500);
+            assertTrue(source.firstCycle() < source.lastCycle());
+
+            try (ReplicationSink sink = new ReplicationSink(follower, replicationSource.localAddress(), eventGroup)) {
+                // the first cycle is streamed, up to where it may still be written to.
+                long lastOfFirstCycle = appender.lastIndexAppended();
+                awaitIndex(sink, lastOfFirstCycle);
+                Jvm.pause(100);
+                assertEquals(lastOfFirstCycle, sink.lastIndexWritten());
+
+                // the first appender moving on closes it.
+                write(appender, 1500, 1501);
+                awaitIndex(sink, appender.lastIndexAppended());
+            }
+            File streamed = new File(follower.file(), openCycle.getName());
+            assertEquals(openCycle.length(), streamed.length());
+            assertSame(source, follower, 1501);
+        }
+    }
+
+    @Test
+    public void largeExcerpts() throws IOException {
+        String large = new String(new char[1 << 20]).replace('\0', 'x');
+        try (SingleChronicleQueue source = queue("source");
+             SingleChronicleQueue follower = queue("follower");
+             ReplicationSource replicationSource = new ReplicationSource(source, new InetSocketAddress("localhost", 0), eventGroup)) {
+            ExcerptAppender appender = source.acquireAppender();
+            for (int i = 0; i < 3; i++)
+                appender.writeDocument(w -> w.write("text").text(large));
+            try (ReplicationSink sink = new ReplicationSink(follower, replicationSource.localAddress(), eventGroup)) {
+                awaitIndex(sink, appender.lastIndexAppended());
+            }
+            ExcerptTailer tailer = follower.createTailer();
+            for (int i = 0; i < 3; i++) {
+                try (DocumentContext dc = tailer.readingDocument()) {
+                    assertEquals(large, dc.wire().read("text").text());
+                }
+            }
+        }
+    }
+}
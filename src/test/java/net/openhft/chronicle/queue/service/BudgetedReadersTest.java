@@ -0,0 +1,154 @@
+package net.openhft.chronicle.queue.service;
+
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.core.io.IORuntimeException;
+import net.openhft.chronicle.core.io.IOTools;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueue;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueBuilder;
+import net.openhft.chronicle.queue.impl.single.SingleChronicleQueueExcerpts.StoreTailer;
+import net.openhft.chronicle.wire.DocumentContext;
+import net.openhft.chronicle.wire.MethodReader;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class BudgetedReadersTest {
+    private final String basePath = OS.TARGET + "/BudgetedReadersTest-" + System.nanoTime();
+    private final List<String> read = new ArrayList<>();
+    private final List<ExcerptTailer> tailers = new ArrayList<>();
+
+    @After
+    public void deleteDir() {
+        try {
+            IOTools.deleteDirWithFiles(basePath, 2);
+        } catch (IORuntimeException ignored) {
+        }
+    }
+
+    private MethodReader input(SingleChronicleQueue queue, String name, int count) {
+        HelloWorld writer = queue.acquireAppender().methodWriter(HelloWorld.class);
+        for (int i = 0; i < count; i++)
+            writer.hello(name + i);
+        ExcerptTailer tailer = queue.createTailer();
+        tailers.add(tailer);
+        return tailer.methodReader((HelloWorld) read::add);
+    }
+
+    private BudgetedReaders readers(int maxMessages, long maxNanos, MethodReader... readers) {
+        BooleanSupplier[] waiting = tailers.stream()
+                .map(t -> (BooleanSupplier) () -> BudgetedReaders.waiting(t))
+                .toArray(BooleanSupplier[]::new);
+        return new BudgetedReaders(readers, waiting, maxMessages, maxNanos);
+    }
+
+    @Test
+    public void readsEachInputInTurnUpToTheBudget() {
+        try (SingleChronicleQueue a = SingleChronicleQueueBuilder.binary(basePath + "/a").build();
+             SingleChronicleQueue b = SingleChronicleQueueBuilder.binary(basePath + "/b").build()) {
+            BudgetedReaders readers = readers(4, Long.MAX_VALUE, input(a, "a", 10), input(b, "b", 10));
+
+            assertTrue(readers.readSome());
+            assertEquals("[a0, b0, a1, b1, a2, b2, a3, b3]", read.toString());
+            assertEquals(1, readers.exhausted());
+
+            assertTrue(readers.readSome());
+            // the next action starts with the other input.
+            assertEquals("b4", read.get(8));
+            assertTrue(readers.readSome());
+            assertEquals(20, read.size());
+            // the last action ran out of messages, not budget.
+            assertEquals(3, readers.actions());
+            assertEquals(2, readers.exhausted());
+
+            assertFalse(readers.readSome());
+            assertEquals(3, readers.actions());
+        }
+    }
+
+    @Test
+    public void stopsWhenOutOfTime() {
+        try (SingleChronicleQueue a = SingleChronicleQueueBuilder.binary(basePath + "/a").build()) {
+            BudgetedReaders readers = readers(Integer.MAX_VALUE, 1, input(a, "a", 10));
+            assertTrue(readers.readSome());
+            assertEquals(1, read.size());
+            assertEquals(1, readers.exhausted());
+        }
+    }
+
+    @Test
+    public void readingTheLastMessageDoesNotUseUpTheBudget() {
+        try (SingleChronicleQueue a = SingleChronicleQueueBuilder.binary(basePath + "/a").build()) {
+            BudgetedReaders readers = readers(1, Long.MAX_VALUE, input(a, "a", 1));
+            assertTrue(readers.readSome());
+            assertEquals("[a0]", read.toString());
+            assertEquals(0, readers.exhausted());
+
+            a.acquireAppender().methodWriter(HelloWorld.class).hello("a1");
+            a.acquireAppender().methodWriter(HelloWorld.class).hello("a2");
+            assertTrue(readers.readSome());
+            assertEquals(1, readers.exhausted());
+            // the message which was looked at is still read next.
+            assertTrue(readers.readSome());
+            assertEquals("[a0, a1, a2]", read.toString());
+            assertEquals(1, readers.exhausted());
+        }
+    }
+
+    @Test
+    public void eachMessageIsReadOnce() {
+        try (SingleChronicleQueue a = SingleChronicleQueueBuilder.binary(basePath + "/a").build()) {
+            input(a, "a", 10);
+            CountingTailer tailer = new CountingTailer(a);
+            BudgetedReaders readers = new BudgetedReaders(new MethodReader[]{tailer.methodReader((HelloWorld) read::add)},
+                    new BooleanSupplier[]{() -> BudgetedReaders.waiting(tailer)}, 1, Long.MAX_VALUE);
+            for (int i = 0; i < 10; i++)
+                assertTrue(readers.readSome());
+            assertEquals(10, read.size());
+            assertEquals(9, readers.exhausted());
+            assertEquals(10, tailer.read);
+            assertEquals(0, tailer.moves);
+
+            // each shard reads past the messages of the other once.
+            for (int shard = 0; shard < 2; shard++) {
+                CountingTailer shardTailer = new CountingTailer(a);
+                ShardedServiceWrapper.ShardFilter filter = new ShardedServiceWrapper.ShardFilter(shardTailer,
+                        w -> w.read(() -> "hello").text().charAt(1), shard, 2);
+                BudgetedReaders shardReaders = new BudgetedReaders(new MethodReader[]{new MethodReader(filter, (HelloWorld) read::add)},
+                        new BooleanSupplier[]{filter::waiting}, 1, Long.MAX_VALUE);
+                while (shardReaders.readSome()) ;
+                assertEquals(10, shardTailer.read);
+                assertEquals(0, shardTailer.moves);
+            }
+            assertEquals(20, read.size());
+        }
+    }
+
+    static class CountingTailer extends StoreTailer {
+        int read, moves;
+
+        CountingTailer(SingleChronicleQueue queue) {
+            super(queue);
+            moves = 0;
+        }
+
+        @Override
+        public DocumentContext readingDocument(boolean includeMetaData) {
+            DocumentContext dc = super.readingDocument(includeMetaData);
+            if (dc.isPresent())
+                read++;
+            return dc;
+        }
+
+        @Override
+        public boolean moveToIndex(long index) {
+            moves++;
+            return super.moveToIndex(index);
+        }
+    }
+}
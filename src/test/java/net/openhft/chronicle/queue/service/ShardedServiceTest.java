@@ -0,0 +1,77 @@
+package net.openhft.chronicle.queue.service;
+
+import net.openhft.chronicle.core.OS;
+import net.openhft.chronicle.core.io.IORuntimeException;
+import net.openhft.chronicle.core.io.IOTools;
+import net.openhft.chronicle.queue.ChronicleQueue;
+import net.openhft.chronicle.queue.ExcerptTailer;
+import net.openhft.chronicle.wire.MethodReader;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ShardedServiceTest {
+    private static final int SHARDS = 4;
+    private final String input = OS.TARGET + "/sharded-input-" + System.nanoTime();
+    private final String output = OS.TARGET + "/sharded-output-" + System.nanoTime();
+
+    @After
+    public void deleteDirs() {
+        for (String path : new String[]{input, output, output + "-shard0", output + "-shard1", output + "-shard2", output + "-shard3"}) {
+            try {
+                IOTools.deleteDirWithFiles(new File(path), 2);
+            } catch (IORuntimeException ignored) {
+            }
+        }
+    }
+
+    @Test
+    public void mergesTheShardsInInputOrder() {
+        ServiceWrapperBuilder<HelloReplier> builder = ServiceWrapperBuilder
+                .serviceBuilder(input, output, HelloReplier.class, HelloWorldImpl::new)
+                .inputSourceId(1).outputSourceId(2)
+                .shards(SHARDS, w -> w.read().text().hashCode())
+                .mergeShards(true);
+
+        List<String> replies = new ArrayList<>();
+        try (HelloWorldTest.CloseableHelloWorld helloWorld = builder.inputWriter(HelloWorldTest.CloseableHelloWorld.class);
+             MethodReader replyReader = builder.outputReader((HelloReplier) replies::add);
+             ServiceWrapper service = builder.get()) {
+            assertTrue(service instanceof ShardedServiceWrapper);
+
+            for (int i = 0; i < 1000; i++)
+                helloWorld.hello("name " + i);
+
+            long timeout = System.currentTimeMillis() + 10_000;
+            while (replies.size() < 1000 && System.currentTimeMillis() < timeout) {
+                if (!replyReader.readOne())
+                    Thread.yield();
+            }
+            for (int i = 0; i < 1000; i++)
+                assertEquals("Hello name " + i, replies.get(i));
+
+            // each shard only replied to its own names.
+            int shardsUsed = 0;
+            for (ChronicleQueue shardOutput : ((ShardedServiceWrapper) service).shardOutputQueues()) {
+                ExcerptTailer tailer = shardOutput.createTailer();
+                if (tailer.readingDocument().isPresent())
+                    shardsUsed++;
+            }
+            assertEquals(SHARDS, shardsUsed);
+        }
+    }
+
+    @Test
+    public void shardsForTheSameKeyAgree() {
+        for (long key = -100; key < 100; key++) {
+            int shard = ShardedServiceWrapper.shardFor(key, SHARDS);
+            assertTrue(shard >= 0 && shard < SHARDS);
+            assertEquals(shard, ShardedServiceWrapper.shardFor(key + SHARDS, SHARDS));
+        }
+    }
+}